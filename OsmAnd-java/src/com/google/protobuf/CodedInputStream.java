@@ -33,6 +33,7 @@ package com.google.protobuf;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -76,6 +77,13 @@ public final class CodedInputStream {
   public static CodedInputStream newInstance(RandomAccessFile raf) {
     return new CodedInputStream(raf);
   }
+
+  /**
+   * Stream over memory mapped file, each stream should have its own buffer (see ByteBuffer.duplicate())
+   */
+  public static CodedInputStream newInstance(ByteBuffer mapped) {
+    return new CodedInputStream(mapped);
+  }
   // end osmand change
 
 
@@ -485,6 +493,7 @@ public final class CodedInputStream {
 
   private final byte[] buffer;
   private RandomAccessFile raf;
+  private ByteBuffer mapped;
   private int bufferSize;
   private int bufferSizeAfterLimit;
   private int bufferPos;
@@ -540,6 +549,15 @@ public final class CodedInputStream {
 	 input = null;
   }
 
+  private CodedInputStream(final ByteBuffer mapped) {
+	 buffer = new byte[BUFFER_SIZE];
+	 this.bufferSize = 0;
+	 bufferPos = 0;
+	 totalBytesRetired = 0;
+	 this.mapped = mapped;
+	 input = null;
+  }
+
   /**
    * Set the maximum message recursion depth.  In order to prevent malicious
    * messages from causing stack overflows, {@code CodedInputStream} limits
@@ -706,6 +724,14 @@ public final class CodedInputStream {
     	} else {
     		bufferSize = -1;
     	}
+    } else if (mapped != null) {
+        // osmand change
+    	bufferSize = Math.min(mapped.remaining(), buffer.length);
+    	if(bufferSize > 0) {
+    		mapped.get(buffer, 0, bufferSize);
+    	} else {
+    		bufferSize = -1;
+    	}
     } else {
     	bufferSize = (input == null) ? -1 : input.read(buffer);
     }
@@ -828,6 +854,12 @@ public final class CodedInputStream {
           if(raf != null) {
         	  raf.readFully(chunk, pos, chunk.length - pos);
         	  n = chunk.length - pos;
+          } else if (mapped != null) {
+        	  n = Math.min(mapped.remaining(), chunk.length - pos);
+        	  if (n <= 0) {
+        		  throw InvalidProtocolBufferException.truncatedMessage();
+        	  }
+        	  mapped.get(chunk, pos, n);
           } else {
               n = (input == null) ? -1 :
               input.read(chunk, pos, chunk.length - pos);
@@ -893,6 +925,9 @@ public final class CodedInputStream {
     	final int n ;
     	if(raf != null) {
     	 n = raf.skipBytes(size - pos);
+    	} else if (mapped != null) {
+    	 n = Math.min(mapped.remaining(), size - pos);
+    	 mapped.position(mapped.position() + n);
     	} else {
     	 n = (input == null) ? -1 : (int) input.skip(size - pos);
     	}
@@ -916,7 +951,11 @@ public final class CodedInputStream {
 		} else {
 			totalBytesRetired = (int) pointer;
 			bufferSizeAfterLimit = 0;
-			raf.seek(pointer);
+			if (mapped != null) {
+				mapped.position((int) pointer);
+			} else {
+				raf.seek(pointer);
+			}
 			bufferPos = 0;
 			bufferSize = 0;
 		}
@@ -0,0 +1,95 @@
+package net.osmand;
+
+import java.util.Locale;
+
+/**
+ * Maps every character to representative of characters equal for collator (primary strength: case and
+ * diacritics are ignored). Strings normalized by mapping could be compared char by char instead of calling
+ * collator for every substring. Collator is called only once for every new character.
+ * Note: contractions and expansions of collator (e.g. 'ß' = "ss") are not supported.
+ */
+public class CollatorCharMapping {
+
+	private static CollatorCharMapping primaryMapping;
+	private static Locale primaryMappingLocale;
+
+	private final Collator collator;
+	// 0 - character is not mapped yet
+	private final char[] mapping = new char[Character.MAX_VALUE + 1];
+	// representatives sorted by collator
+	private String[] representatives = new String[64];
+	private int representativesSize;
+
+	public CollatorCharMapping(Collator collator) {
+		this.collator = collator;
+	}
+
+	/**
+	 * @return mapping for {@link OsmAndCollator#primaryCollator()} of current locale
+	 */
+	public static synchronized CollatorCharMapping getPrimaryMapping() {
+		Locale l = Locale.getDefault();
+		if (primaryMapping == null || !l.equals(primaryMappingLocale)) {
+			primaryMapping = new CollatorCharMapping(OsmAndCollator.primaryCollator());
+			primaryMappingLocale = l;
+		}
+		return primaryMapping;
+	}
+
+	public char map(char c) {
+		char m = mapping[c];
+		if (m == 0 && c != 0) {
+			m = mapNewChar(c);
+		}
+		return m;
+	}
+
+	/**
+	 * @return string of the same length with every char replaced by its representative
+	 */
+	public String normalize(String s) {
+		char[] res = null;
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			char m = map(c);
+			if (m != c && res == null) {
+				res = s.toCharArray();
+			}
+			if (res != null) {
+				res[i] = m;
+			}
+		}
+		return res == null ? s : new String(res);
+	}
+
+	private synchronized char mapNewChar(char c) {
+		if (mapping[c] != 0) {
+			return mapping[c];
+		}
+		String s = String.valueOf(c);
+		int lo = 0;
+		int hi = representativesSize - 1;
+		while (lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			int cmp = collator.compare(representatives[mid], s);
+			if (cmp < 0) {
+				lo = mid + 1;
+			} else if (cmp > 0) {
+				hi = mid - 1;
+			} else {
+				mapping[c] = representatives[mid].charAt(0);
+				return mapping[c];
+			}
+		}
+		if (representativesSize == representatives.length) {
+			String[] n = new String[representativesSize * 2];
+			System.arraycopy(representatives, 0, n, 0, representativesSize);
+			representatives = n;
+		}
+		System.arraycopy(representatives, lo, representatives, lo + 1, representativesSize - lo);
+		representatives[lo] = s;
+		representativesSize++;
+		mapping[c] = c;
+		return c;
+	}
+}
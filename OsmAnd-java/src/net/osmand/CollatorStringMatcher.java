@@ -13,6 +13,8 @@ public class CollatorStringMatcher implements StringMatcher {
 	private final Collator collator;
 	private final StringMatcherMode mode;
 	private final String part;
+	private final CollatorCharMapping mapping;
+	private final String normalizedPart;
 	
 	public static enum StringMatcherMode {
 		CHECK_ONLY_STARTS_WITH,
@@ -25,6 +27,8 @@ public class CollatorStringMatcher implements StringMatcher {
 		this.collator = OsmAndCollator.primaryCollator();
 		this.part = part;
 		this.mode = mode;
+		this.mapping = CollatorCharMapping.getPrimaryMapping();
+		this.normalizedPart = mapping.normalize(part);
 	}
 
 	public Collator getCollator() {
@@ -33,7 +37,49 @@ public class CollatorStringMatcher implements StringMatcher {
 	
 	@Override
 	public boolean matches(String name) {
-		return cmatches(collator, name, part, mode);
+		return nmatches(name, mapping.normalize(name), normalizedPart, mode);
+	}
+	
+	/**
+	 * Same as {@link #cmatches} but compares strings normalized by {@link CollatorCharMapping} 
+	 */
+	public static boolean nmatches(String base, String normalizedBase, String normalizedPart, StringMatcherMode mode) {
+		switch (mode) {
+		case CHECK_CONTAINS:
+			return normalizedBase.indexOf(normalizedPart) != -1;
+		case CHECK_STARTS_FROM_SPACE:
+			return nstartsWith(base, normalizedBase, normalizedPart, true, true);
+		case CHECK_STARTS_FROM_SPACE_NOT_BEGINNING:
+			return nstartsWith(base, normalizedBase, normalizedPart, false, true);
+		case CHECK_ONLY_STARTS_WITH:
+			return nstartsWith(base, normalizedBase, normalizedPart, true, false);
+		}
+		return false;
+	}
+	
+	private static boolean nstartsWith(String searchIn, String normalizedSearchIn, String theStart,
+			boolean checkBeginning, boolean checkSpaces) {
+		int startLength = theStart.length();
+		int searchInLength = searchIn.length();
+		if (startLength == 0) {
+			return true;
+		}
+		if (startLength > searchInLength) {
+			return false;
+		}
+		if (checkBeginning && normalizedSearchIn.startsWith(theStart)) {
+			return true;
+		}
+		if (checkSpaces) {
+			for (int i = 1; i <= searchInLength - startLength; i++) {
+				if (isSpace(searchIn.charAt(i - 1)) && !isSpace(searchIn.charAt(i))) {
+					if (normalizedSearchIn.startsWith(theStart, i)) {
+						return true;
+					}
+				}
+			}
+		}
+		return false;
 	}
 	
 	
@@ -0,0 +1,83 @@
+package net.osmand;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Matcher shared by searches running in parallel (one per file). Results are published to delegate
+ * matcher one by one and collected in one list, all searches are cancelled when delegate is cancelled,
+ * global limit is reached or {@link #cancel()} is called. Readers don't keep published objects (publish returns false).
+ */
+public class MergedResultMatcher<T> implements ResultMatcher<T> {
+
+	private final ResultMatcher<T> matcher;
+	private final int limit;
+	private final List<T> results = new ArrayList<T>();
+	private volatile boolean limitReached;
+	private volatile boolean cancelled;
+	private int runningTasks;
+
+	/**
+	 * @param limit maximum number of results, -1 no limit
+	 */
+	public MergedResultMatcher(ResultMatcher<T> matcher, int limit) {
+		this.matcher = matcher;
+		this.limit = limit;
+	}
+
+	@Override
+	public synchronized boolean publish(T object) {
+		if (isCancelled()) {
+			return false;
+		}
+		if (matcher == null || matcher.publish(object)) {
+			results.add(object);
+			if (limit > 0 && results.size() >= limit) {
+				limitReached = true;
+				notifyAll();
+			}
+		}
+		return false;
+	}
+
+	@Override
+	public boolean isCancelled() {
+		return cancelled || limitReached || (matcher != null && matcher.isCancelled());
+	}
+
+	/**
+	 * Stops running searches (results are not published anymore)
+	 */
+	public void cancel() {
+		cancelled = true;
+	}
+
+	public boolean isLimitReached() {
+		return limitReached;
+	}
+
+	public synchronized void taskStarted() {
+		runningTasks++;
+	}
+
+	public synchronized void taskFinished() {
+		runningTasks--;
+		notifyAll();
+	}
+
+	/**
+	 * Waits until all started tasks are finished, limit is reached or search is cancelled
+	 * @return copy of results published so far
+	 */
+	public synchronized List<T> waitResults() throws InterruptedException {
+		while (runningTasks > 0 && !isCancelled()) {
+			// delegate could be cancelled without notification
+			wait(100);
+		}
+		return new ArrayList<T>(results);
+	}
+
+	public synchronized List<T> getResults() {
+		return new ArrayList<T>(results);
+	}
+}
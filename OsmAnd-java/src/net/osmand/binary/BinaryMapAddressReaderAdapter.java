@@ -459,7 +459,7 @@ public class BinaryMapAddressReaderAdapter {
 				indexOffset = codedIS.getTotalBytesRead();
 				int oldLimit = codedIS.pushLimit(length);
 				// here offsets are sorted by distance
-				map.readIndexedStringTable(matcher.getCollator(), req.nameQuery, "", loffsets, 0);
+				map.searchIndexedStringTable(req.nameQuery, loffsets);
 				codedIS.popLimit(oldLimit);
 				break;
 			case OsmAndAddressNameIndexData.ATOM_FIELD_NUMBER:
@@ -15,6 +15,8 @@ import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.RandomAccessFile;
 import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel.MapMode;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
@@ -24,12 +26,14 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
 
 import net.osmand.Collator;
+import net.osmand.CollatorCharMapping;
 import net.osmand.CollatorStringMatcher;
 import net.osmand.CollatorStringMatcher.StringMatcherMode;
 import net.osmand.Location;
@@ -80,6 +84,14 @@ public class BinaryMapIndexReader {
 	public static boolean READ_STATS = false;
 	
 	private final RandomAccessFile raf;
+	// memory mapped file shared by cursors of all threads (null if file is read through raf)
+	private final ByteBuffer mappedFile;
+	private final BinaryMapIndexReader cursorOwner;
+	private ThreadLocal<BinaryMapIndexReader> threadCursors;
+	private RouteSubregionIndex routeSubregionIndex;
+	private volatile MapDataBlockCache mapDataBlockCache;
+	// name tables (by file offset) shared with cursors
+	private ConcurrentHashMap<Integer, CachedStringTable> stringTables = new ConcurrentHashMap<Integer, CachedStringTable>();
 	/*private*/ int version;
 	/*private */long dateCreated;
 	// keep them immutable inside
@@ -103,6 +115,8 @@ public class BinaryMapIndexReader {
 	
 	public BinaryMapIndexReader(final RandomAccessFile raf) throws IOException {
 		this.raf = raf;
+		this.mappedFile = null;
+		this.cursorOwner = null;
 		codedIS = CodedInputStream.newInstance(raf);
 		codedIS.setSizeLimit(Integer.MAX_VALUE); // 2048 MB
 		transportAdapter = new BinaryMapTransportReaderAdapter(this);
@@ -114,6 +128,8 @@ public class BinaryMapIndexReader {
 	
 	/*private */BinaryMapIndexReader(final RandomAccessFile raf, boolean init) throws IOException {
 		this.raf = raf;
+		this.mappedFile = null;
+		this.cursorOwner = null;
 		codedIS = CodedInputStream.newInstance(raf);
 		codedIS.setSizeLimit(Integer.MAX_VALUE); // 2048 MB
 		transportAdapter = new BinaryMapTransportReaderAdapter(this);
@@ -127,6 +143,8 @@ public class BinaryMapIndexReader {
 	
 	public BinaryMapIndexReader(final RandomAccessFile raf, BinaryMapIndexReader referenceToSameFile) throws IOException {
 		this.raf = raf;
+		this.mappedFile = null;
+		this.cursorOwner = null;
 		codedIS = CodedInputStream.newInstance(raf);
 		codedIS.setSizeLimit(Integer.MAX_VALUE); // 2048 MB
 		version = referenceToSameFile.version;
@@ -142,6 +160,87 @@ public class BinaryMapIndexReader {
 		routingIndexes = new ArrayList<RouteRegion>(referenceToSameFile.routingIndexes);
 		indexes = new ArrayList<BinaryIndexPart>(referenceToSameFile.indexes);
 		basemap = referenceToSameFile.basemap;
+		stringTables = referenceToSameFile.stringTables;
+		routeSubregionIndex = referenceToSameFile.getRouteSubregionIndex();
+		mapDataBlockCache = referenceToSameFile.getMapDataBlockCache();
+	}
+	
+	/**
+	 * Reads file through memory mapping (see {@link #mapFile(RandomAccessFile)}), 
+	 * other threads should read file with {@link #getThreadCursor()}
+	 */
+	public BinaryMapIndexReader(final RandomAccessFile raf, ByteBuffer mappedFile) throws IOException {
+		this.raf = raf;
+		this.mappedFile = mappedFile;
+		this.cursorOwner = null;
+		this.threadCursors = new ThreadLocal<BinaryMapIndexReader>();
+		codedIS = CodedInputStream.newInstance(mappedFile.duplicate());
+		codedIS.setSizeLimit(Integer.MAX_VALUE); // 2048 MB
+		transportAdapter = new BinaryMapTransportReaderAdapter(this);
+		addressAdapter = new BinaryMapAddressReaderAdapter(this);
+		poiAdapter = new BinaryMapPoiReaderAdapter(this);
+		routeAdapter = new BinaryMapRouteReaderAdapter(this);
+		init();
+	}
+	
+	// cursor over the same mapping, index parts are shared with owner
+	private BinaryMapIndexReader(BinaryMapIndexReader owner) {
+		this.raf = owner.raf;
+		this.mappedFile = owner.mappedFile;
+		this.cursorOwner = owner;
+		this.stringTables = owner.stringTables;
+		codedIS = CodedInputStream.newInstance(mappedFile.duplicate());
+		codedIS.setSizeLimit(Integer.MAX_VALUE); // 2048 MB
+		version = owner.version;
+		dateCreated = owner.dateCreated;
+		transportAdapter = new BinaryMapTransportReaderAdapter(this);
+		addressAdapter = new BinaryMapAddressReaderAdapter(this);
+		poiAdapter = new BinaryMapPoiReaderAdapter(this);
+		routeAdapter = new BinaryMapRouteReaderAdapter(this);
+		mapIndexes = owner.mapIndexes;
+		poiIndexes = owner.poiIndexes;
+		addressIndexes = owner.addressIndexes;
+		transportIndexes = owner.transportIndexes;
+		routingIndexes = owner.routingIndexes;
+		indexes = owner.indexes;
+		basemap = owner.basemap;
+	}
+	
+	/**
+	 * @return new reader with own position in memory mapped file (file is closed by owner)
+	 */
+	BinaryMapIndexReader newCursor() {
+		return new BinaryMapIndexReader(cursorOwner != null ? cursorOwner : this);
+	}
+	
+	public static ByteBuffer mapFile(RandomAccessFile raf) throws IOException {
+		if (raf.length() > Integer.MAX_VALUE) {
+			throw new IOException("File is too big to be memory mapped");
+		}
+		return raf.getChannel().map(MapMode.READ_ONLY, 0, raf.length());
+	}
+	
+	public boolean isMemoryMapped() {
+		return mappedFile != null;
+	}
+	
+	/**
+	 * @return reader with own position in memory mapped file for current thread 
+	 * (reader itself if file is not memory mapped)
+	 */
+	public BinaryMapIndexReader getThreadCursor() {
+		if (cursorOwner != null) {
+			return cursorOwner.getThreadCursor();
+		}
+		if (mappedFile == null) {
+			return this;
+		}
+		BinaryMapIndexReader cursor = threadCursors.get();
+		if (cursor == null) {
+			cursor = new BinaryMapIndexReader(this);
+			threadCursors.set(cursor);
+		}
+		return cursor;
 	}
 	
 	
@@ -149,6 +248,34 @@ public class BinaryMapIndexReader {
 		return dateCreated;
 	}
 	
+	/**
+	 * @return index of routing tile headers or null if headers should be searched in subregion trees
+	 */
+	public RouteSubregionIndex getRouteSubregionIndex() {
+		if (cursorOwner != null) {
+			return cursorOwner.getRouteSubregionIndex();
+		}
+		return routeSubregionIndex;
+	}
+	
+	public void setRouteSubregionIndex(RouteSubregionIndex routeSubregionIndex) {
+		this.routeSubregionIndex = routeSubregionIndex;
+	}
+	
+	/**
+	 * @return cache of decoded map data blocks or null if blocks are decoded for every search
+	 */
+	public MapDataBlockCache getMapDataBlockCache() {
+		if (cursorOwner != null) {
+			return cursorOwner.getMapDataBlockCache();
+		}
+		return mapDataBlockCache;
+	}
+	
+	public void setMapDataBlockCache(MapDataBlockCache mapDataBlockCache) {
+		this.mapDataBlockCache = mapDataBlockCache;
+	}
+	
 	private void init() throws IOException {
 		boolean initCorrectly = false;
 		while(true){
@@ -212,7 +339,7 @@ public class BinaryMapIndexReader {
 				routeReg.filePointer = codedIS.getTotalBytesRead();
 				if (routeAdapter != null) {
 					oldLimit = codedIS.pushLimit(routeReg.length);
-					routeAdapter.readRouteIndex(routeReg);
+					routeAdapter.readRouteIndex(routeReg, false);
 					codedIS.popLimit(oldLimit);
 					routingIndexes.add(routeReg);
 					indexes.add(routeReg);
@@ -783,6 +910,31 @@ public class BinaryMapIndexReader {
 	
 	
 	
+	// lazy initializing rules (index parts could be shared by cursors of different threads)
+	private void initMapIndex(MapIndex mapIndex) throws IOException {
+		synchronized (mapIndex) {
+			if (mapIndex.encodingRules.isEmpty()) {
+				codedIS.seek(mapIndex.filePointer);
+				int oldLimit = codedIS.pushLimit(mapIndex.length);
+				readMapIndex(mapIndex, true);
+				codedIS.popLimit(oldLimit);
+			}
+		}
+	}
+	
+	// lazy initializing trees
+	private void initMapRoot(MapRoot index) throws IOException {
+		synchronized (index) {
+			if (index.trees == null) {
+				index.trees = new ArrayList<MapTree>();
+				codedIS.seek(index.filePointer);
+				int oldLimit = codedIS.pushLimit(index.length);
+				readMapLevel(index);
+				codedIS.popLimit(oldLimit);
+			}
+		}
+	}
+	
 	public List<BinaryMapDataObject> searchMapIndex(SearchRequest<BinaryMapDataObject> req) throws IOException {
 		req.numberOfVisitedObjects = 0;
 		req.numberOfAcceptedObjects = 0;
@@ -790,27 +942,14 @@ public class BinaryMapIndexReader {
 		req.numberOfReadSubtrees = 0;
 		List<MapTree> foundSubtrees = new ArrayList<MapTree>();
 		for (MapIndex mapIndex : mapIndexes) {
-			// lazy initializing rules
-			if(mapIndex.encodingRules.isEmpty()) {
-				codedIS.seek(mapIndex.filePointer);
-				int oldLimit = codedIS.pushLimit(mapIndex.length);
-				readMapIndex(mapIndex, true);
-				codedIS.popLimit(oldLimit);
-			}
+			initMapIndex(mapIndex);
 			for (MapRoot index : mapIndex.getRoots()) {
 				if (index.minZoom <= req.zoom && index.maxZoom >= req.zoom) {
 					if (index.right < req.left || index.left > req.right || index.top > req.bottom || index.bottom < req.top) {
 						continue;
 					}
 					
-					// lazy initializing trees
-					if(index.trees == null){
-						index.trees = new ArrayList<MapTree>();
-						codedIS.seek(index.filePointer);
-						int oldLimit = codedIS.pushLimit(index.length);
-						readMapLevel(index);
-						codedIS.popLimit(oldLimit);
-					}
+					initMapRoot(index);
 					
 					for (MapTree tree : index.trees) {
 						if (tree.right < req.left || tree.left > req.right || tree.top > req.bottom || tree.bottom < req.top) {
@@ -830,11 +969,7 @@ public class BinaryMapIndexReader {
 					});
 					for(MapTree tree : foundSubtrees) {
 						if(!req.isCancelled()){
-							codedIS.seek(tree.mapDataBlock);
-							int length = codedIS.readRawVarint32();
-							int oldLimit = codedIS.pushLimit(length);
-							readMapDataBlocks(req, tree, mapIndex);
-							codedIS.popLimit(oldLimit);
+							readMapDataBlock(req, tree, mapIndex);
 						}
 					}
 					foundSubtrees.clear();
@@ -856,13 +991,7 @@ public class BinaryMapIndexReader {
 		req.numberOfReadSubtrees = 0;
 		List<MapTree> foundSubtrees = new ArrayList<MapTree>();
 		
-		// lazy initializing rules
-		if(mapIndex.encodingRules.isEmpty()) {
-			codedIS.seek(mapIndex.filePointer);
-			int oldLimit = codedIS.pushLimit(mapIndex.length);
-			readMapIndex(mapIndex, true);
-			codedIS.popLimit(oldLimit);
-		}
+		initMapIndex(mapIndex);
 		
 		for (MapRoot level : mapIndex.getRoots()) {
 			if ((level.minZoom <= req.zoom && level.maxZoom >= req.zoom) || req.zoom == -1) {
@@ -870,14 +999,7 @@ public class BinaryMapIndexReader {
 					continue;
 				}
 				
-				// lazy initializing trees
-				if(level.trees == null){
-					level.trees = new ArrayList<MapTree>();
-					codedIS.seek(level.filePointer);
-					int oldLimit = codedIS.pushLimit(level.length);
-					readMapLevel(level);
-					codedIS.popLimit(oldLimit);
-				}
+				initMapRoot(level);
 				
 				for (MapTree tree : level.trees) {
 					if (tree.right < req.left || tree.left > req.right || tree.top > req.bottom || tree.bottom < req.top) {
@@ -897,11 +1019,7 @@ public class BinaryMapIndexReader {
 				});
 				for(MapTree tree : foundSubtrees) {
 					if(!req.isCancelled()){
-						codedIS.seek(tree.mapDataBlock);
-						int length = codedIS.readRawVarint32();
-						int oldLimit = codedIS.pushLimit(length);
-						readMapDataBlocks(req, tree, mapIndex);
-						codedIS.popLimit(oldLimit);
+						readMapDataBlock(req, tree, mapIndex);
 					}
 				}
 				foundSubtrees.clear();
@@ -917,6 +1035,48 @@ public class BinaryMapIndexReader {
 		return req.getSearchResults();
 	}
 	
+	private void readMapDataBlock(SearchRequest<BinaryMapDataObject> req, MapTree tree, MapIndex mapIndex) throws IOException {
+		MapDataBlockCache cache = getMapDataBlockCache();
+		if (cache == null || READ_STATS) {
+			codedIS.seek(tree.mapDataBlock);
+			int length = codedIS.readRawVarint32();
+			int oldLimit = codedIS.pushLimit(length);
+			readMapDataBlocks(req, tree, mapIndex);
+			codedIS.popLimit(oldLimit);
+			return;
+		}
+		BinaryMapIndexReader owner = cursorOwner != null ? cursorOwner : this;
+		MapDataBlockCache.MapDataBlock block = cache.get(owner, tree.mapDataBlock);
+		if (block == null) {
+			// decode all objects of block
+			SearchRequest<BinaryMapDataObject> all = buildSearchRequest(0, Integer.MAX_VALUE, 0, Integer.MAX_VALUE,
+					req.zoom, null);
+			codedIS.seek(tree.mapDataBlock);
+			int length = codedIS.readRawVarint32();
+			int oldLimit = codedIS.pushLimit(length);
+			readMapDataBlocks(all, tree, mapIndex);
+			codedIS.popLimit(oldLimit);
+			block = new MapDataBlockCache.MapDataBlock(all.getSearchResults());
+			cache.put(owner, tree.mapDataBlock, block);
+		}
+		for (int i = 0; i < block.objects.length; i++) {
+			req.numberOfVisitedObjects++;
+			if (!block.intersects(i, req.left, req.right, req.top, req.bottom)) {
+				continue;
+			}
+			BinaryMapDataObject o = block.objects[i];
+			if (req.searchFilter != null) {
+				req.cacheTypes.clear();
+				req.cacheTypes.add(o.types);
+				if (!req.searchFilter.accept(req.cacheTypes, mapIndex)) {
+					continue;
+				}
+			}
+			req.numberOfAcceptedObjects++;
+			req.publish(o);
+		}
+	}
+	
 	protected void readMapDataBlocks(SearchRequest<BinaryMapDataObject> req, MapTree tree, MapIndex root) throws IOException {
 		List<BinaryMapDataObject> tempResults = null;
 		long baseId  = 0;
@@ -1520,9 +1680,15 @@ public class BinaryMapIndexReader {
 	}
 	
 	public void close() throws IOException{
-		if(codedIS != null){
+		if(codedIS != null && cursorOwner != null) {
+			// file is closed by owner
+			codedIS = null;
+		} else if(codedIS != null){
 			raf.close();
 			codedIS = null;
+			if (mapDataBlockCache != null) {
+				mapDataBlockCache.clear(this);
+			}
 			mapIndexes.clear();
 			addressIndexes.clear();
 			transportIndexes.clear();
@@ -2147,54 +2313,52 @@ public class BinaryMapIndexReader {
 		
 	}
 
-	int readIndexedStringTable(Collator instance, String query, String prefix, TIntArrayList list, int charMatches) throws IOException {
+	/**
+	 * Searches indexed string table (till the current limit) by name query, table is read into memory
+	 * on the first search and afterwards it is skipped in file
+	 */
+	void searchIndexedStringTable(String query, TIntArrayList list) throws IOException {
+		int offset = codedIS.getTotalBytesRead();
+		CollatorCharMapping mapping = CollatorCharMapping.getPrimaryMapping();
+		CachedStringTable table = stringTables.get(offset);
+		if (table == null || table.getMapping() != mapping) {
+			List<String> keys = new ArrayList<String>();
+			TIntArrayList valueKeys = new TIntArrayList();
+			TIntArrayList values = new TIntArrayList();
+			readIndexedStringTable("", keys, valueKeys, values);
+			table = new CachedStringTable(mapping, keys, valueKeys, values);
+			stringTables.put(offset, table);
+		} else {
+			codedIS.skipRawBytes(codedIS.getBytesUntilLimit());
+		}
+		table.search(mapping.normalize(query), list);
+	}
+
+	private void readIndexedStringTable(String prefix, List<String> keys, TIntArrayList valueKeys, TIntArrayList values)
+			throws IOException {
 		String key = null;
-		while(true){
+		while (true) {
 			int t = codedIS.readTag();
 			int tag = WireFormat.getTagFieldNumber(t);
 			switch (tag) {
 			case 0:
-				return charMatches;
+				return;
 			case OsmandOdb.IndexedStringTable.KEY_FIELD_NUMBER :
-				key = codedIS.readString();
-				if(prefix.length() > 0){
-					key = prefix + key;
-				}
-				// check query is part of key (the best matching)
-				if(CollatorStringMatcher.cmatches(instance, key, query, StringMatcherMode.CHECK_ONLY_STARTS_WITH)){
-					if(query.length() >= charMatches){
-						if(query.length() > charMatches){
-							charMatches = query.length();
-							list.clear();
-						}
-					} else {
-						key = null;
-					}
-					// check key is part of query
-				} else if (CollatorStringMatcher.cmatches(instance, query, key, StringMatcherMode.CHECK_ONLY_STARTS_WITH)) {
-					if (key.length() >= charMatches) {
-						if (key.length() > charMatches) {
-							charMatches = key.length();
-							list.clear();
-						}
-					} else {
-						key = null;
-					}
-				} else {
-					key = null;
-				}
+				key = prefix + codedIS.readString();
+				keys.add(key);
 				break;
 			case OsmandOdb.IndexedStringTable.VAL_FIELD_NUMBER :
 				int val = readInt();
 				if (key != null) {
-					list.add(val);
+					valueKeys.add(keys.size() - 1);
+					values.add(val);
 				}
 				break;
 			case OsmandOdb.IndexedStringTable.SUBTABLES_FIELD_NUMBER :
 				int len = codedIS.readRawVarint32();
 				int oldLim = codedIS.pushLimit(len);
 				if (key != null) {
-					charMatches = readIndexedStringTable(instance, query, key, list, charMatches);
+					readIndexedStringTable(key, keys, valueKeys, values);
 				} else {
 					codedIS.skipRawBytes(codedIS.getBytesUntilLimit());
 				}
@@ -8,11 +8,9 @@ import gnu.trove.set.hash.TLongHashSet;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Comparator;
 import java.util.LinkedList;
 import java.util.List;
 
-import net.osmand.Collator;
 import net.osmand.CollatorStringMatcher;
 import net.osmand.CollatorStringMatcher.StringMatcherMode;
 import net.osmand.Location;
@@ -263,11 +261,14 @@ public class BinaryMapPoiReaderAdapter {
 	}
 	
 	public void initCategories(PoiRegion region) throws IOException {
-		if(region.categories.isEmpty()) {
-			codedIS.seek(region.filePointer);
-			int oldLimit = codedIS.pushLimit(region.length);
-			readPoiIndex(region, true);
-			codedIS.popLimit(oldLimit);
+		// region could be shared by readers of different threads
+		synchronized (region) {
+			if(region.categories.isEmpty()) {
+				codedIS.seek(region.filePointer);
+				int oldLimit = codedIS.pushLimit(region.length);
+				readPoiIndex(region, true);
+				codedIS.popLimit(oldLimit);
+			}
 		}
 	}
 	
@@ -290,35 +291,22 @@ public class BinaryMapPoiReaderAdapter {
 				int length = readInt();
 				int oldLimit = codedIS.pushLimit(length);
 				// here offsets are sorted by distance
-				offsets = readPoiNameIndex(matcher.getCollator(), req.nameQuery, req);
+				offsets = readPoiNameIndex(req.nameQuery, req);
 				codedIS.popLimit(oldLimit);
 				break;
 			case OsmandOdb.OsmAndPoiIndex.POIDATA_FIELD_NUMBER :
 				// also offsets can be randomly skipped by limit
-				Integer[] offKeys = new Integer[offsets.size()];
-				if (offsets.size() > 0) {
-					int[] keys = offsets.keys();
-					for (int i = 0; i < keys.length; i++) {
-						offKeys[i] = keys[i];
-					}
-					final TIntLongHashMap foffsets = offsets;
-					Arrays.sort(offKeys, new Comparator<Integer>() {
-						@Override
-						public int compare(Integer object1, Integer object2) {
-							return Double.compare(foffsets.get(object1), foffsets.get(object2));
-						}
-					});
-					int p = BUCKET_SEARCH_BY_NAME * 3 ;
-					if (p < offKeys.length) {
-						for (int i = p + BUCKET_SEARCH_BY_NAME;; i += BUCKET_SEARCH_BY_NAME) {
-							if (i > offKeys.length) {
-								Arrays.sort(offKeys, p, offKeys.length);
-								break;
-							} else {
-								Arrays.sort(offKeys, p, i);
-							}
-							p = i;
+				int[] offKeys = sortByDistance(offsets);
+				int p = BUCKET_SEARCH_BY_NAME * 3;
+				if (p < offKeys.length) {
+					for (int i = p + BUCKET_SEARCH_BY_NAME;; i += BUCKET_SEARCH_BY_NAME) {
+						if (i > offKeys.length) {
+							Arrays.sort(offKeys, p, offKeys.length);
+							break;
+						} else {
+							Arrays.sort(offKeys, p, i);
 						}
+						p = i;
 					}
 				}
 				
@@ -346,7 +334,24 @@ public class BinaryMapPoiReaderAdapter {
 		}
 	}
 	
-	private TIntLongHashMap readPoiNameIndex(Collator instance, String query, SearchRequest<Amenity> req) throws IOException {
+	/**
+	 * @return offsets sorted by distance (distance and offset are packed into long to sort primitives)
+	 */
+	private static int[] sortByDistance(TIntLongHashMap offsets) {
+		int[] keys = offsets.keys();
+		long[] packed = new long[keys.length];
+		for (int i = 0; i < keys.length; i++) {
+			// distance is less than 2^32
+			packed[i] = ((offsets.get(keys[i]) >>> 1) << 32) + keys[i];
+		}
+		Arrays.sort(packed);
+		for (int i = 0; i < keys.length; i++) {
+			keys[i] = (int) packed[i];
+		}
+		return keys;
+	}
+
+	private TIntLongHashMap readPoiNameIndex(String query, SearchRequest<Amenity> req) throws IOException {
 		TIntLongHashMap offsets = new TIntLongHashMap();
 		TIntArrayList dataOffsets = null;
 		int offset = 0;
@@ -361,7 +366,7 @@ public class BinaryMapPoiReaderAdapter {
 				int oldLimit = codedIS.pushLimit(length);
 				dataOffsets = new TIntArrayList();
 				offset = codedIS.getTotalBytesRead();
-				map.readIndexedStringTable(instance, query, "", dataOffsets, 0);
+				map.searchIndexedStringTable(query, dataOffsets);
 				codedIS.popLimit(oldLimit);
 				break; }
 			case OsmandOdb.OsmAndPoiNameIndex.DATA_FIELD_NUMBER : {
@@ -617,38 +622,49 @@ public class BinaryMapPoiReaderAdapter {
 	}
 	private Amenity readPoiPoint(int left31, int right31, int top31, int bottom31, 
 			int px, int py, int zoom, SearchRequest<Amenity> req, PoiRegion region, boolean checkBounds) throws IOException {
+		// fields are written in order of field numbers: location and categories are read first
+		// and amenity is created (other fields are decoded) only if point passes the filters
 		Amenity am = null;
 		int x = 0;
 		int y = 0;
-		StringBuilder retValue = new StringBuilder();
 		PoiCategory amenityType = null;
+		String amenitySubType = null;
+		StringBuilder retValue = null;
 		LinkedList<String> textTags = null;
 		while(true){
 			int t = codedIS.readTag();
 			int tag = WireFormat.getTagFieldNumber(t);
-			if(amenityType == null && (tag > OsmandOdb.OsmAndPoiBoxDataAtom.CATEGORIES_FIELD_NUMBER || tag == 0)) {
-				codedIS.skipRawBytes(codedIS.getBytesUntilLimit());
-				return null;
-			}
-			switch (tag) {
-			case 0:
-				if(Algorithms.isEmpty(am.getEnName())){
-					am.setEnName(Junidecode.unidecode(am.getName()));
+			if(am == null && (tag > OsmandOdb.OsmAndPoiBoxDataAtom.CATEGORIES_FIELD_NUMBER || tag == 0)) {
+				if (amenityType == null) {
+					codedIS.skipRawBytes(codedIS.getBytesUntilLimit());
+					return null;
 				}
 				req.numberOfAcceptedObjects++;
+				LatLon loc = new LatLon(MapUtils.get31LatitudeY(y), MapUtils.get31LongitudeX(x));
+				AmenityRoutePoint arp = null;
 				if (req.radius > 0) {
-					LatLon loc = am.getLocation();
 					List<Location> locs = req.tiles.get(req.getTileHashOnPath(loc.getLatitude(), loc.getLongitude()));
-					if (locs == null) {
-						return null;
+					if (locs != null) {
+						arp = dist(loc, locs, req.radius);
 					}
-					AmenityRoutePoint arp = dist(am.getLocation(), locs, req.radius);
-					if (arp == null){
+					if (arp == null) {
+						codedIS.skipRawBytes(codedIS.getBytesUntilLimit());
 						return null;
-					} else {
-						am.setRoutePoint(arp);
 					}
 				}
+				am = new Amenity();
+				am.setLocation(loc.getLatitude(), loc.getLongitude());
+				am.setType(amenityType);
+				am.setSubType(amenitySubType);
+				if (arp != null) {
+					am.setRoutePoint(arp);
+				}
+			}
+			switch (tag) {
+			case 0:
+				if(Algorithms.isEmpty(am.getEnName())){
+					am.setEnName(Junidecode.unidecode(am.getName()));
+				}
 				return am;
 			case OsmandOdb.OsmAndPoiBoxDataAtom.DX_FIELD_NUMBER :
 				x = (codedIS.readSInt32() + (px << (24 - zoom))) << 7;
@@ -662,11 +678,12 @@ public class BinaryMapPoiReaderAdapter {
 						return null;
 					}
 				}
-				am = new Amenity();
-				am.setLocation(MapUtils.get31LatitudeY(y), MapUtils.get31LongitudeX(x));
 				break;
 			case OsmandOdb.OsmAndPoiBoxDataAtom.SUBCATEGORIES_FIELD_NUMBER :
 				int subtypev = codedIS.readUInt32();
+				if (retValue == null) {
+					retValue = new StringBuilder();
+				}
 				retValue.setLength(0);
 				PoiSubType st = region.getSubtypeFromId(subtypev, retValue);
 				if(st != null) {
@@ -675,6 +692,9 @@ public class BinaryMapPoiReaderAdapter {
 				break;
 			case OsmandOdb.OsmAndPoiBoxDataAtom.TEXTCATEGORIES_FIELD_NUMBER :
 				int texttypev = codedIS.readUInt32();
+				if (retValue == null) {
+					retValue = new StringBuilder();
+				}
 				retValue.setLength(0);
 				PoiSubType textt = region.getSubtypeFromId(texttypev, retValue);
 				if(textt != null && textt.text) {
@@ -706,10 +726,9 @@ public class BinaryMapPoiReaderAdapter {
 				if (req.poiTypeFilter == null || req.poiTypeFilter.accept(type, subtype)) {
 					if (amenityType == null) {
 						amenityType = type;
-						am.setSubType(subtype);
-						am.setType(amenityType);
+						amenitySubType = subtype;
 					} else {
-						am.setSubType(am.getSubType() + ";" + subtype);
+						amenitySubType = amenitySubType + ";" + subtype;
 					}
 				}
 				
@@ -0,0 +1,148 @@
+package net.osmand.binary;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+import net.osmand.PlatformUtil;
+
+import org.apache.commons.logging.Log;
+
+/**
+ * Pool of readers of one file. Readers share parsed index parts (map, poi, address, transport and routing
+ * regions) of reference reader and have own file position, so searches of different threads don't wait for
+ * each other. New reader is opened when all readers are lent and there are less than max readers,
+ * otherwise {@link #acquire()} waits for released one. Reference reader is never lent (it is used as metadata reader)
+ * and it isn't closed by pool.
+ */
+public class BinaryMapReaderPool {
+
+	private final static Log log = PlatformUtil.getLog(BinaryMapReaderPool.class);
+	public static final int DEFAULT_MAX_READERS = 4;
+
+	private final File file;
+	private final BinaryMapIndexReader reference;
+	private final int maxReaders;
+	private final List<BinaryMapIndexReader> idle = new ArrayList<BinaryMapIndexReader>();
+	private int opened;
+	private boolean closed;
+
+	public BinaryMapReaderPool(File file, BinaryMapIndexReader reference, int maxReaders) {
+		this.file = file;
+		this.reference = reference;
+		this.maxReaders = Math.max(1, maxReaders);
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * @return reader which should be used only for methods which don't read file (region names, bounds,
+	 * contains checks), it is safe to call them from any thread
+	 */
+	public BinaryMapIndexReader getMetadata() {
+		return reference;
+	}
+
+	/**
+	 * @return new reader of the file which is not managed by pool (for long living users like routing),
+	 * it should be closed by caller
+	 */
+	public BinaryMapIndexReader openDedicated() throws IOException {
+		synchronized (this) {
+			if (closed) {
+				throw new IOException("File " + file.getName() + " is closed");
+			}
+		}
+		return open();
+	}
+
+	private BinaryMapIndexReader open() throws IOException {
+		if (reference.isMemoryMapped()) {
+			return reference.newCursor();
+		}
+		return new BinaryMapIndexReader(new RandomAccessFile(file, "r"), reference);
+	}
+
+	/**
+	 * @return reader which is not used by other threads, it should be returned by {@link #release(BinaryMapIndexReader)}
+	 */
+	public BinaryMapIndexReader acquire() throws IOException {
+		synchronized (this) {
+			while (true) {
+				if (closed) {
+					throw new IOException("File " + file.getName() + " is closed");
+				}
+				if (!idle.isEmpty()) {
+					return idle.remove(idle.size() - 1);
+				}
+				if (opened < maxReaders) {
+					opened++;
+					break;
+				}
+				try {
+					wait();
+				} catch (InterruptedException e) {
+					throw new IOException("Interrupted while waiting for reader of " + file.getName());
+				}
+			}
+		}
+		// open file outside of lock
+		try {
+			return open();
+		} catch (IOException e) {
+			synchronized (this) {
+				opened--;
+				notify();
+			}
+			throw e;
+		}
+	}
+
+	public void release(BinaryMapIndexReader reader) {
+		synchronized (this) {
+			if (!closed) {
+				idle.add(reader);
+				notify();
+				return;
+			}
+			opened--;
+		}
+		closeReader(reader);
+	}
+
+	public synchronized int getOpenedReaders() {
+		return opened;
+	}
+
+	/**
+	 * Closes idle readers, lent readers are closed when they are released (reference reader is closed by its owner)
+	 */
+	public void close() {
+		List<BinaryMapIndexReader> toClose;
+		synchronized (this) {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			toClose = new ArrayList<BinaryMapIndexReader>(idle);
+			opened -= idle.size();
+			idle.clear();
+			notifyAll();
+		}
+		for (BinaryMapIndexReader r : toClose) {
+			closeReader(r);
+		}
+	}
+
+	private void closeReader(BinaryMapIndexReader reader) {
+		try {
+			reader.close();
+		} catch (IOException e) {
+			log.error("Error closing " + file.getName(), e);
+		}
+	}
+}
@@ -284,6 +284,7 @@ public class BinaryMapRouteReaderAdapter {
 			this.bottom = copy.bottom;
 			this.filePointer = copy.filePointer;
 			this.length = copy.length;
+			this.shiftToData = copy.shiftToData;
 			
 		}
 		public RouteSubregion(RouteRegion routeReg) {
@@ -338,7 +339,11 @@ public class BinaryMapRouteReaderAdapter {
 	}
 	
 	
-	protected void readRouteIndex(RouteRegion region) throws IOException {
+	/**
+	 * Reads routing index header: name and root boxes of tree (readRules = false) or only encoding rules
+	 * (readRules = true). Rules are read on demand by {@link #initRouteRegion(RouteRegion)}.
+	 */
+	protected void readRouteIndex(RouteRegion region, boolean readRules) throws IOException {
 		int routeEncodingRule =1;
 		while(true){
 			int t = codedIS.readTag();
@@ -351,6 +356,10 @@ public class BinaryMapRouteReaderAdapter {
 				break;
 			case OsmandOdb.OsmAndRoutingIndex.RULES_FIELD_NUMBER: {
 				int len = codedIS.readInt32();
+				if (!readRules) {
+					codedIS.skipRawBytes(len);
+					break;
+				}
 				int oldLimit = codedIS.pushLimit(len);
 				readRouteEncodingRule(region, routeEncodingRule++);
 				codedIS.skipRawBytes(codedIS.getBytesUntilLimit());
@@ -358,6 +367,10 @@ public class BinaryMapRouteReaderAdapter {
 			}  break;
 			case OsmandOdb.OsmAndRoutingIndex.ROOTBOXES_FIELD_NUMBER :
 			case OsmandOdb.OsmAndRoutingIndex.BASEMAPBOXES_FIELD_NUMBER :{
+				if (readRules) {
+					codedIS.skipRawBytes(readInt());
+					break;
+				}
 				RouteSubregion subregion = new RouteSubregion(region);
 				subregion.length = readInt();
 				subregion.filePointer = codedIS.getTotalBytesRead();
@@ -691,11 +704,14 @@ public class BinaryMapRouteReaderAdapter {
 	}
 
 	public void initRouteRegion(RouteRegion routeReg) throws IOException, InvalidProtocolBufferException {
-		if (routeReg.routeEncodingRules.isEmpty()) {
-			codedIS.seek(routeReg.filePointer);
-			int oldLimit = codedIS.pushLimit(routeReg.length);
-			readRouteIndex(routeReg);
-			codedIS.popLimit(oldLimit);
+		// region could be shared by readers of different threads
+		synchronized (routeReg) {
+			if (routeReg.routeEncodingRules.isEmpty()) {
+				codedIS.seek(routeReg.filePointer);
+				int oldLimit = codedIS.pushLimit(routeReg.length);
+				readRouteIndex(routeReg, true);
+				codedIS.popLimit(oldLimit);
+			}
 		}
 	}
 
@@ -5,6 +5,8 @@ import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 import net.osmand.PlatformUtil;
 import net.osmand.binary.BinaryMapAddressReaderAdapter.AddressRegion;
@@ -30,28 +32,23 @@ import net.osmand.util.MapUtils;
 
 import org.apache.commons.logging.Log;
 
+import com.google.protobuf.CodedOutputStream;
+
 public class CachedOsmandIndexes {
 	
-	private OsmAndStoredIndex storedIndex;
-	private OsmAndStoredIndex.Builder storedIndexBuilder;
+	// file indexes by file name (only one entry per file name is kept)
+	private final Map<String, FileIndex> fileIndexes = new LinkedHashMap<String, FileIndex>();
+	// table with random access to entries (if opened), protobuf file is still written for native library
+	private FileIndexTable table;
 	private Log log = PlatformUtil.getLog(CachedOsmandIndexes.class);
 	private boolean hasChanged = true;
 	
 	public static final int VERSION = 2;
 
+	/**
+	 * Adds or replaces entry of file (could be called from different threads)
+	 */
 	public void addToCache(BinaryMapIndexReader reader, File f) {
-		hasChanged = true;
-		if(storedIndexBuilder == null) {
-			storedIndexBuilder = OsmandIndex.OsmAndStoredIndex.newBuilder();
-			storedIndexBuilder.setVersion(VERSION);
-			storedIndexBuilder.setDateCreated(System.currentTimeMillis());
-			if(storedIndex != null) {
-				for(FileIndex ex : storedIndex.getFileIndexList()) {
-					storedIndexBuilder.addFileIndex(ex);
-				}
-			}
-		}
-		
 		FileIndex.Builder fileIndex = OsmandIndex.FileIndex.newBuilder();
 		long d = reader.getDateCreated();
 		fileIndex.setDateModified(d== 0?f.lastModified() : d);
@@ -149,8 +146,18 @@ public class CachedOsmandIndexes {
 			fileIndex.addRoutingIndex(routing);
 		}
 		
-		storedIndexBuilder.addFileIndex(fileIndex);
-		
+		FileIndex fi = fileIndex.build();
+		synchronized (this) {
+			fileIndexes.put(f.getName(), fi);
+			hasChanged = true;
+			if (table != null) {
+				try {
+					table.append(fi);
+				} catch (IOException e) {
+					log.error("Index table could not be written", e);
+				}
+			}
+		}
 	}
 
 	private void addRouteSubregion(RoutingPart.Builder routing, RouteSubregion sub, boolean base) {
@@ -168,16 +175,16 @@ public class CachedOsmandIndexes {
 	
 	public BinaryMapIndexReader getReader(File f) throws IOException {
 		RandomAccessFile mf = new RandomAccessFile(f.getPath(), "r");
-		FileIndex found = null;
-		if (storedIndex != null) {
-			for (int i = 0; i < storedIndex.getFileIndexCount(); i++) {
-				FileIndex fi = storedIndex.getFileIndex(i);
-				if (f.length() == fi.getSize() && f.getName().equals(fi.getFileName())) {
-					// f.lastModified() == fi.getDateModified()
-					found = fi;
-					break;
-				}
-			}
+		FileIndex found;
+		synchronized (this) {
+			found = fileIndexes.get(f.getName());
+		}
+		// f.lastModified() == fi.getDateModified()
+		if (found != null && f.length() != found.getSize()) {
+			found = null;
+		}
+		if (found == null && table != null) {
+			found = table.get(f.getName(), f.length());
 		}
 		BinaryMapIndexReader reader = null;
 		if (found == null) {
@@ -302,10 +309,24 @@ public class CachedOsmandIndexes {
 		long time = System.currentTimeMillis();
 		FileInputStream is = new FileInputStream(f);
 		try {
-			storedIndex = OsmandIndex.OsmAndStoredIndex.newBuilder().mergeFrom(is).build();
-			hasChanged = false;
-			if(storedIndex.getVersion() != version){
-				storedIndex = null;
+			OsmAndStoredIndex storedIndex = OsmandIndex.OsmAndStoredIndex.newBuilder().mergeFrom(is).build();
+			synchronized (this) {
+				fileIndexes.clear();
+				hasChanged = false;
+				if (storedIndex.getVersion() == version) {
+					for (FileIndex fi : storedIndex.getFileIndexList()) {
+						// later entries of the same file replace older ones
+						fileIndexes.remove(fi.getFileName());
+						fileIndexes.put(fi.getFileName(), fi);
+					}
+				} else {
+					hasChanged = true;
+				}
+				if (table != null && table.isEmpty()) {
+					for (FileIndex fi : fileIndexes.values()) {
+						table.append(fi);
+					}
+				}
 			}
 		} finally {
 			is.close();
@@ -313,14 +334,62 @@ public class CachedOsmandIndexes {
 		log.info("Initialize cache " + (System.currentTimeMillis() - time));
 	}
 	
-	public void writeToFile(File f) throws IOException {
-		if (hasChanged) {
+	/**
+	 * Opens table of entries (entries are decoded on request and new entries are appended to table),
+	 * protobuf cache file has to be read only to fill new table
+	 */
+	public synchronized void openTable(File f) throws IOException {
+		table = FileIndexTable.open(f, VERSION);
+		hasChanged = table.isEmpty();
+	}
+
+	public synchronized boolean isTableEmpty() {
+		return table == null || table.isEmpty();
+	}
+
+	public synchronized void closeTable() throws IOException {
+		if (table != null) {
+			try {
+				table.compact();
+			} finally {
+				table.close();
+				table = null;
+			}
+		}
+	}
+
+	/**
+	 * Writes protobuf cache file with all entries if entries were changed. When table is opened protobuf file
+	 * is needed only by native library, otherwise outdated file is deleted (it is written when it is needed again)
+	 */
+	public synchronized void writeToFile(File f, boolean nativeLibrary) throws IOException {
+		if (table != null && !nativeLibrary) {
+			if (hasChanged && f.exists()) {
+				f.delete();
+			}
+			return;
+		}
+		if (hasChanged || !f.exists()) {
 			FileOutputStream outputStream = new FileOutputStream(f);
 			try {
-				storedIndexBuilder.build().writeTo(outputStream);
+				if (table != null) {
+					// entries are copied from table without decoding (fields of OsmAndStoredIndex)
+					CodedOutputStream out = CodedOutputStream.newInstance(outputStream);
+					out.writeUInt32(OsmAndStoredIndex.VERSION_FIELD_NUMBER, VERSION);
+					table.writeEntries(out, OsmAndStoredIndex.FILEINDEX_FIELD_NUMBER);
+					out.writeInt64(OsmAndStoredIndex.DATECREATED_FIELD_NUMBER, System.currentTimeMillis());
+					out.flush();
+				} else {
+					OsmAndStoredIndex.Builder storedIndexBuilder = OsmandIndex.OsmAndStoredIndex.newBuilder();
+					storedIndexBuilder.setVersion(VERSION);
+					storedIndexBuilder.setDateCreated(System.currentTimeMillis());
+					storedIndexBuilder.addAllFileIndex(fileIndexes.values());
+					storedIndexBuilder.build().writeTo(outputStream);
+				}
 			} finally {
 				outputStream.close();
 			}
+			hasChanged = false;
 		}
 	}
 
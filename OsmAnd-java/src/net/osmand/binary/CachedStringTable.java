@@ -0,0 +1,101 @@
+package net.osmand.binary;
+
+import gnu.trove.list.array.TIntArrayList;
+
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+
+import net.osmand.CollatorCharMapping;
+
+/**
+ * Indexed string table (name prefix -> data offsets) of poi or address name index read into memory.
+ * Keys are normalized by {@link CollatorCharMapping} and sorted, so keys matching query are found
+ * by binary search with plain char comparisons instead of calling collator for every key.
+ */
+class CachedStringTable {
+
+	private final CollatorCharMapping mapping;
+	// normalized unique keys in natural order
+	private final String[] keys;
+	// values of key i are values[valuesStart[i] .. valuesStart[i + 1])
+	private final int[] valuesStart;
+	private final int[] values;
+
+	/**
+	 * @param keys all keys of table (including prefix of parent table)
+	 * @param valueKeys index of key for every value
+	 */
+	CachedStringTable(CollatorCharMapping mapping, List<String> keys, TIntArrayList valueKeys, TIntArrayList values) {
+		this.mapping = mapping;
+		String[] normalized = new String[keys.size()];
+		TreeMap<String, TIntArrayList> merged = new TreeMap<String, TIntArrayList>();
+		for (int i = 0; i < normalized.length; i++) {
+			normalized[i] = mapping.normalize(keys.get(i));
+			if (!merged.containsKey(normalized[i])) {
+				merged.put(normalized[i], new TIntArrayList(1));
+			}
+		}
+		for (int j = 0; j < values.size(); j++) {
+			merged.get(normalized[valueKeys.get(j)]).add(values.get(j));
+		}
+		this.keys = new String[merged.size()];
+		this.valuesStart = new int[merged.size() + 1];
+		this.values = new int[values.size()];
+		int i = 0;
+		int p = 0;
+		for (Entry<String, TIntArrayList> e : merged.entrySet()) {
+			this.keys[i] = e.getKey();
+			this.valuesStart[i++] = p;
+			e.getValue().toArray(this.values, 0, p, e.getValue().size());
+			p += e.getValue().size();
+		}
+		this.valuesStart[i] = p;
+	}
+
+	public CollatorCharMapping getMapping() {
+		return mapping;
+	}
+
+	public int getKeysCount() {
+		return keys.length;
+	}
+
+	/**
+	 * Adds values of the best matching keys: keys starting with query or if there are no such keys
+	 * the longest keys which query starts with
+	 */
+	public void search(String normalizedQuery, TIntArrayList list) {
+		int from = lowerBound(normalizedQuery);
+		int to = from;
+		while (to < keys.length && keys[to].startsWith(normalizedQuery)) {
+			to++;
+		}
+		if (to > from) {
+			list.add(values, valuesStart[from], valuesStart[to] - valuesStart[from]);
+			return;
+		}
+		for (int l = normalizedQuery.length() - 1; l >= 0; l--) {
+			String prefix = normalizedQuery.substring(0, l);
+			int i = lowerBound(prefix);
+			if (i < keys.length && keys[i].equals(prefix)) {
+				list.add(values, valuesStart[i], valuesStart[i + 1] - valuesStart[i]);
+				return;
+			}
+		}
+	}
+
+	private int lowerBound(String key) {
+		int lo = 0;
+		int hi = keys.length;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (keys[mid].compareTo(key) < 0) {
+				lo = mid + 1;
+			} else {
+				hi = mid;
+			}
+		}
+		return lo;
+	}
+}
@@ -0,0 +1,226 @@
+package net.osmand.binary;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.osmand.binary.OsmandIndex.FileIndex;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedOutputStream;
+
+/**
+ * Append-only table of cached file indexes. File is memory mapped and only record headers are scanned
+ * on open to build hash index (file name -> record), entry is decoded when it is requested for file
+ * with the same size. New or changed files are appended, older records of the same file name are
+ * skipped and removed by {@link #compact()}. Appended records are mapped when they are read
+ * (file is not remapped after every append).
+ *
+ * Format: int MAGIC, int version, records: int length, long file size, long date modified,
+ * short name length, UTF-8 name, {@link FileIndex} message.
+ */
+class FileIndexTable {
+
+	private static final int MAGIC = 0x4f434254;
+	private static final int HEADER_SIZE = 8;
+	// length, size, date, name length
+	private static final int RECORD_HEADER_SIZE = 4 + 8 + 8 + 2;
+
+	private final File file;
+	private RandomAccessFile raf;
+	private MappedByteBuffer buffer;
+	private long fileLength;
+	private long deadBytes;
+	// file name -> offset of record
+	private final Map<String, Long> records = new HashMap<String, Long>();
+
+	private FileIndexTable(File file) {
+		this.file = file;
+	}
+
+	/**
+	 * Opens table (creates new one if file doesn't exist or it has different version)
+	 */
+	public static FileIndexTable open(File file, int version) throws IOException {
+		FileIndexTable t = new FileIndexTable(file);
+		t.init(version);
+		return t;
+	}
+
+	private void init(int version) throws IOException {
+		raf = new RandomAccessFile(file, "rw");
+		fileLength = raf.length();
+		boolean valid = fileLength >= HEADER_SIZE;
+		if (valid) {
+			raf.seek(0);
+			valid = raf.readInt() == MAGIC && raf.readInt() == version;
+		}
+		if (!valid) {
+			raf.setLength(0);
+			raf.writeInt(MAGIC);
+			raf.writeInt(version);
+			fileLength = HEADER_SIZE;
+		}
+		map();
+		long pos = HEADER_SIZE;
+		while (pos + RECORD_HEADER_SIZE <= fileLength) {
+			int length = buffer.getInt((int) pos);
+			if (length < RECORD_HEADER_SIZE - 4 || pos + 4 + length > fileLength) {
+				break;
+			}
+			String name = readName(pos);
+			Long prev = records.put(name, pos);
+			if (prev != null) {
+				deadBytes += 4 + buffer.getInt(prev.intValue());
+			}
+			pos += 4 + length;
+		}
+		if (pos != fileLength) {
+			// last record was not written completely
+			raf.setLength(pos);
+			fileLength = pos;
+			map();
+		}
+	}
+
+	private void map() throws IOException {
+		buffer = raf.getChannel().map(MapMode.READ_ONLY, 0, fileLength);
+	}
+
+	// records are written completely before file length is changed, so record is mapped if its offset is
+	private void checkMapped(long pos) throws IOException {
+		if (pos >= buffer.capacity()) {
+			map();
+		}
+	}
+
+	private String readName(long pos) throws UnsupportedEncodingException {
+		int nameLength = buffer.getShort((int) pos + RECORD_HEADER_SIZE - 2) & 0xffff;
+		byte[] b = new byte[nameLength];
+		ByteBuffer d = buffer.duplicate();
+		d.position((int) pos + RECORD_HEADER_SIZE);
+		d.get(b);
+		return new String(b, "UTF-8");
+	}
+
+	public synchronized boolean isEmpty() {
+		return records.isEmpty();
+	}
+
+	/**
+	 * @return decoded index of file if table contains entry with the same name and size
+	 */
+	public synchronized FileIndex get(String fileName, long size) throws IOException {
+		Long pos = records.get(fileName);
+		if (pos == null) {
+			return null;
+		}
+		int p = pos.intValue();
+		checkMapped(p);
+		if (buffer.getLong(p + 4) != size) {
+			return null;
+		}
+		return readFileIndex(p);
+	}
+
+	private FileIndex readFileIndex(int pos) throws IOException {
+		int length = buffer.getInt(pos);
+		int nameLength = buffer.getShort(pos + RECORD_HEADER_SIZE - 2) & 0xffff;
+		int start = pos + RECORD_HEADER_SIZE + nameLength;
+		byte[] data = new byte[pos + 4 + length - start];
+		ByteBuffer d = buffer.duplicate();
+		d.position(start);
+		d.get(data);
+		return FileIndex.parseFrom(data);
+	}
+
+	/**
+	 * @return all actual entries in order of appending
+	 */
+	public synchronized List<FileIndex> getAll() throws IOException {
+		List<FileIndex> res = new ArrayList<FileIndex>(records.size());
+		for (Long l : getActualOffsets()) {
+			res.add(readFileIndex(l.intValue()));
+		}
+		return res;
+	}
+
+	/**
+	 * Writes all actual entries (in order of appending) as length delimited fields without decoding them
+	 */
+	public synchronized void writeEntries(CodedOutputStream out, int fieldNumber) throws IOException {
+		for (Long l : getActualOffsets()) {
+			int pos = l.intValue();
+			int nameLength = buffer.getShort(pos + RECORD_HEADER_SIZE - 2) & 0xffff;
+			int start = pos + RECORD_HEADER_SIZE + nameLength;
+			byte[] data = new byte[pos + 4 + buffer.getInt(pos) - start];
+			ByteBuffer d = buffer.duplicate();
+			d.position(start);
+			d.get(data);
+			out.writeBytes(fieldNumber, ByteString.copyFrom(data));
+		}
+	}
+
+	private List<Long> getActualOffsets() throws IOException {
+		checkMapped(fileLength - 1);
+		List<Long> offsets = new ArrayList<Long>(records.values());
+		Collections.sort(offsets);
+		return offsets;
+	}
+
+	/**
+	 * Appends entry, previous entry of the same file name becomes obsolete
+	 */
+	public synchronized void append(FileIndex fi) throws IOException {
+		byte[] name = fi.getFileName().getBytes("UTF-8");
+		byte[] data = fi.toByteArray();
+		ByteBuffer rec = ByteBuffer.allocate(RECORD_HEADER_SIZE + name.length + data.length);
+		rec.putInt(rec.capacity() - 4);
+		rec.putLong(fi.getSize());
+		rec.putLong(fi.getDateModified());
+		rec.putShort((short) name.length);
+		rec.put(name);
+		rec.put(data);
+		rec.flip();
+		long pos = fileLength;
+		raf.getChannel().write(rec, pos);
+		fileLength += rec.limit();
+		Long prev = records.put(fi.getFileName(), pos);
+		if (prev != null) {
+			checkMapped(prev);
+			deadBytes += 4 + buffer.getInt(prev.intValue());
+		}
+	}
+
+	/**
+	 * Rewrites table without obsolete entries if they take more space than actual ones
+	 */
+	public synchronized void compact() throws IOException {
+		if (deadBytes == 0 || deadBytes * 2 < fileLength - HEADER_SIZE) {
+			return;
+		}
+		List<FileIndex> all = getAll();
+		records.clear();
+		deadBytes = 0;
+		raf.setLength(HEADER_SIZE);
+		fileLength = HEADER_SIZE;
+		for (FileIndex fi : all) {
+			append(fi);
+		}
+		map();
+	}
+
+	public synchronized void close() throws IOException {
+		buffer = null;
+		raf.close();
+	}
+}
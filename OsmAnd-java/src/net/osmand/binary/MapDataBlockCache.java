@@ -0,0 +1,158 @@
+package net.osmand.binary;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map.Entry;
+
+/**
+ * Size bounded cache of decoded map data blocks shared by all searches (renderer, regions lookup) of
+ * one or many readers. Block is decoded completely (all objects without search filter), bbox and
+ * search filter are applied to cached objects by every request. Least recently used blocks are evicted
+ * when estimated size exceeds limit. Cached objects are not modified after decoding.
+ */
+public class MapDataBlockCache {
+
+	private final long memoryLimit;
+	private long size;
+	private int hits;
+	private int misses;
+	private final LinkedHashMap<BlockKey, MapDataBlock> blocks = new LinkedHashMap<BlockKey, MapDataBlock>(64, 0.75f, true);
+
+	public MapDataBlockCache(long memoryLimitBytes) {
+		this.memoryLimit = memoryLimitBytes;
+	}
+
+	/**
+	 * Decoded objects of one block with bounding boxes
+	 */
+	static class MapDataBlock {
+		final BinaryMapDataObject[] objects;
+		// minX, maxX, minY, maxY for every object
+		final int[] bounds;
+		final long estimatedSize;
+
+		MapDataBlock(List<BinaryMapDataObject> list) {
+			objects = list.toArray(new BinaryMapDataObject[list.size()]);
+			bounds = new int[objects.length * 4];
+			long sz = 64 + objects.length * 16;
+			for (int i = 0; i < objects.length; i++) {
+				BinaryMapDataObject o = objects[i];
+				int minX = Integer.MAX_VALUE, maxX = 0, minY = Integer.MAX_VALUE, maxY = 0;
+				for (int k = 0; k < o.coordinates.length; k += 2) {
+					minX = Math.min(minX, o.coordinates[k]);
+					maxX = Math.max(maxX, o.coordinates[k]);
+					minY = Math.min(minY, o.coordinates[k + 1]);
+					maxY = Math.max(maxY, o.coordinates[k + 1]);
+				}
+				bounds[4 * i] = minX;
+				bounds[4 * i + 1] = maxX;
+				bounds[4 * i + 2] = minY;
+				bounds[4 * i + 3] = maxY;
+				sz += estimateSize(o);
+			}
+			estimatedSize = sz;
+		}
+
+		private static long estimateSize(BinaryMapDataObject o) {
+			long sz = 96 + o.coordinates.length * 4 + o.types.length * 4 + o.additionalTypes.length * 4;
+			if (o.polygonInnerCoordinates != null) {
+				for (int[] p : o.polygonInnerCoordinates) {
+					sz += 16 + p.length * 4;
+				}
+			}
+			if (o.objectNames != null) {
+				for (String s : o.objectNames.valueCollection()) {
+					sz += 56 + s.length() * 2;
+				}
+			}
+			return sz;
+		}
+
+		boolean intersects(int i, int left, int right, int top, int bottom) {
+			return bounds[4 * i + 1] >= left && bounds[4 * i] <= right && bounds[4 * i + 2] <= bottom
+					&& bounds[4 * i + 3] >= top;
+		}
+	}
+
+	synchronized MapDataBlock get(BinaryMapIndexReader reader, long filePointer) {
+		MapDataBlock b = blocks.get(new BlockKey(reader, filePointer));
+		if (b == null) {
+			misses++;
+		} else {
+			hits++;
+		}
+		return b;
+	}
+
+	synchronized void put(BinaryMapIndexReader reader, long filePointer, MapDataBlock block) {
+		if (block.estimatedSize > memoryLimit) {
+			return;
+		}
+		MapDataBlock prev = blocks.put(new BlockKey(reader, filePointer), block);
+		if (prev != null) {
+			size -= prev.estimatedSize;
+		}
+		size += block.estimatedSize;
+		Iterator<Entry<BlockKey, MapDataBlock>> it = blocks.entrySet().iterator();
+		while (size > memoryLimit && it.hasNext()) {
+			size -= it.next().getValue().estimatedSize;
+			it.remove();
+		}
+	}
+
+	/**
+	 * Removes blocks of reader (should be called when file is closed)
+	 */
+	public synchronized void clear(BinaryMapIndexReader reader) {
+		Iterator<Entry<BlockKey, MapDataBlock>> it = blocks.entrySet().iterator();
+		while (it.hasNext()) {
+			Entry<BlockKey, MapDataBlock> e = it.next();
+			if (e.getKey().reader == reader) {
+				size -= e.getValue().estimatedSize;
+				it.remove();
+			}
+		}
+	}
+
+	public synchronized void clear() {
+		blocks.clear();
+		size = 0;
+	}
+
+	public synchronized long getEstimatedSize() {
+		return size;
+	}
+
+	public synchronized int getHits() {
+		return hits;
+	}
+
+	public synchronized int getMisses() {
+		return misses;
+	}
+
+	private static class BlockKey {
+		private final BinaryMapIndexReader reader;
+		private final long filePointer;
+
+		BlockKey(BinaryMapIndexReader reader, long filePointer) {
+			this.reader = reader;
+			this.filePointer = filePointer;
+		}
+
+		@Override
+		public int hashCode() {
+			return System.identityHashCode(reader) * 31 + (int) (filePointer ^ (filePointer >>> 32));
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof BlockKey)) {
+				return false;
+			}
+			BlockKey o = (BlockKey) obj;
+			return o.reader == reader && o.filePointer == filePointer;
+		}
+	}
+}
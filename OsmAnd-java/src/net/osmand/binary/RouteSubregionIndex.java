@@ -0,0 +1,305 @@
+package net.osmand.binary;
+
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.list.array.TLongArrayList;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import net.osmand.PlatformUtil;
+import net.osmand.binary.BinaryMapIndexReader.SearchRequest;
+import net.osmand.binary.BinaryMapRouteReaderAdapter.RouteRegion;
+import net.osmand.binary.BinaryMapRouteReaderAdapter.RouteSubregion;
+
+import org.apache.commons.logging.Log;
+
+/**
+ * Flat spatial index of routing subregions with data (tile headers) of one file for normal and base routing.
+ * Subregions are assigned to cells of fixed grid, so subregions intersecting the tile are found without reading
+ * subregion trees from the file. Index is built once and stored as sidecar file (see {@link #loadOrCreate}).
+ */
+public class RouteSubregionIndex {
+
+	private final static Log log = PlatformUtil.getLog(RouteSubregionIndex.class);
+
+	private static final int MAGIC = 0x4f525349;
+	private static final int VERSION = 1;
+	public static final int GRID_ZOOM = 13;
+	private static final int SHIFT = 31 - GRID_ZOOM;
+	// subregions covering more cells are checked for every request
+	private static final int MAX_CELLS_PER_SUBREGION = 256;
+	// size of subregion header in file
+	private static final int SUBREGION_BYTES = 8 * 4;
+
+	private long dateCreated;
+	private int[] regionPointers;
+	// 0 - normal, 1 - base (subregions are in order of tree traversal)
+	private final RouteSubregion[][] subregions = new RouteSubregion[2][];
+	private final long[][] cells = new long[2][];
+	private final int[][] cellStart = new int[2][];
+	private final int[][] cellEntries = new int[2][];
+	private final int[][] large = new int[2][];
+
+	private RouteSubregionIndex() {
+	}
+
+	/**
+	 * @return subregions with data intersecting bbox (in the same order as tree search returns)
+	 */
+	public List<RouteSubregion> search(boolean base, int left, int right, int top, int bottom) {
+		int mode = base ? 1 : 0;
+		RouteSubregion[] srs = subregions[mode];
+		TIntArrayList found = new TIntArrayList();
+		int cx1 = left >>> SHIFT, cx2 = right >>> SHIFT, cy1 = top >>> SHIFT, cy2 = bottom >>> SHIFT;
+		for (int cx = cx1; cx <= cx2; cx++) {
+			for (int cy = cy1; cy <= cy2; cy++) {
+				int ind = Arrays.binarySearch(cells[mode], cellId(cx, cy));
+				if (ind >= 0) {
+					for (int k = cellStart[mode][ind]; k < cellStart[mode][ind + 1]; k++) {
+						found.add(cellEntries[mode][k]);
+					}
+				}
+			}
+		}
+		found.add(large[mode]);
+		found.sort();
+		List<RouteSubregion> res = new ArrayList<RouteSubregion>(Math.min(found.size(), 8));
+		int prev = -1;
+		for (int k = 0; k < found.size(); k++) {
+			int i = found.get(k);
+			RouteSubregion rs = srs[i];
+			if (i != prev && rs.right >= left && rs.left <= right && rs.top <= bottom && rs.bottom >= top) {
+				res.add(rs);
+			}
+			prev = i;
+		}
+		return res;
+	}
+
+	public int getSubregionsCount(boolean base) {
+		return subregions[base ? 1 : 0].length;
+	}
+
+	private static long cellId(int cx, int cy) {
+		return (((long) cx) << GRID_ZOOM) + cy;
+	}
+
+	private boolean matches(BinaryMapIndexReader reader) {
+		List<RouteRegion> regions = reader.getRoutingIndexes();
+		if (dateCreated != reader.getDateCreated() || regionPointers.length != regions.size()) {
+			return false;
+		}
+		for (int i = 0; i < regionPointers.length; i++) {
+			if (regionPointers[i] != regions.get(i).getFilePointer()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Reads index from file if it is up to date with reader or builds it (reading whole subregion trees) and saves
+	 */
+	public static RouteSubregionIndex loadOrCreate(BinaryMapIndexReader reader, File indexFile) throws IOException {
+		if (indexFile.exists()) {
+			try {
+				RouteSubregionIndex index = readFromFile(indexFile, reader);
+				if (index.matches(reader)) {
+					return index;
+				}
+			} catch (IOException e) {
+				log.warn("Route subregion index " + indexFile.getName() + " is not valid: " + e.getMessage());
+			}
+		}
+		long time = System.currentTimeMillis();
+		RouteSubregionIndex index = build(reader);
+		try {
+			index.writeToFile(indexFile);
+		} catch (IOException e) {
+			log.warn("Route subregion index " + indexFile.getName() + " could not be saved: " + e.getMessage());
+		}
+		log.info("Route subregion index " + indexFile.getName() + " is built in " + (System.currentTimeMillis() - time)
+				+ " ms, subregions " + index.getSubregionsCount(false) + "/" + index.getSubregionsCount(true));
+		return index;
+	}
+
+	public static RouteSubregionIndex build(BinaryMapIndexReader reader) throws IOException {
+		RouteSubregionIndex index = new RouteSubregionIndex();
+		List<RouteRegion> regions = reader.getRoutingIndexes();
+		index.dateCreated = reader.getDateCreated();
+		index.regionPointers = new int[regions.size()];
+		for (int i = 0; i < regions.size(); i++) {
+			index.regionPointers[i] = regions.get(i).getFilePointer();
+		}
+		SearchRequest<RouteDataObject> request = BinaryMapIndexReader.buildSearchRouteRequest(0, Integer.MAX_VALUE, 0,
+				Integer.MAX_VALUE, null);
+		for (int mode = 0; mode < 2; mode++) {
+			List<RouteSubregion> roots = new ArrayList<RouteSubregion>();
+			for (RouteRegion r : regions) {
+				for (RouteSubregion rs : mode == 1 ? r.getBaseSubregions() : r.getSubregions()) {
+					roots.add(new RouteSubregion(rs));
+				}
+			}
+			List<RouteSubregion> all;
+			synchronized (reader) {
+				all = reader.searchRouteIndexTree(request, roots);
+			}
+			RouteSubregion[] srs = new RouteSubregion[all.size()];
+			for (int i = 0; i < srs.length; i++) {
+				// keep only header (children and data are not needed)
+				srs[i] = new RouteSubregion(all.get(i));
+			}
+			index.subregions[mode] = srs;
+			index.buildCells(mode);
+		}
+		return index;
+	}
+
+	private void buildCells(int mode) {
+		RouteSubregion[] srs = subregions[mode];
+		TLongArrayList pairs = new TLongArrayList();
+		TIntArrayList largeList = new TIntArrayList();
+		for (int i = 0; i < srs.length; i++) {
+			RouteSubregion rs = srs[i];
+			int cx1 = rs.left >>> SHIFT, cx2 = rs.right >>> SHIFT, cy1 = rs.top >>> SHIFT, cy2 = rs.bottom >>> SHIFT;
+			if ((long) (cx2 - cx1 + 1) * (cy2 - cy1 + 1) > MAX_CELLS_PER_SUBREGION) {
+				largeList.add(i);
+				continue;
+			}
+			for (int cx = cx1; cx <= cx2; cx++) {
+				for (int cy = cy1; cy <= cy2; cy++) {
+					pairs.add((cellId(cx, cy) << 31) + i);
+				}
+			}
+		}
+		pairs.sort();
+		TLongArrayList cellIds = new TLongArrayList();
+		TIntArrayList starts = new TIntArrayList();
+		int[] entries = new int[pairs.size()];
+		for (int k = 0; k < pairs.size(); k++) {
+			long cell = pairs.get(k) >>> 31;
+			if (cellIds.isEmpty() || cellIds.get(cellIds.size() - 1) != cell) {
+				cellIds.add(cell);
+				starts.add(k);
+			}
+			entries[k] = (int) (pairs.get(k) & Integer.MAX_VALUE);
+		}
+		starts.add(pairs.size());
+		cells[mode] = cellIds.toArray();
+		cellStart[mode] = starts.toArray();
+		cellEntries[mode] = entries;
+		large[mode] = largeList.toArray();
+	}
+
+	public void writeToFile(File f) throws IOException {
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(f), 1 << 16));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeLong(dateCreated);
+			writeArray(out, regionPointers);
+			for (int mode = 0; mode < 2; mode++) {
+				RouteSubregion[] srs = subregions[mode];
+				out.writeInt(srs.length);
+				for (RouteSubregion rs : srs) {
+					out.writeInt(regionIndex(rs));
+					out.writeInt(rs.filePointer);
+					out.writeInt(rs.length);
+					out.writeInt(rs.shiftToData);
+					out.writeInt(rs.left);
+					out.writeInt(rs.right);
+					out.writeInt(rs.top);
+					out.writeInt(rs.bottom);
+				}
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	private int regionIndex(RouteSubregion rs) {
+		for (int i = 0; i < regionPointers.length; i++) {
+			if (regionPointers[i] == rs.routeReg.getFilePointer()) {
+				return i;
+			}
+		}
+		throw new IllegalStateException();
+	}
+
+	public static RouteSubregionIndex readFromFile(File f, BinaryMapIndexReader reader) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(f), 1 << 16));
+		try {
+			if (in.readInt() != MAGIC) {
+				throw new IOException("File " + f.getName() + " is not a route subregion index file");
+			}
+			int version = in.readInt();
+			if (version != VERSION) {
+				throw new IOException("Unsupported route subregion index version " + version);
+			}
+			RouteSubregionIndex index = new RouteSubregionIndex();
+			index.dateCreated = in.readLong();
+			index.regionPointers = readArray(in, reader.getRoutingIndexes().size());
+			if (!index.matches(reader)) {
+				return index;
+			}
+			List<RouteRegion> regions = reader.getRoutingIndexes();
+			for (int mode = 0; mode < 2; mode++) {
+				RouteSubregion[] srs = new RouteSubregion[readSize(in, (int) (f.length() / SUBREGION_BYTES))];
+				for (int i = 0; i < srs.length; i++) {
+					int region = in.readInt();
+					if (region < 0 || region >= regions.size()) {
+						throw new IOException("Wrong region index " + region);
+					}
+					RouteSubregion rs = new RouteSubregion(regions.get(region));
+					rs.filePointer = in.readInt();
+					rs.length = in.readInt();
+					rs.shiftToData = in.readInt();
+					rs.left = in.readInt();
+					rs.right = in.readInt();
+					rs.top = in.readInt();
+					rs.bottom = in.readInt();
+					srs[i] = rs;
+				}
+				index.subregions[mode] = srs;
+				// grid is cheap to build in memory
+				index.buildCells(mode);
+			}
+			return index;
+		} finally {
+			in.close();
+		}
+	}
+
+	private static void writeArray(DataOutputStream out, int[] ar) throws IOException {
+		out.writeInt(ar.length);
+		for (int i = 0; i < ar.length; i++) {
+			out.writeInt(ar[i]);
+		}
+	}
+
+	private static int[] readArray(DataInputStream in, int maxLength) throws IOException {
+		int[] ar = new int[readSize(in, maxLength)];
+		for (int i = 0; i < ar.length; i++) {
+			ar[i] = in.readInt();
+		}
+		return ar;
+	}
+
+	// file could be corrupted, wrong size is reported as IOException (index is rebuilt)
+	private static int readSize(DataInputStream in, int maxSize) throws IOException {
+		int size = in.readInt();
+		if (size < 0 || size > maxSize) {
+			throw new IOException("Wrong size " + size);
+		}
+		return size;
+	}
+}
@@ -10,6 +10,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.LinkedList;
@@ -23,6 +24,7 @@ import net.osmand.binary.BinaryMapDataObject;
 import net.osmand.binary.BinaryMapIndexReader;
 import net.osmand.binary.BinaryMapIndexReader.MapIndex;
 import net.osmand.binary.BinaryMapIndexReader.TagValuePair;
+import net.osmand.binary.MapDataBlockCache;
 import net.osmand.data.QuadRect;
 import net.osmand.data.QuadTree;
 import net.osmand.util.MapAlgorithms;
@@ -30,11 +32,16 @@ import net.osmand.util.MapUtils;
 
 public class OsmandRegions {
 
+	private static final int REGIONS_CACHE_SIZE = 4 << 20;
 	private BinaryMapIndexReader reader;
 	Map<String, LinkedList<BinaryMapDataObject>> countriesByDownloadName = new HashMap<String, LinkedList<BinaryMapDataObject>>();
 	Map<String, String> downloadNamesToLocaleNames = new HashMap<String, String>();
 	Map<String, String> downloadNamesToLowercaseIndex = new HashMap<String, String>();
-	QuadTree<String> quadTree = null ;
+	// published after grids, so grids are complete when quad tree is not null
+	volatile QuadTree<String> quadTree = null ;
+	// point in polygon grids of countries polygons (built with quad tree)
+	volatile Map<String, List<RegionPolygonGrid>> gridsByDownloadName = new HashMap<String, List<RegionPolygonGrid>>();
+	volatile Map<BinaryMapDataObject, RegionPolygonGrid> gridsByObject = new IdentityHashMap<BinaryMapDataObject, RegionPolygonGrid>();
 
 
 	Integer prefixType = null;
@@ -49,6 +56,8 @@ public class OsmandRegions {
 
 	public void prepareFile(String fileName) throws IOException {
 		reader = new BinaryMapIndexReader(new RandomAccessFile(fileName, "r"));
+		// regions are queried for the same tiles many times
+		reader.setMapDataBlockCache(new MapDataBlockCache(REGIONS_CACHE_SIZE));
 		initLocaleNames();
 	}
 
@@ -134,6 +143,10 @@ public class OsmandRegions {
 
 
 	public boolean contain(BinaryMapDataObject bo, int tx, int ty) {
+		RegionPolygonGrid grid = gridsByObject.get(bo);
+		if (grid != null) {
+			return grid.contains(tx, ty);
+		}
 		int t = 0;
 		for (int i = 1; i < bo.getPointsLength(); i++) {
 			int fx = MapAlgorithms.ray_intersect_x(bo.getPoint31XTile(i - 1),
@@ -147,34 +160,29 @@ public class OsmandRegions {
 		return t % 2 == 1;
 	}
 
-	private List<BinaryMapDataObject> getCountries(int tile31x, int tile31y) {
+	private List<BinaryMapDataObject> getCountries(QuadTree<String> quadTree, int tile31x, int tile31y) {
 		HashSet<String> set = new HashSet<String>(quadTree.queryInBox(new QuadRect(tile31x, tile31y, tile31x, tile31y),
 				new ArrayList<String>()));
 		List<BinaryMapDataObject> result = new ArrayList<BinaryMapDataObject>();
 		Iterator<String> it = set.iterator();
-
+		Map<String, List<RegionPolygonGrid>> gridsByDownloadName = this.gridsByDownloadName;
 		while (it.hasNext()) {
 			String cname = it.next();
-			BinaryMapDataObject container = null;
-			int count = 0;
-			for (BinaryMapDataObject bo : countriesByDownloadName.get(cname)) {
-				if (contain(bo, tile31x, tile31y)) {
-					count++;
-					container = bo;
+			for (RegionPolygonGrid grid : gridsByDownloadName.get(cname)) {
+				if (grid.contains(tile31x, tile31y)) {
+					result.add(grid.getObject());
 					break;
 				}
 			}
-			if (count % 2 == 1) {
-				result.add(container);
-			}
 		}
 		return result;
 	}
 
 
 	public List<BinaryMapDataObject> query(final int tile31x, final int tile31y) throws IOException {
+		QuadTree<String> quadTree = this.quadTree;
 		if(quadTree != null) {
-			return getCountries(tile31x, tile31y);
+			return getCountries(quadTree, tile31x, tile31y);
 		}
 		return queryNoInit(tile31x, tile31y);
 	}
@@ -217,6 +225,21 @@ public class OsmandRegions {
 
 	public List<BinaryMapDataObject> queryBbox(int lx, int rx, int ty, int by) throws IOException {
 		final List<BinaryMapDataObject> result = new ArrayList<BinaryMapDataObject>();
+		QuadTree<String> quadTree = this.quadTree;
+		if (quadTree != null) {
+			// cached objects (their polygon grids are used by contain)
+			Map<String, List<RegionPolygonGrid>> gridsByDownloadName = this.gridsByDownloadName;
+			HashSet<String> set = new HashSet<String>(quadTree.queryInBox(new QuadRect(lx, ty, rx, by),
+					new ArrayList<String>()));
+			for (String cname : set) {
+				for (RegionPolygonGrid grid : gridsByDownloadName.get(cname)) {
+					if (grid.intersects(lx, ty, rx, by)) {
+						result.add(grid.getObject());
+					}
+				}
+			}
+			return result;
+		}
 		BinaryMapIndexReader.SearchRequest<BinaryMapDataObject> sr = BinaryMapIndexReader.buildSearchRequest(lx, rx, ty, by,
 				5, new BinaryMapIndexReader.SearchFilter() {
 					@Override
@@ -321,8 +344,10 @@ public class OsmandRegions {
 
 
 	public void cacheAllCountries() throws IOException {
-		quadTree = new QuadTree<String>(new QuadRect(0, 0, Integer.MAX_VALUE, Integer.MAX_VALUE),
+		final QuadTree<String> quadTree = new QuadTree<String>(new QuadRect(0, 0, Integer.MAX_VALUE, Integer.MAX_VALUE),
 				8, 0.55f);
+		final Map<String, LinkedList<BinaryMapDataObject>> countriesByDownloadName = 
+				new HashMap<String, LinkedList<BinaryMapDataObject>>();
 		final ResultMatcher<BinaryMapDataObject> resultMatcher = new ResultMatcher<BinaryMapDataObject>() {
 			@Override
 			public boolean publish(BinaryMapDataObject object) {
@@ -366,6 +391,22 @@ public class OsmandRegions {
 			}
 		};
 		iterateOverAllObjects(resultMatcher);
+		Map<String, List<RegionPolygonGrid>> gridsByDownloadName = new HashMap<String, List<RegionPolygonGrid>>();
+		Map<BinaryMapDataObject, RegionPolygonGrid> gridsByObject = new IdentityHashMap<BinaryMapDataObject, RegionPolygonGrid>();
+		for (Map.Entry<String, LinkedList<BinaryMapDataObject>> e : countriesByDownloadName.entrySet()) {
+			List<RegionPolygonGrid> grids = new ArrayList<RegionPolygonGrid>(e.getValue().size());
+			for (BinaryMapDataObject o : e.getValue()) {
+				RegionPolygonGrid grid = new RegionPolygonGrid(o);
+				grids.add(grid);
+				gridsByObject.put(o, grid);
+			}
+			gridsByDownloadName.put(e.getKey(), grids);
+		}
+		// grids are published before quad tree which is checked by queries
+		this.countriesByDownloadName = countriesByDownloadName;
+		this.gridsByDownloadName = gridsByDownloadName;
+		this.gridsByObject = gridsByObject;
+		this.quadTree = quadTree;
 	}
 
 	private void iterateOverAllObjects(final ResultMatcher<BinaryMapDataObject> resultMatcher) throws IOException {
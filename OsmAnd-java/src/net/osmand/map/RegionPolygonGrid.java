@@ -0,0 +1,184 @@
+package net.osmand.map;
+
+import gnu.trove.list.array.TIntArrayList;
+import net.osmand.binary.BinaryMapDataObject;
+import net.osmand.util.MapAlgorithms;
+
+/**
+ * Grid over bounding box of region polygon for fast point in polygon checks. Every cell is marked as inside,
+ * outside or boundary (some edge box intersects it), edges are stored only for boundary cells.
+ * Point of inside/outside cell is resolved by cell state, point of boundary cell by state of cell center
+ * (computed on build) and number of crossings of segment (center, point) with edges of the cell.
+ */
+class RegionPolygonGrid {
+
+	private static final int MAX_CELLS = 64;
+	private static final byte OUTSIDE = 0;
+	private static final byte INSIDE = 1;
+	// boundary cell, lowest bit is state of cell center
+	private static final byte BOUNDARY = 2;
+
+	private final BinaryMapDataObject object;
+	private final int[] xs;
+	private final int[] ys;
+	private final int left;
+	private final int top;
+	private final int right;
+	private final int bottom;
+	private final int cols;
+	private final int rows;
+	private final long cellWidth;
+	private final long cellHeight;
+	private final byte[] states;
+	// edges of boundary cell i (index of edge end point) are cellEdges[cellStart[i] .. cellStart[i + 1])
+	private final int[] cellStart;
+	private final int[] cellEdges;
+
+	public RegionPolygonGrid(BinaryMapDataObject object) {
+		this.object = object;
+		int n = object.getPointsLength();
+		xs = new int[n];
+		ys = new int[n];
+		int l = Integer.MAX_VALUE, t = Integer.MAX_VALUE, r = Integer.MIN_VALUE, b = Integer.MIN_VALUE;
+		for (int i = 0; i < n; i++) {
+			xs[i] = object.getPoint31XTile(i);
+			ys[i] = object.getPoint31YTile(i);
+			l = Math.min(l, xs[i]);
+			r = Math.max(r, xs[i]);
+			t = Math.min(t, ys[i]);
+			b = Math.max(b, ys[i]);
+		}
+		left = l;
+		top = t;
+		right = r;
+		bottom = b;
+		int size = Math.max(1, Math.min(MAX_CELLS, (int) Math.sqrt(n)));
+		cols = size;
+		rows = size;
+		cellWidth = ((long) right - left) / cols + 1;
+		cellHeight = ((long) bottom - top) / rows + 1;
+		states = new byte[cols * rows];
+
+		// edges by cells (cells intersecting edge bounding box)
+		cellStart = new int[cols * rows + 1];
+		for (int i = 1; i < n; i++) {
+			int c0 = col(Math.min(xs[i - 1], xs[i]));
+			int c1 = col(Math.max(xs[i - 1], xs[i]));
+			int r0 = row(Math.min(ys[i - 1], ys[i]));
+			int r1 = row(Math.max(ys[i - 1], ys[i]));
+			for (int rw = r0; rw <= r1; rw++) {
+				for (int c = c0; c <= c1; c++) {
+					cellStart[rw * cols + c + 1]++;
+				}
+			}
+		}
+		for (int i = 0; i < states.length; i++) {
+			cellStart[i + 1] += cellStart[i];
+		}
+		cellEdges = new int[cellStart[states.length]];
+		int[] fill = new int[states.length];
+		for (int i = 1; i < n; i++) {
+			int c0 = col(Math.min(xs[i - 1], xs[i]));
+			int c1 = col(Math.max(xs[i - 1], xs[i]));
+			int r0 = row(Math.min(ys[i - 1], ys[i]));
+			int r1 = row(Math.max(ys[i - 1], ys[i]));
+			for (int rw = r0; rw <= r1; rw++) {
+				for (int c = c0; c <= c1; c++) {
+					int cell = rw * cols + c;
+					cellEdges[cellStart[cell] + fill[cell]++] = i;
+				}
+			}
+		}
+
+		// state of cell centers by crossings of horizontal ray through centers of row (as in OsmandRegions.contain)
+		TIntArrayList crossings = new TIntArrayList();
+		for (int rw = 0; rw < rows; rw++) {
+			int cy = centerY(rw);
+			crossings.resetQuick();
+			for (int i = 1; i < n; i++) {
+				int fx = MapAlgorithms.ray_intersect_x(xs[i - 1], ys[i - 1], xs[i], ys[i], cy);
+				if (fx != Integer.MIN_VALUE) {
+					crossings.add(fx);
+				}
+			}
+			crossings.sort();
+			int k = 0;
+			for (int c = 0; c < cols; c++) {
+				int cx = centerX(c);
+				while (k < crossings.size() && crossings.getQuick(k) <= cx) {
+					k++;
+				}
+				int cell = rw * cols + c;
+				byte st = k % 2 == 1 ? INSIDE : OUTSIDE;
+				if (cellStart[cell + 1] > cellStart[cell]) {
+					st |= BOUNDARY;
+				}
+				states[cell] = st;
+			}
+		}
+	}
+
+	public BinaryMapDataObject getObject() {
+		return object;
+	}
+
+	private int col(int x) {
+		return (int) (((long) x - left) / cellWidth);
+	}
+
+	private int row(int y) {
+		return (int) (((long) y - top) / cellHeight);
+	}
+
+	private int centerX(int c) {
+		return (int) Math.min(right, left + c * cellWidth + cellWidth / 2);
+	}
+
+	private int centerY(int r) {
+		return (int) Math.min(bottom, top + r * cellHeight + cellHeight / 2);
+	}
+
+	public boolean intersects(int l, int t, int r, int b) {
+		return l <= right && r >= left && t <= bottom && b >= top;
+	}
+
+	public boolean contains(int x, int y) {
+		if (x < left || x > right || y < top || y > bottom) {
+			return false;
+		}
+		int c = col(x);
+		int r = row(y);
+		int cell = r * cols + c;
+		byte st = states[cell];
+		boolean inside = (st & INSIDE) != 0;
+		if ((st & BOUNDARY) == 0) {
+			return inside;
+		}
+		int cx = centerX(c);
+		int cy = centerY(r);
+		for (int k = cellStart[cell]; k < cellStart[cell + 1]; k++) {
+			int i = cellEdges[k];
+			if (crosses(cx, cy, x, y, xs[i - 1], ys[i - 1], xs[i], ys[i])) {
+				inside = !inside;
+			}
+		}
+		return inside;
+	}
+
+	// segment (cx, cy) - (px, py) crosses edge (ax, ay) - (bx, by), edge end points on segment line are counted
+	// as lying on one side of it, so segment passing through polygon vertex is counted once
+	private static boolean crosses(int cx, int cy, int px, int py, int ax, int ay, int bx, int by) {
+		boolean sideA = cross(cx, cy, px, py, ax, ay) >= 0;
+		boolean sideB = cross(cx, cy, px, py, bx, by) >= 0;
+		if (sideA == sideB) {
+			return false;
+		}
+		long sc = Long.signum(cross(ax, ay, bx, by, cx, cy));
+		long sp = Long.signum(cross(ax, ay, bx, by, px, py));
+		return sc * sp < 0;
+	}
+
+	private static long cross(int x0, int y0, int x1, int y1, int x2, int y2) {
+		return ((long) x1 - x0) * ((long) y2 - y0) - ((long) y1 - y0) * ((long) x2 - x0);
+	}
+}
@@ -1,13 +1,19 @@
 package net.osmand.router;
 
+import gnu.trove.list.array.TIntArrayList;
 import gnu.trove.map.hash.TLongObjectHashMap;
 
 import java.io.IOException;
 import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
-import java.util.PriorityQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 
 import net.osmand.PlatformUtil;
 import net.osmand.binary.RouteDataObject;
@@ -30,6 +36,24 @@ public class BinaryRoutePlanner {
 	private static final int ROUTE_POINTS = 11;
 	private static final boolean TRACE_ROUTING = false;
 	
+	// searches don't stop at segments visited by opposite search (alternative routes)
+	private boolean continueAfterMeeting;
+	// search isn't directed to one target (one-to-many search), h(x) = 0
+	private boolean withoutHeuristic;
+	// runs reverse search of parallel bidirectional search (null - searches run in one thread)
+	private final ExecutorService parallelSearchExecutor;
+	
+	public BinaryRoutePlanner() {
+		this(null);
+	}
+	
+	/**
+	 * @param parallelSearchExecutor bounded executor shared by queries, search runs in one thread when all its threads are busy
+	 */
+	public BinaryRoutePlanner(ExecutorService parallelSearchExecutor) {
+		this.parallelSearchExecutor = parallelSearchExecutor;
+	}
+	
 	
 	public static double squareRootDist(int x1, int y1, int x2, int y2) {
 		// translate into meters 
@@ -41,17 +65,6 @@ public class BinaryRoutePlanner {
 	}
 	
 	
-	private static class SegmentsComparator implements Comparator<RouteSegment> {
-		final RoutingContext ctx;
-		public SegmentsComparator(RoutingContext ctx) {
-			this.ctx = ctx;
-		}
-		@Override
-		public int compare(RouteSegment o1, RouteSegment o2) {
-			return ctx.roadPriorityComparator(o1.distanceFromStart, o1.distanceToEnd, o2.distanceFromStart, o2.distanceToEnd);
-		}
-	}
-	
 	private static class NonHeuristicSegmentsComparator implements Comparator<RouteSegment> {
 		public NonHeuristicSegmentsComparator() {
 		}
@@ -73,8 +86,8 @@ public class BinaryRoutePlanner {
 		ctx.timeToCalculate = System.nanoTime();
 		// Initializing priority queue to visit way segments 
 		Comparator<RouteSegment> nonHeuristicSegmentsComparator = new NonHeuristicSegmentsComparator();
-		PriorityQueue<RouteSegment> graphDirectSegments = new PriorityQueue<RouteSegment>(50, new SegmentsComparator(ctx));
-		PriorityQueue<RouteSegment> graphReverseSegments = new PriorityQueue<RouteSegment>(50, new SegmentsComparator(ctx));
+		RouteSegmentQueue graphDirectSegments = new RouteSegmentQueue(50, ctx.config.heuristicCoefficient);
+		RouteSegmentQueue graphReverseSegments = new RouteSegmentQueue(50, ctx.config.heuristicCoefficient);
 		
 		// Set to not visit one segment twice (stores road.id << X + segmentStart)
 		TLongObjectHashMap<RouteSegment> visitedDirectSegments = new TLongObjectHashMap<RouteSegment>();
@@ -86,11 +99,21 @@ public class BinaryRoutePlanner {
 		// Extract & analyze segment with min(f(x)) from queue while final segment is not found
 		boolean forwardSearch = true;
 		
-		PriorityQueue<RouteSegment>  graphSegments = graphDirectSegments;
+		RouteSegmentQueue graphSegments = graphDirectSegments;
 		
 		FinalRouteSegment finalSegment = null;
 		boolean onlyBackward = ctx.getPlanRoadDirection() < 0;
 		boolean onlyForward = ctx.getPlanRoadDirection() > 0;
+		if (isParallelSearchAllowed(ctx)) {
+			ParallelSearchState state = searchRouteInParallel(ctx, start, end, graphDirectSegments, graphReverseSegments,
+					visitedDirectSegments, visitedOppositeSegments);
+			if (state != null) {
+				finalSegment = state.best;
+				printDebugMemoryInformation(ctx, graphDirectSegments, graphReverseSegments, visitedDirectSegments, visitedOppositeSegments);
+				keepSearchTree(ctx, end, visitedOppositeSegments, finalSegment);
+				return finalSegment;
+			}
+		}
 		while (!graphSegments.isEmpty()) {
 			RouteSegment segment = graphSegments.poll();
 			// use accumulative approach
@@ -122,11 +145,11 @@ public class BinaryRoutePlanner {
 			if (forwardSearch) {
 				boolean doNotAddIntersections = onlyBackward;
 				processRouteSegment(ctx, false, graphDirectSegments, visitedDirectSegments, 
-						segment, visitedOppositeSegments, doNotAddIntersections);
+						segment, visitedOppositeSegments, doNotAddIntersections, null);
 			} else {
 				boolean doNotAddIntersections = onlyForward;
 				processRouteSegment(ctx, true, graphReverseSegments, visitedOppositeSegments, segment,
-						visitedDirectSegments, doNotAddIntersections);
+						visitedDirectSegments, doNotAddIntersections, null);
 			}
 			updateCalculationProgress(ctx, graphDirectSegments, graphReverseSegments);
 			
@@ -163,12 +186,301 @@ public class BinaryRoutePlanner {
 			}
 		}
 		printDebugMemoryInformation(ctx, graphDirectSegments, graphReverseSegments, visitedDirectSegments, visitedOppositeSegments);
+		keepSearchTree(ctx, end, visitedOppositeSegments, finalSegment);
+		return finalSegment;
+	}
+	
+	/**
+	 * Bidirectional search which is continued after the first meeting of searches (searches pass through each other)
+	 * till min f(x) of both queues exceeds maxStretch * time of the best route. Every meeting of searches is
+	 * returned as route via meeting segment, routes are sorted by time (the first one is the best route).
+	 */
+	List<FinalRouteSegment> searchRouteAlternatives(final RoutingContext ctx, RouteSegmentPoint start, RouteSegmentPoint end,
+			TLongObjectHashMap<RouteSegment> visitedDirectSegments, TLongObjectHashMap<RouteSegment> visitedOppositeSegments,
+			float maxStretch) throws InterruptedException, IOException {
+		ctx.timeToLoad = 0;
+		ctx.visitedSegments = 0;
+		ctx.memoryOverhead = 1000;
+		ctx.timeToCalculate = System.nanoTime();
+		continueAfterMeeting = true;
+		Comparator<RouteSegment> nonHeuristicSegmentsComparator = new NonHeuristicSegmentsComparator();
+		RouteSegmentQueue graphDirectSegments = new RouteSegmentQueue(50, ctx.config.heuristicCoefficient);
+		RouteSegmentQueue graphReverseSegments = new RouteSegmentQueue(50, ctx.config.heuristicCoefficient);
+		initQueuesWithStartEnd(ctx, start, end, graphDirectSegments, graphReverseSegments);
+		List<FinalRouteSegment> routes = new ArrayList<FinalRouteSegment>();
+		float maxTime = Float.POSITIVE_INFINITY;
+		while (true) {
+			if (routes.isEmpty()) {
+				checkIfGraphIsEmpty(ctx, true, graphReverseSegments, end, visitedOppositeSegments,
+						"Route is not found to selected target point.");
+				checkIfGraphIsEmpty(ctx, true, graphDirectSegments, start, visitedDirectSegments,
+						"Route is not found from selected start point.");
+			}
+			boolean directAvailable = !graphDirectSegments.isEmpty() && graphDirectSegments.peekKey() <= maxTime;
+			boolean reverseAvailable = !graphReverseSegments.isEmpty() && graphReverseSegments.peekKey() <= maxTime;
+			if (!directAvailable && !reverseAvailable) {
+				break;
+			}
+			boolean forwardSearch = directAvailable;
+			if (directAvailable && reverseAvailable) {
+				forwardSearch = nonHeuristicSegmentsComparator.compare(graphDirectSegments.peek(), graphReverseSegments.peek()) < 0;
+			}
+			RouteSegment segment = forwardSearch ? graphDirectSegments.poll() : graphReverseSegments.poll();
+			if (segment instanceof FinalRouteSegment) {
+				if (routes.isEmpty()) {
+					maxTime = segment.distanceFromStart * maxStretch;
+				}
+				routes.add((FinalRouteSegment) segment);
+				continue;
+			}
+			int queuedSegments = graphDirectSegments.size() + graphReverseSegments.size();
+			if (forwardSearch) {
+				visitSegment(ctx, false, graphDirectSegments, visitedDirectSegments, visitedOppositeSegments, segment,
+						queuedSegments, null);
+			} else {
+				visitSegment(ctx, true, graphReverseSegments, visitedOppositeSegments, visitedDirectSegments, segment,
+						queuedSegments, null);
+			}
+		}
+		Collections.sort(routes, new Comparator<FinalRouteSegment>() {
+			@Override
+			public int compare(FinalRouteSegment o1, FinalRouteSegment o2) {
+				return Float.compare(o1.distanceFromStart, o2.distanceFromStart);
+			}
+		});
+		printDebugMemoryInformation(ctx, graphDirectSegments, graphReverseSegments, visitedDirectSegments, visitedOppositeSegments);
+		return routes;
+	}
+	
+	private void keepSearchTree(RoutingContext ctx, RouteSegmentPoint end, TLongObjectHashMap<RouteSegment> visitedOppositeSegments,
+			FinalRouteSegment finalSegment) {
+		ctx.searchTree = null;
+		if (ctx.keepSearchTree && finalSegment != null && ctx.speedProfiles == null) {
+			ctx.searchTree = new RouteSearchTree(ctx, end, visitedOppositeSegments);
+		}
+	}
+	
+	/**
+	 * Calculate route from start to the destination of kept reverse search tree (using A* in forward direction only),
+	 * search is finished when it reaches segment of the tree.
+	 * return null if tree is not reached after visiting maximum number of segments
+	 */
+	FinalRouteSegment searchRouteFromTree(final RoutingContext ctx, RouteSegmentPoint start, RouteSearchTree tree) throws InterruptedException, IOException {
+		ctx.timeToLoad = 0;
+		ctx.visitedSegments = 0;
+		ctx.memoryOverhead = 1000;
+		ctx.timeToCalculate = System.nanoTime();
+		RouteSegmentQueue graphDirectSegments = new RouteSegmentQueue(50, ctx.config.heuristicCoefficient);
+		TLongObjectHashMap<RouteSegment> visitedDirectSegments = new TLongObjectHashMap<RouteSegment>();
+		TLongObjectHashMap<RouteSegment> visitedOppositeSegments = tree.getReverseSegments();
+		initQueuesWithStartEnd(ctx, start, null, graphDirectSegments, null);
+		FinalRouteSegment finalSegment = null;
+		while (!graphDirectSegments.isEmpty()) {
+			RouteSegment segment = graphDirectSegments.poll();
+			if (segment instanceof FinalRouteSegment) {
+				finalSegment = (FinalRouteSegment) segment;
+				break;
+			}
+			if (ctx.visitedSegments >= tree.getMaxVisitedSegments()) {
+				break;
+			}
+			visitSegment(ctx, false, graphDirectSegments, visitedDirectSegments, visitedOppositeSegments, segment,
+					graphDirectSegments.size(), null);
+		}
+		log.info("Route from kept search tree is " + (finalSegment == null ? "not found" : "found") + ", visited segments "
+				+ ctx.visitedSegments);
 		return finalSegment;
 	}
+	
+	/**
+	 * One-to-many search: forward search without heuristic from start which is continued till all targets are reached.
+	 * Segments of targets are put into visited map of opposite search (as reverse search starts from them),
+	 * so route to every target is the same as found by bidirectional search.
+	 * @return final segment for every target (null if target is not reachable)
+	 */
+	FinalRouteSegment[] searchRouteToTargets(final RoutingContext ctx, RouteSegmentPoint start, RouteSegmentPoint[] targets)
+			throws InterruptedException, IOException {
+		ctx.timeToLoad = 0;
+		ctx.visitedSegments = 0;
+		ctx.memoryOverhead = 1000;
+		ctx.timeToCalculate = System.nanoTime();
+		continueAfterMeeting = true;
+		withoutHeuristic = true;
+		ctx.targetX = ctx.startX;
+		ctx.targetY = ctx.startY;
+		RouteSegmentQueue graphDirectSegments = new RouteSegmentQueue(50, 0);
+		TLongObjectHashMap<RouteSegment> visitedDirectSegments = new TLongObjectHashMap<RouteSegment>();
+		TLongObjectHashMap<RouteSegment> visitedOppositeSegments = new TLongObjectHashMap<RouteSegment>();
+		// route point id of target segment -> indexes of targets
+		TLongObjectHashMap<TIntArrayList> targetSegments = new TLongObjectHashMap<TIntArrayList>();
+		int targetsLeft = 0;
+		for (int i = 0; i < targets.length; i++) {
+			if (targets[i] != null) {
+				addTargetSegment(targets[i], true, i, visitedOppositeSegments, targetSegments);
+				addTargetSegment(targets[i], false, i, visitedOppositeSegments, targetSegments);
+				targetsLeft++;
+			}
+		}
+		FinalRouteSegment[] res = new FinalRouteSegment[targets.length];
+		initQueuesWithStartEnd(ctx, start, null, graphDirectSegments, null);
+		while (targetsLeft > 0 && !graphDirectSegments.isEmpty()) {
+			RouteSegment segment = graphDirectSegments.poll();
+			if (segment instanceof FinalRouteSegment) {
+				// final segments are polled in order of route time so the first one is the best
+				FinalRouteSegment frs = (FinalRouteSegment) segment;
+				TIntArrayList inds = targetSegments.remove(calculateRoutePointId(frs.opposite, frs.opposite.isPositive()));
+				for (int k = 0; inds != null && k < inds.size(); k++) {
+					if (res[inds.get(k)] == null) {
+						res[inds.get(k)] = frs;
+						targetsLeft--;
+					}
+				}
+				continue;
+			}
+			visitSegment(ctx, false, graphDirectSegments, visitedDirectSegments, visitedOppositeSegments, segment,
+					graphDirectSegments.size(), null);
+		}
+		return res;
+	}
+	
+	private void addTargetSegment(RouteSegmentPoint target, boolean positive, int index,
+			TLongObjectHashMap<RouteSegment> visitedOppositeSegments, TLongObjectHashMap<TIntArrayList> targetSegments) {
+		// segments are the same as reverse search starts from (see initRouteSegment), but new ones are created
+		// so forward search doesn't change them
+		int segmentStart = target.getSegmentStart();
+		int length = target.getRoad().getPointsLength();
+		if (segmentStart == 0 && !positive && length > 1) {
+			segmentStart = 1;
+		} else if (segmentStart == length - 1 && positive && segmentStart > 0) {
+			segmentStart--;
+		}
+		RouteSegment s = new RouteSegment(target.getRoad(), segmentStart).initRouteSegment(positive);
+		if (s == null) {
+			return;
+		}
+		long id = calculateRoutePointId(s, positive);
+		TIntArrayList inds = targetSegments.get(id);
+		if (inds == null) {
+			inds = new TIntArrayList();
+			targetSegments.put(id, inds);
+			visitedOppositeSegments.put(id, s);
+		}
+		inds.add(index);
+	}
+	
+	private boolean isParallelSearchAllowed(final RoutingContext ctx) {
+		// tiles should be thread-safe (shared cache) and router should be evaluated in java
+		return parallelSearchExecutor != null && ctx.config.parallelBidirectionalSearch && ctx.planRouteIn2Directions()
+				&& ctx.sharedCache != null && ctx.nativeLib == null;
+	}
+	
+	/**
+	 * Runs direct search in current thread and reverse search by executor. Searches meet
+	 * when one of them reaches segment visited by another one, the best meeting point is kept
+	 * and search stops when min f(x) of any queue is not less than cost of the best route found (symmetric approach).
+	 * @return null if executor has no free thread (nothing is searched)
+	 */
+	private ParallelSearchState searchRouteInParallel(final RoutingContext ctx, final RouteSegmentPoint start,
+			final RouteSegmentPoint end, final RouteSegmentQueue graphDirectSegments, final RouteSegmentQueue graphReverseSegments,
+			final TLongObjectHashMap<RouteSegment> visitedDirectSegments,
+			final TLongObjectHashMap<RouteSegment> visitedOppositeSegments) throws InterruptedException, IOException {
+		final ParallelSearchState state = new ParallelSearchState();
+		final RoutingContext reverseCtx = new RoutingContext(ctx);
+		reverseCtx.startX = ctx.startX;
+		reverseCtx.startY = ctx.startY;
+		reverseCtx.targetX = ctx.targetX;
+		reverseCtx.targetY = ctx.targetY;
+		reverseCtx.precalculatedRouteDirection = ctx.precalculatedRouteDirection;
+		reverseCtx.calculationProgress = ctx.calculationProgress;
+		reverseCtx.memoryOverhead = ctx.memoryOverhead;
+		// visitor is not thread-safe so only direct search is visited
+		Runnable reverseSearch = new Runnable() {
+			@Override
+			public void run() {
+				try {
+					searchOneDirection(reverseCtx, true, graphReverseSegments, visitedOppositeSegments, visitedDirectSegments,
+							end, state);
+				} catch (Exception e) {
+					state.fail(e);
+				} finally {
+					state.finished = true;
+				}
+			}
+		};
+		Future<?> reverseTask;
+		try {
+			reverseTask = parallelSearchExecutor.submit(reverseSearch);
+		} catch (RejectedExecutionException e) {
+			return null;
+		}
+		try {
+			searchOneDirection(ctx, false, graphDirectSegments, visitedDirectSegments, visitedOppositeSegments, start, state);
+		} catch (Exception e) {
+			state.fail(e);
+		} finally {
+			state.finished = true;
+			try {
+				reverseTask.get();
+			} catch (ExecutionException e) {
+				state.fail(e);
+			}
+		}
+		ctx.visitedSegments += reverseCtx.visitedSegments;
+		ctx.timeToLoad += reverseCtx.timeToLoad;
+		ctx.timeToLoadHeaders += reverseCtx.timeToLoadHeaders;
+		if (state.error instanceof InterruptedException) {
+			throw (InterruptedException) state.error;
+		} else if (state.error instanceof IOException) {
+			throw (IOException) state.error;
+		} else if (state.error instanceof RuntimeException) {
+			throw (RuntimeException) state.error;
+		} else if (state.error != null) {
+			throw new IllegalStateException(state.error);
+		}
+		return state;
+	}
+	
+	private void searchOneDirection(final RoutingContext ctx, boolean reverseWaySearch, RouteSegmentQueue graphSegments,
+			TLongObjectHashMap<RouteSegment> visitedSegments, TLongObjectHashMap<RouteSegment> oppositeSegments,
+			RouteSegmentPoint pnt, ParallelSearchState state) throws InterruptedException, IOException {
+		while (!state.finished) {
+			checkIfGraphIsEmpty(ctx, true, graphSegments, pnt, visitedSegments, reverseWaySearch ? 
+					"Route is not found to selected target point." : "Route is not found from selected start point.");
+			if (graphSegments.isEmpty() || graphSegments.peekKey() >= state.bestDistance) {
+				break;
+			}
+			RouteSegment segment = graphSegments.poll();
+			// opposite queue is estimated with the same size
+			visitSegment(ctx, reverseWaySearch, graphSegments, visitedSegments, oppositeSegments, segment,
+					graphSegments.size() * 2, state);
+		}
+		state.finished = true;
+	}
+	
+	/**
+	 * Step of search loop for segment polled from the queue: checks memory limit, processes segment,
+	 * updates progress and checks if calculation is cancelled
+	 * @param queuedSegments number of segments in queues of the search (to estimate memory)
+	 */
+	private void visitSegment(final RoutingContext ctx, boolean reverseWaySearch, RouteSegmentQueue graphSegments,
+			TLongObjectHashMap<RouteSegment> visitedSegments, TLongObjectHashMap<RouteSegment> oppositeSegments,
+			RouteSegment segment, int queuedSegments, ParallelSearchState parallelState) throws InterruptedException, IOException {
+		ctx.memoryOverhead = (visitedSegments.size() + oppositeSegments.size()) * STANDARD_ROAD_VISITED_OVERHEAD
+				+ queuedSegments * STANDARD_ROAD_IN_QUEUE_OVERHEAD;
+		if (ctx.memoryOverhead > ctx.config.memoryLimitation * 0.95) {
+			throw new IllegalStateException("There is no enough memory " + ctx.config.memoryLimitation/(1<<20) + " Mb");
+		}
+		ctx.visitedSegments++;
+		processRouteSegment(ctx, reverseWaySearch, graphSegments, visitedSegments, segment, oppositeSegments, false, parallelState);
+		updateCalculationProgress(ctx, graphSegments, reverseWaySearch);
+		if (ctx.calculationProgress != null && ctx.calculationProgress.isCancelled) {
+			throw new InterruptedException("Route calculation interrupted");
+		}
+	}
 
 
 	protected void checkIfGraphIsEmpty(final RoutingContext ctx, boolean allowDirection,
-			PriorityQueue<RouteSegment> graphSegments, RouteSegmentPoint pnt, TLongObjectHashMap<RouteSegment> visited,
+			RouteSegmentQueue graphSegments, RouteSegmentPoint pnt, TLongObjectHashMap<RouteSegment> visited,
 			String msg) {
 		if (allowDirection && graphSegments.isEmpty()) {
 			if (pnt.others != null) {
@@ -190,11 +502,11 @@ public class BinaryRoutePlanner {
 						RouteSegment neg = next.initRouteSegment(false);
 						if (pos != null) {
 							pos.distanceToEnd = estimatedDistance;
-							graphSegments.add(pos);
+							graphSegments.add(pos, calculateRoutePointId(pos, true));
 						}
 						if (neg != null) {
 							neg.distanceToEnd = estimatedDistance;
-							graphSegments.add(neg);
+							graphSegments.add(neg, calculateRoutePointId(neg, false));
 						}
 						println("Reiterate point with new start/destination " + next.getRoad());
 						break;
@@ -235,43 +547,59 @@ public class BinaryRoutePlanner {
 	}
 
 
+	/**
+	 * @return 1 if start segment goes along initial direction (negative direction is penalized), -1 if it goes
+	 * in opposite direction (positive direction is penalized) and 0 if initial direction doesn't affect search
+	 */
+	static int getInitialDirection(RoutingContext ctx, RouteSegment start) {
+		if (ctx.config.initialDirection == null) {
+			return 0;
+		}
+		// mark here as positive for further check
+		double plusDir = start.getRoad().directionRoute(start.getSegmentStart(), true);
+		double diff = plusDir - ctx.config.initialDirection;
+		if (Math.abs(MapUtils.alignAngleDifference(diff)) <= Math.PI / 3) {
+			return 1;
+		} else if (Math.abs(MapUtils.alignAngleDifference(diff - Math.PI)) <= Math.PI / 3) {
+			return -1;
+		}
+		return 0;
+	}
+
 	private void initQueuesWithStartEnd(final RoutingContext ctx, RouteSegment start, RouteSegment end,
-			PriorityQueue<RouteSegment> graphDirectSegments, PriorityQueue<RouteSegment> graphReverseSegments) {
+			RouteSegmentQueue graphDirectSegments, RouteSegmentQueue graphReverseSegments) {
 		RouteSegment startPos = initRouteSegment(ctx, start, true);
 		RouteSegment startNeg = initRouteSegment(ctx, start, false);
-		RouteSegment endPos = initRouteSegment(ctx, end, true);
-		RouteSegment endNeg = initRouteSegment(ctx, end, false);
+		// end is null for search from start only (reverse queue is not needed)
+		RouteSegment endPos = end == null ? null : initRouteSegment(ctx, end, true);
+		RouteSegment endNeg = end == null ? null : initRouteSegment(ctx, end, false);
 		// for start : f(start) = g(start) + h(start) = 0 + h(start) = h(start)
-		if(ctx.config.initialDirection != null) {
-			// mark here as positive for further check
-			double plusDir = start.getRoad().directionRoute(start.getSegmentStart(), true);
-			double diff	 = plusDir - ctx.config.initialDirection;
-			if(Math.abs(MapUtils.alignAngleDifference(diff)) <= Math.PI / 3) {
-				if(startNeg != null) {
-					startNeg.distanceFromStart += 500;
-				}
-			} else if(Math.abs(MapUtils.alignAngleDifference(diff - Math.PI)) <= Math.PI / 3) {
-				if(startPos != null) {
-					startPos.distanceFromStart += 500;
-				}
+		int initialDirection = getInitialDirection(ctx, start);
+		if (initialDirection > 0) {
+			if (startNeg != null) {
+				startNeg.distanceFromStart += 500;
+			}
+		} else if (initialDirection < 0) {
+			if (startPos != null) {
+				startPos.distanceFromStart += 500;
 			}
 		}
 		float estimatedDistance = (float) estimatedDistance(ctx, ctx.targetX, ctx.targetY, ctx.startX, ctx.startY);
 		if(startPos != null) {
 			startPos.distanceToEnd = estimatedDistance;
-			graphDirectSegments.add(startPos);
+			graphDirectSegments.add(startPos, calculateRoutePointId(startPos, true));
 		}
 		if(startNeg != null) {
 			startNeg.distanceToEnd = estimatedDistance;
-			graphDirectSegments.add(startNeg);
+			graphDirectSegments.add(startNeg, calculateRoutePointId(startNeg, false));
 		}
 		if(endPos != null) {
 			endPos.distanceToEnd = estimatedDistance;
-			graphReverseSegments.add(endPos);
+			graphReverseSegments.add(endPos, calculateRoutePointId(endPos, true));
 		}
 		if(endNeg != null) {
 			endNeg.distanceToEnd = estimatedDistance;
-			graphReverseSegments.add(endNeg);
+			graphReverseSegments.add(endNeg, calculateRoutePointId(endNeg, false));
 		}
 	}
 
@@ -283,22 +611,30 @@ public class BinaryRoutePlanner {
 	}
 
 
-	private void updateCalculationProgress(final RoutingContext ctx, PriorityQueue<RouteSegment> graphDirectSegments,
-			PriorityQueue<RouteSegment> graphReverseSegments) {
+	private void updateCalculationProgress(final RoutingContext ctx, RouteSegmentQueue graphDirectSegments,
+			RouteSegmentQueue graphReverseSegments) {
+		updateCalculationProgress(ctx, graphDirectSegments, false);
+		updateCalculationProgress(ctx, graphReverseSegments, true);
+	}
+	
+	private void updateCalculationProgress(final RoutingContext ctx, RouteSegmentQueue graphSegments, boolean reverseWaySearch) {
 		if(ctx.calculationProgress != null) {
-			ctx.calculationProgress.reverseSegmentQueueSize = graphReverseSegments.size();
-			ctx.calculationProgress.directSegmentQueueSize = graphDirectSegments.size();
-			if(graphDirectSegments.size() > 0 && ctx.getPlanRoadDirection() >= 0) {
-				RouteSegment peek = graphDirectSegments.peek();
-				ctx.calculationProgress.distanceFromBegin = Math.max(peek.distanceFromStart, 
-						ctx.calculationProgress.distanceFromBegin);
-				ctx.calculationProgress.directDistance = peek.distanceFromStart + peek.distanceToEnd;
-			}
-			if(graphReverseSegments.size() > 0 && ctx.getPlanRoadDirection() <= 0) {
-				RouteSegment peek = graphReverseSegments.peek();
-				ctx.calculationProgress.distanceFromEnd = Math.max(peek.distanceFromStart + peek.distanceToEnd,
+			if (!reverseWaySearch) {
+				ctx.calculationProgress.directSegmentQueueSize = graphSegments.size();
+				if(graphSegments.size() > 0 && ctx.getPlanRoadDirection() >= 0) {
+					RouteSegment peek = graphSegments.peek();
+					ctx.calculationProgress.distanceFromBegin = Math.max(peek.distanceFromStart, 
+							ctx.calculationProgress.distanceFromBegin);
+					ctx.calculationProgress.directDistance = peek.distanceFromStart + peek.distanceToEnd;
+				}
+			} else {
+				ctx.calculationProgress.reverseSegmentQueueSize = graphSegments.size();
+				if(graphSegments.size() > 0 && ctx.getPlanRoadDirection() <= 0) {
+					RouteSegment peek = graphSegments.peek();
+					ctx.calculationProgress.distanceFromEnd = Math.max(peek.distanceFromStart + peek.distanceToEnd,
 							ctx.calculationProgress.distanceFromEnd);
-				ctx.calculationProgress.reverseDistance = peek.distanceFromStart + peek.distanceToEnd;
+					ctx.calculationProgress.reverseDistance = peek.distanceFromStart + peek.distanceToEnd;
+				}
 			}
 		}
 	}
@@ -334,6 +670,14 @@ public class BinaryRoutePlanner {
 				return te;
 			}
 		}
+		if (ctx.landmarksHeuristic != null) {
+			// both estimates are lower bounds
+			boolean toEnd = endX == ctx.targetX && endY == ctx.targetY;
+			float te = ctx.landmarksHeuristic.timeEstimate(begX, begY, toEnd);
+			if (te > result) {
+				return te;
+			}
+		}
 		return (float) result; 
 	}
 	
@@ -348,7 +692,7 @@ public class BinaryRoutePlanner {
 		log.warn(logMsg);
 	}
 	
-	public void printDebugMemoryInformation(RoutingContext ctx, PriorityQueue<RouteSegment> graphDirectSegments, PriorityQueue<RouteSegment> graphReverseSegments, 
+	public void printDebugMemoryInformation(RoutingContext ctx, RouteSegmentQueue graphDirectSegments, RouteSegmentQueue graphReverseSegments, 
 			TLongObjectHashMap<RouteSegment> visitedDirectSegments,TLongObjectHashMap<RouteSegment> visitedOppositeSegments) {
 		printInfo("Time to calculate : " + (System.nanoTime() - ctx.timeToCalculate) / 1e6 + 
 				", time to load : " + ctx.timeToLoad / 1e6 + ", time to load headers : " + ctx.timeToLoadHeaders / 1e6 + 
@@ -371,8 +715,9 @@ public class BinaryRoutePlanner {
 	
 	@SuppressWarnings("unused")
 	private void processRouteSegment(final RoutingContext ctx, boolean reverseWaySearch,
-			PriorityQueue<RouteSegment> graphSegments, TLongObjectHashMap<RouteSegment> visitedSegments, 
-            RouteSegment segment, TLongObjectHashMap<RouteSegment> oppositeSegments, boolean doNotAddIntersections) throws IOException {
+			RouteSegmentQueue graphSegments, TLongObjectHashMap<RouteSegment> visitedSegments, 
+            RouteSegment segment, TLongObjectHashMap<RouteSegment> oppositeSegments, boolean doNotAddIntersections,
+            ParallelSearchState parallelState) throws IOException {
 		final RouteDataObject road = segment.road;
 		boolean initDirectionAllowed = checkIfInitialMovementAllowedOnSegment(ctx, reverseWaySearch, visitedSegments, segment, road);
 		if(TEST_SPECIFIC && road.getId() == TEST_ID ) {
@@ -389,6 +734,8 @@ public class BinaryRoutePlanner {
 		// ! Actually there is small bug when there is restriction to move forward on the way (it doesn't take into account)
 		float obstaclesTime = 0;
 		float segmentDist = 0;
+		// obstacles time of ETA (only for time dependent speeds)
+		float travelObstaclesTime = 0;
 		// +/- diff from middle point
 		short segmentPoint = segment.getSegmentStart();
 		boolean[] processFurther = new boolean[1];
@@ -407,8 +754,16 @@ public class BinaryRoutePlanner {
 				continue;
 			}
 			// store <segment> in order to not have unique <segment, direction> in visitedSegments 
-			visitedSegments.put(calculateRoutePointId(segment.getRoad(), segment.isPositive() ? segmentPoint - 1 : segmentPoint, 
-					segment.isPositive()), previous != null ? previous : segment);
+			// (visited segments are read by opposite search when it runs in parallel)
+			long visitedId = calculateRoutePointId(segment.getRoad(), segment.isPositive() ? segmentPoint - 1 : segmentPoint,
+					segment.isPositive());
+			if (parallelState != null) {
+				synchronized (visitedSegments) {
+					visitedSegments.put(visitedId, previous != null ? previous : segment);
+				}
+			} else {
+				visitedSegments.put(visitedId, previous != null ? previous : segment);
+			}
 			final int x = road.getPoint31XTile(segmentPoint);
 			final int y = road.getPoint31YTile(segmentPoint);
 			final int prevx = road.getPoint31XTile(prevInd);
@@ -427,10 +782,13 @@ public class BinaryRoutePlanner {
 				continue;
 			}
 			obstaclesTime += obstacle;
+			if (ctx.speedProfiles != null) {
+				travelObstaclesTime += Math.max(0, ctx.getRouter().defineObstacle(road, segmentPoint));
+			}
 			
 			boolean alreadyVisited = checkIfOppositieSegmentWasVisited(ctx, reverseWaySearch, graphSegments, segment, oppositeSegments, 
-					segmentPoint, segmentDist, obstaclesTime);
-			if (alreadyVisited) {
+					segmentPoint, segmentDist, obstaclesTime, parallelState);
+			if (alreadyVisited && !continueAfterMeeting) {
 				directionAllowed = false;
 				continue;
 			}
@@ -449,7 +807,8 @@ public class BinaryRoutePlanner {
 			// could be expensive calculation
 			// 3. get intersected ways
 			final RouteSegment roadNext = ctx.loadRouteSegment(x, y, ctx.config.memoryLimitation - ctx.memoryOverhead);
-			float distStartObstacles = segment.distanceFromStart + calculateTimeWithObstacles(ctx, road, segmentDist , obstaclesTime);
+			float distStartObstacles = segment.distanceFromStart + calculateTimeWithObstacles(ctx, reverseWaySearch, segment,
+					segmentDist, obstaclesTime);
 			if(ctx.precalculatedRouteDirection != null && ctx.precalculatedRouteDirection.isFollowNext()) {
 				// reset to f
 //				distStartObstacles = 0;
@@ -457,8 +816,10 @@ public class BinaryRoutePlanner {
 				distStartObstacles = ctx.precalculatedRouteDirection.getDeviationDistance(x, y) / ctx.getRouter().getMaxDefaultSpeed();
 			}
 			
+			float travelTime = ctx.speedProfiles == null ? 0 : segment.travelTime
+					+ calculateTravelTime(ctx, segment, segmentDist, travelObstaclesTime);
 			// We don't check if there are outgoing connections
-			previous = processIntersections(ctx, graphSegments, visitedSegments, distStartObstacles,
+			previous = processIntersections(ctx, graphSegments, visitedSegments, distStartObstacles, travelTime,
 					segment, segmentPoint, roadNext, reverseWaySearch, doNotAddIntersections, processFurther);
 			if (!processFurther[0]) {
 				directionAllowed = false;
@@ -523,25 +884,36 @@ public class BinaryRoutePlanner {
 	}
 
 	private boolean checkIfOppositieSegmentWasVisited(final RoutingContext ctx, boolean reverseWaySearch,
-			PriorityQueue<RouteSegment> graphSegments, RouteSegment segment, TLongObjectHashMap<RouteSegment> oppositeSegments,
-			int segmentPoint, float segmentDist, float obstaclesTime) {
+			RouteSegmentQueue graphSegments, RouteSegment segment, TLongObjectHashMap<RouteSegment> oppositeSegments,
+			int segmentPoint, float segmentDist, float obstaclesTime, ParallelSearchState parallelState) {
 		RouteDataObject road = segment.getRoad();
 		long opp = calculateRoutePointId(road, segment.isPositive() ? segmentPoint - 1 : segmentPoint, !segment.isPositive());
-		if (oppositeSegments.containsKey(opp)) {
-			RouteSegment opposite = oppositeSegments.get(opp);
+		RouteSegment opposite;
+		if (parallelState != null) {
+			synchronized (oppositeSegments) {
+				opposite = oppositeSegments.get(opp);
+			}
+		} else {
+			opposite = oppositeSegments.get(opp);
+		}
+		if (opposite != null) {
 			RouteSegment to = reverseWaySearch ? getParentDiffId(segment) : getParentDiffId(opposite);
 			RouteSegment from = !reverseWaySearch ? getParentDiffId(segment) : getParentDiffId(opposite);
 			if (checkViaRestrictions(from, to)) {
 				FinalRouteSegment frs = new FinalRouteSegment(road, segmentPoint);
 				float distStartObstacles = segment.distanceFromStart
-						+ calculateTimeWithObstacles(ctx, road, segmentDist, obstaclesTime);
+						+ calculateTimeWithObstacles(ctx, reverseWaySearch, segment, segmentDist, obstaclesTime);
 				frs.setParentRoute(segment);
 				frs.setParentSegmentEnd(segmentPoint);
 				frs.reverseWaySearch = reverseWaySearch;
 				frs.distanceFromStart = opposite.distanceFromStart + distStartObstacles;
 				frs.distanceToEnd = 0;
 				frs.opposite = opposite;
-				graphSegments.add(frs);
+				if (parallelState != null) {
+					parallelState.offer(frs);
+				} else {
+					graphSegments.addFinal(frs);
+				}
 				if (TRACE_ROUTING) {
 					printRoad("  >> Final segment : ", frs, reverseWaySearch);
 				}
@@ -552,20 +924,55 @@ public class BinaryRoutePlanner {
 	}
 	
 
-	private float calculateTimeWithObstacles(RoutingContext ctx, RouteDataObject road, float distOnRoadToPass, float obstaclesTime) {
-		float priority = ctx.getRouter().defineSpeedPriority(road);
-		float speed = (ctx.getRouter().defineRoutingSpeed(road) * priority);
+	private float calculateTimeWithObstacles(RoutingContext ctx, boolean reverseWaySearch, RouteSegment segment,
+			float distOnRoadToPass, float obstaclesTime) {
+		float speedFactor = 1;
+		if (ctx.speedProfiles != null) {
+			speedFactor = getSpeedFactor(ctx, reverseWaySearch, segment);
+		}
+		return calculateTimeWithObstacles(ctx.getRouter(), segment.road, distOnRoadToPass, obstaclesTime, speedFactor);
+	}
+
+	private static float getSpeedFactor(RoutingContext ctx, boolean reverseWaySearch, RouteSegment segment) {
+		// segment is passed at departure time + travel time from start (reverse search passes only last road)
+		int time = ctx.departureSecondsOfWeek + (reverseWaySearch ? 0 : (int) segment.travelTime);
+		return ctx.speedProfiles.getSpeedFactor(segment.road, time);
+	}
+
+	/**
+	 * @return time of passing distance of segment road by speed of road (as ETA of route result) at the time of day
+	 */
+	private static float calculateTravelTime(RoutingContext ctx, RouteSegment segment, float distOnRoadToPass,
+			float obstaclesTime) {
+		VehicleRouter router = ctx.getRouter();
+		float speed = router.defineRoutingSpeed(segment.road);
 		if (speed == 0) {
-			speed = (ctx.getRouter().getMinDefaultSpeed() * priority);
+			speed = router.getMinDefaultSpeed();
 		}
+		speed *= getSpeedFactor(ctx, false, segment);
+		return obstaclesTime + distOnRoadToPass / speed;
+	}
+	
+	static float calculateTimeWithObstacles(VehicleRouter router, RouteDataObject road, float distOnRoadToPass, float obstaclesTime) {
+		return calculateTimeWithObstacles(router, road, distOnRoadToPass, obstaclesTime, 1);
+	}
+	
+	static float calculateTimeWithObstacles(VehicleRouter router, RouteDataObject road, float distOnRoadToPass, float obstaclesTime,
+			float speedFactor) {
+		float priority = router.defineSpeedPriority(road);
+		float speed = (router.defineRoutingSpeed(road) * priority);
+		if (speed == 0) {
+			speed = (router.getMinDefaultSpeed() * priority);
+		}
+		speed *= speedFactor;
 		// speed can not exceed max default speed according to A*
-		if(speed > ctx.getRouter().getMaxDefaultSpeed()) {
-			speed = ctx.getRouter().getMaxDefaultSpeed();
+		if(speed > router.getMaxDefaultSpeed()) {
+			speed = router.getMaxDefaultSpeed();
 		}
 		return obstaclesTime + distOnRoadToPass / speed;
 	}
 
-	private long calculateRoutePointId(final RouteDataObject road, int intervalId, boolean positive) {
+	static long calculateRoutePointId(final RouteDataObject road, int intervalId, boolean positive) {
 		if(intervalId < 0) {
 			// should be assert
 			throw new IllegalStateException("Assert failed");
@@ -682,8 +1089,8 @@ public class BinaryRoutePlanner {
 	
 
 
-	private RouteSegment processIntersections(RoutingContext ctx, PriorityQueue<RouteSegment> graphSegments,
-			TLongObjectHashMap<RouteSegment> visitedSegments,  float distFromStart, RouteSegment segment,
+	private RouteSegment processIntersections(RoutingContext ctx, RouteSegmentQueue graphSegments,
+			TLongObjectHashMap<RouteSegment> visitedSegments,  float distFromStart, float travelTime, RouteSegment segment,
 			short segmentPoint, RouteSegment inputNext, boolean reverseWaySearch, boolean doNotAddIntersections, 
 			boolean[] processFurther) {
 		boolean thereAreRestrictions ;
@@ -703,7 +1110,7 @@ public class BinaryRoutePlanner {
 		}
 		int targetEndX = reverseWaySearch ? ctx.startX : ctx.targetX;
 		int targetEndY = reverseWaySearch ? ctx.startY : ctx.targetY;
-		float distanceToEnd = h(ctx, segment.getRoad().getPoint31XTile(segmentPoint), segment.getRoad()
+		float distanceToEnd = withoutHeuristic ? 0 : h(ctx, segment.getRoad().getPoint31XTile(segmentPoint), segment.getRoad()
 				.getPoint31YTile(segmentPoint), targetEndX, targetEndY);
 		// Calculate possible ways to put into priority queue
 		RouteSegment next = inputNext;
@@ -723,6 +1130,7 @@ public class BinaryRoutePlanner {
 								distanceToEnd) > 0) {
 					itself.distanceFromStart = distFromStart;
 					itself.distanceToEnd = distanceToEnd;
+					itself.travelTime = travelTime;
 					itself.setParentRoute(segment);
 					itself.setParentSegmentEnd(segmentPoint);
 				} else {
@@ -733,10 +1141,10 @@ public class BinaryRoutePlanner {
 			} else if(!doNotAddIntersections) {
 				RouteSegment nextPos = next.initRouteSegment(true);
 				RouteSegment nextNeg = next.initRouteSegment(false);
-				processOneRoadIntersection(ctx, graphSegments, visitedSegments, distFromStart, distanceToEnd, segment, segmentPoint,
-						nextPos);
-				processOneRoadIntersection(ctx, graphSegments, visitedSegments, distFromStart, distanceToEnd, segment, segmentPoint,
-						nextNeg);
+				processOneRoadIntersection(ctx, graphSegments, visitedSegments, distFromStart, distanceToEnd, travelTime,
+						segment, segmentPoint, nextPos);
+				processOneRoadIntersection(ctx, graphSegments, visitedSegments, distFromStart, distanceToEnd, travelTime,
+						segment, segmentPoint, nextNeg);
 
 			}
 			// iterate to next road
@@ -752,9 +1160,9 @@ public class BinaryRoutePlanner {
 
 
 	@SuppressWarnings("unused")
-	private void processOneRoadIntersection(RoutingContext ctx, PriorityQueue<RouteSegment> graphSegments,
-			TLongObjectHashMap<RouteSegment> visitedSegments, float distFromStart, float distanceToEnd,  RouteSegment segment,
-			int segmentPoint, RouteSegment next) {
+	private void processOneRoadIntersection(RoutingContext ctx, RouteSegmentQueue graphSegments,
+			TLongObjectHashMap<RouteSegment> visitedSegments, float distFromStart, float distanceToEnd, float travelTime,
+			RouteSegment segment, int segmentPoint, RouteSegment next) {
 		if (next != null) {
 			float obstaclesTime = (float) ctx.getRouter().calculateTurnTime(next, next.isPositive()? 
 					next.getRoad().getPointsLength() - 1 : 0,  
@@ -772,13 +1180,14 @@ public class BinaryRoutePlanner {
 								distFromStart, distanceToEnd) > 0) {
 					next.distanceFromStart = distFromStart;
 					next.distanceToEnd = distanceToEnd;
+					next.travelTime = travelTime + obstaclesTime;
 					if (TRACE_ROUTING) {
 						printRoad("  >>", next, null);
 					}
 					// put additional information to recover whole route after
 					next.setParentRoute(segment);
 					next.setParentSegmentEnd(segmentPoint);
-					graphSegments.add(next);
+					graphSegments.add(next, calculateRoutePointId(next, next.isPositive()));
 				}
 			} else {
 				// the segment was already visited! We need to follow better route if it exists
@@ -847,6 +1256,8 @@ public class BinaryRoutePlanner {
 		// distance measured in time (seconds)
 		float distanceFromStart = 0;
 		float distanceToEnd = 0;
+		// elapsed travel time from start (without priorities and penalties), used only by time dependent speeds
+		float travelTime = 0;
 		
 		public RouteSegment(RouteDataObject road, int segmentStart) {
 			this.road = road;
@@ -956,6 +1367,27 @@ public class BinaryRoutePlanner {
 		}
 	}
 	
+	private static class ParallelSearchState {
+		volatile boolean finished;
+		volatile float bestDistance = Float.POSITIVE_INFINITY;
+		FinalRouteSegment best;
+		Exception error;
+		
+		synchronized void offer(FinalRouteSegment frs) {
+			if (best == null || frs.distanceFromStart < best.distanceFromStart) {
+				best = frs;
+				bestDistance = frs.distanceFromStart;
+			}
+		}
+		
+		synchronized void fail(Exception e) {
+			if (error == null) {
+				error = e;
+			}
+			finished = true;
+		}
+	}
+	
 	static class FinalRouteSegment extends RouteSegment {
 		
 		boolean reverseWaySearch;
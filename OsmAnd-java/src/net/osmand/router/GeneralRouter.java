@@ -4,6 +4,7 @@ import gnu.trove.set.hash.TLongHashSet;
 
 import java.io.PrintStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.BitSet;
 import java.util.HashMap;
 import java.util.Iterator;
@@ -13,6 +14,8 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 import net.osmand.binary.BinaryMapRouteReaderAdapter.RouteRegion;
 import net.osmand.binary.BinaryMapRouteReaderAdapter.RouteTypeRule;
@@ -435,6 +438,9 @@ public class GeneralRouter implements VehicleRouter {
 	public class RouteAttributeContext {
 		List<RouteAttributeEvalRule> rules = new ArrayList<RouteAttributeEvalRule>();
 		ParameterContext paramContext = null;
+		// compiled (memoized) results per region and types combination
+		private final ConcurrentHashMap<RouteRegion, CompiledTypesTable> compiled =
+				new ConcurrentHashMap<RouteRegion, CompiledTypesTable>();
 		
 		public RouteAttributeContext(){
 		}
@@ -468,8 +474,30 @@ public class GeneralRouter implements VehicleRouter {
 			return paramContext.vars.values().toArray(new String[paramContext.vars.size()]);
 		}
 		
-		private Object evaluate(RouteDataObject ro) {
-			return evaluate(convert(ro.region, ro.types));
+		/**
+		 * @return evaluated value for types combination of region or NaN if no rule selects number
+		 */
+		private float evaluate(RouteRegion region, int[] types) {
+			CompiledTypesTable table = compiled.get(region);
+			if (table == null) {
+				compiled.putIfAbsent(region, new CompiledTypesTable());
+				table = compiled.get(region);
+			}
+			int[] e = table.find(types);
+			if (e == null) {
+				// rules evaluation is not thread-safe and state is shared between routers of the same profile
+				synchronized (universalRules) {
+					// could be evaluated by other thread while waiting
+					e = table.find(types);
+					if (e == null) {
+						Object o = evaluate(convert(region, types));
+						float v = o instanceof Number ? ((Number) o).floatValue() : Float.NaN;
+						table.put(types, v);
+						return v;
+					}
+				}
+			}
+			return Float.intBitsToFloat(e[types.length]);
 		}
 
 		public void printRules(PrintStream out) {
@@ -520,35 +548,27 @@ public class GeneralRouter implements VehicleRouter {
 		}
 		
 		public int evaluateInt(RouteDataObject ro, int defValue) {
-			Object o = evaluate(ro);
-			if(!(o instanceof Number)) {
-				return defValue;
-			}
-			return ((Number)o).intValue();
+			return evaluateInt(ro.region, ro.types, defValue);
 		}
 		
 		public int evaluateInt(RouteRegion region, int[] types, int defValue) {
-			Object o = evaluate(convert(region, types));
-			if(!(o instanceof Number)){
+			float o = evaluate(region, types);
+			if(Float.isNaN(o)){
 				return defValue;
 			}
-			return ((Number)o).intValue();
+			return (int) o;
 		}
 		
 		public float evaluateFloat(RouteDataObject ro, float defValue) {
-			Object o = evaluate(ro);
-			if(!(o instanceof Number)) {
-				return defValue;
-			}
-			return ((Number)o).floatValue();
+			return evaluateFloat(ro.region, ro.types, defValue);
 		}
 		
 		public float evaluateFloat(RouteRegion region, int[] types, float defValue) {
-			Object o = evaluate(convert(region, types));
-			if(!(o instanceof Number)) {
+			float o = evaluate(region, types);
+			if(Float.isNaN(o)) {
 				return defValue;
 			}
-			return ((Number)o).floatValue();
+			return o;
 		}
 		
 		private BitSet convert(RouteRegion reg, int[] types) {
@@ -867,6 +887,75 @@ public class GeneralRouter implements VehicleRouter {
 	}
 
 
+	/**
+	 * Open addressing table of evaluated values by types combination. Entry is copy of types with float bits of
+	 * value appended, lookups are lock-free and don't allocate, inserts should be done under external lock.
+	 */
+	private static class CompiledTypesTable {
+		private volatile AtomicReferenceArray<int[]> entries = new AtomicReferenceArray<int[]>(64);
+		private int size;
+
+		private static int hash(int[] types, int length) {
+			int h = 1;
+			for (int i = 0; i < length; i++) {
+				h = 31 * h + types[i];
+			}
+			return h ^ (h >>> 16);
+		}
+
+		private static boolean matches(int[] entry, int[] types) {
+			if (entry.length != types.length + 1) {
+				return false;
+			}
+			for (int i = 0; i < types.length; i++) {
+				if (entry[i] != types[i]) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		/**
+		 * @return entry of types or null
+		 */
+		int[] find(int[] types) {
+			AtomicReferenceArray<int[]> t = entries;
+			int mask = t.length() - 1;
+			for (int i = hash(types, types.length) & mask; ; i = (i + 1) & mask) {
+				int[] e = t.get(i);
+				if (e == null || matches(e, types)) {
+					return e;
+				}
+			}
+		}
+
+		void put(int[] types, float value) {
+			int[] e = Arrays.copyOf(types, types.length + 1);
+			e[types.length] = Float.floatToRawIntBits(value);
+			if ((size + 1) * 2 > entries.length()) {
+				AtomicReferenceArray<int[]> t = new AtomicReferenceArray<int[]>(entries.length() * 2);
+				for (int i = 0; i < entries.length(); i++) {
+					int[] o = entries.get(i);
+					if (o != null) {
+						insert(t, o);
+					}
+				}
+				entries = t;
+			}
+			insert(entries, e);
+			size++;
+		}
+
+		private static void insert(AtomicReferenceArray<int[]> t, int[] e) {
+			int mask = t.length() - 1;
+			int i = hash(e, e.length - 1) & mask;
+			while (t.get(i) != null) {
+				i = (i + 1) & mask;
+			}
+			t.set(i, e);
+		}
+	}
+
 	public void printRules(PrintStream out) {
 		for(int i = 0; i < RouteDataObjectAttribute.values().length ; i++) {
 			out.println(RouteDataObjectAttribute.values()[i]);
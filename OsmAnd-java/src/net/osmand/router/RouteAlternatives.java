@@ -0,0 +1,188 @@
+package net.osmand.router;
+
+import gnu.trove.list.array.TLongArrayList;
+import gnu.trove.map.hash.TLongObjectHashMap;
+import gnu.trove.set.hash.TLongHashSet;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import net.osmand.binary.RouteDataObject;
+import net.osmand.router.BinaryRoutePlanner.FinalRouteSegment;
+import net.osmand.router.BinaryRoutePlanner.RouteSegment;
+
+/**
+ * Selection of alternative routes among routes via meeting segments of bidirectional search (via-node method).
+ * Route is admissible if it is not longer than {@link #MAX_STRETCH} * best time (bounded stretch), it shares
+ * less than {@link #MAX_SHARING} of its length with already selected routes (limited sharing) and it has plateau
+ * of at least {@link #MIN_PLATEAU} * best time (local optimality). Plateau is part of route around via segment
+ * which is the shortest path in both search trees: for its points time from start (direct tree) plus time to end
+ * (reverse tree) is equal to time of route.
+ */
+class RouteAlternatives {
+
+	static final float MAX_STRETCH = 1.25f;
+	static final float MAX_SHARING = 0.8f;
+	static final float MIN_PLATEAU = 0.2f;
+	// relative tolerance of times sum on plateau
+	private static final float PLATEAU_TOLERANCE = 0.002f;
+
+	private final TLongObjectHashMap<RouteSegment> visitedDirectSegments;
+	private final TLongObjectHashMap<RouteSegment> visitedOppositeSegments;
+	// undirected intervals (road id, point) of selected routes
+	private final TLongHashSet selectedIntervals = new TLongHashSet();
+	private final List<TLongHashSet> selectedRoutes = new ArrayList<TLongHashSet>();
+
+	RouteAlternatives(TLongObjectHashMap<RouteSegment> visitedDirectSegments,
+			TLongObjectHashMap<RouteSegment> visitedOppositeSegments) {
+		this.visitedDirectSegments = visitedDirectSegments;
+		this.visitedOppositeSegments = visitedOppositeSegments;
+	}
+
+	/**
+	 * @param routes routes via meeting segments sorted by time (see {@link BinaryRoutePlanner#searchRouteAlternatives})
+	 * @return best route and up to maxAlternatives admissible alternatives
+	 */
+	List<FinalRouteSegment> select(List<FinalRouteSegment> routes, int maxAlternatives) {
+		List<FinalRouteSegment> res = new ArrayList<FinalRouteSegment>();
+		if (routes.isEmpty()) {
+			return res;
+		}
+		float bestTime = routes.get(0).distanceFromStart;
+		for (FinalRouteSegment r : routes) {
+			if (res.size() > maxAlternatives || r.distanceFromStart > bestTime * MAX_STRETCH) {
+				break;
+			}
+			if (!res.isEmpty() && isSelected(r)) {
+				// via segment is on selected route (plateau of selected route)
+				continue;
+			}
+			RouteIntervals ri = new RouteIntervals(r);
+			if (!res.isEmpty() && (ri.getPlateauTime(r.distanceFromStart) < MIN_PLATEAU * bestTime
+					|| ri.getMaxSharing() > MAX_SHARING * ri.length)) {
+				continue;
+			}
+			res.add(r);
+			TLongHashSet set = new TLongHashSet(ri.keys.size());
+			for (int i = 0; i < ri.keys.size(); i++) {
+				set.add(ri.keys.get(i));
+			}
+			selectedRoutes.add(set);
+			selectedIntervals.addAll(set);
+		}
+		return res;
+	}
+
+	private boolean isSelected(FinalRouteSegment r) {
+		int p = r.getSegmentStart();
+		return selectedIntervals.contains(intervalKey(r.getRoad(), p))
+				|| (p > 0 && selectedIntervals.contains(intervalKey(r.getRoad(), p - 1)));
+	}
+
+	private static long intervalKey(RouteDataObject road, int p) {
+		return BinaryRoutePlanner.calculateRoutePointId(road, p, false);
+	}
+
+	/**
+	 * Intervals of route from start to end with times of their start points in direct and reverse trees
+	 */
+	private class RouteIntervals {
+		TLongArrayList keys = new TLongArrayList();
+		float[] lengths;
+		// time from start of the interval start point (direct tree) and time to end of the interval end point
+		// (reverse tree), NaN if it is not visited
+		float[] timeFromStart;
+		float[] timeToEnd;
+		float length;
+
+		RouteIntervals(FinalRouteSegment finalSegment) {
+			// parts of route are collected as in RouteResultPreparation.convertFinalSegmentToResults
+			List<Object[]> parts = new ArrayList<Object[]>();
+			RouteSegment segment = finalSegment.reverseWaySearch ? finalSegment : finalSegment.opposite.getParentRoute();
+			int parentSegmentStart = finalSegment.reverseWaySearch ? finalSegment.opposite.getSegmentStart()
+					: finalSegment.opposite.getParentSegmentEnd();
+			while (segment != null) {
+				parts.add(new Object[] { segment.getRoad(), parentSegmentStart, (int) segment.getSegmentStart() });
+				parentSegmentStart = segment.getParentSegmentEnd();
+				segment = segment.getParentRoute();
+			}
+			Collections.reverse(parts);
+			segment = finalSegment.reverseWaySearch ? finalSegment.opposite.getParentRoute() : finalSegment;
+			int parentSegmentEnd = finalSegment.reverseWaySearch ? finalSegment.opposite.getParentSegmentEnd()
+					: finalSegment.opposite.getSegmentStart();
+			while (segment != null) {
+				parts.add(new Object[] { segment.getRoad(), (int) segment.getSegmentStart(), parentSegmentEnd });
+				parentSegmentEnd = segment.getParentSegmentEnd();
+				segment = segment.getParentRoute();
+			}
+			Collections.reverse(parts);
+			int size = 0;
+			for (Object[] part : parts) {
+				size += Math.abs((Integer) part[2] - (Integer) part[1]);
+			}
+			lengths = new float[size];
+			timeFromStart = new float[size];
+			timeToEnd = new float[size];
+			int i = 0;
+			for (Object[] part : parts) {
+				RouteDataObject road = (RouteDataObject) part[0];
+				int from = (Integer) part[1];
+				int to = (Integer) part[2];
+				int d = to > from ? 1 : -1;
+				for (int p = from; p != to; p += d) {
+					int q = p + d;
+					int interval = Math.min(p, q);
+					keys.add(intervalKey(road, interval));
+					float l = (float) BinaryRoutePlanner.squareRootDist(road.getPoint31XTile(p), road.getPoint31YTile(p),
+							road.getPoint31XTile(q), road.getPoint31YTile(q));
+					lengths[i] = l;
+					length += l;
+					RouteSegment direct = visitedDirectSegments.get(BinaryRoutePlanner.calculateRoutePointId(road, interval, d > 0));
+					timeFromStart[i] = direct == null ? Float.NaN : direct.distanceFromStart;
+					// reverse search passes interval from q to p
+					RouteSegment reverse = visitedOppositeSegments.get(BinaryRoutePlanner.calculateRoutePointId(road, interval, d < 0));
+					timeToEnd[i] = reverse == null ? Float.NaN : reverse.distanceFromStart;
+					i++;
+				}
+			}
+		}
+
+		/**
+		 * @return the longest time between points of route which are on shortest paths of both trees
+		 */
+		float getPlateauTime(float routeTime) {
+			float tolerance = routeTime * PLATEAU_TOLERANCE + 1;
+			float best = 0;
+			float plateauStart = Float.NaN;
+			// point k is start of interval k, time to end of it is stored for interval k - 1
+			for (int k = 1; k < keys.size(); k++) {
+				float fs = timeFromStart[k];
+				float te = timeToEnd[k - 1];
+				boolean onPlateau = !Float.isNaN(fs) && !Float.isNaN(te) && Math.abs(fs + te - routeTime) <= tolerance;
+				if (!onPlateau) {
+					plateauStart = Float.NaN;
+				} else if (Float.isNaN(plateauStart)) {
+					plateauStart = fs;
+				} else {
+					best = Math.max(best, fs - plateauStart);
+				}
+			}
+			return best;
+		}
+
+		float getMaxSharing() {
+			float max = 0;
+			for (TLongHashSet route : selectedRoutes) {
+				float shared = 0;
+				for (int i = 0; i < keys.size(); i++) {
+					if (route.contains(keys.get(i))) {
+						shared += lengths[i];
+					}
+				}
+				max = Math.max(max, shared);
+			}
+			return max;
+		}
+	}
+}
@@ -0,0 +1,530 @@
+package net.osmand.router;
+
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.map.hash.TLongObjectHashMap;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import net.osmand.PlatformUtil;
+import net.osmand.binary.BinaryMapIndexReader;
+import net.osmand.binary.BinaryMapRouteReaderAdapter.RouteRegion;
+import net.osmand.binary.BinaryMapRouteReaderAdapter.RouteSubregion;
+import net.osmand.binary.RouteDataObject;
+import net.osmand.osm.MapRenderingTypes;
+import net.osmand.router.BinaryRoutePlanner.RouteSegment;
+import net.osmand.router.BinaryRoutePlanner.RouteSegmentPoint;
+import net.osmand.router.GeneralRouter.RouteAttributeContext;
+import net.osmand.router.GeneralRouter.RouteDataObjectAttribute;
+import net.osmand.router.RouteNodeGraph.NodeQueue;
+
+import org.apache.commons.logging.Log;
+
+/**
+ * Contraction hierarchy (shortcut graph) of one routing file precalculated for one routing profile
+ * by {@link RouteContractionPreprocessor}.
+ * Query is a bidirectional Dijkstra over upward edges, found path is unpacked to the road pieces
+ * and converted to route segments (null is returned when it couldn't be done so A* should be used).
+ */
+public class RouteContractionHierarchy {
+
+	private static final Log log = PlatformUtil.getLog(RouteContractionHierarchy.class);
+	private static final int MAGIC = 0x4f434831; // OCH1
+	private static final int VERSION = 1;
+
+	String profileSignature;
+	String[] regionNames;
+	long dateCreated;
+	int left;
+	int right;
+	int top;
+	int bottom;
+
+	// sorted (x31 << 31) + y31
+	long[] nodes;
+
+	int edgesSize;
+	int[] edgeFrom;
+	int[] edgeTo;
+	float[] edgeCost;
+	// road id for original edges, -1 for shortcuts
+	long[] edgeRoad;
+	// road start/end point index for original edges, child edges for shortcuts
+	int[] edgeA;
+	int[] edgeB;
+
+	// edges to node with higher rank
+	int[] upStart;
+	int[] upEdges;
+	// edges from node with higher rank
+	int[] downStart;
+	int[] downEdges;
+
+	private ThreadLocal<QueryState> queryState = new ThreadLocal<QueryState>();
+
+	RouteContractionHierarchy() {
+	}
+
+	public String getProfileSignature() {
+		return profileSignature;
+	}
+
+	public int getNodesCount() {
+		return nodes.length;
+	}
+
+	public int getEdgesCount() {
+		return edgesSize;
+	}
+
+	public static String getProfileSignature(RoutingConfiguration config) {
+		StringBuilder b = new StringBuilder(config.routerName);
+		RouteAttributeContext c = config.router.getObjContext(RouteDataObjectAttribute.ROAD_SPEED);
+		String[] keys = c.getParamKeys();
+		String[] values = c.getParamValues();
+		List<String> params = new ArrayList<String>();
+		for (int i = 0; i < keys.length; i++) {
+			params.add(keys[i] + "=" + values[i]);
+		}
+		Collections.sort(params);
+		for (String p : params) {
+			b.append(";").append(p);
+		}
+		return b.toString();
+	}
+
+	/**
+	 * Hierarchy could be used only for exactly same profile parameters and without impassable roads
+	 */
+	public boolean matches(RoutingConfiguration config) {
+		return profileSignature.equals(getProfileSignature(config)) && config.router.getImpassableRoadIds().length == 0;
+	}
+
+	public boolean matches(BinaryMapIndexReader reader) {
+		if (reader.getDateCreated() != dateCreated || reader.getRoutingIndexes().size() != regionNames.length) {
+			return false;
+		}
+		for (int i = 0; i < regionNames.length; i++) {
+			RouteRegion reg = reader.getRoutingIndexes().get(i);
+			if (!regionNames[i].equals(reg.getName())) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	public boolean contains(int x31, int y31) {
+		return left <= x31 && right >= x31 && top <= y31 && bottom >= y31;
+	}
+
+	/**
+	 * @return true if routing data of reader (other file) intersects area of hierarchy, shortest route could pass
+	 * roads which are not in hierarchy then
+	 */
+	public boolean intersects(BinaryMapIndexReader reader) {
+		for (RouteRegion reg : reader.getRoutingIndexes()) {
+			for (RouteSubregion s : reg.getSubregions()) {
+				if (s.left <= right && s.right >= left && s.top <= bottom && s.bottom >= top) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return route segments (not prepared) or null if route couldn't be calculated with hierarchy
+	 */
+	public List<RouteSegmentResult> searchRoute(RoutingContext ctx, RouteSegmentPoint start, RouteSegmentPoint end)
+			throws IOException {
+		long time = System.nanoTime();
+		if (start.getRoad().getId() == end.getRoad().getId()) {
+			return null;
+		}
+		QueryState st = queryState.get();
+		if (st == null) {
+			st = new QueryState(nodes.length);
+			queryState.set(st);
+		}
+		st.clear();
+		VehicleRouter router = ctx.getRouter();
+		initEndpoint(router, start, st.startNodes, st.startPoints, false, st.distF, st.qF, st);
+		initEndpoint(router, end, st.endNodes, st.endPoints, true, st.distB, st.qB, st);
+		if (st.startNodes.isEmpty() || st.endNodes.isEmpty()) {
+			return null;
+		}
+		float mu = Float.POSITIVE_INFINITY;
+		int meet = -1;
+		int settled = 0;
+		for (int i = 0; i < st.startNodes.size(); i++) {
+			int n = st.startNodes.get(i);
+			if (st.distB[n] + st.distF[n] < mu) {
+				mu = st.distB[n] + st.distF[n];
+				meet = n;
+			}
+		}
+		while (!st.qF.isEmpty() || !st.qB.isEmpty()) {
+			float minF = st.qF.isEmpty() ? Float.POSITIVE_INFINITY : st.qF.peekKey();
+			float minB = st.qB.isEmpty() ? Float.POSITIVE_INFINITY : st.qB.peekKey();
+			if (minF >= mu && minB >= mu) {
+				break;
+			}
+			boolean forward = minF <= minB;
+			NodeQueue q = forward ? st.qF : st.qB;
+			float[] dist = forward ? st.distF : st.distB;
+			float[] oppositeDist = forward ? st.distB : st.distF;
+			int[] parent = forward ? st.parentF : st.parentB;
+			float d = q.peekKey();
+			int n = q.poll();
+			if (d > dist[n]) {
+				continue;
+			}
+			settled++;
+			int[] adjStart = forward ? upStart : downStart;
+			int[] adj = forward ? upEdges : downEdges;
+			for (int k = adjStart[n]; k < adjStart[n + 1]; k++) {
+				int e = adj[k];
+				int next = forward ? edgeTo[e] : edgeFrom[e];
+				float nd = d + edgeCost[e];
+				if (nd < dist[next]) {
+					st.touch(next);
+					dist[next] = nd;
+					parent[next] = e;
+					q.add(next, nd);
+					if (nd + oppositeDist[next] < mu) {
+						mu = nd + oppositeDist[next];
+						meet = next;
+					}
+				}
+			}
+		}
+		ctx.visitedSegments += settled;
+		if (meet == -1) {
+			return null;
+		}
+		// collect edges
+		TIntArrayList path = new TIntArrayList();
+		int n = meet;
+		while (st.parentF[n] != -1) {
+			path.add(st.parentF[n]);
+			n = edgeFrom[st.parentF[n]];
+		}
+		int startNode = n;
+		path.reverse();
+		n = meet;
+		while (st.parentB[n] != -1) {
+			path.add(st.parentB[n]);
+			n = edgeTo[st.parentB[n]];
+		}
+		int endNode = n;
+		TIntArrayList baseEdges = new TIntArrayList();
+		for (int i = 0; i < path.size(); i++) {
+			unpackEdge(path.get(i), baseEdges);
+		}
+
+		List<RouteSegmentResult> result = new ArrayList<RouteSegmentResult>();
+		int startNodePoint = st.startPoints.get(st.startNodes.indexOf(startNode));
+		addResult(result, new RouteSegmentResult(start.getRoad(), start.getSegmentStart(), startNodePoint));
+		TLongObjectHashMap<RouteDataObject> roads = new TLongObjectHashMap<RouteDataObject>();
+		for (int i = 0; i < baseEdges.size(); i++) {
+			int e = baseEdges.get(i);
+			RouteDataObject road = roads.get(edgeRoad[e]);
+			if (road == null) {
+				long node = nodes[edgeFrom[e]];
+				road = loadRoad(ctx, (int) (node >> 31), (int) (node & Integer.MAX_VALUE), edgeRoad[e]);
+				if (road == null) {
+					log.warn("Road " + edgeRoad[e] + " of contraction hierarchy is not found in loaded data");
+					return null;
+				}
+				roads.put(road.getId(), road);
+			}
+			addResult(result, new RouteSegmentResult(road, edgeA[e], edgeB[e]));
+		}
+		int endNodePoint = st.endPoints.get(st.endNodes.indexOf(endNode));
+		addResult(result, new RouteSegmentResult(end.getRoad(), endNodePoint, end.getSegmentStart()));
+		if (router.restrictionsAware() && !checkRestrictions(result)) {
+			log.info("Contraction hierarchy route violates turn restrictions");
+			return null;
+		}
+		ctx.routingTime = mu;
+		log.info("Contraction hierarchy route found in " + (System.nanoTime() - time) / 1e6 + " ms, settled nodes " + settled);
+		return result;
+	}
+
+	private void initEndpoint(VehicleRouter router, RouteSegmentPoint pnt, TIntArrayList seedNodes, TIntArrayList seedPoints,
+			boolean reverse, float[] dist, NodeQueue q, QueryState st) {
+		RouteDataObject road = pnt.getRoad();
+		int oneway = router.isOneWay(road);
+		int ind = pnt.getSegmentStart();
+		for (int dir = -1; dir <= 1; dir += 2) {
+			// direction of vehicle movement along the road
+			boolean positiveMovement = reverse ? dir < 0 : dir > 0;
+			if ((positiveMovement && oneway < 0) || (!positiveMovement && oneway > 0)) {
+				continue;
+			}
+			float segmentDist = 0;
+			float obstaclesTime = 0;
+			for (int k = ind; k >= 0 && k < road.getPointsLength(); k += dir) {
+				if (k != ind) {
+					segmentDist += BinaryRoutePlanner.squareRootDist(road.getPoint31XTile(k - dir), road.getPoint31YTile(k - dir),
+							road.getPoint31XTile(k), road.getPoint31YTile(k));
+					float obstacle = router.defineRoutingObstacle(road, reverse ? k - dir : k);
+					if (obstacle < 0) {
+						break;
+					}
+					obstaclesTime += obstacle;
+				}
+				int node = RouteNodeGraph.findNode(nodes, road.getPoint31XTile(k), road.getPoint31YTile(k));
+				if (node >= 0) {
+					float cost = BinaryRoutePlanner.calculateTimeWithObstacles(router, road, segmentDist, obstaclesTime);
+					if (cost < dist[node]) {
+						st.touch(node);
+						dist[node] = cost;
+						q.add(node, cost);
+						// node could be reached in both directions (loop road), keep point of the cheaper one
+						int seed = seedNodes.indexOf(node);
+						if (seed >= 0) {
+							seedPoints.set(seed, k);
+						} else {
+							seedNodes.add(node);
+							seedPoints.add(k);
+						}
+					}
+					break;
+				}
+			}
+		}
+	}
+
+	private void unpackEdge(int edge, TIntArrayList baseEdges) {
+		if (edgeRoad[edge] != -1) {
+			baseEdges.add(edge);
+		} else {
+			unpackEdge(edgeA[edge], baseEdges);
+			unpackEdge(edgeB[edge], baseEdges);
+		}
+	}
+
+	private RouteDataObject loadRoad(RoutingContext ctx, int x31, int y31, long roadId) {
+		RouteSegment s = ctx.loadRouteSegment(x31, y31, 0);
+		while (s != null) {
+			if (s.getRoad().getId() == roadId) {
+				return s.getRoad();
+			}
+			s = s.getNext();
+		}
+		return null;
+	}
+
+	private void addResult(List<RouteSegmentResult> result, RouteSegmentResult res) {
+		if (res.getStartPointIndex() == res.getEndPointIndex()) {
+			return;
+		}
+		if (result.size() > 0) {
+			RouteSegmentResult last = result.get(result.size() - 1);
+			boolean lastPlus = last.getStartPointIndex() < last.getEndPointIndex();
+			boolean plus = res.getStartPointIndex() < res.getEndPointIndex();
+			if (last.getObject().getId() == res.getObject().getId() && lastPlus == plus
+					&& last.getEndPointIndex() == res.getStartPointIndex()) {
+				last.setEndPointIndex(res.getEndPointIndex());
+				return;
+			}
+		}
+		result.add(res);
+	}
+
+	private boolean checkRestrictions(List<RouteSegmentResult> result) {
+		for (int i = 1; i < result.size(); i++) {
+			if (isTurnRestricted(result.get(i - 1).getObject(), result.get(i).getObject().getId())) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return true if turn restriction of road doesn't allow to continue by road with id to
+	 */
+	static boolean isTurnRestricted(RouteDataObject from, long to) {
+		if (from == null || from.getId() == to) {
+			return false;
+		}
+		for (int k = 0; k < from.getRestrictionLength(); k++) {
+			int tp = from.getRestrictionType(k);
+			boolean only = tp == MapRenderingTypes.RESTRICTION_ONLY_LEFT_TURN
+					|| tp == MapRenderingTypes.RESTRICTION_ONLY_RIGHT_TURN
+					|| tp == MapRenderingTypes.RESTRICTION_ONLY_STRAIGHT_ON;
+			if (only && from.getRestrictionId(k) != to) {
+				return true;
+			}
+			if (!only && from.getRestrictionId(k) == to) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	public void writeToFile(File f) throws IOException {
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(f), 1 << 16));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeUTF(profileSignature);
+			out.writeInt(regionNames.length);
+			for (String r : regionNames) {
+				out.writeUTF(r);
+			}
+			out.writeLong(dateCreated);
+			out.writeInt(left);
+			out.writeInt(right);
+			out.writeInt(top);
+			out.writeInt(bottom);
+			out.writeInt(nodes.length);
+			for (int i = 0; i < nodes.length; i++) {
+				out.writeLong(nodes[i]);
+			}
+			out.writeInt(edgesSize);
+			for (int i = 0; i < edgesSize; i++) {
+				out.writeInt(edgeFrom[i]);
+				out.writeInt(edgeTo[i]);
+				out.writeFloat(edgeCost[i]);
+				out.writeLong(edgeRoad[i]);
+				out.writeInt(edgeA[i]);
+				out.writeInt(edgeB[i]);
+			}
+			writeArray(out, upStart);
+			writeArray(out, upEdges);
+			writeArray(out, downStart);
+			writeArray(out, downEdges);
+		} finally {
+			out.close();
+		}
+	}
+
+	public static RouteContractionHierarchy readFromFile(File f) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(f), 1 << 16));
+		try {
+			if (in.readInt() != MAGIC) {
+				throw new IOException("File " + f.getName() + " is not a contraction hierarchy file");
+			}
+			int version = in.readInt();
+			if (version != VERSION) {
+				throw new IOException("Unsupported contraction hierarchy version " + version);
+			}
+			RouteContractionHierarchy ch = new RouteContractionHierarchy();
+			ch.profileSignature = in.readUTF();
+			ch.regionNames = new String[in.readInt()];
+			for (int i = 0; i < ch.regionNames.length; i++) {
+				ch.regionNames[i] = in.readUTF();
+			}
+			ch.dateCreated = in.readLong();
+			ch.left = in.readInt();
+			ch.right = in.readInt();
+			ch.top = in.readInt();
+			ch.bottom = in.readInt();
+			ch.nodes = new long[in.readInt()];
+			for (int i = 0; i < ch.nodes.length; i++) {
+				ch.nodes[i] = in.readLong();
+			}
+			ch.edgesSize = in.readInt();
+			ch.initEdges(ch.edgesSize);
+			for (int i = 0; i < ch.edgesSize; i++) {
+				ch.edgeFrom[i] = in.readInt();
+				ch.edgeTo[i] = in.readInt();
+				ch.edgeCost[i] = in.readFloat();
+				ch.edgeRoad[i] = in.readLong();
+				ch.edgeA[i] = in.readInt();
+				ch.edgeB[i] = in.readInt();
+			}
+			ch.upStart = readArray(in);
+			ch.upEdges = readArray(in);
+			ch.downStart = readArray(in);
+			ch.downEdges = readArray(in);
+			return ch;
+		} finally {
+			in.close();
+		}
+	}
+
+	void initEdges(int size) {
+		edgeFrom = new int[size];
+		edgeTo = new int[size];
+		edgeCost = new float[size];
+		edgeRoad = new long[size];
+		edgeA = new int[size];
+		edgeB = new int[size];
+	}
+
+	private static void writeArray(DataOutputStream out, int[] ar) throws IOException {
+		out.writeInt(ar.length);
+		for (int i = 0; i < ar.length; i++) {
+			out.writeInt(ar[i]);
+		}
+	}
+
+	private static int[] readArray(DataInputStream in) throws IOException {
+		int[] ar = new int[in.readInt()];
+		for (int i = 0; i < ar.length; i++) {
+			ar[i] = in.readInt();
+		}
+		return ar;
+	}
+
+	private static class QueryState {
+		float[] distF;
+		float[] distB;
+		int[] parentF;
+		int[] parentB;
+		NodeQueue qF = new NodeQueue(256);
+		NodeQueue qB = new NodeQueue(256);
+		TIntArrayList touched = new TIntArrayList();
+		TIntArrayList startNodes = new TIntArrayList();
+		TIntArrayList startPoints = new TIntArrayList();
+		TIntArrayList endNodes = new TIntArrayList();
+		TIntArrayList endPoints = new TIntArrayList();
+
+		QueryState(int size) {
+			distF = new float[size];
+			distB = new float[size];
+			parentF = new int[size];
+			parentB = new int[size];
+			Arrays.fill(distF, Float.POSITIVE_INFINITY);
+			Arrays.fill(distB, Float.POSITIVE_INFINITY);
+			Arrays.fill(parentF, -1);
+			Arrays.fill(parentB, -1);
+		}
+
+		void touch(int node) {
+			if (distF[node] == Float.POSITIVE_INFINITY && distB[node] == Float.POSITIVE_INFINITY) {
+				touched.add(node);
+			}
+		}
+
+		void clear() {
+			for (int i = 0; i < touched.size(); i++) {
+				int n = touched.get(i);
+				distF[n] = Float.POSITIVE_INFINITY;
+				distB[n] = Float.POSITIVE_INFINITY;
+				parentF[n] = -1;
+				parentB[n] = -1;
+			}
+			touched.clear();
+			qF.clear();
+			qB.clear();
+			startNodes.clear();
+			startPoints.clear();
+			endNodes.clear();
+			endPoints.clear();
+		}
+	}
+}
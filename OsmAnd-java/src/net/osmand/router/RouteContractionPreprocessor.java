@@ -0,0 +1,361 @@
+package net.osmand.router;
+
+import gnu.trove.list.array.TIntArrayList;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import net.osmand.PlatformUtil;
+import net.osmand.binary.BinaryMapIndexReader;
+import net.osmand.router.RouteNodeGraph.NodeQueue;
+
+import org.apache.commons.logging.Log;
+
+/**
+ * Offline tool to build {@link RouteContractionHierarchy} for one routing file and one routing profile.
+ * Nodes are contracted in order of edge difference + deleted neighbours (lazy updates),
+ * witness search is limited Dijkstra so some unnecessary shortcuts could be added.
+ */
+public class RouteContractionPreprocessor {
+
+	private final static Log log = PlatformUtil.getLog(RouteContractionPreprocessor.class);
+	private static final int WITNESS_SETTLED_LIMIT = 500;
+
+	private RouteNodeGraph graph;
+
+	private int edgesSize;
+	private int[] edgeFrom;
+	private int[] edgeTo;
+	private float[] edgeCost;
+	private long[] edgeRoad;
+	private int[] edgeA;
+	private int[] edgeB;
+
+	private TIntArrayList[] out;
+	private TIntArrayList[] in;
+	private boolean[] contracted;
+	private int[] rank;
+	private int[] deletedNeighbors;
+
+	// witness search
+	private float[] witnessDist;
+	private TIntArrayList witnessTouched = new TIntArrayList();
+	private NodeQueue witnessQueue = new NodeQueue(64);
+
+	public RouteContractionPreprocessor(RouteNodeGraph graph) {
+		this.graph = graph;
+	}
+
+	public RouteContractionHierarchy contract() {
+		int nodesCount = graph.getNodesCount();
+		edgesSize = graph.edgesSize;
+		int capacity = edgesSize * 2 + 16;
+		edgeFrom = Arrays.copyOf(graph.edgeFrom, capacity);
+		edgeTo = Arrays.copyOf(graph.edgeTo, capacity);
+		edgeCost = Arrays.copyOf(graph.edgeCost, capacity);
+		edgeRoad = Arrays.copyOf(graph.edgeRoad, capacity);
+		edgeA = Arrays.copyOf(graph.edgeStartPoint, capacity);
+		edgeB = Arrays.copyOf(graph.edgeEndPoint, capacity);
+		out = new TIntArrayList[nodesCount];
+		in = new TIntArrayList[nodesCount];
+		for (int i = 0; i < nodesCount; i++) {
+			out[i] = new TIntArrayList(graph.outStart[i + 1] - graph.outStart[i]);
+			in[i] = new TIntArrayList(graph.inStart[i + 1] - graph.inStart[i]);
+		}
+		for (int e = 0; e < edgesSize; e++) {
+			if (edgeFrom[e] != edgeTo[e]) {
+				out[edgeFrom[e]].add(e);
+				in[edgeTo[e]].add(e);
+			}
+		}
+		contracted = new boolean[nodesCount];
+		rank = new int[nodesCount];
+		deletedNeighbors = new int[nodesCount];
+		witnessDist = new float[nodesCount];
+		Arrays.fill(witnessDist, Float.POSITIVE_INFINITY);
+
+		NodeQueue queue = new NodeQueue(nodesCount + 1);
+		for (int v = 0; v < nodesCount; v++) {
+			queue.add(v, priority(v));
+		}
+		int order = 0;
+		long time = System.currentTimeMillis();
+		while (!queue.isEmpty()) {
+			int v = queue.poll();
+			float p = priority(v);
+			if (!queue.isEmpty() && p > queue.peekKey()) {
+				// lazy update
+				queue.add(v, p);
+				continue;
+			}
+			contractNode(v, false);
+			contracted[v] = true;
+			rank[v] = order++;
+			updateNeighbors(out[v], edgeTo);
+			updateNeighbors(in[v], edgeFrom);
+			out[v] = null;
+			in[v] = null;
+			if (order % 100000 == 0) {
+				log.debug("Contracted " + order + " of " + nodesCount + " nodes, edges " + edgesSize + " in "
+						+ (System.currentTimeMillis() - time) + " ms");
+			}
+		}
+		log.info("Contraction finished: nodes " + nodesCount + ", edges " + graph.edgesSize + ", with shortcuts "
+				+ edgesSize + " in " + (System.currentTimeMillis() - time) + " ms");
+		return buildHierarchy();
+	}
+
+	private void updateNeighbors(TIntArrayList edges, int[] edgeNode) {
+		for (int i = 0; i < edges.size(); i++) {
+			int n = edgeNode[edges.get(i)];
+			if (!contracted[n]) {
+				deletedNeighbors[n]++;
+			}
+		}
+	}
+
+	private float priority(int v) {
+		int shortcuts = contractNode(v, true);
+		return shortcuts - activeDegree(out[v], edgeTo) - activeDegree(in[v], edgeFrom) + deletedNeighbors[v];
+	}
+
+	private int activeDegree(TIntArrayList edges, int[] edgeNode) {
+		int degree = 0;
+		for (int i = 0; i < edges.size(); i++) {
+			if (!contracted[edgeNode[edges.get(i)]]) {
+				degree++;
+			}
+		}
+		return degree;
+	}
+
+	/**
+	 * @return number of shortcuts needed (added if not simulate)
+	 */
+	private int contractNode(int v, boolean simulate) {
+		int shortcuts = 0;
+		TIntArrayList ins = in[v];
+		TIntArrayList outs = out[v];
+		for (int i = 0; i < ins.size(); i++) {
+			int e1 = ins.get(i);
+			int u = edgeFrom[e1];
+			if (contracted[u]) {
+				continue;
+			}
+			float maxCost = -1;
+			for (int j = 0; j < outs.size(); j++) {
+				int e2 = outs.get(j);
+				int w = edgeTo[e2];
+				if (!contracted[w] && w != u) {
+					maxCost = Math.max(maxCost, edgeCost[e1] + edgeCost[e2]);
+				}
+			}
+			if (maxCost < 0) {
+				continue;
+			}
+			witnessSearch(u, v, maxCost);
+			for (int j = 0; j < outs.size(); j++) {
+				int e2 = outs.get(j);
+				int w = edgeTo[e2];
+				if (contracted[w] || w == u) {
+					continue;
+				}
+				float via = edgeCost[e1] + edgeCost[e2];
+				if (witnessDist[w] > via) {
+					shortcuts++;
+					if (!simulate) {
+						int e = addEdge(u, w, via, -1, e1, e2);
+						out[u].add(e);
+						in[w].add(e);
+						// same pair shouldn't get duplicate shortcut
+						if (witnessDist[w] == Float.POSITIVE_INFINITY) {
+							witnessTouched.add(w);
+						}
+						witnessDist[w] = via;
+					}
+				}
+			}
+		}
+		return shortcuts;
+	}
+
+	private void witnessSearch(int source, int ignore, float maxCost) {
+		for (int i = 0; i < witnessTouched.size(); i++) {
+			witnessDist[witnessTouched.get(i)] = Float.POSITIVE_INFINITY;
+		}
+		witnessTouched.clear();
+		witnessQueue.clear();
+		witnessDist[source] = 0;
+		witnessTouched.add(source);
+		witnessQueue.add(source, 0);
+		int settled = 0;
+		while (!witnessQueue.isEmpty()) {
+			float d = witnessQueue.peekKey();
+			int n = witnessQueue.poll();
+			if (d > witnessDist[n]) {
+				continue;
+			}
+			if (d > maxCost || settled++ > WITNESS_SETTLED_LIMIT) {
+				break;
+			}
+			TIntArrayList edges = out[n];
+			for (int i = 0; i < edges.size(); i++) {
+				int e = edges.get(i);
+				int next = edgeTo[e];
+				if (next == ignore || contracted[next]) {
+					continue;
+				}
+				float nd = d + edgeCost[e];
+				if (nd < witnessDist[next]) {
+					if (witnessDist[next] == Float.POSITIVE_INFINITY) {
+						witnessTouched.add(next);
+					}
+					witnessDist[next] = nd;
+					witnessQueue.add(next, nd);
+				}
+			}
+		}
+	}
+
+	private int addEdge(int from, int to, float cost, long road, int a, int b) {
+		if (edgesSize == edgeFrom.length) {
+			int nl = edgesSize * 3 / 2 + 1;
+			edgeFrom = Arrays.copyOf(edgeFrom, nl);
+			edgeTo = Arrays.copyOf(edgeTo, nl);
+			edgeCost = Arrays.copyOf(edgeCost, nl);
+			edgeRoad = Arrays.copyOf(edgeRoad, nl);
+			edgeA = Arrays.copyOf(edgeA, nl);
+			edgeB = Arrays.copyOf(edgeB, nl);
+		}
+		edgeFrom[edgesSize] = from;
+		edgeTo[edgesSize] = to;
+		edgeCost[edgesSize] = cost;
+		edgeRoad[edgesSize] = road;
+		edgeA[edgesSize] = a;
+		edgeB[edgesSize] = b;
+		return edgesSize++;
+	}
+
+	private RouteContractionHierarchy buildHierarchy() {
+		RouteContractionHierarchy ch = new RouteContractionHierarchy();
+		ch.nodes = graph.nodes;
+		ch.edgesSize = edgesSize;
+		ch.edgeFrom = Arrays.copyOf(edgeFrom, edgesSize);
+		ch.edgeTo = Arrays.copyOf(edgeTo, edgesSize);
+		ch.edgeCost = Arrays.copyOf(edgeCost, edgesSize);
+		ch.edgeRoad = Arrays.copyOf(edgeRoad, edgesSize);
+		ch.edgeA = Arrays.copyOf(edgeA, edgesSize);
+		ch.edgeB = Arrays.copyOf(edgeB, edgesSize);
+		int nodesCount = ch.nodes.length;
+		// upward edges are grouped by source node, downward edges (reverse search) by target node
+		int[] upNode = new int[edgesSize];
+		int[] downNode = new int[edgesSize];
+		int upSize = 0;
+		int downSize = 0;
+		int[] upEdges = new int[edgesSize];
+		int[] downEdges = new int[edgesSize];
+		for (int e = 0; e < edgesSize; e++) {
+			int f = edgeFrom[e];
+			int t = edgeTo[e];
+			if (f == t) {
+				continue;
+			}
+			if (rank[f] < rank[t]) {
+				upNode[upSize] = f;
+				upEdges[upSize++] = e;
+			} else {
+				downNode[downSize] = t;
+				downEdges[downSize++] = e;
+			}
+		}
+		ch.upStart = new int[nodesCount + 1];
+		ch.upEdges = new int[upSize];
+		ch.downStart = new int[nodesCount + 1];
+		ch.downEdges = new int[downSize];
+		int[] tmp = new int[upSize];
+		RouteNodeGraph.buildCSR(upNode, upSize, ch.upStart, tmp);
+		for (int i = 0; i < upSize; i++) {
+			ch.upEdges[i] = upEdges[tmp[i]];
+		}
+		tmp = new int[downSize];
+		RouteNodeGraph.buildCSR(downNode, downSize, ch.downStart, tmp);
+		for (int i = 0; i < downSize; i++) {
+			ch.downEdges[i] = downEdges[tmp[i]];
+		}
+		ch.left = ch.top = Integer.MAX_VALUE;
+		ch.right = ch.bottom = 0;
+		for (int i = 0; i < nodesCount; i++) {
+			ch.left = Math.min(ch.left, graph.getNodeX(i));
+			ch.right = Math.max(ch.right, graph.getNodeX(i));
+			ch.top = Math.min(ch.top, graph.getNodeY(i));
+			ch.bottom = Math.max(ch.bottom, graph.getNodeY(i));
+		}
+		return ch;
+	}
+
+	public static RouteContractionHierarchy build(BinaryMapIndexReader reader, RoutingConfiguration config) throws IOException {
+		RouteNodeGraph graph = RouteNodeGraph.build(reader, config.router);
+		log.info("Road graph: roads " + graph.getRoadsCount() + ", nodes " + graph.getNodesCount() + ", edges "
+				+ graph.getEdgesCount());
+		RouteContractionHierarchy ch = new RouteContractionPreprocessor(graph).contract();
+		ch.profileSignature = RouteContractionHierarchy.getProfileSignature(config);
+		ch.dateCreated = reader.getDateCreated();
+		ch.regionNames = new String[reader.getRoutingIndexes().size()];
+		for (int i = 0; i < ch.regionNames.length; i++) {
+			ch.regionNames[i] = reader.getRoutingIndexes().get(i).getName();
+		}
+		return ch;
+	}
+
+	public static void main(String[] args) throws Exception {
+		String obf = null;
+		String outFile = null;
+		String vehicle = "car";
+		String routingXmlPath = null;
+		Map<String, String> params = new LinkedHashMap<String, String>();
+		for (String a : args) {
+			if (a.startsWith("-obf=")) {
+				obf = a.substring("-obf=".length());
+			} else if (a.startsWith("-out=")) {
+				outFile = a.substring("-out=".length());
+			} else if (a.startsWith("-vehicle=")) {
+				vehicle = a.substring("-vehicle=".length());
+			} else if (a.startsWith("-routingXmlPath=")) {
+				routingXmlPath = a.substring("-routingXmlPath=".length());
+			} else if (a.startsWith("-params=")) {
+				for (String p : a.substring("-params=".length()).split(",")) {
+					int i = p.indexOf('=');
+					if (i > 0) {
+						params.put(p.substring(0, i), p.substring(i + 1));
+					} else if (p.length() > 0) {
+						params.put(p, "true");
+					}
+				}
+			}
+		}
+		if (obf == null) {
+			System.out.println("Usage: -obf=file.obf [-out=file.ch] [-vehicle=car] [-params=key1,key2=value] [-routingXmlPath=routing.xml]");
+			return;
+		}
+		if (outFile == null) {
+			outFile = obf + "." + vehicle + ".ch";
+		}
+		RoutingConfiguration.Builder builder = routingXmlPath == null ? RoutingConfiguration.getDefault() :
+				RoutingConfiguration.parseFromInputStream(new FileInputStream(routingXmlPath));
+		RoutingConfiguration config = builder.build(vehicle, RoutingConfiguration.DEFAULT_MEMORY_LIMIT * 3, params);
+		RandomAccessFile raf = new RandomAccessFile(obf, "r");
+		try {
+			BinaryMapIndexReader reader = new BinaryMapIndexReader(raf);
+			RouteContractionHierarchy ch = build(reader, config);
+			ch.writeToFile(new File(outFile));
+			System.out.println("Contraction hierarchy is written to " + outFile);
+		} finally {
+			raf.close();
+		}
+	}
+}
@@ -0,0 +1,423 @@
+package net.osmand.router;
+
+import gnu.trove.list.array.TIntArrayList;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import net.osmand.PlatformUtil;
+import net.osmand.binary.BinaryMapIndexReader;
+import net.osmand.binary.BinaryMapRouteReaderAdapter.RouteRegion;
+import net.osmand.binary.BinaryMapRouteReaderAdapter.RouteSubregion;
+import net.osmand.binary.RouteDataObject;
+import net.osmand.router.BinaryRoutePlanner.RouteSegmentPoint;
+
+import org.apache.commons.logging.Log;
+
+/**
+ * Landmarks (ALT) lower bounds of route time for one routing file precalculated for one routing profile.
+ * For every node of {@link RouteNodeGraph} times from and to K landmarks are stored (quantized to 16 bits),
+ * by triangle inequality time(v, t) >= max(time(L, t) - time(L, v), time(v, L) - time(t, L)).
+ * Bounds are used by A* as heuristic together with straight line estimate (see {@link BinaryRoutePlanner#h}),
+ * graph contains only roads of this file as contraction hierarchy does.
+ */
+public class RouteLandmarks {
+
+	private final static Log log = PlatformUtil.getLog(RouteLandmarks.class);
+
+	private static final int MAGIC = 0x4f4c4d31; // OLM1
+	private static final int VERSION = 1;
+	public static final int DEFAULT_LANDMARKS = 8;
+	private static final int UNREACHABLE = 0xffff;
+
+	String profileSignature;
+	String[] regionNames;
+	long dateCreated;
+	int left;
+	int right;
+	int top;
+	int bottom;
+
+	// sorted (x31 << 31) + y31
+	long[] nodes;
+	int landmarksCount;
+	// time of one quantization step (seconds)
+	float unit;
+	// quantized times from landmark l to node n and from node n to landmark l ([n * landmarksCount + l])
+	short[] timeFrom;
+	short[] timeTo;
+
+	RouteLandmarks() {
+	}
+
+	public int getNodesCount() {
+		return nodes.length;
+	}
+
+	public int getLandmarksCount() {
+		return landmarksCount;
+	}
+
+	/**
+	 * Landmarks could be used only for exactly same profile parameters
+	 */
+	public boolean matches(RoutingConfiguration config) {
+		return profileSignature.equals(RouteContractionHierarchy.getProfileSignature(config));
+	}
+
+	public boolean matches(BinaryMapIndexReader reader) {
+		if (reader.getDateCreated() != dateCreated || reader.getRoutingIndexes().size() != regionNames.length) {
+			return false;
+		}
+		for (int i = 0; i < regionNames.length; i++) {
+			RouteRegion reg = reader.getRoutingIndexes().get(i);
+			if (!regionNames[i].equals(reg.getName())) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	public boolean contains(int x31, int y31) {
+		return left <= x31 && right >= x31 && top <= y31 && bottom >= y31;
+	}
+
+	/**
+	 * @return true if routing data of reader (other file) intersects area of graph, search could pass roads
+	 * which are not in graph then and bounds are not valid
+	 */
+	public boolean intersects(BinaryMapIndexReader reader) {
+		for (RouteRegion reg : reader.getRoutingIndexes()) {
+			for (RouteSubregion s : reg.getSubregions()) {
+				if (s.left <= right && s.right >= left && s.top <= bottom && s.bottom >= top) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return heuristic for route between points or null if points are not connected to graph nodes
+	 */
+	public LandmarksHeuristic createHeuristic(VehicleRouter router, RouteSegmentPoint start, RouteSegmentPoint end) {
+		LandmarksHeuristic h = new LandmarksHeuristic();
+		initEndpoint(router, start, false, h.startNodes, h.startCosts);
+		initEndpoint(router, end, true, h.endNodes, h.endCosts);
+		if (h.startNodes.isEmpty() || h.endNodes.isEmpty()) {
+			return null;
+		}
+		return h;
+	}
+
+	// nodes route enters (reverse) or leaves point through, with lower bound of time between node and point
+	private void initEndpoint(VehicleRouter router, RouteSegmentPoint pnt, boolean reverse, TIntArrayList seedNodes,
+			TIntArrayList seedCosts) {
+		RouteDataObject road = pnt.getRoad();
+		int oneway = router.isOneWay(road);
+		int ind = pnt.getSegmentStart();
+		for (int dir = -1; dir <= 1; dir += 2) {
+			boolean positiveMovement = reverse ? dir < 0 : dir > 0;
+			if ((positiveMovement && oneway < 0) || (!positiveMovement && oneway > 0)) {
+				continue;
+			}
+			// point is projected on one of segments near ind, so first segment is not counted
+			float segmentDist = 0;
+			for (int k = ind; k >= 0 && k < road.getPointsLength(); k += dir) {
+				if (k != ind && k - dir != ind) {
+					segmentDist += BinaryRoutePlanner.squareRootDist(road.getPoint31XTile(k - dir), road.getPoint31YTile(k - dir),
+							road.getPoint31XTile(k), road.getPoint31YTile(k));
+				}
+				int node = RouteNodeGraph.findNode(nodes, road.getPoint31XTile(k), road.getPoint31YTile(k));
+				if (node >= 0) {
+					seedNodes.add(node);
+					seedCosts.add((int) BinaryRoutePlanner.calculateTimeWithObstacles(router, road, segmentDist, 0));
+					break;
+				}
+			}
+		}
+	}
+
+	// lower bound of time from node a to node b
+	private float lowerBound(int a, int b) {
+		int bound = 0;
+		int ia = a * landmarksCount;
+		int ib = b * landmarksCount;
+		for (int l = 0; l < landmarksCount; l++) {
+			int fa = timeFrom[ia + l] & 0xffff;
+			int fb = timeFrom[ib + l] & 0xffff;
+			if (fa != UNREACHABLE && fb != UNREACHABLE) {
+				bound = Math.max(bound, fb - fa - 1);
+			}
+			int ta = timeTo[ia + l] & 0xffff;
+			int tb = timeTo[ib + l] & 0xffff;
+			if (ta != UNREACHABLE && tb != UNREACHABLE) {
+				bound = Math.max(bound, ta - tb - 1);
+			}
+		}
+		return bound * unit;
+	}
+
+	/**
+	 * Lower bounds of time to the end point (or from the start point) of one route calculation
+	 */
+	public class LandmarksHeuristic {
+		private final TIntArrayList startNodes = new TIntArrayList(2);
+		private final TIntArrayList startCosts = new TIntArrayList(2);
+		private final TIntArrayList endNodes = new TIntArrayList(2);
+		private final TIntArrayList endCosts = new TIntArrayList(2);
+
+		private LandmarksHeuristic() {
+		}
+
+		/**
+		 * @return lower bound of time from point to the end of route (from the start of route to point for reverse search)
+		 * or -1 if point is not a node of graph
+		 */
+		public float timeEstimate(int x31, int y31, boolean toEnd) {
+			int node = RouteNodeGraph.findNode(nodes, x31, y31);
+			if (node < 0) {
+				return -1;
+			}
+			TIntArrayList seeds = toEnd ? endNodes : startNodes;
+			TIntArrayList costs = toEnd ? endCosts : startCosts;
+			float res = Float.POSITIVE_INFINITY;
+			for (int i = 0; i < seeds.size(); i++) {
+				float b = toEnd ? lowerBound(node, seeds.get(i)) : lowerBound(seeds.get(i), node);
+				res = Math.min(res, b + costs.get(i));
+			}
+			return res;
+		}
+	}
+
+	/**
+	 * Selects landmarks far from each other (each next landmark is the node with the largest time
+	 * to and from already selected ones) and calculates times for all nodes
+	 */
+	public static RouteLandmarks build(RouteNodeGraph graph, int landmarks) {
+		int n = graph.getNodesCount();
+		RouteLandmarks lm = new RouteLandmarks();
+		lm.nodes = graph.nodes;
+		lm.left = lm.top = Integer.MAX_VALUE;
+		for (int i = 0; i < n; i++) {
+			lm.left = Math.min(lm.left, graph.getNodeX(i));
+			lm.right = Math.max(lm.right, graph.getNodeX(i));
+			lm.top = Math.min(lm.top, graph.getNodeY(i));
+			lm.bottom = Math.max(lm.bottom, graph.getNodeY(i));
+		}
+		landmarks = Math.min(landmarks, n);
+		lm.landmarksCount = landmarks;
+		float[][] from = new float[landmarks][];
+		float[][] to = new float[landmarks][];
+		// first landmark is the farthest node from the node closest to the center
+		int center = 0;
+		long cx = ((long) lm.left + lm.right) / 2;
+		long cy = ((long) lm.top + lm.bottom) / 2;
+		double minDist = Double.POSITIVE_INFINITY;
+		for (int i = 0; i < n; i++) {
+			double d = Math.abs(graph.getNodeX(i) - cx) + Math.abs(graph.getNodeY(i) - cy);
+			if (d < minDist) {
+				minDist = d;
+				center = i;
+			}
+		}
+		float[] separation = graph.dijkstra(center, false);
+		float max = 0;
+		for (int l = 0; l < landmarks; l++) {
+			int landmark = -1;
+			float best = -1;
+			for (int i = 0; i < n; i++) {
+				if (separation[i] != Float.POSITIVE_INFINITY && separation[i] > best) {
+					best = separation[i];
+					landmark = i;
+				}
+			}
+			if (landmark == -1) {
+				landmark = center;
+			}
+			from[l] = graph.dijkstra(landmark, false);
+			to[l] = graph.dijkstra(landmark, true);
+			if (l == 0) {
+				Arrays.fill(separation, Float.POSITIVE_INFINITY);
+			}
+			for (int i = 0; i < n; i++) {
+				// nodes not connected to the first landmark are not selected
+				float s = from[l][i] + to[l][i];
+				separation[i] = Math.min(separation[i], s);
+				if (from[l][i] != Float.POSITIVE_INFINITY) {
+					max = Math.max(max, from[l][i]);
+				}
+				if (to[l][i] != Float.POSITIVE_INFINITY) {
+					max = Math.max(max, to[l][i]);
+				}
+			}
+			log.info("Landmark " + (l + 1) + " " + graph.getNodeX(landmark) + " " + graph.getNodeY(landmark));
+		}
+		lm.unit = max == 0 ? 1 : max / (UNREACHABLE - 1);
+		lm.timeFrom = new short[n * landmarks];
+		lm.timeTo = new short[n * landmarks];
+		for (int l = 0; l < landmarks; l++) {
+			for (int i = 0; i < n; i++) {
+				lm.timeFrom[i * landmarks + l] = quantize(from[l][i], lm.unit);
+				lm.timeTo[i * landmarks + l] = quantize(to[l][i], lm.unit);
+			}
+		}
+		return lm;
+	}
+
+	private static short quantize(float time, float unit) {
+		if (time == Float.POSITIVE_INFINITY) {
+			return (short) UNREACHABLE;
+		}
+		// rounded down, bounds subtract one more step to stay lower
+		return (short) Math.min(UNREACHABLE - 1, (int) (time / unit));
+	}
+
+	public static RouteLandmarks build(BinaryMapIndexReader reader, RoutingConfiguration config, int landmarks)
+			throws IOException {
+		RouteNodeGraph graph = RouteNodeGraph.build(reader, config.router);
+		log.info("Road graph: roads " + graph.getRoadsCount() + ", nodes " + graph.getNodesCount() + ", edges "
+				+ graph.getEdgesCount());
+		RouteLandmarks lm = build(graph, landmarks);
+		lm.profileSignature = RouteContractionHierarchy.getProfileSignature(config);
+		lm.dateCreated = reader.getDateCreated();
+		lm.regionNames = new String[reader.getRoutingIndexes().size()];
+		for (int i = 0; i < lm.regionNames.length; i++) {
+			lm.regionNames[i] = reader.getRoutingIndexes().get(i).getName();
+		}
+		return lm;
+	}
+
+	public void writeToFile(File f) throws IOException {
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(f), 1 << 16));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeUTF(profileSignature);
+			out.writeInt(regionNames.length);
+			for (String r : regionNames) {
+				out.writeUTF(r);
+			}
+			out.writeLong(dateCreated);
+			out.writeInt(left);
+			out.writeInt(right);
+			out.writeInt(top);
+			out.writeInt(bottom);
+			out.writeInt(nodes.length);
+			for (int i = 0; i < nodes.length; i++) {
+				out.writeLong(nodes[i]);
+			}
+			out.writeInt(landmarksCount);
+			out.writeFloat(unit);
+			for (int i = 0; i < timeFrom.length; i++) {
+				out.writeShort(timeFrom[i]);
+			}
+			for (int i = 0; i < timeTo.length; i++) {
+				out.writeShort(timeTo[i]);
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	public static RouteLandmarks readFromFile(File f) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(f), 1 << 16));
+		try {
+			if (in.readInt() != MAGIC) {
+				throw new IOException("File " + f.getName() + " is not a landmarks file");
+			}
+			int version = in.readInt();
+			if (version != VERSION) {
+				throw new IOException("Unsupported landmarks version " + version);
+			}
+			RouteLandmarks lm = new RouteLandmarks();
+			lm.profileSignature = in.readUTF();
+			lm.regionNames = new String[in.readInt()];
+			for (int i = 0; i < lm.regionNames.length; i++) {
+				lm.regionNames[i] = in.readUTF();
+			}
+			lm.dateCreated = in.readLong();
+			lm.left = in.readInt();
+			lm.right = in.readInt();
+			lm.top = in.readInt();
+			lm.bottom = in.readInt();
+			lm.nodes = new long[in.readInt()];
+			for (int i = 0; i < lm.nodes.length; i++) {
+				lm.nodes[i] = in.readLong();
+			}
+			lm.landmarksCount = in.readInt();
+			lm.unit = in.readFloat();
+			lm.timeFrom = new short[lm.nodes.length * lm.landmarksCount];
+			for (int i = 0; i < lm.timeFrom.length; i++) {
+				lm.timeFrom[i] = in.readShort();
+			}
+			lm.timeTo = new short[lm.nodes.length * lm.landmarksCount];
+			for (int i = 0; i < lm.timeTo.length; i++) {
+				lm.timeTo[i] = in.readShort();
+			}
+			return lm;
+		} finally {
+			in.close();
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		String obf = null;
+		String outFile = null;
+		String vehicle = "car";
+		String routingXmlPath = null;
+		int landmarks = DEFAULT_LANDMARKS;
+		Map<String, String> params = new LinkedHashMap<String, String>();
+		for (String a : args) {
+			if (a.startsWith("-obf=")) {
+				obf = a.substring("-obf=".length());
+			} else if (a.startsWith("-out=")) {
+				outFile = a.substring("-out=".length());
+			} else if (a.startsWith("-vehicle=")) {
+				vehicle = a.substring("-vehicle=".length());
+			} else if (a.startsWith("-landmarks=")) {
+				landmarks = Integer.parseInt(a.substring("-landmarks=".length()));
+			} else if (a.startsWith("-routingXmlPath=")) {
+				routingXmlPath = a.substring("-routingXmlPath=".length());
+			} else if (a.startsWith("-params=")) {
+				for (String p : a.substring("-params=".length()).split(",")) {
+					int i = p.indexOf('=');
+					if (i > 0) {
+						params.put(p.substring(0, i), p.substring(i + 1));
+					} else if (p.length() > 0) {
+						params.put(p, "true");
+					}
+				}
+			}
+		}
+		if (obf == null) {
+			System.out.println("Usage: -obf=file.obf [-out=file.lm] [-vehicle=car] [-landmarks=8] [-params=key1,key2=value] [-routingXmlPath=routing.xml]");
+			return;
+		}
+		if (outFile == null) {
+			outFile = obf + "." + vehicle + ".lm";
+		}
+		RoutingConfiguration.Builder builder = routingXmlPath == null ? RoutingConfiguration.getDefault() :
+				RoutingConfiguration.parseFromInputStream(new FileInputStream(routingXmlPath));
+		RoutingConfiguration config = builder.build(vehicle, RoutingConfiguration.DEFAULT_MEMORY_LIMIT * 3, params);
+		RandomAccessFile raf = new RandomAccessFile(obf, "r");
+		try {
+			BinaryMapIndexReader reader = new BinaryMapIndexReader(raf);
+			RouteLandmarks lm = build(reader, config, landmarks);
+			lm.writeToFile(new File(outFile));
+			System.out.println("Landmarks are written to " + outFile);
+		} finally {
+			raf.close();
+		}
+	}
+}
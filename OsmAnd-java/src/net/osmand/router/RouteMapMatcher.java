@@ -0,0 +1,558 @@
+package net.osmand.router;
+
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.map.hash.TLongObjectHashMap;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import net.osmand.PlatformUtil;
+import net.osmand.binary.RouteDataObject;
+import net.osmand.data.LatLon;
+import net.osmand.router.BinaryRoutePlanner.RouteSegmentPoint;
+import net.osmand.router.RouteNodeGraph.SearchState;
+import net.osmand.util.MapUtils;
+
+import org.apache.commons.logging.Log;
+
+/**
+ * Hidden Markov model map matcher of recorded tracks (Newson, Krumm). States are road segments near track points
+ * (found by {@link RoutePlannerFrontEnd#findRouteSegment}), emission probability depends on distance to the road
+ * and transition probability on the difference between route distance and straight distance. Routes between states
+ * are searched on the road graph of the track area with costs of the router profile (oneway, access, speed).
+ * Viterbi is run over a sliding window: when window is full the oldest step is fixed by the best current path
+ * and tiles behind the window are unloaded when next graph is built, so memory doesn't depend on track length.
+ */
+public class RouteMapMatcher {
+
+	private final static Log log = PlatformUtil.getLog(RouteMapMatcher.class);
+
+	// standard deviation of gps error (meters)
+	private static final double GPS_SIGMA = 10;
+	// scale of difference between route and straight distance (meters)
+	private static final double TRANSITION_BETA = 5;
+	private static final double CANDIDATE_RADIUS = 50;
+	private static final int MAX_CANDIDATES = 8;
+	// closer track points are skipped
+	private static final double MIN_POINT_DISTANCE = 10;
+	// route between 2 points longer than factor * straight distance + 500 m is not considered
+	private static final double MAX_ROUTE_FACTOR = 3;
+	private static final int WINDOW = 32;
+	// area of one road graph (~6 km) and margin of loaded roads (~1.5 km)
+	private static final int CHUNK_SIZE_31 = 1 << 19;
+	private static final int GRAPH_MARGIN_31 = 1 << 17;
+
+	private final RoutePlannerFrontEnd frontEnd;
+	private final RoutingContext ctx;
+	private final List<RouteSegmentResult> result = new ArrayList<RouteSegmentResult>();
+	// steps of current window (first step is fixed when window was full)
+	private final List<Step> window = new ArrayList<Step>();
+
+	private RouteNodeGraph graph;
+	private TLongObjectHashMap<RouteDataObject> graphRoads;
+	private TLongObjectHashMap<TIntArrayList> graphRoadEdges;
+	private int graphLeft, graphTop, graphRight, graphBottom;
+	private SearchState searchState;
+
+	private RouteMapMatcher(RoutePlannerFrontEnd frontEnd, RoutingContext ctx) {
+		this.frontEnd = frontEnd;
+		this.ctx = ctx;
+	}
+
+	/**
+	 * One track point with candidate road segments
+	 */
+	private static class Step {
+		final int x31;
+		final int y31;
+		final RouteSegmentPoint[] candidates;
+		final double[] emission;
+		// step is not reachable from previous step (gap in data), there is no route to it
+		boolean chainStart = true;
+		double[] score;
+		int[] back;
+		// transition[b][a] log probability from candidate a of previous step to candidate b
+		double[][] transition;
+		List<RouteSegmentResult>[][] paths;
+		// edges of candidates in current graph
+		RouteNodeGraph snappedGraph;
+		SnappedCandidate[] snapped;
+
+		Step(int x31, int y31, RouteSegmentPoint[] candidates) {
+			this.x31 = x31;
+			this.y31 = y31;
+			this.candidates = candidates;
+			emission = new double[candidates.length];
+			for (int i = 0; i < candidates.length; i++) {
+				emission[i] = -0.5 * candidates[i].dist / (GPS_SIGMA * GPS_SIGMA);
+			}
+			score = Arrays.copyOf(emission, emission.length);
+		}
+
+		void startChain() {
+			chainStart = true;
+			score = Arrays.copyOf(emission, emission.length);
+			back = null;
+			transition = null;
+			paths = null;
+		}
+
+		int best() {
+			int b = -1;
+			for (int i = 0; i < score.length; i++) {
+				if (score[i] != Double.NEGATIVE_INFINITY && (b == -1 || score[i] > score[b])) {
+					b = i;
+				}
+			}
+			return b;
+		}
+	}
+
+	/**
+	 * Edges of the graph (max one per direction) containing projection and position on edge (0 - start, 1 - end)
+	 */
+	private static class SnappedCandidate {
+		int edgesCount;
+		final int[] edges = new int[2];
+		final float[] position = new float[2];
+	}
+
+	public static List<RouteSegmentResult> match(RoutePlannerFrontEnd frontEnd, RoutingContext ctx, List<LatLon> points)
+			throws IOException, InterruptedException {
+		long time = System.nanoTime();
+		RouteMapMatcher matcher = new RouteMapMatcher(frontEnd, ctx);
+		LatLon prev = null;
+		for (int i = 0; i < points.size(); i++) {
+			LatLon l = points.get(i);
+			if (prev != null && MapUtils.getDistance(prev, l) < MIN_POINT_DISTANCE) {
+				continue;
+			}
+			prev = l;
+			matcher.addPoint(points, i);
+			checkCancelled(ctx);
+		}
+		matcher.finishChain();
+		List<RouteSegmentResult> res = new RouteResultPreparation().prepareResult(ctx, matcher.getNonEmptyResult());
+		log.info("Map matching of " + points.size() + " points is done in " + (System.nanoTime() - time) / 1e6
+				+ " ms, segments " + res.size());
+		return res;
+	}
+
+	private static void checkCancelled(RoutingContext ctx) throws InterruptedException {
+		if (ctx.calculationProgress != null && ctx.calculationProgress.isCancelled) {
+			throw new InterruptedException("Route calculation interrupted");
+		}
+	}
+
+	private void addPoint(List<LatLon> points, int ind) throws IOException {
+		LatLon l = points.get(ind);
+		int x31 = MapUtils.get31TileNumberX(l.getLongitude());
+		int y31 = MapUtils.get31TileNumberY(l.getLatitude());
+		RouteSegmentPoint[] candidates = findCandidates(l);
+		if (candidates.length == 0) {
+			return;
+		}
+		Step step = new Step(x31, y31, candidates);
+		if (window.isEmpty()) {
+			window.add(step);
+			return;
+		}
+		Step prev = window.get(window.size() - 1);
+		if (graph == null || !insideGraph(x31, y31) || !insideGraph(prev.x31, prev.y31)) {
+			buildGraph(points, ind, prev);
+		}
+		calculateTransitions(prev, step);
+		if (!forward(prev, step)) {
+			// no candidate is reachable from previous step (gap in data or wrong profile)
+			step.startChain();
+		}
+		window.add(step);
+		if (window.size() > WINDOW) {
+			fixStep(1, backtrace(1));
+		}
+	}
+
+	private RouteSegmentPoint[] findCandidates(LatLon l) throws IOException {
+		RouteSegmentPoint p = frontEnd.findRouteSegment(l.getLatitude(), l.getLongitude(), ctx);
+		List<RouteSegmentPoint> list = new ArrayList<RouteSegmentPoint>();
+		if (p != null) {
+			list.add(p);
+			if (p.others != null) {
+				list.addAll(p.others);
+			}
+		}
+		int cnt = 0;
+		while (cnt < list.size() && cnt < MAX_CANDIDATES && list.get(cnt).dist <= CANDIDATE_RADIUS * CANDIDATE_RADIUS) {
+			cnt++;
+		}
+		return list.subList(0, cnt).toArray(new RouteSegmentPoint[cnt]);
+	}
+
+	private boolean insideGraph(int x31, int y31) {
+		return x31 >= graphLeft && x31 <= graphRight && y31 >= graphTop && y31 <= graphBottom;
+	}
+
+	/**
+	 * Builds road graph of area around previous point and next points (until chunk size is reached)
+	 */
+	private void buildGraph(List<LatLon> points, int ind, Step prev) {
+		int left = Math.min(prev.x31, MapUtils.get31TileNumberX(points.get(ind).getLongitude()));
+		int right = Math.max(prev.x31, MapUtils.get31TileNumberX(points.get(ind).getLongitude()));
+		int top = Math.min(prev.y31, MapUtils.get31TileNumberY(points.get(ind).getLatitude()));
+		int bottom = Math.max(prev.y31, MapUtils.get31TileNumberY(points.get(ind).getLatitude()));
+		for (int i = ind + 1; i < points.size(); i++) {
+			int x = MapUtils.get31TileNumberX(points.get(i).getLongitude());
+			int y = MapUtils.get31TileNumberY(points.get(i).getLatitude());
+			if (Math.max(right, x) - Math.min(left, x) > CHUNK_SIZE_31
+					|| Math.max(bottom, y) - Math.min(top, y) > CHUNK_SIZE_31) {
+				break;
+			}
+			left = Math.min(left, x);
+			right = Math.max(right, x);
+			top = Math.min(top, y);
+			bottom = Math.max(bottom, y);
+		}
+		graphLeft = left;
+		graphRight = right;
+		graphTop = top;
+		graphBottom = bottom;
+		unloadTilesBehindWindow();
+		List<RouteDataObject> dataObjects = new ArrayList<RouteDataObject>();
+		ctx.loadTileData(Math.max(0, left - GRAPH_MARGIN_31), Math.max(0, top - GRAPH_MARGIN_31),
+				Math.min(Integer.MAX_VALUE - GRAPH_MARGIN_31, right) + GRAPH_MARGIN_31,
+				Math.min(Integer.MAX_VALUE - GRAPH_MARGIN_31, bottom) + GRAPH_MARGIN_31, dataObjects);
+		List<RouteDataObject> roads = new ArrayList<RouteDataObject>(dataObjects.size());
+		graphRoads = new TLongObjectHashMap<RouteDataObject>();
+		for (RouteDataObject ro : dataObjects) {
+			if (ro.getPointsLength() > 1 && ctx.getRouter().acceptLine(ro)) {
+				roads.add(ro);
+				graphRoads.put(ro.getId(), ro);
+			}
+		}
+		graph = RouteNodeGraph.build(roads, ctx.getRouter());
+		graphRoadEdges = new TLongObjectHashMap<TIntArrayList>();
+		for (int e = 0; e < graph.edgesSize; e++) {
+			TIntArrayList l = graphRoadEdges.get(graph.edgeRoad[e]);
+			if (l == null) {
+				l = new TIntArrayList(2);
+				graphRoadEdges.put(graph.edgeRoad[e], l);
+			}
+			l.add(e);
+		}
+		searchState = graph.createSearchState();
+	}
+
+	/**
+	 * Unloads tiles of the passed track part, only tiles around graph area and steps of window are kept
+	 */
+	private void unloadTilesBehindWindow() {
+		int left = graphLeft;
+		int right = graphRight;
+		int top = graphTop;
+		int bottom = graphBottom;
+		for (Step s : window) {
+			left = Math.min(left, s.x31);
+			right = Math.max(right, s.x31);
+			top = Math.min(top, s.y31);
+			bottom = Math.max(bottom, s.y31);
+		}
+		ctx.unloadTilesOutside(Math.max(0, left - GRAPH_MARGIN_31), Math.max(0, top - GRAPH_MARGIN_31),
+				Math.min(Integer.MAX_VALUE - GRAPH_MARGIN_31, right) + GRAPH_MARGIN_31,
+				Math.min(Integer.MAX_VALUE - GRAPH_MARGIN_31, bottom) + GRAPH_MARGIN_31);
+	}
+
+	private SnappedCandidate[] snap(Step step) {
+		if (step.snappedGraph == graph) {
+			return step.snapped;
+		}
+		step.snappedGraph = graph;
+		step.snapped = new SnappedCandidate[step.candidates.length];
+		for (int i = 0; i < step.candidates.length; i++) {
+			RouteSegmentPoint p = step.candidates[i];
+			SnappedCandidate sc = new SnappedCandidate();
+			step.snapped[i] = sc;
+			RouteDataObject ro = graphRoads.get(p.getRoad().getId());
+			TIntArrayList edges = graphRoadEdges.get(p.getRoad().getId());
+			if (ro == null || edges == null) {
+				continue;
+			}
+			// projection lies on the interval [segmentStart - 1, segmentStart]
+			int s = p.getSegmentStart();
+			for (int k = 0; k < edges.size() && sc.edgesCount < sc.edges.length; k++) {
+				int e = edges.get(k);
+				int st = graph.edgeStartPoint[e];
+				int end = graph.edgeEndPoint[e];
+				if (Math.min(st, end) > s - 1 || Math.max(st, end) < s) {
+					continue;
+				}
+				float fromStart;
+				if (st < end) {
+					fromStart = distance(ro, st, s - 1) + (float) BinaryRoutePlanner.squareRootDist(
+							ro.getPoint31XTile(s - 1), ro.getPoint31YTile(s - 1), p.preciseX, p.preciseY);
+				} else {
+					fromStart = distance(ro, s, st) + (float) BinaryRoutePlanner.squareRootDist(
+							ro.getPoint31XTile(s), ro.getPoint31YTile(s), p.preciseX, p.preciseY);
+				}
+				float len = graph.edgeDistance[e];
+				sc.edges[sc.edgesCount] = e;
+				sc.position[sc.edgesCount] = len > 0 ? Math.min(1, fromStart / len) : 0;
+				sc.edgesCount++;
+			}
+		}
+		return step.snapped;
+	}
+
+	private static float distance(RouteDataObject ro, int from, int to) {
+		float d = 0;
+		for (int k = from + 1; k <= to; k++) {
+			d += BinaryRoutePlanner.squareRootDist(ro.getPoint31XTile(k - 1), ro.getPoint31YTile(k - 1),
+					ro.getPoint31XTile(k), ro.getPoint31YTile(k));
+		}
+		return d;
+	}
+
+	/**
+	 * Searches routes from every candidate of previous step to candidates of step (one-to-many Dijkstra)
+	 */
+	private void calculateTransitions(Step prev, Step step) {
+		SnappedCandidate[] from = snap(prev);
+		SnappedCandidate[] to = snap(step);
+		int na = prev.candidates.length;
+		int nb = step.candidates.length;
+		step.chainStart = false;
+		step.transition = new double[nb][na];
+		@SuppressWarnings({ "unchecked", "rawtypes" })
+		List<RouteSegmentResult>[][] paths = new List[nb][na];
+		step.paths = paths;
+		for (double[] t : step.transition) {
+			Arrays.fill(t, Double.NEGATIVE_INFINITY);
+		}
+		double straight = BinaryRoutePlanner.squareRootDist(prev.x31, prev.y31, step.x31, step.y31);
+		double maxDistance = straight * MAX_ROUTE_FACTOR + 500;
+		float maxCost = (float) (maxDistance / Math.max(0.5f, ctx.getRouter().getMinDefaultSpeed()));
+		for (int a = 0; a < na; a++) {
+			SnappedCandidate s = from[a];
+			if (s.edgesCount == 0 || prev.score[a] == Double.NEGATIVE_INFINITY) {
+				continue;
+			}
+			searchState.clear();
+			for (int k = 0; k < s.edgesCount; k++) {
+				int e = s.edges[k];
+				float rest = 1 - s.position[k];
+				searchState.addStart(graph.edgeTo[e], graph.edgeCost[e] * rest, graph.edgeDistance[e] * rest);
+			}
+			for (SnappedCandidate t : to) {
+				for (int k = 0; k < t.edgesCount; k++) {
+					searchState.addTarget(graph.edgeFrom[t.edges[k]]);
+				}
+			}
+			searchState.search(false, maxCost);
+			for (int b = 0; b < nb; b++) {
+				SnappedCandidate t = to[b];
+				float bestTime = Float.POSITIVE_INFINITY;
+				float bestDist = 0;
+				int bestEdge = -1;
+				int bestStartEdge = -1;
+				for (int k = 0; k < t.edgesCount; k++) {
+					int e = t.edges[k];
+					float pos = t.position[k];
+					int node = graph.edgeFrom[e];
+					float tm = searchState.getCost(node) + graph.edgeCost[e] * pos;
+					float dist = searchState.getDistance(node) + graph.edgeDistance[e] * pos;
+					int startEdge = -1;
+					// both candidates on the same edge
+					for (int ks = 0; ks < s.edgesCount; ks++) {
+						if (s.edges[ks] == e && s.position[ks] <= pos) {
+							float stm = graph.edgeCost[e] * (pos - s.position[ks]);
+							if (stm <= tm) {
+								tm = stm;
+								dist = graph.edgeDistance[e] * (pos - s.position[ks]);
+								startEdge = e;
+							}
+						}
+					}
+					if (tm < bestTime) {
+						bestTime = tm;
+						bestDist = dist;
+						bestEdge = e;
+						bestStartEdge = startEdge;
+					}
+				}
+				if (bestEdge == -1 || bestDist > maxDistance) {
+					continue;
+				}
+				step.transition[b][a] = -Math.abs(bestDist - straight) / TRANSITION_BETA;
+				step.paths[b][a] = buildPath(prev.candidates[a], s, step.candidates[b], bestEdge, bestStartEdge);
+			}
+		}
+	}
+
+	/**
+	 * Converts route (start edge, edges by parent links, last edge) to road pieces
+	 */
+	private List<RouteSegmentResult> buildPath(RouteSegmentPoint a, SnappedCandidate sa, RouteSegmentPoint b,
+			int lastEdge, int sameEdge) {
+		List<RouteSegmentResult> res = new ArrayList<RouteSegmentResult>();
+		if (sameEdge != -1) {
+			addPiece(res, sameEdge, a.getSegmentStart(), b.getSegmentStart());
+			return res;
+		}
+		// edges in reverse order
+		TIntArrayList edges = new TIntArrayList();
+		int node = graph.edgeFrom[lastEdge];
+		int e = searchState.getParentEdge(node);
+		while (e != -1) {
+			edges.add(e);
+			node = graph.edgeFrom[e];
+			e = searchState.getParentEdge(node);
+		}
+		for (int k = 0; k < sa.edgesCount; k++) {
+			if (graph.edgeTo[sa.edges[k]] == node) {
+				addPiece(res, sa.edges[k], a.getSegmentStart(), -1);
+				break;
+			}
+		}
+		for (int k = edges.size() - 1; k >= 0; k--) {
+			addPiece(res, edges.get(k), -1, -1);
+		}
+		addPiece(res, lastEdge, -1, b.getSegmentStart());
+		return res;
+	}
+
+	/**
+	 * Adds points of edge passed between projections, startSegment/endSegment (end point of segment containing
+	 * projection) or -1 for edge ends
+	 */
+	private void addPiece(List<RouteSegmentResult> res, int edge, int startSegment, int endSegment) {
+		int st = graph.edgeStartPoint[edge];
+		int end = graph.edgeEndPoint[edge];
+		boolean plus = st < end;
+		int from = startSegment == -1 ? st : (plus ? startSegment : startSegment - 1);
+		int to = endSegment == -1 ? end : (plus ? endSegment - 1 : endSegment);
+		if (plus ? from <= to : from >= to) {
+			res.add(new RouteSegmentResult(graphRoads.get(graph.edgeRoad[edge]), from, to));
+		}
+	}
+
+	/**
+	 * Viterbi step
+	 * @return false if no candidate of step is reachable
+	 */
+	private static boolean forward(Step prev, Step step) {
+		int nb = step.candidates.length;
+		step.score = new double[nb];
+		step.back = new int[nb];
+		boolean reachable = false;
+		for (int b = 0; b < nb; b++) {
+			double best = Double.NEGATIVE_INFINITY;
+			int back = -1;
+			for (int a = 0; a < prev.candidates.length; a++) {
+				double sc = prev.score[a] + step.transition[b][a];
+				if (sc > best) {
+					best = sc;
+					back = a;
+				}
+			}
+			step.score[b] = best + step.emission[b];
+			step.back[b] = back;
+			reachable |= back != -1;
+		}
+		return reachable;
+	}
+
+	/**
+	 * @return candidate of window step on the best path to the last step
+	 */
+	private int backtrace(int stepInd) {
+		int c = window.get(window.size() - 1).best();
+		for (int i = window.size() - 1; i > stepInd; i--) {
+			c = window.get(i).chainStart ? window.get(i - 1).best() : window.get(i).back[c];
+		}
+		return c;
+	}
+
+	/**
+	 * Fixes candidate of step (adds route from fixed previous step to result) and removes previous step from window
+	 */
+	private void fixStep(int stepInd, int candidate) {
+		Step step = window.get(stepInd);
+		if (!step.chainStart) {
+			addToResult(step.paths[candidate][step.back[candidate]]);
+		}
+		for (int i = 0; i < step.score.length; i++) {
+			if (i != candidate) {
+				step.score[i] = Double.NEGATIVE_INFINITY;
+			}
+		}
+		// best paths of next steps should go through fixed candidate
+		for (int i = stepInd + 1; i < window.size(); i++) {
+			Step next = window.get(i);
+			if (!next.chainStart && !forward(window.get(i - 1), next)) {
+				next.startChain();
+			}
+		}
+		window.remove(stepInd - 1);
+		// transitions and paths to removed step are not needed anymore
+		step.transition = null;
+		step.paths = null;
+	}
+
+	/**
+	 * Fixes all steps of window by the best path
+	 */
+	private void finishChain() {
+		if (window.isEmpty()) {
+			return;
+		}
+		int n = window.size();
+		int[] chosen = new int[n];
+		chosen[n - 1] = window.get(n - 1).best();
+		for (int i = n - 1; i > 0; i--) {
+			Step step = window.get(i);
+			chosen[i - 1] = step.chainStart ? window.get(i - 1).best() : step.back[chosen[i]];
+		}
+		for (int i = 1; i < n; i++) {
+			if (!window.get(i).chainStart) {
+				addToResult(window.get(i).paths[chosen[i]][chosen[i - 1]]);
+			}
+		}
+		window.clear();
+	}
+
+	/**
+	 * Adds pieces merging them with the last piece of result if it is continuation on the same road
+	 * (pieces of one point are merged with next pieces)
+	 */
+	private void addToResult(List<RouteSegmentResult> path) {
+		if (path == null) {
+			return;
+		}
+		for (RouteSegmentResult r : path) {
+			RouteSegmentResult last = result.isEmpty() ? null : result.get(result.size() - 1);
+			if (last != null && last.getObject().getId() == r.getObject().getId()) {
+				int d1 = Integer.signum(last.getEndPointIndex() - last.getStartPointIndex());
+				int d2 = Integer.signum(r.getStartPointIndex() - last.getEndPointIndex());
+				int d3 = Integer.signum(r.getEndPointIndex() - r.getStartPointIndex());
+				int d = d1 != 0 ? d1 : (d2 != 0 ? d2 : d3);
+				if (Math.abs(r.getStartPointIndex() - last.getEndPointIndex()) <= 1 && (d1 == 0 || d1 == d)
+						&& (d2 == 0 || d2 == d) && (d3 == 0 || d3 == d)) {
+					last.setEndPointIndex(r.getEndPointIndex());
+					continue;
+				}
+			}
+			result.add(new RouteSegmentResult(r.getObject(), r.getStartPointIndex(), r.getEndPointIndex()));
+		}
+	}
+
+	private List<RouteSegmentResult> getNonEmptyResult() {
+		List<RouteSegmentResult> res = new ArrayList<RouteSegmentResult>(result.size());
+		for (RouteSegmentResult r : result) {
+			if (r.getStartPointIndex() != r.getEndPointIndex()) {
+				res.add(r);
+			}
+		}
+		return res;
+	}
+}
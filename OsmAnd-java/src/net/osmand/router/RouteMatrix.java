@@ -0,0 +1,463 @@
+package net.osmand.router;
+
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.map.hash.TLongObjectHashMap;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import net.osmand.PlatformUtil;
+import net.osmand.binary.RouteDataObject;
+import net.osmand.data.LatLon;
+import net.osmand.router.BinaryRoutePlanner.FinalRouteSegment;
+import net.osmand.router.BinaryRoutePlanner.RouteSegment;
+import net.osmand.router.BinaryRoutePlanner.RouteSegmentPoint;
+import net.osmand.router.RouteNodeGraph.SearchState;
+import net.osmand.util.MapUtils;
+
+import org.apache.commons.logging.Log;
+
+/**
+ * Many-to-many matrix of route times (seconds) and distances (meters) stored in primitive row-major arrays.
+ * Every point is projected to the road network once, road graph of the area around all points is built
+ * from tiles of routing context and one-to-many Dijkstra is run from every source. Route is exact if it is faster
+ * than reaching the area border, otherwise area is extended and remaining routes are calculated by planner
+ * (one search from every source to all its remaining targets).
+ * Graph of the area doesn't model turn restrictions, so routes of the area are checked after the search
+ * and routes violating restrictions are calculated by planner as well.
+ */
+public class RouteMatrix {
+
+	private final static Log log = PlatformUtil.getLog(RouteMatrix.class);
+
+	// loaded area around points (~5 km), it is extended up to ~80 km while some route could leave it
+	private static final int BBOX_MARGIN_31 = 1 << 18;
+	private static final int MAX_BBOX_MARGIN_31 = 1 << 22;
+
+	private final int sourcesCount;
+	private final int targetsCount;
+	private final float[] times;
+	private final float[] distances;
+
+	RouteMatrix(int sourcesCount, int targetsCount) {
+		this.sourcesCount = sourcesCount;
+		this.targetsCount = targetsCount;
+		times = new float[sourcesCount * targetsCount];
+		distances = new float[sourcesCount * targetsCount];
+		Arrays.fill(times, Float.POSITIVE_INFINITY);
+		Arrays.fill(distances, Float.POSITIVE_INFINITY);
+	}
+
+	public int getSourcesCount() {
+		return sourcesCount;
+	}
+
+	public int getTargetsCount() {
+		return targetsCount;
+	}
+
+	/**
+	 * @return time in seconds or Float.POSITIVE_INFINITY if target is not reachable
+	 */
+	public float getTime(int source, int target) {
+		return times[source * targetsCount + target];
+	}
+
+	/**
+	 * @return distance in meters of the fastest route or Float.POSITIVE_INFINITY if target is not reachable
+	 */
+	public float getDistance(int source, int target) {
+		return distances[source * targetsCount + target];
+	}
+
+	public boolean isReachable(int source, int target) {
+		return times[source * targetsCount + target] != Float.POSITIVE_INFINITY;
+	}
+
+	/**
+	 * @return row-major times (source * targetsCount + target)
+	 */
+	public float[] getTimes() {
+		return times;
+	}
+
+	/**
+	 * @return row-major distances (source * targetsCount + target)
+	 */
+	public float[] getDistances() {
+		return distances;
+	}
+
+	/**
+	 * Cost matrix for TspAnt/TspHeldKarp, unreachable pairs get unreachableCost
+	 */
+	public double[][] toCostMatrix(boolean time, double unreachableCost) {
+		double[][] res = new double[sourcesCount][targetsCount];
+		float[] vs = time ? times : distances;
+		for (int i = 0; i < sourcesCount; i++) {
+			for (int j = 0; j < targetsCount; j++) {
+				float v = vs[i * targetsCount + j];
+				res[i][j] = v == Float.POSITIVE_INFINITY ? unreachableCost : v;
+			}
+		}
+		return res;
+	}
+
+	/**
+	 * Point projected to the road: edges (max one per direction) containing the projection
+	 * and position of projection on the edge (0 - edge start node, 1 - edge end node)
+	 */
+	private static class SnappedPoint {
+		int edgesCount;
+		final int[] edges = new int[2];
+		final float[] position = new float[2];
+
+		void add(int edge, float pos) {
+			if (edgesCount < edges.length) {
+				edges[edgesCount] = edge;
+				position[edgesCount] = pos;
+				edgesCount++;
+			}
+		}
+	}
+
+	public static RouteMatrix calculate(RoutePlannerFrontEnd frontEnd, RoutingContext ctx, List<LatLon> sources,
+			List<LatLon> targets) throws IOException, InterruptedException {
+		long time = System.nanoTime();
+		RouteMatrix matrix = new RouteMatrix(sources.size(), targets.size());
+		// 1. project points
+		RouteSegmentPoint[] sourcePoints = new RouteSegmentPoint[sources.size()];
+		RouteSegmentPoint[] targetPoints = new RouteSegmentPoint[targets.size()];
+		int[] xs = new int[sources.size() + targets.size()];
+		int[] ys = new int[sources.size() + targets.size()];
+		int left = Integer.MAX_VALUE, right = 0, top = Integer.MAX_VALUE, bottom = 0;
+		for (int k = 0; k < sources.size() + targets.size(); k++) {
+			boolean source = k < sources.size();
+			LatLon l = source ? sources.get(k) : targets.get(k - sources.size());
+			RouteSegmentPoint p = frontEnd.findRouteSegment(l.getLatitude(), l.getLongitude(), ctx);
+			if (source) {
+				sourcePoints[k] = p;
+			} else {
+				targetPoints[k - sources.size()] = p;
+			}
+			xs[k] = MapUtils.get31TileNumberX(l.getLongitude());
+			ys[k] = MapUtils.get31TileNumberY(l.getLatitude());
+			left = Math.min(left, xs[k]);
+			right = Math.max(right, xs[k]);
+			top = Math.min(top, ys[k]);
+			bottom = Math.max(bottom, ys[k]);
+			checkCancelled(ctx);
+		}
+		if (sources.isEmpty() || targets.isEmpty()) {
+			return matrix;
+		}
+		// 2. search in the graph of area around points, area is extended while some route could leave it
+		float maxSpeed = ctx.getRouter().getMaxDefaultSpeed();
+		boolean[] inexact = new boolean[matrix.times.length];
+		boolean[] restricted = new boolean[matrix.times.length];
+		int margin = BBOX_MARGIN_31;
+		int nodes = 0;
+		while (true) {
+			int l = Math.max(0, left - margin);
+			int t = Math.max(0, top - margin);
+			int r = (int) Math.min(Integer.MAX_VALUE, (long) right + margin);
+			int b = (int) Math.min(Integer.MAX_VALUE, (long) bottom + margin);
+			RouteMatrix areaMatrix = new RouteMatrix(sources.size(), targets.size());
+			boolean[] areaRestricted = new boolean[restricted.length];
+			int areaNodes = calculateInArea(areaMatrix, areaRestricted, ctx, sourcePoints, targetPoints, l, t, r, b);
+			if (areaNodes < 0) {
+				if (nodes == 0) {
+					throw new IOException("Routing tiles of route matrix area don't fit into memory limit "
+							+ ctx.config.memoryLimitation / (1 << 20) + " MB");
+				}
+				log.warn("Route matrix area can't be extended (memory limit), margin " + margin);
+				break;
+			}
+			nodes = areaNodes;
+			System.arraycopy(areaMatrix.times, 0, matrix.times, 0, matrix.times.length);
+			System.arraycopy(areaMatrix.distances, 0, matrix.distances, 0, matrix.distances.length);
+			System.arraycopy(areaRestricted, 0, restricted, 0, restricted.length);
+			// route leaving the area is not shorter than time to reach area border from source and target
+			// by max speed, so route is exact if it is faster
+			int count = 0;
+			for (int i = 0; i < sourcePoints.length; i++) {
+				for (int j = 0; j < targetPoints.length; j++) {
+					int k = i * matrix.targetsCount + j;
+					int tk = sourcePoints.length + j;
+					inexact[k] = sourcePoints[i] != null && targetPoints[j] != null && matrix.times[k] > 
+							(borderDistance(xs[i], ys[i], l, t, r, b) + borderDistance(xs[tk], ys[tk], l, t, r, b)) / maxSpeed;
+					if (inexact[k]) {
+						count++;
+					}
+				}
+			}
+			if (count == 0 || margin >= MAX_BBOX_MARGIN_31) {
+				break;
+			}
+			margin <<= 1;
+		}
+		// 3. routes which could leave the area or violate turn restrictions are calculated by planner
+		// (one-to-many search from every source, tiles are loaded on demand)
+		int recalculated = 0;
+		TIntArrayList inds = new TIntArrayList();
+		for (int i = 0; i < sourcePoints.length; i++) {
+			inds.clear();
+			for (int j = 0; j < targetPoints.length; j++) {
+				int k = i * matrix.targetsCount + j;
+				if (restricted[k]) {
+					// route of the area is not allowed
+					matrix.times[k] = Float.POSITIVE_INFINITY;
+					matrix.distances[k] = Float.POSITIVE_INFINITY;
+					inds.add(j);
+				} else if (inexact[k]) {
+					inds.add(j);
+				}
+			}
+			if (!inds.isEmpty()) {
+				calculateByPlanner(matrix, ctx, i, sourcePoints[i], targetPoints, inds);
+				recalculated += inds.size();
+				checkCancelled(ctx);
+			}
+		}
+		log.info("Route matrix " + sources.size() + "x" + targets.size() + " is calculated in "
+				+ (System.nanoTime() - time) / 1e6 + " ms, graph nodes " + nodes + ", area margin " + margin
+				+ ", routes calculated by planner " + recalculated);
+		return matrix;
+	}
+
+	/**
+	 * Builds road graph from tiles of the area and runs one-to-many search from every source,
+	 * pairs which routes violate turn restrictions are marked in restricted
+	 * @return number of graph nodes or -1 if tiles of the area don't fit into memory limit
+	 */
+	private static int calculateInArea(RouteMatrix matrix, boolean[] restricted, RoutingContext ctx, RouteSegmentPoint[] sourcePoints,
+			RouteSegmentPoint[] targetPoints, int left, int top, int right, int bottom) throws InterruptedException {
+		List<RouteDataObject> dataObjects = new ArrayList<RouteDataObject>();
+		// context unloads tiles (could be tiles of the area) when memory limit is reached
+		int unloadedTiles = ctx.unloadedTiles;
+		ctx.loadTileData(left, top, right, bottom, dataObjects);
+		if (ctx.unloadedTiles != unloadedTiles) {
+			return -1;
+		}
+		List<RouteDataObject> roads = new ArrayList<RouteDataObject>(dataObjects.size());
+		TLongObjectHashMap<RouteDataObject> snappedRoads = new TLongObjectHashMap<RouteDataObject>();
+		TLongObjectHashMap<RouteDataObject> restrictionRoads = new TLongObjectHashMap<RouteDataObject>();
+		boolean restrictionsAware = ctx.getRouter().restrictionsAware();
+		for (RouteSegmentPoint p : sourcePoints) {
+			if (p != null) {
+				snappedRoads.put(p.getRoad().getId(), null);
+			}
+		}
+		for (RouteSegmentPoint p : targetPoints) {
+			if (p != null) {
+				snappedRoads.put(p.getRoad().getId(), null);
+			}
+		}
+		for (RouteDataObject ro : dataObjects) {
+			if (ro.getPointsLength() > 1 && ctx.getRouter().acceptLine(ro)) {
+				roads.add(ro);
+				if (snappedRoads.containsKey(ro.getId())) {
+					snappedRoads.put(ro.getId(), ro);
+				}
+				if (restrictionsAware && ro.getRestrictionLength() > 0) {
+					restrictionRoads.put(ro.getId(), ro);
+				}
+			}
+		}
+		dataObjects = null;
+		RouteNodeGraph graph = RouteNodeGraph.build(roads, ctx.getRouter());
+		roads = null;
+		checkCancelled(ctx);
+		SnappedPoint[] snappedSources = snapToEdges(graph, sourcePoints, snappedRoads);
+		SnappedPoint[] snappedTargets = snapToEdges(graph, targetPoints, snappedRoads);
+
+		SearchState state = graph.createSearchState();
+		for (int i = 0; i < snappedSources.length; i++) {
+			SnappedPoint s = snappedSources[i];
+			if (s == null || s.edgesCount == 0) {
+				continue;
+			}
+			state.clear();
+			for (int k = 0; k < s.edgesCount; k++) {
+				int e = s.edges[k];
+				float rest = 1 - s.position[k];
+				state.addStart(graph.edgeTo[e], graph.edgeCost[e] * rest, graph.edgeDistance[e] * rest);
+			}
+			for (SnappedPoint t : snappedTargets) {
+				if (t != null) {
+					for (int k = 0; k < t.edgesCount; k++) {
+						state.addTarget(graph.edgeFrom[t.edges[k]]);
+					}
+				}
+			}
+			state.search(false, Float.POSITIVE_INFINITY);
+			for (int j = 0; j < snappedTargets.length; j++) {
+				SnappedPoint t = snappedTargets[j];
+				if (t == null) {
+					continue;
+				}
+				float bestTime = Float.POSITIVE_INFINITY;
+				float bestDist = Float.POSITIVE_INFINITY;
+				// edge of the target the best route comes by (-1 for route along the edge of source)
+				int bestEdge = -1;
+				for (int k = 0; k < t.edgesCount; k++) {
+					int e = t.edges[k];
+					float pos = t.position[k];
+					int from = graph.edgeFrom[e];
+					float tm = state.getCost(from) + graph.edgeCost[e] * pos;
+					float dist = state.getDistance(from) + graph.edgeDistance[e] * pos;
+					int edge = e;
+					// source and target on the same edge
+					for (int ks = 0; ks < s.edgesCount; ks++) {
+						if (s.edges[ks] == e && s.position[ks] <= pos) {
+							float stm = graph.edgeCost[e] * (pos - s.position[ks]);
+							if (stm < tm) {
+								tm = stm;
+								dist = graph.edgeDistance[e] * (pos - s.position[ks]);
+								edge = -1;
+							}
+						}
+					}
+					if (tm < bestTime) {
+						bestTime = tm;
+						bestDist = dist;
+						bestEdge = edge;
+					}
+				}
+				matrix.times[i * matrix.targetsCount + j] = bestTime;
+				matrix.distances[i * matrix.targetsCount + j] = bestDist;
+				restricted[i * matrix.targetsCount + j] = bestEdge >= 0 && !restrictionRoads.isEmpty()
+						&& violatesRestrictions(graph, state, s, bestEdge, restrictionRoads);
+			}
+			checkCancelled(ctx);
+		}
+		return graph.getNodesCount();
+	}
+
+	/**
+	 * Checks turns of the route (edges from source to target edge) by restrictions of the roads
+	 */
+	private static boolean violatesRestrictions(RouteNodeGraph graph, SearchState state, SnappedPoint source, int targetEdge,
+			TLongObjectHashMap<RouteDataObject> restrictionRoads) {
+		long to = graph.edgeRoad[targetEdge];
+		int node = graph.edgeFrom[targetEdge];
+		int e;
+		while ((e = state.getParentEdge(node)) >= 0) {
+			if (RouteContractionHierarchy.isTurnRestricted(restrictionRoads.get(graph.edgeRoad[e]), to)) {
+				return true;
+			}
+			to = graph.edgeRoad[e];
+			node = graph.edgeFrom[e];
+		}
+		// start node is reached by edge of source
+		for (int k = 0; k < source.edgesCount; k++) {
+			if (graph.edgeTo[source.edges[k]] == node) {
+				return RouteContractionHierarchy.isTurnRestricted(restrictionRoads.get(graph.edgeRoad[source.edges[k]]), to);
+			}
+		}
+		return false;
+	}
+
+	private static void calculateByPlanner(RouteMatrix matrix, RoutingContext ctx, int source, RouteSegmentPoint start,
+			RouteSegmentPoint[] targetPoints, TIntArrayList inds) throws IOException, InterruptedException {
+		RoutingContext local = new RoutingContext(ctx);
+		local.calculationProgress = ctx.calculationProgress;
+		local.initStartAndTargetPoints(start, start);
+		RouteSegmentPoint[] targets = new RouteSegmentPoint[inds.size()];
+		for (int k = 0; k < targets.length; k++) {
+			targets[k] = targetPoints[inds.get(k)];
+		}
+		FinalRouteSegment[] res = new BinaryRoutePlanner().searchRouteToTargets(local, start, targets);
+		for (int k = 0; k < res.length; k++) {
+			int ind = source * matrix.targetsCount + inds.get(k);
+			if (res[k] != null && res[k].distanceFromStart < matrix.times[ind]) {
+				matrix.times[ind] = res[k].distanceFromStart;
+				matrix.distances[ind] = getRouteDistance(res[k]);
+			}
+		}
+	}
+
+	// length of route from start to the target segment (see RouteResultPreparation.convertFinalSegmentToResults)
+	private static float getRouteDistance(FinalRouteSegment finalSegment) {
+		float dist = 0;
+		RouteSegment segment = finalSegment;
+		int parentSegmentEnd = finalSegment.opposite.getSegmentStart();
+		while (segment != null) {
+			int st = segment.getSegmentStart();
+			dist += distance(segment.getRoad(), Math.min(st, parentSegmentEnd), Math.max(st, parentSegmentEnd));
+			parentSegmentEnd = segment.getParentSegmentEnd();
+			segment = segment.getParentRoute();
+		}
+		return dist;
+	}
+
+	// distance in meters from point to the nearest side of area
+	private static double borderDistance(int x, int y, int left, int top, int right, int bottom) {
+		double d = Math.min(BinaryRoutePlanner.squareRootDist(x, y, left, y), BinaryRoutePlanner.squareRootDist(x, y, right, y));
+		d = Math.min(d, BinaryRoutePlanner.squareRootDist(x, y, x, top));
+		return Math.min(d, BinaryRoutePlanner.squareRootDist(x, y, x, bottom));
+	}
+
+	private static void checkCancelled(RoutingContext ctx) throws InterruptedException {
+		if (ctx.calculationProgress != null && ctx.calculationProgress.isCancelled) {
+			throw new InterruptedException("Route calculation interrupted");
+		}
+	}
+
+	private static SnappedPoint[] snapToEdges(RouteNodeGraph graph, RouteSegmentPoint[] points,
+			TLongObjectHashMap<RouteDataObject> snappedRoads) {
+		SnappedPoint[] res = new SnappedPoint[points.length];
+		TLongObjectHashMap<TIntArrayList> byRoad = new TLongObjectHashMap<TIntArrayList>();
+		for (int i = 0; i < points.length; i++) {
+			if (points[i] != null && snappedRoads.get(points[i].getRoad().getId()) != null) {
+				res[i] = new SnappedPoint();
+				long id = points[i].getRoad().getId();
+				if (!byRoad.containsKey(id)) {
+					byRoad.put(id, new TIntArrayList());
+				}
+				byRoad.get(id).add(i);
+			}
+		}
+		// one pass over all edges
+		for (int e = 0; e < graph.edgesSize; e++) {
+			TIntArrayList inds = byRoad.get(graph.edgeRoad[e]);
+			if (inds == null) {
+				continue;
+			}
+			RouteDataObject ro = snappedRoads.get(graph.edgeRoad[e]);
+			int st = graph.edgeStartPoint[e];
+			int end = graph.edgeEndPoint[e];
+			for (int k = 0; k < inds.size(); k++) {
+				int i = inds.get(k);
+				RouteSegmentPoint p = points[i];
+				// projection lies on the interval [segmentStart - 1, segmentStart]
+				int s = p.getSegmentStart();
+				if (Math.min(st, end) > s - 1 || Math.max(st, end) < s) {
+					continue;
+				}
+				float fromStart;
+				if (st < end) {
+					fromStart = distance(ro, st, s - 1) + (float) BinaryRoutePlanner.squareRootDist(
+							ro.getPoint31XTile(s - 1), ro.getPoint31YTile(s - 1), p.preciseX, p.preciseY);
+				} else {
+					fromStart = distance(ro, s, st) + (float) BinaryRoutePlanner.squareRootDist(
+							ro.getPoint31XTile(s), ro.getPoint31YTile(s), p.preciseX, p.preciseY);
+				}
+				float len = graph.edgeDistance[e];
+				res[i].add(e, len > 0 ? Math.min(1, fromStart / len) : 0);
+			}
+		}
+		return res;
+	}
+
+	private static float distance(RouteDataObject ro, int from, int to) {
+		float d = 0;
+		for (int k = from + 1; k <= to; k++) {
+			d += BinaryRoutePlanner.squareRootDist(ro.getPoint31XTile(k - 1), ro.getPoint31YTile(k - 1),
+					ro.getPoint31XTile(k), ro.getPoint31YTile(k));
+		}
+		return d;
+	}
+}
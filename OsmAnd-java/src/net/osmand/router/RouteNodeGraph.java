@@ -0,0 +1,448 @@
+package net.osmand.router;
+
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.set.hash.TLongHashSet;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import net.osmand.binary.BinaryMapIndexReader;
+import net.osmand.binary.BinaryMapIndexReader.SearchRequest;
+import net.osmand.binary.BinaryMapRouteReaderAdapter.RouteRegion;
+import net.osmand.binary.BinaryMapRouteReaderAdapter.RouteSubregion;
+import net.osmand.binary.RouteDataObject;
+
+/**
+ * Compact node graph of the road network of one routing file (used by offline preprocessing).
+ * Nodes are road intersections and road ends (identified by x31/y31),
+ * edges are directed road pieces between 2 nodes with the cost (time in seconds)
+ * calculated exactly as in BinaryRoutePlanner for the given router.
+ */
+public class RouteNodeGraph {
+
+	// sorted (x31 << 31) + y31
+	long[] nodes;
+
+	int edgesSize;
+	int[] edgeFrom;
+	int[] edgeTo;
+	float[] edgeCost;
+	// length in meters
+	float[] edgeDistance;
+	long[] edgeRoad;
+	int[] edgeStartPoint;
+	int[] edgeEndPoint;
+
+	// CSR adjacency (index of edges)
+	int[] outStart;
+	int[] outEdges;
+	int[] inStart;
+	int[] inEdges;
+
+	int roadsCount;
+
+	RouteNodeGraph() {
+	}
+
+	public int getNodesCount() {
+		return nodes.length;
+	}
+
+	public int getEdgesCount() {
+		return edgesSize;
+	}
+
+	public int getRoadsCount() {
+		return roadsCount;
+	}
+
+	public int findNode(int x31, int y31) {
+		return findNode(nodes, x31, y31);
+	}
+
+	public int getNodeX(int node) {
+		return (int) (nodes[node] >> 31);
+	}
+
+	public int getNodeY(int node) {
+		return (int) (nodes[node] & Integer.MAX_VALUE);
+	}
+
+	static long nodeKey(int x31, int y31) {
+		return (((long) x31) << 31) + (long) y31;
+	}
+
+	static int findNode(long[] nodes, int x31, int y31) {
+		int ind = Arrays.binarySearch(nodes, nodeKey(x31, y31));
+		return ind < 0 ? -1 : ind;
+	}
+
+	public static List<RouteDataObject> loadAllRoads(BinaryMapIndexReader reader, VehicleRouter router) throws IOException {
+		List<RouteDataObject> roads = new ArrayList<RouteDataObject>();
+		TLongHashSet ids = new TLongHashSet();
+		for (RouteRegion reg : reader.getRoutingIndexes()) {
+			List<RouteSubregion> subregions = new ArrayList<RouteSubregion>();
+			for (RouteSubregion rs : reg.getSubregions()) {
+				subregions.add(new RouteSubregion(rs));
+			}
+			SearchRequest<RouteDataObject> request = BinaryMapIndexReader.buildSearchRouteRequest(0,
+					Integer.MAX_VALUE, 0, Integer.MAX_VALUE, null);
+			List<RouteSubregion> toLoad = reader.searchRouteIndexTree(request, subregions);
+			for (RouteSubregion rs : toLoad) {
+				for (RouteDataObject ro : reader.loadRouteIndexData(rs)) {
+					if (ro != null && ro.getPointsLength() > 1 && !ids.contains(ro.id) && router.acceptLine(ro)) {
+						ids.add(ro.id);
+						roads.add(ro);
+					}
+				}
+			}
+		}
+		return roads;
+	}
+
+	public static RouteNodeGraph build(BinaryMapIndexReader reader, VehicleRouter router) throws IOException {
+		return build(loadAllRoads(reader, router), router);
+	}
+
+	public static RouteNodeGraph build(List<RouteDataObject> roads, VehicleRouter router) {
+		RouteNodeGraph g = new RouteNodeGraph();
+		g.roadsCount = roads.size();
+		// 1. nodes are road ends and points shared by more than one road
+		TLongHashSet visited = new TLongHashSet();
+		TLongHashSet nodeSet = new TLongHashSet();
+		for (RouteDataObject ro : roads) {
+			int len = ro.getPointsLength();
+			for (int i = 0; i < len; i++) {
+				long key = nodeKey(ro.getPoint31XTile(i), ro.getPoint31YTile(i));
+				if (i == 0 || i == len - 1 || !visited.add(key)) {
+					nodeSet.add(key);
+				}
+			}
+		}
+		visited = null;
+		g.nodes = nodeSet.toArray();
+		Arrays.sort(g.nodes);
+		nodeSet = null;
+
+		// 2. edges between consecutive nodes of each road
+		int capacity = Math.max(16, g.nodes.length * 2);
+		g.edgeFrom = new int[capacity];
+		g.edgeTo = new int[capacity];
+		g.edgeCost = new float[capacity];
+		g.edgeDistance = new float[capacity];
+		g.edgeRoad = new long[capacity];
+		g.edgeStartPoint = new int[capacity];
+		g.edgeEndPoint = new int[capacity];
+		for (RouteDataObject ro : roads) {
+			int oneway = router.isOneWay(ro);
+			int prevNodeInd = 0;
+			int prevNode = g.findNode(ro.getPoint31XTile(0), ro.getPoint31YTile(0));
+			for (int i = 1; i < ro.getPointsLength(); i++) {
+				int node = g.findNode(ro.getPoint31XTile(i), ro.getPoint31YTile(i));
+				if (node < 0) {
+					continue;
+				}
+				if (node != prevNode) {
+					float dist = 0;
+					for (int k = prevNodeInd + 1; k <= i; k++) {
+						dist += BinaryRoutePlanner.squareRootDist(ro.getPoint31XTile(k - 1), ro.getPoint31YTile(k - 1),
+								ro.getPoint31XTile(k), ro.getPoint31YTile(k));
+					}
+					if (oneway >= 0) {
+						float obstacles = calculateObstacles(router, ro, prevNodeInd + 1, i);
+						if (obstacles >= 0) {
+							g.addEdge(prevNode, node,
+									BinaryRoutePlanner.calculateTimeWithObstacles(router, ro, dist, obstacles), dist,
+									ro.id, prevNodeInd, i);
+						}
+					}
+					if (oneway <= 0) {
+						float obstacles = calculateObstacles(router, ro, prevNodeInd, i - 1);
+						if (obstacles >= 0) {
+							g.addEdge(node, prevNode,
+									BinaryRoutePlanner.calculateTimeWithObstacles(router, ro, dist, obstacles), dist,
+									ro.id, i, prevNodeInd);
+						}
+					}
+				}
+				prevNode = node;
+				prevNodeInd = i;
+			}
+		}
+		g.buildAdjacency();
+		return g;
+	}
+
+	/**
+	 * @return sum of routing obstacles at points [from, to] or -1 if one of them is not passable
+	 */
+	static float calculateObstacles(VehicleRouter router, RouteDataObject ro, int from, int to) {
+		float obstacles = 0;
+		for (int k = from; k <= to; k++) {
+			float o = router.defineRoutingObstacle(ro, k);
+			if (o < 0) {
+				return -1;
+			}
+			obstacles += o;
+		}
+		return obstacles;
+	}
+
+	private void addEdge(int from, int to, float cost, float distance, long roadId, int startPoint, int endPoint) {
+		if (edgesSize == edgeFrom.length) {
+			int nl = edgesSize * 3 / 2 + 1;
+			edgeFrom = Arrays.copyOf(edgeFrom, nl);
+			edgeTo = Arrays.copyOf(edgeTo, nl);
+			edgeCost = Arrays.copyOf(edgeCost, nl);
+			edgeDistance = Arrays.copyOf(edgeDistance, nl);
+			edgeRoad = Arrays.copyOf(edgeRoad, nl);
+			edgeStartPoint = Arrays.copyOf(edgeStartPoint, nl);
+			edgeEndPoint = Arrays.copyOf(edgeEndPoint, nl);
+		}
+		edgeFrom[edgesSize] = from;
+		edgeTo[edgesSize] = to;
+		edgeCost[edgesSize] = cost;
+		edgeDistance[edgesSize] = distance;
+		edgeRoad[edgesSize] = roadId;
+		edgeStartPoint[edgesSize] = startPoint;
+		edgeEndPoint[edgesSize] = endPoint;
+		edgesSize++;
+	}
+
+	private void buildAdjacency() {
+		outStart = new int[nodes.length + 1];
+		inStart = new int[nodes.length + 1];
+		outEdges = new int[edgesSize];
+		inEdges = new int[edgesSize];
+		buildCSR(edgeFrom, edgesSize, outStart, outEdges);
+		buildCSR(edgeTo, edgesSize, inStart, inEdges);
+	}
+
+	static void buildCSR(int[] edgeNode, int edgesSize, int[] start, int[] edges) {
+		for (int e = 0; e < edgesSize; e++) {
+			start[edgeNode[e] + 1]++;
+		}
+		for (int i = 1; i < start.length; i++) {
+			start[i] += start[i - 1];
+		}
+		int[] fill = Arrays.copyOf(start, start.length);
+		for (int e = 0; e < edgesSize; e++) {
+			edges[fill[edgeNode[e]]++] = e;
+		}
+	}
+
+	/**
+	 * Runs full Dijkstra from node (or to node when reverse) and returns array of costs (Float.POSITIVE_INFINITY - unreachable)
+	 */
+	public float[] dijkstra(int node, boolean reverse) {
+		float[] dist = new float[nodes.length];
+		Arrays.fill(dist, Float.POSITIVE_INFINITY);
+		NodeQueue queue = new NodeQueue(64);
+		dist[node] = 0;
+		queue.add(node, 0);
+		while (!queue.isEmpty()) {
+			float d = queue.peekKey();
+			int n = queue.poll();
+			if (d > dist[n]) {
+				continue;
+			}
+			int[] st = reverse ? inStart : outStart;
+			int[] es = reverse ? inEdges : outEdges;
+			for (int k = st[n]; k < st[n + 1]; k++) {
+				int e = es[k];
+				int next = reverse ? edgeFrom[e] : edgeTo[e];
+				float nd = d + edgeCost[e];
+				if (nd < dist[next]) {
+					dist[next] = nd;
+					queue.add(next, nd);
+				}
+			}
+		}
+		return dist;
+	}
+
+	public SearchState createSearchState() {
+		return new SearchState();
+	}
+
+	/**
+	 * One-to-many Dijkstra state that is reused between searches on the same graph
+	 * (only touched nodes are reset). Search stops when all added target nodes are settled.
+	 */
+	public class SearchState {
+		private final float[] cost = new float[nodes.length];
+		private final float[] distance = new float[nodes.length];
+		private final int[] parentEdge = new int[nodes.length];
+		private final boolean[] target = new boolean[nodes.length];
+		private final TIntArrayList touched = new TIntArrayList();
+		private final TIntArrayList targets = new TIntArrayList();
+		private final NodeQueue queue = new NodeQueue(64);
+		private int targetsLeft;
+
+		private SearchState() {
+			Arrays.fill(cost, Float.POSITIVE_INFINITY);
+		}
+
+		public void clear() {
+			for (int i = 0; i < touched.size(); i++) {
+				cost[touched.get(i)] = Float.POSITIVE_INFINITY;
+			}
+			for (int i = 0; i < targets.size(); i++) {
+				target[targets.get(i)] = false;
+			}
+			touched.clear();
+			targets.clear();
+			queue.clear();
+			targetsLeft = 0;
+		}
+
+		public void addStart(int node, float startCost, float startDistance) {
+			update(node, startCost, startDistance, -1);
+		}
+
+		public void addTarget(int node) {
+			if (!target[node]) {
+				target[node] = true;
+				targets.add(node);
+				targetsLeft++;
+			}
+		}
+
+		private void update(int node, float c, float d, int edge) {
+			if (c < cost[node]) {
+				if (cost[node] == Float.POSITIVE_INFINITY) {
+					touched.add(node);
+				}
+				cost[node] = c;
+				distance[node] = d;
+				parentEdge[node] = edge;
+				queue.add(node, c);
+			}
+		}
+
+		/**
+		 * Runs search (or continues it) until all targets are settled or cost exceeds maxCost
+		 */
+		public void search(boolean reverse, float maxCost) {
+			int[] st = reverse ? inStart : outStart;
+			int[] es = reverse ? inEdges : outEdges;
+			while (!queue.isEmpty() && (targetsLeft > 0 || targets.isEmpty())) {
+				float c = queue.peekKey();
+				if (c > maxCost) {
+					break;
+				}
+				int n = queue.poll();
+				if (c > cost[n]) {
+					continue;
+				}
+				if (target[n]) {
+					target[n] = false;
+					targetsLeft--;
+				}
+				for (int k = st[n]; k < st[n + 1]; k++) {
+					int e = es[k];
+					update(reverse ? edgeFrom[e] : edgeTo[e], c + edgeCost[e], distance[n] + edgeDistance[e], e);
+				}
+			}
+		}
+
+		public float getCost(int node) {
+			return cost[node];
+		}
+
+		public float getDistance(int node) {
+			return distance[node];
+		}
+
+		/**
+		 * @return edge the node was reached by or -1 for start nodes
+		 */
+		public int getParentEdge(int node) {
+			return parentEdge[node];
+		}
+	}
+
+	/**
+	 * Binary heap of nodes with float keys stored in primitive arrays (duplicates are allowed,
+	 * outdated entries should be skipped by the caller)
+	 */
+	public static class NodeQueue {
+		private int[] heapNodes;
+		private float[] heapKeys;
+		private int size;
+
+		public NodeQueue(int capacity) {
+			heapNodes = new int[capacity];
+			heapKeys = new float[capacity];
+		}
+
+		public boolean isEmpty() {
+			return size == 0;
+		}
+
+		public int size() {
+			return size;
+		}
+
+		public void clear() {
+			size = 0;
+		}
+
+		public float peekKey() {
+			return heapKeys[0];
+		}
+
+		public int peek() {
+			return heapNodes[0];
+		}
+
+		public void add(int node, float key) {
+			if (size == heapNodes.length) {
+				heapNodes = Arrays.copyOf(heapNodes, size * 2);
+				heapKeys = Arrays.copyOf(heapKeys, size * 2);
+			}
+			int i = size++;
+			while (i > 0) {
+				int parent = (i - 1) >> 1;
+				if (heapKeys[parent] <= key) {
+					break;
+				}
+				heapNodes[i] = heapNodes[parent];
+				heapKeys[i] = heapKeys[parent];
+				i = parent;
+			}
+			heapNodes[i] = node;
+			heapKeys[i] = key;
+		}
+
+		public int poll() {
+			int res = heapNodes[0];
+			size--;
+			if (size > 0) {
+				int node = heapNodes[size];
+				float key = heapKeys[size];
+				int i = 0;
+				while (true) {
+					int child = (i << 1) + 1;
+					if (child >= size) {
+						break;
+					}
+					if (child + 1 < size && heapKeys[child + 1] < heapKeys[child]) {
+						child++;
+					}
+					if (key <= heapKeys[child]) {
+						break;
+					}
+					heapNodes[i] = heapNodes[child];
+					heapKeys[i] = heapKeys[child];
+					i = child;
+				}
+				heapNodes[i] = node;
+				heapKeys[i] = key;
+			}
+			return res;
+		}
+	}
+}
@@ -1,12 +1,17 @@
 package net.osmand.router;
 
 
+import gnu.trove.map.hash.TLongObjectHashMap;
+
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
-import java.util.Comparator;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import net.osmand.NativeLibrary;
 import net.osmand.PlatformUtil;
@@ -16,7 +21,10 @@ import net.osmand.binary.BinaryMapRouteReaderAdapter.RouteRegion;
 import net.osmand.binary.RouteDataObject;
 import net.osmand.data.LatLon;
 import net.osmand.data.QuadPoint;
+import net.osmand.router.BinaryRoutePlanner.FinalRouteSegment;
+import net.osmand.router.BinaryRoutePlanner.RouteSegment;
 import net.osmand.router.BinaryRoutePlanner.RouteSegmentPoint;
+import net.osmand.router.RoutingSegmentIndex.NearestSegments;
 import net.osmand.util.MapUtils;
 
 import org.apache.commons.logging.Log;
@@ -24,7 +32,13 @@ import org.apache.commons.logging.Log;
 public class RoutePlannerFrontEnd {
 	
 	private boolean useOldVersion;
+	private List<RouteContractionHierarchy> contractionHierarchies = new ArrayList<RouteContractionHierarchy>();
+	private List<RouteLandmarks> landmarks = new ArrayList<RouteLandmarks>();
+	private RouteResultCache routeResultCache;
+	private ExecutorService parallelSearchExecutor;
 	protected static final Log log = PlatformUtil.getLog(RoutePlannerFrontEnd.class);
+	// nearest roads considered as start/end of route (others are kept as alternatives)
+	private static final int NEAREST_ROADS_TO_SEARCH = 32;
 
 	public RoutePlannerFrontEnd(boolean useOldVersion) {
 		this.useOldVersion = useOldVersion;
@@ -44,6 +58,146 @@ public class RoutePlannerFrontEnd {
 		return new RoutingContext(config, nativeLibrary, map, RouteCalculationMode.NORMAL);
 	}
 	
+	/**
+	 * Builds lightweight context which uses tiles of shared cache (config should be created per thread)
+	 */
+	public RoutingContext buildRoutingContext(RoutingConfiguration config, RoutingTileCache cache, RouteCalculationMode rm) {
+		return new RoutingContext(config, cache, rm);
+	}
+	
+	
+	public void addContractionHierarchy(RouteContractionHierarchy ch) {
+		contractionHierarchies.add(ch);
+	}
+	
+	public void removeContractionHierarchy(RouteContractionHierarchy ch) {
+		contractionHierarchies.remove(ch);
+	}
+	
+	/**
+	 * @return hierarchy precalculated for the same profile and loaded map which covers both points or null.
+	 * Hierarchy is not used when other loaded routing files intersect the map (it knows only roads of one file).
+	 */
+	public RouteContractionHierarchy getContractionHierarchy(RoutingContext ctx, int startX, int startY, int endX, int endY) {
+		// precalculated with static speeds
+		if (ctx.calculationMode == RouteCalculationMode.BASE || ctx.nativeLib != null || useOldVersion
+				|| ctx.speedProfiles != null) {
+			return null;
+		}
+		BinaryMapIndexReader[] maps = ctx.getMaps();
+		for (RouteContractionHierarchy ch : contractionHierarchies) {
+			if (ch.contains(startX, startY) && ch.contains(endX, endY) && ch.matches(ctx.config)) {
+				BinaryMapIndexReader reader = null;
+				for (BinaryMapIndexReader r : maps) {
+					if (ch.matches(r)) {
+						reader = r;
+						break;
+					}
+				}
+				if (reader != null && !intersectsOtherMaps(ch, reader, maps)) {
+					return ch;
+				}
+			}
+		}
+		return null;
+	}
+
+	private static boolean intersectsOtherMaps(RouteContractionHierarchy ch, BinaryMapIndexReader reader,
+			BinaryMapIndexReader[] maps) {
+		for (BinaryMapIndexReader r : maps) {
+			if (r != reader && ch.intersects(r)) {
+				log.info("Contraction hierarchy is not used, routing file " + r.getRegionNames() + " intersects hierarchy");
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	public RouteResultCache getRouteResultCache() {
+		return routeResultCache;
+	}
+
+	/**
+	 * @param routeResultCache cache of calculated routes (could be shared by front ends) or null to disable it
+	 */
+	public void setRouteResultCache(RouteResultCache routeResultCache) {
+		this.routeResultCache = routeResultCache;
+	}
+
+	/**
+	 * @return executor of reverse searches of parallel bidirectional search (see
+	 * {@link RoutingConfiguration#parallelBidirectionalSearch}), it is created on demand with one thread per
+	 * processor and route is searched in one thread when all threads are busy
+	 */
+	public synchronized ExecutorService getParallelSearchExecutor() {
+		if (parallelSearchExecutor == null) {
+			ThreadPoolExecutor executor = new ThreadPoolExecutor(0, Runtime.getRuntime().availableProcessors(), 60,
+					TimeUnit.SECONDS, new SynchronousQueue<Runnable>(), new ThreadFactory() {
+						@Override
+						public Thread newThread(Runnable r) {
+							Thread t = new Thread(r, "Reverse route search");
+							t.setDaemon(true);
+							return t;
+						}
+					});
+			parallelSearchExecutor = executor;
+		}
+		return parallelSearchExecutor;
+	}
+
+	/**
+	 * @param parallelSearchExecutor executor shared with other front ends (it should reject tasks when it is busy)
+	 */
+	public synchronized void setParallelSearchExecutor(ExecutorService parallelSearchExecutor) {
+		this.parallelSearchExecutor = parallelSearchExecutor;
+	}
+
+	public void addLandmarks(RouteLandmarks lm) {
+		landmarks.add(lm);
+	}
+	
+	public void removeLandmarks(RouteLandmarks lm) {
+		landmarks.remove(lm);
+	}
+	
+	/**
+	 * @return landmarks precalculated for the same profile and loaded map which covers both points or null.
+	 * Landmarks are not used when other loaded routing files intersect the map (bounds are valid only for
+	 * roads of landmarks graph and A* should find exact shortest route).
+	 */
+	public RouteLandmarks getLandmarks(RoutingContext ctx, int startX, int startY, int endX, int endY) {
+		// precalculated with static speeds
+		if (ctx.calculationMode == RouteCalculationMode.BASE || ctx.nativeLib != null || useOldVersion
+				|| ctx.speedProfiles != null) {
+			return null;
+		}
+		BinaryMapIndexReader[] maps = ctx.getMaps();
+		for (RouteLandmarks lm : landmarks) {
+			if (lm.contains(startX, startY) && lm.contains(endX, endY) && lm.matches(ctx.config)) {
+				BinaryMapIndexReader reader = null;
+				for (BinaryMapIndexReader r : maps) {
+					if (lm.matches(r)) {
+						reader = r;
+						break;
+					}
+				}
+				if (reader != null && !intersectsOtherMaps(lm, reader, maps)) {
+					return lm;
+				}
+			}
+		}
+		return null;
+	}
+
+	private static boolean intersectsOtherMaps(RouteLandmarks lm, BinaryMapIndexReader reader, BinaryMapIndexReader[] maps) {
+		for (BinaryMapIndexReader r : maps) {
+			if (r != reader && lm.intersects(r)) {
+				log.info("Landmarks are not used, routing file " + r.getRegionNames() + " intersects landmarks graph");
+				return true;
+			}
+		}
+		return false;
+	}
 	
 	private static double squareDist(int x1, int y1, int x2, int y2) {
 		// translate into meters 
@@ -55,38 +209,23 @@ public class RoutePlannerFrontEnd {
 	public RouteSegmentPoint findRouteSegment(double lat, double lon, RoutingContext ctx) throws IOException {
 		int px = MapUtils.get31TileNumberX(lon);
 		int py = MapUtils.get31TileNumberY(lat);
-		ArrayList<RouteDataObject> dataObjects = new ArrayList<RouteDataObject>();
-		ctx.loadTileData(px, py, 17, dataObjects);
-		if (dataObjects.isEmpty()) {
-			ctx.loadTileData(px, py, 15, dataObjects);
+		NearestSegments nearest = new NearestSegments(NEAREST_ROADS_TO_SEARCH, Double.POSITIVE_INFINITY);
+		ctx.findNearestSegments(px, py, 17, nearest);
+		if (nearest.size() == 0) {
+			ctx.findNearestSegments(px, py, 15, nearest);
 		}
 		List<RouteSegmentPoint> list = new ArrayList<BinaryRoutePlanner.RouteSegmentPoint>();
-		for (RouteDataObject r : dataObjects) {
-			if (r.getPointsLength() > 1) {
-				RouteSegmentPoint road = null;
-				for (int j = 1; j < r.getPointsLength(); j++) {
-					QuadPoint pr = MapUtils.getProjectionPoint31(px, py, r.getPoint31XTile(j - 1), 
-							r.getPoint31YTile(j - 1), r.getPoint31XTile(j ), r.getPoint31YTile(j ));
-					double currentsDist = squareDist((int) pr.x, (int)pr.y, px, py);
-					if (road == null || currentsDist < road.dist) {
-						RouteDataObject ro = new RouteDataObject(r);
-						road = new RouteSegmentPoint(ro, j, currentsDist);
-						road.preciseX = (int) pr.x;
-						road.preciseY = (int) pr.y;
-					}
-				}
-				if(road != null) {
-					list.add(road);
-				}
-			}
+		for (int i = 0; i < nearest.size(); i++) {
+			RouteDataObject r = nearest.getRoad(i);
+			int j = nearest.getSegmentEnd(i);
+			QuadPoint pr = MapUtils.getProjectionPoint31(px, py, r.getPoint31XTile(j - 1), 
+					r.getPoint31YTile(j - 1), r.getPoint31XTile(j ), r.getPoint31YTile(j ));
+			RouteSegmentPoint road = new RouteSegmentPoint(new RouteDataObject(r), j, 
+					squareDist((int) pr.x, (int)pr.y, px, py));
+			road.preciseX = (int) pr.x;
+			road.preciseY = (int) pr.y;
+			list.add(road);
 		}
-		Collections.sort(list, new Comparator<RouteSegmentPoint>() {
-
-			@Override
-			public int compare(RouteSegmentPoint o1, RouteSegmentPoint o2) {
-				return Double.compare(o1.dist, o2.dist);
-			}
-		});
 		if(list.size() > 0) {
 			RouteSegmentPoint ps = list.remove(0);
 			ps.others = list;
@@ -96,6 +235,25 @@ public class RoutePlannerFrontEnd {
 	}
 	
 	
+	/**
+	 * Calculates times/distances between all sources and targets (every point is projected to the road once)
+	 */
+	public RouteMatrix searchRouteMatrix(final RoutingContext ctx, List<LatLon> sources, List<LatLon> targets) 
+			throws IOException, InterruptedException {
+		return RouteMatrix.calculate(this, ctx, sources, targets);
+	}
+	
+	/**
+	 * Snaps recorded track to the roads of routing profile (hidden Markov model map matching)
+	 */
+	public List<RouteSegmentResult> searchMapMatching(final RoutingContext ctx, List<LatLon> track)
+			throws IOException, InterruptedException {
+		if(ctx.calculationProgress == null) {
+			ctx.calculationProgress = new RouteCalculationProgress();
+		}
+		return RouteMapMatcher.match(this, ctx, track);
+	}
+	
 	public List<RouteSegmentResult> searchRoute(final RoutingContext ctx, LatLon start, LatLon end, List<LatLon> intermediates) throws IOException, InterruptedException {
 		return searchRoute(ctx, start, end, intermediates, null);
 	}
@@ -116,8 +274,11 @@ public class RoutePlannerFrontEnd {
 			}
 		}
 		if(ctx.calculationMode == RouteCalculationMode.COMPLEX && routeDirection == null
-				&& maxDistance > ctx.config.DEVIATION_RADIUS * 6) {
-			RoutingContext nctx = buildRoutingContext(ctx.config, ctx.nativeLib, ctx.getMaps(), RouteCalculationMode.BASE);
+				&& maxDistance > ctx.config.DEVIATION_RADIUS * 6 && !(intermediatesEmpty && 
+						getContractionHierarchy(ctx, MapUtils.get31TileNumberX(start.getLongitude()), MapUtils.get31TileNumberY(start.getLatitude()),
+								MapUtils.get31TileNumberX(end.getLongitude()), MapUtils.get31TileNumberY(end.getLatitude())) != null)) {
+			RoutingContext nctx = ctx.sharedCache != null ? buildRoutingContext(ctx.config, ctx.sharedCache, RouteCalculationMode.BASE) :
+					buildRoutingContext(ctx.config, ctx.nativeLib, ctx.getMaps(), RouteCalculationMode.BASE);
 			nctx.calculationProgress = ctx.calculationProgress ;
 			List<RouteSegmentResult> ls = searchRoute(nctx, start, end, intermediates);
 			routeDirection = PrecalculatedRouteDirection.build(ls, ctx.config.DEVIATION_RADIUS, ctx.getRouter().getMaxDefaultSpeed());
@@ -137,22 +298,14 @@ public class RoutePlannerFrontEnd {
 			makeStartEndPointsPrecise(res, start, end, intermediates);
 			return res;	
 		}
-		int indexNotFound = 0;
-		List<RouteSegmentPoint> points = new ArrayList<RouteSegmentPoint>();
-		if(!addSegment(start, ctx, indexNotFound++, points)){
-			return null;
-		}
-		if (intermediates != null) {
-			for (LatLon l : intermediates) {
-				if (!addSegment(l, ctx, indexNotFound++, points)) {
-					return null;
-				}
-			}
-		}
-		if(!addSegment(end, ctx, indexNotFound++, points)){
+		List<RouteSegmentPoint> points = findRouteSegments(ctx, start, end, intermediates);
+		if (points == null) {
 			return null;
 		}
 		List<RouteSegmentResult> res = searchRoute(ctx, points, routeDirection);
+		if (ctx.searchTree != null) {
+			ctx.searchTree.setEndPoint(end);
+		}
 		// make start and end more precise
 		makeStartEndPointsPrecise(res, start, end, intermediates);
 		if(res != null) {
@@ -161,6 +314,95 @@ public class RoutePlannerFrontEnd {
 		return res;
 	}
 
+	/**
+	 * Calculates the best route and up to maxAlternatives alternative routes (see {@link RouteAlternatives})
+	 * by one bidirectional search which is continued after searches met
+	 * @return routes (the first one is the best route) or null if start or end point is not found
+	 */
+	public List<List<RouteSegmentResult>> searchRouteAlternatives(final RoutingContext ctx, LatLon start, LatLon end,
+			int maxAlternatives) throws IOException, InterruptedException {
+		if (ctx.calculationProgress == null) {
+			ctx.calculationProgress = new RouteCalculationProgress();
+		}
+		List<List<RouteSegmentResult>> routes = new ArrayList<List<RouteSegmentResult>>();
+		if (ctx.nativeLib != null || useOldVersion || !ctx.planRouteIn2Directions()) {
+			// alternatives are found only by java bidirectional search
+			List<RouteSegmentResult> res = searchRoute(ctx, start, end, null);
+			if (res == null) {
+				return null;
+			}
+			routes.add(res);
+			return routes;
+		}
+		List<RouteSegmentPoint> points = new ArrayList<RouteSegmentPoint>();
+		if (!addSegment(start, ctx, 0, points) || !addSegment(end, ctx, 1, points)) {
+			return null;
+		}
+		RouteSegmentPoint s = points.get(0);
+		RouteSegmentPoint e = points.get(1);
+		ctx.initStartAndTargetPoints(s, e);
+		refreshProgressDistance(ctx);
+		RouteLandmarks lm = getLandmarks(ctx, ctx.startX, ctx.startY, ctx.targetX, ctx.targetY);
+		ctx.landmarksHeuristic = lm == null ? null : lm.createHeuristic(ctx.getRouter(), s, e);
+		TLongObjectHashMap<RouteSegment> visitedDirectSegments = new TLongObjectHashMap<RouteSegment>();
+		TLongObjectHashMap<RouteSegment> visitedOppositeSegments = new TLongObjectHashMap<RouteSegment>();
+		List<FinalRouteSegment> viaRoutes = new BinaryRoutePlanner().searchRouteAlternatives(ctx, s, e,
+				visitedDirectSegments, visitedOppositeSegments, RouteAlternatives.MAX_STRETCH);
+		List<FinalRouteSegment> selected = new RouteAlternatives(visitedDirectSegments, visitedOppositeSegments).select(
+				viaRoutes, maxAlternatives);
+		log.info("Alternative routes: " + (selected.size() - 1) + " selected of " + (viaRoutes.size() - 1) + " via segments");
+		for (FinalRouteSegment finalSegment : selected) {
+			ctx.finalRouteSegment = finalSegment;
+			List<RouteSegmentResult> res = new RouteResultPreparation().prepareResult(ctx, finalSegment);
+			makeStartEndPointsPrecise(res, start, end, null);
+			routes.add(res);
+		}
+		// time of the best route
+		if (!selected.isEmpty()) {
+			ctx.routingTime = selected.get(0).distanceFromStart;
+		}
+		return routes;
+	}
+
+	/**
+	 * Recalculates route from new start point to the destination of search tree kept by previous calculation
+	 * (see {@link RoutingContext#keepSearchTree})
+	 * @return null if tree doesn't match destination or profile, start point is not found or search didn't reach
+	 * the tree (full calculation is needed)
+	 */
+	public List<RouteSegmentResult> searchRouteFromTree(RouteSearchTree tree, RoutingConfiguration config, LatLon start, 
+			LatLon end, RouteCalculationProgress progress) throws IOException, InterruptedException {
+		if (!tree.matches(config, end)) {
+			return null;
+		}
+		synchronized (tree) {
+			RoutingContext ctx = tree.getContext();
+			ctx.calculationProgress = progress == null ? new RouteCalculationProgress() : progress;
+			ctx.precalculatedRouteDirection = null;
+			// config of kept context is shared, initial direction of this query is set only while it runs
+			Double initialDirection = ctx.config.initialDirection;
+			ctx.config.initialDirection = config.initialDirection;
+			try {
+				RouteSegmentPoint s = findRouteSegment(start.getLatitude(), start.getLongitude(), ctx);
+				if (s == null) {
+					return null;
+				}
+				ctx.initStartAndTargetPoints(s, tree.getEnd());
+				refreshProgressDistance(ctx);
+				FinalRouteSegment finalSegment = new BinaryRoutePlanner().searchRouteFromTree(ctx, s, tree);
+				if (finalSegment == null) {
+					return null;
+				}
+				ctx.finalRouteSegment = finalSegment;
+				List<RouteSegmentResult> res = new RouteResultPreparation().prepareResult(ctx, finalSegment);
+				makeStartEndPointsPrecise(res, start, end, null);
+				return res;
+			} finally {
+				ctx.config.initialDirection = initialDirection;
+			}
+		}
+	}
+
 	protected void makeStartEndPointsPrecise(List<RouteSegmentResult> res, LatLon start, LatLon end, List<LatLon> intermediates) {
 		if (res.size() > 0) {
 			updateResult(res.get(0), start, true);
@@ -246,6 +488,9 @@ public class RoutePlannerFrontEnd {
 		}		
 		
 		if (insert != 0) {
+			// insert point into copy of road (road could be referenced by kept search tree)
+			r = new RouteDataObject(r);
+			routeSegmentResult.setObject(r);
 			if (st && routeSegmentResult.getStartPointIndex() < routeSegmentResult.getEndPointIndex()) {
 				routeSegmentResult.setEndPointIndex(routeSegmentResult.getEndPointIndex() + 1);
 			}
@@ -268,6 +513,29 @@ public class RoutePlannerFrontEnd {
 		
 	}
 
+	/**
+	 * @return segments of start, intermediate and end points or null if some point is not found
+	 */
+	private List<RouteSegmentPoint> findRouteSegments(RoutingContext ctx, LatLon start, LatLon end, List<LatLon> intermediates)
+			throws IOException {
+		int indexNotFound = 0;
+		List<RouteSegmentPoint> points = new ArrayList<RouteSegmentPoint>();
+		if(!addSegment(start, ctx, indexNotFound++, points)){
+			return null;
+		}
+		if (intermediates != null) {
+			for (LatLon l : intermediates) {
+				if (!addSegment(l, ctx, indexNotFound++, points)) {
+					return null;
+				}
+			}
+		}
+		if(!addSegment(end, ctx, indexNotFound++, points)){
+			return null;
+		}
+		return points;
+	}
+
 	private boolean addSegment(LatLon s, RoutingContext ctx, int indexNotFound, List<RouteSegmentPoint> res) throws IOException {
 		RouteSegmentPoint f = findRouteSegment(s.getLatitude(), s.getLongitude(), ctx);
 		if(f == null){
@@ -291,11 +559,24 @@ public class RoutePlannerFrontEnd {
 			return runNativeRouting(ctx);
 		} else {
 			refreshProgressDistance(ctx);
+			RouteContractionHierarchy ch = getContractionHierarchy(ctx, start.getRoad().getPoint31XTile(start.getSegmentStart()),
+					start.getRoad().getPoint31YTile(start.getSegmentStart()), end.getRoad().getPoint31XTile(end.getSegmentStart()),
+					end.getRoad().getPoint31YTile(end.getSegmentStart()));
+			if (ch != null) {
+				List<RouteSegmentResult> res = ch.searchRoute(ctx, start, end);
+				if (res != null) {
+					return new RouteResultPreparation().prepareResult(ctx, res);
+				}
+				log.info("Route is not calculated by contraction hierarchy, use A*");
+			}
+			RouteLandmarks lm = getLandmarks(ctx, ctx.startX, ctx.startY, ctx.targetX, ctx.targetY);
+			ctx.landmarksHeuristic = lm == null ? null : lm.createHeuristic(ctx.getRouter(), start, end);
 			// Split into 2 methods to let GC work in between
 			if(useOldVersion) {
 				new BinaryRoutePlannerOld().searchRouteInternal(ctx, start, end);
 			} else {
-				ctx.finalRouteSegment =  new BinaryRoutePlanner().searchRouteInternal(ctx, start, end);
+				ExecutorService executor = ctx.config.parallelBidirectionalSearch ? getParallelSearchExecutor() : null;
+				ctx.finalRouteSegment =  new BinaryRoutePlanner(executor).searchRouteInternal(ctx, start, end);
 			}
 			// 4. Route is found : collect all segments and prepare result
 			return new RouteResultPreparation().prepareResult(ctx, ctx.finalRouteSegment);
@@ -335,6 +616,23 @@ public class RoutePlannerFrontEnd {
 
 	private List<RouteSegmentResult> searchRoute(final RoutingContext ctx, List<RouteSegmentPoint> points, PrecalculatedRouteDirection routeDirection) 
 			throws IOException, InterruptedException {
+		if (routeResultCache == null || !RouteResultCache.isCacheable(ctx)) {
+			return searchRouteBySegments(ctx, points, routeDirection);
+		}
+		String cacheKey = RouteResultCache.getKey(ctx, points, routeDirection != null);
+		List<RouteSegmentResult> res = routeResultCache.get(cacheKey, ctx);
+		if (res != null) {
+			log.info("Route is found in cache " + routeResultCache);
+			ctx.searchTree = null;
+			return res;
+		}
+		res = searchRouteBySegments(ctx, points, routeDirection);
+		routeResultCache.put(cacheKey, res, ctx.routingTime);
+		return res;
+	}
+
+	private List<RouteSegmentResult> searchRouteBySegments(final RoutingContext ctx, List<RouteSegmentPoint> points,
+			PrecalculatedRouteDirection routeDirection) throws IOException, InterruptedException {
 		if (points.size() <= 2) {
 			ctx.previouslyCalculatedRoute = null;
 			return searchRoute(ctx, points.get(0), points.get(1), routeDirection);
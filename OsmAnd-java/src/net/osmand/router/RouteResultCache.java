@@ -0,0 +1,197 @@
+package net.osmand.router;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.osmand.binary.BinaryMapIndexReader;
+import net.osmand.router.BinaryRoutePlanner.RouteSegmentPoint;
+
+/**
+ * Bounded (LRU and time to live) cache of calculated routes. Route is keyed by segments the start, intermediate
+ * and end points are snapped to, profile parameters, impassable roads, parameters of context and versions of
+ * map files, so route is reused only for the same roads and the same routing data. Changed map file
+ * (other creation date) makes a new key and old entries are evicted by LRU or time to live.
+ *
+ * Cache stores copies of results (not precise at start and end points) and returns new copies, so
+ * {@link RoutePlannerFrontEnd} could update them for requested points.
+ */
+public class RouteResultCache {
+
+	public static final int DEFAULT_MAX_ENTRIES = 16;
+	public static final long DEFAULT_TTL = 10 * 60 * 1000;
+
+	private final int maxEntries;
+	private final long ttlMillis;
+	private final LinkedHashMap<String, Entry> cache;
+	private int hits;
+	private int misses;
+	private int evictions;
+
+	private static class Entry {
+		final List<RouteSegmentResult> result;
+		final float routingTime;
+		final long created;
+
+		Entry(List<RouteSegmentResult> result, float routingTime, long created) {
+			this.result = result;
+			this.routingTime = routingTime;
+			this.created = created;
+		}
+	}
+
+	public RouteResultCache() {
+		this(DEFAULT_MAX_ENTRIES, DEFAULT_TTL);
+	}
+
+	/**
+	 * @param ttlMillis time to live of entry (0 - unlimited)
+	 */
+	public RouteResultCache(int maxEntries, long ttlMillis) {
+		this.maxEntries = maxEntries;
+		this.ttlMillis = ttlMillis;
+		this.cache = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+				if (size() > RouteResultCache.this.maxEntries) {
+					evictions++;
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	/**
+	 * @return false if route calculated by context can't be cached (native routing, time dependent speeds
+	 * or recalculation of previous route)
+	 */
+	public static boolean isCacheable(RoutingContext ctx) {
+		return ctx.nativeLib == null && ctx.speedProfiles == null && ctx.previouslyCalculatedRoute == null;
+	}
+
+	/**
+	 * Initial direction is keyed by its effect on the start segment and consecutive points snapped to the same
+	 * segment are keyed with their order on the segment (route between them depends on it).
+	 */
+	public static String getKey(RoutingContext ctx, List<RouteSegmentPoint> points, boolean precalculatedDirection) {
+		StringBuilder b = new StringBuilder();
+		RouteSegmentPoint prev = null;
+		for (RouteSegmentPoint p : points) {
+			b.append(p.getRoad().id).append(':').append(p.getSegmentStart());
+			if (prev != null && prev.getRoad().id == p.getRoad().id && prev.getSegmentStart() == p.getSegmentStart()) {
+				b.append(distFromSegmentStart(p) >= distFromSegmentStart(prev) ? '+' : '-');
+			}
+			b.append(';');
+			prev = p;
+		}
+		b.append('|').append(RouteContractionHierarchy.getProfileSignature(ctx.config));
+		long[] impassable = ctx.config.router.getImpassableRoadIds();
+		Arrays.sort(impassable);
+		b.append('|').append(Arrays.toString(impassable));
+		b.append('|').append(ctx.calculationMode).append(',').append(precalculatedDirection)
+				.append(',').append(BinaryRoutePlanner.getInitialDirection(ctx, points.get(0)))
+				.append(',').append(ctx.config.heuristicCoefficient).append(',').append(ctx.getPlanRoadDirection())
+				.append(',').append(ctx.leftSideNavigation);
+		b.append('|').append(getMapsSignature(ctx.getMaps()));
+		return b.toString();
+	}
+
+	private static double distFromSegmentStart(RouteSegmentPoint p) {
+		int s = Math.max(0, p.getSegmentStart() - 1);
+		double dx = p.preciseX - p.getRoad().getPoint31XTile(s);
+		double dy = p.preciseY - p.getRoad().getPoint31YTile(s);
+		return dx * dx + dy * dy;
+	}
+
+	private static String getMapsSignature(BinaryMapIndexReader[] maps) {
+		List<String> files = new ArrayList<String>();
+		for (BinaryMapIndexReader r : maps) {
+			files.add(r.getRegionNames() + ":" + r.getVersion() + ":" + r.getDateCreated());
+		}
+		Collections.sort(files);
+		return files.toString();
+	}
+
+	/**
+	 * @return copy of cached route (routing time is set to context) or null
+	 */
+	public synchronized List<RouteSegmentResult> get(String key, RoutingContext ctx) {
+		Entry e = cache.get(key);
+		if (e != null && ttlMillis > 0 && System.currentTimeMillis() - e.created > ttlMillis) {
+			cache.remove(key);
+			evictions++;
+			e = null;
+		}
+		if (e == null) {
+			misses++;
+			return null;
+		}
+		hits++;
+		ctx.routingTime = e.routingTime;
+		return copy(e.result);
+	}
+
+	public synchronized void put(String key, List<RouteSegmentResult> result, float routingTime) {
+		if (result == null || result.isEmpty()) {
+			return;
+		}
+		cache.put(key, new Entry(copy(result), routingTime, System.currentTimeMillis()));
+	}
+
+	private static List<RouteSegmentResult> copy(List<RouteSegmentResult> result) {
+		List<RouteSegmentResult> res = new ArrayList<RouteSegmentResult>(result.size());
+		for (RouteSegmentResult r : result) {
+			res.add(new RouteSegmentResult(r));
+		}
+		return res;
+	}
+
+	/**
+	 * Removes expired entries
+	 */
+	public synchronized void cleanUp() {
+		if (ttlMillis <= 0) {
+			return;
+		}
+		long time = System.currentTimeMillis();
+		Iterator<Entry> it = cache.values().iterator();
+		while (it.hasNext()) {
+			if (time - it.next().created > ttlMillis) {
+				it.remove();
+				evictions++;
+			}
+		}
+	}
+
+	public synchronized void clear() {
+		cache.clear();
+	}
+
+	public synchronized int size() {
+		return cache.size();
+	}
+
+	public synchronized int getHits() {
+		return hits;
+	}
+
+	public synchronized int getMisses() {
+		return misses;
+	}
+
+	public synchronized int getEvictions() {
+		return evictions;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "Route cache: " + cache.size() + " routes, hits " + hits + ", misses " + misses + ", evictions " + evictions;
+	}
+}
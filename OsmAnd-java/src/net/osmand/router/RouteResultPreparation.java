@@ -70,6 +70,8 @@ public class RouteResultPreparation {
 	}
 
 	private void calculateTimeSpeed(RoutingContext ctx, List<RouteSegmentResult> result) throws IOException {
+		// time passed from departure (for time dependent speeds)
+		double travelTime = 0;
 		for (int i = 0; i < result.size(); i++) {
 			RouteSegmentResult rr = result.get(i);
 			RouteDataObject road = rr.getObject();
@@ -84,6 +86,9 @@ public class RouteResultPreparation {
 					speed = speed - ((speed - 15f) / (30f - 15f) * 2f);
 				}
 			}
+			if (ctx.speedProfiles != null) {
+				speed *= ctx.speedProfiles.getSpeedFactor(road, ctx.departureSecondsOfWeek + (int) travelTime);
+			}
 			boolean plus = rr.getStartPointIndex() < rr.getEndPointIndex();
 			int next;
 			double distance = 0;
@@ -101,6 +106,7 @@ public class RouteResultPreparation {
 			}
 			// last point turn time can be added
 			// if(i + 1 < result.size()) { distOnRoadToPass += ctx.getRouter().calculateTurnTime(); }
+			travelTime += distOnRoadToPass;
 			rr.setSegmentTime((float) distOnRoadToPass);
 			rr.setSegmentSpeed((float) speed);
 			rr.setDistance((float) distance);
@@ -169,7 +175,10 @@ public class RouteResultPreparation {
 	private void checkAndInitRouteRegion(RoutingContext ctx, RouteDataObject road) throws IOException {
 		BinaryMapIndexReader reader = ctx.reverseMap.get(road.region);
 		if(reader != null) {
-			reader.initRouteRegion(road.region);
+			// reader could be shared by contexts of different threads
+			synchronized (reader) {
+				reader.initRouteRegion(road.region);
+			}
 		}
 	}
 
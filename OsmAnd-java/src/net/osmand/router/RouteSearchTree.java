@@ -0,0 +1,85 @@
+package net.osmand.router;
+
+import gnu.trove.map.hash.TLongObjectHashMap;
+
+import java.util.Arrays;
+
+import net.osmand.data.LatLon;
+import net.osmand.router.BinaryRoutePlanner.RouteSegment;
+import net.osmand.router.BinaryRoutePlanner.RouteSegmentPoint;
+
+/**
+ * Reverse search tree (segments visited by search from destination with their times to destination) kept
+ * after route calculation. Route from another start point to the same destination is calculated by
+ * forward search only which stops as soon as it reaches any segment of the tree, so recalculation after
+ * deviation from route costs only search from deviation point to the old route.
+ *
+ * Tree keeps context of calculation (loaded tiles) and it should be used by one calculation at a time.
+ */
+public class RouteSearchTree {
+
+	// forward search is stopped (and full calculation is needed) after visiting that number of segments
+	public static final int DEFAULT_MAX_VISITED_SEGMENTS = 20000;
+
+	private final RoutingContext ctx;
+	private final RouteSegmentPoint end;
+	private final TLongObjectHashMap<RouteSegment> reverseSegments;
+	private final String profileSignature;
+	private final long[] impassableRoads;
+	private LatLon endPoint;
+	private int maxVisitedSegments = DEFAULT_MAX_VISITED_SEGMENTS;
+
+	RouteSearchTree(RoutingContext ctx, RouteSegmentPoint end, TLongObjectHashMap<RouteSegment> reverseSegments) {
+		this.ctx = ctx;
+		this.end = end;
+		this.reverseSegments = reverseSegments;
+		this.profileSignature = RouteContractionHierarchy.getProfileSignature(ctx.config);
+		this.impassableRoads = getImpassableRoads(ctx.config);
+	}
+
+	private static long[] getImpassableRoads(RoutingConfiguration config) {
+		long[] ids = config.router.getImpassableRoadIds();
+		Arrays.sort(ids);
+		return ids;
+	}
+
+	public RoutingContext getContext() {
+		return ctx;
+	}
+
+	RouteSegmentPoint getEnd() {
+		return end;
+	}
+
+	TLongObjectHashMap<RouteSegment> getReverseSegments() {
+		return reverseSegments;
+	}
+
+	public int getSize() {
+		return reverseSegments.size();
+	}
+
+	public LatLon getEndPoint() {
+		return endPoint;
+	}
+
+	void setEndPoint(LatLon endPoint) {
+		this.endPoint = endPoint;
+	}
+
+	public int getMaxVisitedSegments() {
+		return maxVisitedSegments;
+	}
+
+	public void setMaxVisitedSegments(int maxVisitedSegments) {
+		this.maxVisitedSegments = maxVisitedSegments;
+	}
+
+	/**
+	 * Tree could be used only for the same destination, profile parameters and impassable roads
+	 */
+	public boolean matches(RoutingConfiguration config, LatLon end) {
+		return endPoint != null && endPoint.equals(end) && profileSignature.equals(RouteContractionHierarchy.getProfileSignature(config))
+				&& Arrays.equals(impassableRoads, getImpassableRoads(config));
+	}
+}
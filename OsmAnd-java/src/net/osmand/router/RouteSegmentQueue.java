@@ -0,0 +1,237 @@
+package net.osmand.router;
+
+import java.util.Arrays;
+
+import net.osmand.router.BinaryRoutePlanner.RouteSegment;
+
+/**
+ * Indexed binary heap used as A* frontier. Keys f(x) = g(x) + coef * h(x) and segment ids (route point id)
+ * are stored in parallel primitive arrays, heap position of every id is kept in open addressing table
+ * so the segment that is already in the queue is updated (decrease-key) instead of being added twice.
+ */
+class RouteSegmentQueue {
+
+	private static final float LOAD_FACTOR = 0.5f;
+
+	private final float heuristicCoefficient;
+
+	private long[] ids;
+	private float[] keys;
+	private RouteSegment[] segments;
+	private int size;
+
+	// id -> heap position (open addressing, linear probing)
+	private long[] tableIds;
+	private int[] tablePositions;
+	private boolean[] tableUsed;
+	private int tableMask;
+
+	// final segments don't have route point id
+	private long finalSegmentId = -1;
+
+	public RouteSegmentQueue(int capacity, float heuristicCoefficient) {
+		this.heuristicCoefficient = heuristicCoefficient;
+		ids = new long[capacity];
+		keys = new float[capacity];
+		segments = new RouteSegment[capacity];
+		initTable(tableCapacity(capacity));
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public RouteSegment peek() {
+		return size == 0 ? null : segments[0];
+	}
+
+	public float peekKey() {
+		return keys[0];
+	}
+
+	/**
+	 * Adds segment with route point id or updates it if it is already in the queue and new key is less
+	 */
+	public void add(RouteSegment segment, long id) {
+		float key = segment.distanceFromStart + heuristicCoefficient * segment.distanceToEnd;
+		int pos = getPosition(id);
+		if (pos >= 0) {
+			if (key < keys[pos] || (key == keys[pos] && segments[pos] == segment)) {
+				keys[pos] = key;
+				segments[pos] = segment;
+				siftUp(pos);
+			}
+			return;
+		}
+		if (size == ids.length) {
+			int nl = size * 2;
+			ids = Arrays.copyOf(ids, nl);
+			keys = Arrays.copyOf(keys, nl);
+			segments = Arrays.copyOf(segments, nl);
+		}
+		if (size + 1 > tableIds.length * LOAD_FACTOR) {
+			rehash(tableIds.length * 2);
+		}
+		ids[size] = id;
+		keys[size] = key;
+		segments[size] = segment;
+		putPosition(id, size);
+		siftUp(size++);
+	}
+
+	public void addFinal(RouteSegment segment) {
+		add(segment, finalSegmentId--);
+	}
+
+	public RouteSegment poll() {
+		if (size == 0) {
+			return null;
+		}
+		RouteSegment res = segments[0];
+		removePosition(ids[0]);
+		size--;
+		if (size > 0) {
+			move(size, 0);
+			siftDown(0);
+		}
+		segments[size] = null;
+		return res;
+	}
+
+	public void clear() {
+		Arrays.fill(segments, 0, size, null);
+		Arrays.fill(tableUsed, false);
+		size = 0;
+	}
+
+	private void siftUp(int i) {
+		long id = ids[i];
+		float key = keys[i];
+		RouteSegment s = segments[i];
+		while (i > 0) {
+			int parent = (i - 1) >> 1;
+			if (keys[parent] <= key) {
+				break;
+			}
+			move(parent, i);
+			i = parent;
+		}
+		set(i, id, key, s);
+	}
+
+	private void siftDown(int i) {
+		long id = ids[i];
+		float key = keys[i];
+		RouteSegment s = segments[i];
+		while (true) {
+			int child = (i << 1) + 1;
+			if (child >= size) {
+				break;
+			}
+			if (child + 1 < size && keys[child + 1] < keys[child]) {
+				child++;
+			}
+			if (key <= keys[child]) {
+				break;
+			}
+			move(child, i);
+			i = child;
+		}
+		set(i, id, key, s);
+	}
+
+	private void move(int from, int to) {
+		set(to, ids[from], keys[from], segments[from]);
+	}
+
+	private void set(int i, long id, float key, RouteSegment s) {
+		ids[i] = id;
+		keys[i] = key;
+		segments[i] = s;
+		putPosition(id, i);
+	}
+
+	private static int tableCapacity(int capacity) {
+		int c = 16;
+		while (c * LOAD_FACTOR < capacity) {
+			c <<= 1;
+		}
+		return c;
+	}
+
+	private void initTable(int capacity) {
+		tableIds = new long[capacity];
+		tablePositions = new int[capacity];
+		tableUsed = new boolean[capacity];
+		tableMask = capacity - 1;
+	}
+
+	private void rehash(int capacity) {
+		initTable(capacity);
+		for (int i = 0; i < size; i++) {
+			putPosition(ids[i], i);
+		}
+	}
+
+	private int slot(long id) {
+		long h = id * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32)) & tableMask;
+	}
+
+	private int getPosition(long id) {
+		int i = slot(id);
+		while (tableUsed[i]) {
+			if (tableIds[i] == id) {
+				return tablePositions[i];
+			}
+			i = (i + 1) & tableMask;
+		}
+		return -1;
+	}
+
+	private void putPosition(long id, int pos) {
+		int i = slot(id);
+		while (tableUsed[i]) {
+			if (tableIds[i] == id) {
+				tablePositions[i] = pos;
+				return;
+			}
+			i = (i + 1) & tableMask;
+		}
+		tableUsed[i] = true;
+		tableIds[i] = id;
+		tablePositions[i] = pos;
+	}
+
+	private void removePosition(long id) {
+		int i = slot(id);
+		while (tableUsed[i]) {
+			if (tableIds[i] == id) {
+				break;
+			}
+			i = (i + 1) & tableMask;
+		}
+		if (!tableUsed[i]) {
+			return;
+		}
+		tableUsed[i] = false;
+		// shift following entries of the cluster back
+		int j = (i + 1) & tableMask;
+		while (tableUsed[j]) {
+			int s = slot(tableIds[j]);
+			boolean move = i <= j ? (s <= i || s > j) : (s <= i && s > j);
+			if (move) {
+				tableUsed[i] = true;
+				tableIds[i] = tableIds[j];
+				tablePositions[i] = tablePositions[j];
+				tableUsed[j] = false;
+				i = j;
+			}
+			j = (j + 1) & tableMask;
+		}
+	}
+}
@@ -11,7 +11,7 @@ import net.osmand.util.MapUtils;
 
 
 public class RouteSegmentResult {
-	private final RouteDataObject object;
+	private RouteDataObject object;
 	private int startPointIndex;
 	private int endPointIndex;
 	private List<RouteSegmentResult>[] attachedRoutes;
@@ -31,7 +31,24 @@ public class RouteSegmentResult {
 		this.endPointIndex = endPointIndex;
 		updateCapacity();
 	}
-	
+
+	/**
+	 * Shallow copy (road and attached routes are shared) which could be made precise at start and end points
+	 */
+	RouteSegmentResult(RouteSegmentResult r) {
+		this.object = r.object;
+		this.startPointIndex = r.startPointIndex;
+		this.endPointIndex = r.endPointIndex;
+		this.attachedRoutes = r.attachedRoutes.clone();
+		this.preAttachedRoutes = r.preAttachedRoutes;
+		this.segmentTime = r.segmentTime;
+		this.routingTime = r.routingTime;
+		this.speed = r.speed;
+		this.distance = r.distance;
+		this.description = r.description;
+		this.turnType = r.turnType;
+	}
+
 
 	@SuppressWarnings("unchecked")
 	private void updateCapacity() {
@@ -88,6 +105,10 @@ public class RouteSegmentResult {
 		return object;
 	}
 	
+	void setObject(RouteDataObject object) {
+		this.object = object;
+	}
+	
 	public float getSegmentTime() {
 		return segmentTime;
 	}
@@ -0,0 +1,240 @@
+package net.osmand.router;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import net.osmand.binary.RouteDataObject;
+
+/**
+ * Time dependent speed profiles: speed of road in every 15 minutes slot of day (96 slots) or week (672 slots)
+ * as percent of speed defined by router. Profile is assigned to road by {@link RouteDataObject#id} or to
+ * road class (highway tag value), road id takes precedence. Profiles are shared by roads with the same values.
+ *
+ * Format: int MAGIC, int version, int slots, int profiles, profiles * slots bytes (percent, 0 means speed of router),
+ * int classes, (UTF highway, short profile) * classes, int roads, (long id, short profile) * roads sorted by id.
+ */
+public class RouteSpeedProfiles {
+
+	private static final int MAGIC = 0x4f535031; // OSP1
+	private static final int VERSION = 1;
+	public static final int SLOT_SECONDS = 15 * 60;
+	public static final int DAY_SLOTS = 24 * 60 * 60 / SLOT_SECONDS;
+	public static final int WEEK_SLOTS = 7 * DAY_SLOTS;
+
+	int slots;
+	// percent of router speed for profile p and slot s ([p * slots + s]) as unsigned byte
+	byte[] profiles;
+	Map<String, Integer> classProfiles = new HashMap<String, Integer>();
+	long[] roadIds;
+	char[] roadProfiles;
+
+	RouteSpeedProfiles() {
+	}
+
+	public int getSlots() {
+		return slots;
+	}
+
+	public int getProfilesCount() {
+		return profiles.length / slots;
+	}
+
+	public int getRoadsCount() {
+		return roadIds.length;
+	}
+
+	/**
+	 * @return seconds passed from monday 00:00 (local time) till time
+	 */
+	public static int getSecondsOfWeek(long time) {
+		Calendar c = Calendar.getInstance();
+		c.setTimeInMillis(time);
+		int day = (c.get(Calendar.DAY_OF_WEEK) + 5) % 7;
+		return ((day * 24 + c.get(Calendar.HOUR_OF_DAY)) * 60 + c.get(Calendar.MINUTE)) * 60 + c.get(Calendar.SECOND);
+	}
+
+	/**
+	 * @param secondsOfWeek time of passing road (see {@link #getSecondsOfWeek(long)})
+	 * @return factor of router speed (1 if road doesn't have profile)
+	 */
+	public float getSpeedFactor(RouteDataObject road, int secondsOfWeek) {
+		int p = getProfile(road);
+		if (p < 0) {
+			return 1;
+		}
+		int percent = profiles[p * slots + (secondsOfWeek / SLOT_SECONDS) % slots] & 0xff;
+		return percent == 0 ? 1 : percent / 100f;
+	}
+
+	private int getProfile(RouteDataObject road) {
+		int i = Arrays.binarySearch(roadIds, road.id);
+		if (i >= 0) {
+			return roadProfiles[i];
+		}
+		if (classProfiles.isEmpty()) {
+			return -1;
+		}
+		String highway = road.getHighway();
+		Integer p = highway == null ? null : classProfiles.get(highway);
+		return p == null ? -1 : p;
+	}
+
+	public void writeToFile(File f) throws IOException {
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(f), 1 << 16));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(slots);
+			out.writeInt(profiles.length / slots);
+			out.write(profiles);
+			out.writeInt(classProfiles.size());
+			for (Map.Entry<String, Integer> c : classProfiles.entrySet()) {
+				out.writeUTF(c.getKey());
+				out.writeShort(c.getValue());
+			}
+			out.writeInt(roadIds.length);
+			for (int i = 0; i < roadIds.length; i++) {
+				out.writeLong(roadIds[i]);
+				out.writeShort(roadProfiles[i]);
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	public static RouteSpeedProfiles readFromFile(File f) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(f), 1 << 16));
+		try {
+			if (in.readInt() != MAGIC) {
+				throw new IOException("File " + f.getName() + " is not a speed profiles file");
+			}
+			int version = in.readInt();
+			if (version != VERSION) {
+				throw new IOException("Unsupported speed profiles version " + version);
+			}
+			RouteSpeedProfiles sp = new RouteSpeedProfiles();
+			sp.slots = in.readInt();
+			sp.profiles = new byte[in.readInt() * sp.slots];
+			in.readFully(sp.profiles);
+			int classes = in.readInt();
+			for (int i = 0; i < classes; i++) {
+				sp.classProfiles.put(in.readUTF(), (int) in.readChar());
+			}
+			int roads = in.readInt();
+			sp.roadIds = new long[roads];
+			sp.roadProfiles = new char[roads];
+			for (int i = 0; i < roads; i++) {
+				sp.roadIds[i] = in.readLong();
+				sp.roadProfiles[i] = in.readChar();
+			}
+			return sp;
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Reads profiles from text file, every line is road id or highway class followed by comma separated
+	 * percents for 96 or 672 slots (the same number for all lines)
+	 */
+	public static RouteSpeedProfiles readFromText(File f) throws IOException {
+		RouteSpeedProfiles sp = new RouteSpeedProfiles();
+		Map<String, Integer> uniqueProfiles = new HashMap<String, Integer>();
+		List<byte[]> profiles = new ArrayList<byte[]>();
+		TreeMap<Long, Integer> roads = new TreeMap<Long, Integer>();
+		BufferedReader r = new BufferedReader(new FileReader(f));
+		try {
+			String line;
+			while ((line = r.readLine()) != null) {
+				line = line.trim();
+				if (line.length() == 0 || line.startsWith("#")) {
+					continue;
+				}
+				int i = line.indexOf(',');
+				if (i <= 0) {
+					throw new IOException("Wrong profile line: " + line);
+				}
+				String key = line.substring(0, i).trim();
+				String values = line.substring(i + 1).replace(" ", "");
+				String[] vs = values.split(",");
+				if (sp.slots == 0) {
+					if (vs.length != DAY_SLOTS && vs.length != WEEK_SLOTS) {
+						throw new IOException("Profile should have " + DAY_SLOTS + " or " + WEEK_SLOTS + " values: " + key);
+					}
+					sp.slots = vs.length;
+				} else if (vs.length != sp.slots) {
+					throw new IOException("Profile should have " + sp.slots + " values: " + key);
+				}
+				Integer p = uniqueProfiles.get(values);
+				if (p == null) {
+					byte[] b = new byte[sp.slots];
+					for (int k = 0; k < vs.length; k++) {
+						b[k] = (byte) Math.min(255, Integer.parseInt(vs[k]));
+					}
+					p = profiles.size();
+					profiles.add(b);
+					uniqueProfiles.put(values, p);
+				}
+				if (Character.isDigit(key.charAt(0))) {
+					roads.put(Long.parseLong(key), p);
+				} else {
+					sp.classProfiles.put(key, p);
+				}
+			}
+		} finally {
+			r.close();
+		}
+		if (profiles.size() > Character.MAX_VALUE) {
+			throw new IOException("Too many different profiles " + profiles.size());
+		}
+		sp.slots = Math.max(sp.slots, DAY_SLOTS);
+		sp.profiles = new byte[profiles.size() * sp.slots];
+		for (int i = 0; i < profiles.size(); i++) {
+			System.arraycopy(profiles.get(i), 0, sp.profiles, i * sp.slots, sp.slots);
+		}
+		sp.roadIds = new long[roads.size()];
+		sp.roadProfiles = new char[roads.size()];
+		int i = 0;
+		for (Map.Entry<Long, Integer> e : roads.entrySet()) {
+			sp.roadIds[i] = e.getKey();
+			sp.roadProfiles[i] = (char) e.getValue().intValue();
+			i++;
+		}
+		return sp;
+	}
+
+	public static void main(String[] args) throws Exception {
+		String inFile = null;
+		String outFile = null;
+		for (String a : args) {
+			if (a.startsWith("-in=")) {
+				inFile = a.substring("-in=".length());
+			} else if (a.startsWith("-out=")) {
+				outFile = a.substring("-out=".length());
+			}
+		}
+		if (inFile == null || outFile == null) {
+			System.out.println("Usage: -in=profiles.csv -out=file.speed");
+			return;
+		}
+		RouteSpeedProfiles sp = readFromText(new File(inFile));
+		sp.writeToFile(new File(outFile));
+		System.out.println("Speed profiles: " + sp.getProfilesCount() + " profiles, " + sp.getRoadsCount() + " roads, "
+				+ sp.classProfiles.size() + " classes are written to " + outFile);
+	}
+}
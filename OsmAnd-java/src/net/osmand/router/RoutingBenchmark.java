@@ -0,0 +1,369 @@
+package net.osmand.router;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import net.osmand.binary.BinaryMapIndexReader;
+import net.osmand.binary.RouteDataObject;
+import net.osmand.data.LatLon;
+import net.osmand.router.BinaryRoutePlanner.RouteSegment;
+import net.osmand.util.MapUtils;
+
+/**
+ * Console benchmark of routing to catch performance regressions.
+ * <ul>
+ * <li>Macro benchmark replays route file (line "start_lat,start_lon,target_lat,target_lon[,description]",
+ * '#' is comment) against fixed set of obf files and reports visited segments, loaded tiles, latency (p50/p99)
+ * and allocated bytes per route.</li>
+ * <li>Micro benchmarks (-micro) measure {@link GeneralRouter#defineRoutingSpeed}, {@link RouteResultPreparation}
+ * and A* frontier ({@link RouteSegmentQueue}) operations on roads of the first route with warmup iterations.</li>
+ * </ul>
+ * Allocated bytes are measured for calling thread only (available on HotSpot JVM).
+ */
+public class RoutingBenchmark {
+
+	private static final int MEMORY_LIMIT = 800;
+
+	// keeps results of micro benchmarks alive
+	public static volatile long sink;
+
+	private File obfDir;
+	private File routesFile;
+	private String vehicle = "car";
+	private RoutingConfiguration.Builder configBuilder;
+	private int warmup = 1;
+	private int iterations = 5;
+	private boolean micro;
+
+	public static class BenchmarkRoute {
+		public final LatLon start;
+		public final LatLon end;
+		public final String description;
+
+		public BenchmarkRoute(LatLon start, LatLon end, String description) {
+			this.start = start;
+			this.end = end;
+			this.description = description;
+		}
+	}
+
+	public static class RouteStatistics {
+		public final BenchmarkRoute route;
+		public final long[] latencies;
+		public int visitedSegments;
+		public int loadedTiles;
+		public long allocatedBytes = -1;
+		public int segments;
+		public float routingTime;
+
+		RouteStatistics(BenchmarkRoute route, int iterations) {
+			this.route = route;
+			this.latencies = new long[iterations];
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		RoutingBenchmark b = new RoutingBenchmark();
+		if (!b.init(args)) {
+			info();
+			return;
+		}
+		BinaryMapIndexReader[] rs = TestRouting.collectFiles(b.obfDir.getAbsolutePath());
+		List<BenchmarkRoute> routes = readRoutes(b.routesFile);
+		if (routes.isEmpty()) {
+			System.out.println("No routes in " + b.routesFile.getName());
+			return;
+		}
+		RouteResultPreparation.PRINT_TO_CONSOLE_ROUTE_INFORMATION_TO_TEST = false;
+		b.runMacroBenchmark(rs, routes);
+		if (b.micro) {
+			b.runMicroBenchmarks(rs, routes.get(0));
+		}
+	}
+
+	public static void info() {
+		System.out.println("Routing benchmark replays routes from file and reports visited segments, loaded tiles, latency and allocated bytes.");
+		System.out.println("\nUsage : -obfDir=PATH -routes=FILE [-routingXmlPath=PATH] [-vehicle=VEHICLE_STRING] [-warmup=N] [-iterations=N] [-micro]");
+		System.out.println("Route file line : start_lat,start_lon,target_lat,target_lon[,description]");
+	}
+
+	private boolean init(String[] args) throws Exception {
+		String routingXmlFile = null;
+		for (String a : args) {
+			if (a.startsWith("-obfDir=")) {
+				obfDir = new File(a.substring("-obfDir=".length()));
+			} else if (a.startsWith("-routes=")) {
+				routesFile = new File(a.substring("-routes=".length()));
+			} else if (a.startsWith("-routingXmlPath=")) {
+				routingXmlFile = a.substring("-routingXmlPath=".length());
+			} else if (a.startsWith("-vehicle=")) {
+				vehicle = a.substring("-vehicle=".length());
+			} else if (a.startsWith("-warmup=")) {
+				warmup = Integer.parseInt(a.substring("-warmup=".length()));
+			} else if (a.startsWith("-iterations=")) {
+				iterations = Math.max(1, Integer.parseInt(a.substring("-iterations=".length())));
+			} else if (a.equals("-micro")) {
+				micro = true;
+			}
+		}
+		if (routingXmlFile == null || routingXmlFile.equals("routing.xml")) {
+			configBuilder = RoutingConfiguration.getDefault();
+		} else {
+			configBuilder = RoutingConfiguration.parseFromInputStream(new FileInputStream(routingXmlFile));
+		}
+		return obfDir != null && routesFile != null;
+	}
+
+	public static List<BenchmarkRoute> readRoutes(File f) throws IOException {
+		List<BenchmarkRoute> routes = new ArrayList<BenchmarkRoute>();
+		BufferedReader r = new BufferedReader(new FileReader(f));
+		try {
+			String line;
+			int lineNumber = 0;
+			while ((line = r.readLine()) != null) {
+				lineNumber++;
+				line = line.trim();
+				if (line.length() == 0 || line.startsWith("#")) {
+					continue;
+				}
+				String[] s = line.split(",", 5);
+				if (s.length < 4) {
+					throw new IllegalArgumentException("Route is not valid at line " + lineNumber + " : " + line);
+				}
+				LatLon start = new LatLon(Double.parseDouble(s[0].trim()), Double.parseDouble(s[1].trim()));
+				LatLon end = new LatLon(Double.parseDouble(s[2].trim()), Double.parseDouble(s[3].trim()));
+				routes.add(new BenchmarkRoute(start, end, s.length > 4 ? s[4].trim() : "#" + lineNumber));
+			}
+		} finally {
+			r.close();
+		}
+		return routes;
+	}
+
+	private RoutingContext buildContext(BinaryMapIndexReader[] rs) {
+		RoutingConfiguration rconfig = configBuilder.build(vehicle, MEMORY_LIMIT);
+		return new RoutePlannerFrontEnd(false).buildRoutingContext(rconfig, null, rs);
+	}
+
+	public List<RouteStatistics> runMacroBenchmark(BinaryMapIndexReader[] rs, List<BenchmarkRoute> routes)
+			throws IOException, InterruptedException {
+		for (int i = 0; i < warmup; i++) {
+			for (BenchmarkRoute r : routes) {
+				calculate(rs, r);
+			}
+		}
+		List<RouteStatistics> stats = new ArrayList<RouteStatistics>();
+		for (BenchmarkRoute r : routes) {
+			stats.add(new RouteStatistics(r, iterations));
+		}
+		// routes are interleaved so every iteration sees the same state of reader caches
+		for (int i = 0; i < iterations; i++) {
+			for (RouteStatistics st : stats) {
+				long allocated = getAllocatedBytes();
+				long time = System.nanoTime();
+				RoutingContext ctx = buildContext(rs);
+				List<RouteSegmentResult> res = new RoutePlannerFrontEnd(false).searchRoute(ctx, st.route.start,
+						st.route.end, null);
+				st.latencies[i] = System.nanoTime() - time;
+				long allocatedAfter = getAllocatedBytes();
+				if (i == 0) {
+					st.visitedSegments = ctx.visitedSegments;
+					st.loadedTiles = ctx.loadedTiles;
+					st.routingTime = ctx.routingTime;
+					st.segments = res == null ? 0 : res.size();
+				}
+				if (allocated >= 0 && allocatedAfter >= 0) {
+					// minimal value is the least affected by JIT
+					long a = allocatedAfter - allocated;
+					st.allocatedBytes = st.allocatedBytes < 0 ? a : Math.min(st.allocatedBytes, a);
+				}
+			}
+		}
+		printMacroStatistics(stats);
+		return stats;
+	}
+
+	private List<RouteSegmentResult> calculate(BinaryMapIndexReader[] rs, BenchmarkRoute r) throws IOException,
+			InterruptedException {
+		return new RoutePlannerFrontEnd(false).searchRoute(buildContext(rs), r.start, r.end, null);
+	}
+
+	private void printMacroStatistics(List<RouteStatistics> stats) {
+		System.out.println(String.format("%-24s %10s %8s %10s %10s %12s %12s", "route", "visited", "tiles",
+				"p50 ms", "p99 ms", "alloc KB", "route time"));
+		long[] all = new long[stats.size() * iterations];
+		int k = 0;
+		for (RouteStatistics st : stats) {
+			long[] l = st.latencies.clone();
+			Arrays.sort(l);
+			System.arraycopy(l, 0, all, k, l.length);
+			k += l.length;
+			System.out.println(String.format("%-24s %10d %8d %10.1f %10.1f %12s %12.1f", st.route.description,
+					st.visitedSegments, st.loadedTiles, percentile(l, 0.5) / 1e6, percentile(l, 0.99) / 1e6,
+					st.allocatedBytes < 0 ? "n/a" : String.valueOf(st.allocatedBytes >> 10), st.routingTime));
+		}
+		Arrays.sort(all);
+		System.out.println(String.format("Total %d routes x %d iterations : p50 %.1f ms, p99 %.1f ms", stats.size(),
+				iterations, percentile(all, 0.5) / 1e6, percentile(all, 0.99) / 1e6));
+	}
+
+	/**
+	 * @param sorted sorted values
+	 * @return value by nearest rank method
+	 */
+	public static long percentile(long[] sorted, double p) {
+		if (sorted.length == 0) {
+			return 0;
+		}
+		int rank = (int) Math.ceil(p * sorted.length);
+		return sorted[Math.min(sorted.length - 1, Math.max(rank - 1, 0))];
+	}
+
+	private static Object threadBean;
+	private static Method threadAllocatedBytes;
+	private static boolean threadAllocatedBytesInitialized;
+
+	/**
+	 * @return bytes allocated by current thread or -1 if JVM doesn't support it
+	 */
+	public static long getAllocatedBytes() {
+		if (!threadAllocatedBytesInitialized) {
+			threadAllocatedBytesInitialized = true;
+			try {
+				// com.sun.management is not available on all platforms
+				threadBean = Class.forName("java.lang.management.ManagementFactory").getMethod("getThreadMXBean")
+						.invoke(null);
+				threadAllocatedBytes = Class.forName("com.sun.management.ThreadMXBean").getMethod(
+						"getThreadAllocatedBytes", long.class);
+			} catch (Exception e) {
+				threadAllocatedBytes = null;
+			}
+		}
+		if (threadAllocatedBytes == null) {
+			return -1;
+		}
+		try {
+			return (Long) threadAllocatedBytes.invoke(threadBean, Thread.currentThread().getId());
+		} catch (Exception e) {
+			return -1;
+		}
+	}
+
+	private abstract static class MicroBenchmark {
+		final String name;
+
+		MicroBenchmark(String name) {
+			this.name = name;
+		}
+
+		/**
+		 * @return number of operations
+		 */
+		abstract int run() throws Exception;
+	}
+
+	private void runMicro(MicroBenchmark b) throws Exception {
+		long bestNsPerOp = Long.MAX_VALUE;
+		long totalNs = 0;
+		long totalOps = 0;
+		// time per iteration should be large enough to be measured
+		for (int i = 0; i < warmup * 10; i++) {
+			b.run();
+		}
+		for (int i = 0; i < iterations * 10; i++) {
+			long time = System.nanoTime();
+			int ops = b.run();
+			long t = System.nanoTime() - time;
+			totalNs += t;
+			totalOps += ops;
+			if (ops > 0) {
+				bestNsPerOp = Math.min(bestNsPerOp, t / ops);
+			}
+		}
+		System.out.println(String.format("%-32s %12.1f ns/op (best %d ns/op), %d ops", b.name,
+				totalOps == 0 ? 0 : totalNs / (double) totalOps, bestNsPerOp, totalOps));
+	}
+
+	public void runMicroBenchmarks(BinaryMapIndexReader[] rs, BenchmarkRoute route) throws Exception {
+		final RoutingContext ctx = buildContext(rs);
+		new RoutePlannerFrontEnd(false).searchRoute(ctx, route.start, route.end, null);
+		final List<RouteDataObject> loaded = new ArrayList<RouteDataObject>();
+		ctx.loadTileData(MapUtils.get31TileNumberX(route.start.getLongitude()),
+				MapUtils.get31TileNumberY(route.start.getLatitude()), 15, loaded);
+		final List<RouteDataObject> roads = new ArrayList<RouteDataObject>();
+		for (RouteDataObject ro : loaded) {
+			if (ctx.getRouter().acceptLine(ro)) {
+				roads.add(ro);
+			}
+		}
+		System.out.println("Micro benchmarks on " + roads.size() + " roads");
+		if (roads.isEmpty()) {
+			return;
+		}
+		final VehicleRouter router = ctx.getRouter();
+		runMicro(new MicroBenchmark("GeneralRouter.defineRoutingSpeed") {
+			@Override
+			int run() {
+				float s = 0;
+				for (RouteDataObject ro : roads) {
+					s += router.defineRoutingSpeed(ro);
+				}
+				sink += (long) s;
+				return roads.size();
+			}
+		});
+		// deterministic frontier: same segments and keys every run
+		final RouteSegment[] segments = new RouteSegment[Math.max(roads.size(), 10000)];
+		final long[] ids = new long[segments.length];
+		Random random = new Random(segments.length);
+		for (int i = 0; i < segments.length; i++) {
+			RouteDataObject ro = roads.get(i % roads.size());
+			segments[i] = new RouteSegment(ro, 0);
+			segments[i].distanceFromStart = random.nextFloat() * 1000;
+			segments[i].distanceToEnd = random.nextFloat() * 1000;
+			ids[i] = (ro.getId() << 11) + ((i / roads.size()) << 1);
+		}
+		final RouteSegmentQueue queue = new RouteSegmentQueue(64, 1);
+		runMicro(new MicroBenchmark("RouteSegmentQueue add/poll") {
+			@Override
+			int run() {
+				queue.clear();
+				int ops = 0;
+				// typical frontier : segments are polled while new ones are added
+				for (int i = 0; i < segments.length; i++) {
+					queue.add(segments[i], ids[i]);
+					ops++;
+					if ((i & 1) == 1) {
+						sink += queue.poll().getSegmentStart();
+						ops++;
+					}
+				}
+				while (!queue.isEmpty()) {
+					sink += queue.poll().getSegmentStart();
+					ops++;
+				}
+				return ops;
+			}
+		});
+		if (ctx.finalRouteSegment != null) {
+			runMicro(new MicroBenchmark("RouteResultPreparation.prepareResult") {
+				@Override
+				int run() throws Exception {
+					List<RouteSegmentResult> res = new RouteResultPreparation().prepareResult(ctx, ctx.finalRouteSegment);
+					sink += res.size();
+					return 1;
+				}
+			});
+		} else {
+			System.out.println("RouteResultPreparation.prepareResult is skipped (route is not calculated by A*)");
+		}
+	}
+}
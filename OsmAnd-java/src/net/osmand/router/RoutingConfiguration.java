@@ -37,6 +37,8 @@ public class RoutingConfiguration {
 	// 1.2 Build A* graph in backward/forward direction (can affect results)
 	// 0 - 2 ways, 1 - direct way, -1 - reverse way
 	public int planRoadDirection = 0;
+	// run direct and reverse searches of 2 ways planning in parallel threads (needs shared tile cache)
+	public boolean parallelBidirectionalSearch = false;
 
 	// 1.3 Router specific coefficients and restrictions
 	// use GeneralRouter and not interface to simplify native access !
@@ -99,6 +101,8 @@ public class RoutingConfiguration {
 				i.memoryLimitation = memoryLimitMB * (1 << 20);
 			}
 			i.planRoadDirection = parseSilentInt(getAttribute(i.router, "planRoadDirection"), i.planRoadDirection);
+			i.parallelBidirectionalSearch = parseSilentBoolean(getAttribute(i.router, "parallelBidirectionalSearch"), 
+					i.parallelBidirectionalSearch);
 //			i.planRoadDirection = 1;
 			
 			return i;
@@ -153,6 +157,14 @@ public class RoutingConfiguration {
 	}
 
 
+	private static boolean parseSilentBoolean(String t, boolean v) {
+		if (t == null || t.length() == 0) {
+			return v;
+		}
+		return Boolean.parseBoolean(t);
+	}
+
+
 	private static float parseSilentFloat(String t, float v) {
 		if (t == null || t.length() == 0) {
 			return v;
@@ -3,7 +3,6 @@ package net.osmand.router;
 
 import gnu.trove.iterator.TIntObjectIterator;
 import gnu.trove.iterator.TLongIterator;
-import gnu.trove.map.TLongObjectMap;
 import gnu.trove.map.hash.TLongObjectHashMap;
 import gnu.trove.set.hash.TLongHashSet;
 
@@ -12,7 +11,6 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
-import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
@@ -26,6 +24,7 @@ import net.osmand.binary.BinaryMapIndexReader.SearchRequest;
 import net.osmand.binary.BinaryMapRouteReaderAdapter;
 import net.osmand.binary.BinaryMapRouteReaderAdapter.RouteRegion;
 import net.osmand.binary.BinaryMapRouteReaderAdapter.RouteSubregion;
+import net.osmand.binary.RouteSubregionIndex;
 import net.osmand.binary.RouteDataObject;
 import net.osmand.router.BinaryRoutePlanner.FinalRouteSegment;
 import net.osmand.router.BinaryRoutePlanner.RouteSegment;
@@ -53,6 +52,8 @@ public class RoutingContext {
 	public final NativeLibrary nativeLib;
 	public final Map<BinaryMapIndexReader, List<RouteSubregion>> map = new LinkedHashMap<BinaryMapIndexReader, List<RouteSubregion>>();
 	public final Map<RouteRegion, BinaryMapIndexReader> reverseMap = new LinkedHashMap<RouteRegion, BinaryMapIndexReader>();
+	// tiles shared between contexts (in that case context has only per-query state)
+	final RoutingTileCache sharedCache;
 	
 	// 1. Initial variables
 	public int startX;
@@ -67,6 +68,14 @@ public class RoutingContext {
 	public boolean leftSideNavigation;
 	public List<RouteSegmentResult> previouslyCalculatedRoute;
 	public PrecalculatedRouteDirection precalculatedRouteDirection;
+	// lower bounds of route time (null if there are no landmarks for map and profile)
+	public RouteLandmarks.LandmarksHeuristic landmarksHeuristic;
+	// keep reverse search tree after calculation to recalculate route to the same destination
+	public boolean keepSearchTree;
+	public RouteSearchTree searchTree;
+	// time dependent speeds (search is done in forward direction only)
+	RouteSpeedProfiles speedProfiles;
+	int departureSecondsOfWeek;
 
 	// 2. Routing memory cache (big objects)
 	TLongObjectHashMap<List<RoutingSubregionTile>> indexedSubregions = new TLongObjectHashMap<List<RoutingSubregionTile>>();
@@ -116,22 +125,10 @@ public class RoutingContext {
 		this.leftSideNavigation = cp.leftSideNavigation;
 		this.reverseMap.putAll(cp.reverseMap);
 		this.nativeLib = cp.nativeLib;
-		// copy local data and clear caches
-		for(RoutingSubregionTile tl : subregionTiles) {
-			if(tl.isLoaded()) {
-				subregionTiles.add(tl);
-				for (RouteSegment rs : tl.routes.valueCollection()) {
-					RouteSegment s = rs;
-					while (s != null) {
-						s.parentRoute = null;
-						s.parentSegmentEnd = 0;
-						s.distanceFromStart = 0;
-						s.distanceToEnd = 0;
-						s = s.next;
-					}
-				}
-			}
-		}
+		this.sharedCache = cp.sharedCache;
+		this.speedProfiles = cp.speedProfiles;
+		this.departureSecondsOfWeek = cp.departureSecondsOfWeek;
+		// tiles don't keep search state (segments are created on load) so there is nothing to clear
 	}
 	
 	RoutingContext(RoutingConfiguration config, NativeLibrary nativeLibrary, BinaryMapIndexReader[] map, RouteCalculationMode calcMode) {
@@ -151,6 +148,18 @@ public class RoutingContext {
 		}
 		this.config = config;
 		this.nativeLib = nativeLibrary;
+		this.sharedCache = null;
+	}
+	
+	RoutingContext(RoutingConfiguration config, RoutingTileCache sharedCache, RouteCalculationMode calcMode) {
+		this.calculationMode = calcMode;
+		for (BinaryMapIndexReader mr : sharedCache.getMaps()) {
+			this.map.put(mr, Collections.<RouteSubregion>emptyList());
+		}
+		this.reverseMap.putAll(sharedCache.getReverseMap());
+		this.config = config;
+		this.nativeLib = null;
+		this.sharedCache = sharedCache;
 	}
 	
 	
@@ -159,6 +168,9 @@ public class RoutingContext {
 	}
 	
 	public int getCurrentlyLoadedTiles() {
+		if (sharedCache != null) {
+			return sharedCache.getCurrentlyLoadedTiles();
+		}
 		int cnt = 0;
 		for(RoutingSubregionTile t : this.subregionTiles){
 			if(t.isLoaded()) {
@@ -169,6 +181,9 @@ public class RoutingContext {
 	}
 	
 	public int getCurrentEstimatedSize(){
+		if (sharedCache != null) {
+			return sharedCache.getCurrentEstimatedSize();
+		}
 		return global.size;
 	}
 	
@@ -190,11 +205,24 @@ public class RoutingContext {
 	}
 
 	public boolean planRouteIn2Directions() {
-		return config.planRoadDirection == 0;
+		return getPlanRoadDirection() == 0;
 	}
 
 	public int getPlanRoadDirection() {
-		return config.planRoadDirection;
+		// time of passing segment is known only for search from start
+		return speedProfiles != null ? 1 : config.planRoadDirection;
+	}
+	
+	/**
+	 * Uses time dependent speeds of roads for departure time (null profiles to use static speeds)
+	 */
+	public void setDepartureTime(RouteSpeedProfiles speedProfiles, long departureTime) {
+		this.speedProfiles = speedProfiles;
+		this.departureSecondsOfWeek = RouteSpeedProfiles.getSecondsOfWeek(departureTime);
+	}
+	
+	public RouteSpeedProfiles getSpeedProfiles() {
+		return speedProfiles;
 	}
 
 	public void setPlanRoadDirection(int planRoadDirection) {
@@ -311,7 +339,8 @@ public class RoutingContext {
 			try {
 				BinaryMapIndexReader reader = reverseMap.get(ts.subregion.routeReg);
 				ts.setLoadedNonNative();
-				List<RouteDataObject> res = reader.loadRouteIndexData(ts.subregion);
+				// subregion could be shared (subregion index) so data is read into a copy
+				List<RouteDataObject> res = reader.loadRouteIndexData(new RouteSubregion(ts.subregion));
 //				System.out.println(ts.subregion.shiftToData + " " + res);
 				if(toLoad != null) {
 					toLoad.addAll(res);
@@ -322,6 +351,7 @@ public class RoutingContext {
 						}
 					}
 				}
+				ts.compact();
 			} catch (IOException e) {
 				throw new RuntimeException("Loading data exception", e);
 			}
@@ -354,6 +384,9 @@ public class RoutingContext {
 		final int zoomToLoad = 31 - config.ZOOM_TO_LOAD_TILES;
 		int tileX = x31 >> zoomToLoad;
 		int tileY = y31 >> zoomToLoad;
+		if (sharedCache != null) {
+			return sharedCache.loadTileHeaders(this, zoomToLoad, tileX, tileY);
+		}
 		return loadTileHeaders(zoomToLoad, tileX, tileY);
 	}
 	
@@ -401,7 +434,8 @@ public class RoutingContext {
 				if (r.getValue().size() > 0) {
 					long now = System.nanoTime();
 					// int rg = r.getValue().get(0).routeReg.regionsRead;
-					List<RouteSubregion> subregs = r.getKey().searchRouteIndexTree(request, r.getValue());
+					List<RouteSubregion> subregs = searchRouteIndexTree(r.getKey(), request, r.getValue(),
+							calculationMode == RouteCalculationMode.BASE);
 					if(subregs.size() > 0) {
 						checkOldRoutingFiles(r.getKey());
 					}
@@ -428,7 +462,62 @@ public class RoutingContext {
 		return collection;
 	}
 
+	/**
+	 * Searches subregions with data using precomputed index of the file if it is available
+	 */
+	static List<RouteSubregion> searchRouteIndexTree(BinaryMapIndexReader reader, SearchRequest<?> request,
+			List<RouteSubregion> list, boolean base) throws IOException {
+		RouteSubregionIndex index = reader.getRouteSubregionIndex();
+		if (index == null) {
+			return reader.searchRouteIndexTree(request, list);
+		}
+		List<RouteSubregion> subregs = index.search(base, request.getLeft(), request.getRight(), request.getTop(),
+				request.getBottom());
+		RouteRegion initialized = null;
+		for (RouteSubregion sr : subregs) {
+			if (sr.routeReg != initialized) {
+				reader.initRouteRegion(sr.routeReg);
+				initialized = sr.routeReg;
+			}
+		}
+		return subregs;
+	}
+	
 	public void loadTileData(int x31, int y31, int zoomAround, final List<RouteDataObject> toFillIn) {
+		long now = System.nanoTime();
+		TLongIterator it = loadTilesAround(x31, y31, zoomAround).iterator();
+		TLongObjectHashMap<RouteDataObject> excludeDuplications = new TLongObjectHashMap<RouteDataObject>();
+		while(it.hasNext()){
+			getAllObjects(it.next(), toFillIn, excludeDuplications);
+		}
+		timeToFindInitialSegments += (System.nanoTime() - now);
+	}
+
+	/**
+	 * Loads (in memory) tiles around point and finds nearest accepted road segments using segment index of tiles
+	 */
+	void findNearestSegments(int x31, int y31, int zoomAround, RoutingSegmentIndex.NearestSegments result) {
+		long now = System.nanoTime();
+		TLongIterator it = loadTilesAround(x31, y31, zoomAround).iterator();
+		while (it.hasNext()) {
+			long tileId = it.next();
+			List<RouteDataObject> routes = tileRoutes.get(tileId);
+			if (routes != null) {
+				for (RouteDataObject ro : routes) {
+					result.offerRoad(ro, x31, y31);
+				}
+			}
+			List<RoutingSubregionTile> subregions = indexedSubregions.get(tileId);
+			if (subregions != null) {
+				for (RoutingSubregionTile rs : subregions) {
+					rs.findNearestSegments(x31, y31, this, result);
+				}
+			}
+		}
+		timeToFindInitialSegments += (System.nanoTime() - now);
+	}
+
+	private TLongHashSet loadTilesAround(int x31, int y31, int zoomAround) {
 		int t =  config.ZOOM_TO_LOAD_TILES - zoomAround;
 		int coordinatesShift = (1 << (31 - config.ZOOM_TO_LOAD_TILES));
 		if(t <= 0) {
@@ -439,12 +528,26 @@ public class RoutingContext {
 		}
 		
 		TLongHashSet ts = new TLongHashSet(); 
-		long now = System.nanoTime();
 		for(int i = -t; i <= t; i++) {
 			for(int j = -t; j <= t; j++) {
 				ts.add(getRoutingTile(x31 +i*coordinatesShift, y31 + j*coordinatesShift, 0, OPTION_IN_MEMORY_LOAD));		
 			}
 		}
+		return ts;
+	}
+	
+	/**
+	 * Loads (in memory) all routing tiles intersecting bbox and collects accepted road objects
+	 */
+	public void loadTileData(int left31, int top31, int right31, int bottom31, final List<RouteDataObject> toFillIn) {
+		int shift = 31 - config.ZOOM_TO_LOAD_TILES;
+		TLongHashSet ts = new TLongHashSet(); 
+		long now = System.nanoTime();
+		for (int x = left31 >> shift; x <= right31 >> shift; x++) {
+			for (int y = top31 >> shift; y <= bottom31 >> shift; y++) {
+				ts.add(getRoutingTile(x << shift, y << shift, 0, OPTION_IN_MEMORY_LOAD));
+			}
+		}
 		TLongIterator it = ts.iterator();
 		TLongObjectHashMap<RouteDataObject> excludeDuplications = new TLongObjectHashMap<RouteDataObject>();
 		while(it.hasNext()){
@@ -459,7 +562,12 @@ public class RoutingContext {
 		long xloc = x31 >> (31 - config.ZOOM_TO_LOAD_TILES);
 		long yloc = y31 >> (31 - config.ZOOM_TO_LOAD_TILES);
 		long tileId = (xloc << config.ZOOM_TO_LOAD_TILES) + yloc;
-		if (loadOptions != OPTION_NO_LOAD) {
+		if (loadOptions != OPTION_NO_LOAD && sharedCache != null) {
+			// shared tiles are loaded on demand (they could be unloaded by other query)
+			if (!indexedSubregions.containsKey(tileId)) {
+				indexedSubregions.put(tileId, loadTileHeaders(x31, y31));
+			}
+		} else if (loadOptions != OPTION_NO_LOAD) {
 			if( memoryLimit == 0){
 				memoryLimit = config.memoryLimitation;
 			}
@@ -519,6 +627,23 @@ public class RoutingContext {
 		return getCurrentEstimatedSize() > 0.9 * memoryLimit;
 	}
 	
+	/**
+	 * Unloads tiles which don't intersect bbox (area passed by sequential calculations)
+	 */
+	public void unloadTilesOutside(int left31, int top31, int right31, int bottom31) {
+		if (sharedCache != null) {
+			return;
+		}
+		for (RoutingSubregionTile t : subregionTiles) {
+			RouteSubregion s = t.subregion;
+			if (t.isLoaded() && (s.right < left31 || s.left > right31 || s.bottom < top31 || s.top > bottom31)) {
+				t.unload();
+				unloadedTiles++;
+				global.size -= t.tileStatistics.size;
+			}
+		}
+	}
+
 	public void unloadUnusedTiles(int memoryLimit) {
 		float desirableSize = memoryLimit * 0.7f;
 		List<RoutingSubregionTile> list = new ArrayList<RoutingSubregionTile>(subregionTiles.size() / 2);
@@ -603,7 +728,7 @@ public class RoutingContext {
 	}
 	
 	
-	private static long calcRouteId(RouteDataObject o, int ind) {
+	static long calcRouteId(RouteDataObject o, int ind) {
 		return (o.getId() << 10) + ind;
 	}
 
@@ -616,28 +741,28 @@ public class RoutingContext {
 		
 		private NativeRouteSearchResult searchResult = null;
 		private int isLoaded = 0;
-		private TLongObjectMap<RouteSegment> routes = null;
+		private RoutingTileRoutes routes = null;
 
 		public RoutingSubregionTile(RouteSubregion subregion) {
 			this.subregion = subregion;
 		}
 		
-		public TLongObjectMap<RouteSegment> getRoutes() {
+		RoutingTileRoutes getRoutes() {
 			return routes;
 		}
 		
 		public void loadAllObjects(final List<RouteDataObject> toFillIn, RoutingContext ctx, TLongObjectHashMap<RouteDataObject> excludeDuplications) {
+			RoutingTileRoutes routes = this.routes;
+			boolean shared = ctx.sharedCache != null;
+			if (shared) {
+				routes = ctx.sharedCache.loadSubregionTile(this);
+			}
 			if(routes != null) {
-				Iterator<RouteSegment> it = routes.valueCollection().iterator();
-				while(it.hasNext()){
-					RouteSegment rs = it.next();
-					while(rs != null){
-						RouteDataObject ro = rs.road;
-						if (!excludeDuplications.contains(ro.id)) {
-							excludeDuplications.put(ro.id, ro);
-							toFillIn.add(ro);
-						}
-						rs = rs.next;
+				for (int i = 0; i < routes.getRoadsSize(); i++) {
+					RouteDataObject ro = routes.getRoad(i);
+					if (!excludeDuplications.contains(ro.id) && (!shared || ctx.getRouter().acceptLine(ro))) {
+						excludeDuplications.put(ro.id, ro);
+						toFillIn.add(ro);
 					}
 				}
 			} else if(searchResult != null) {
@@ -653,27 +778,36 @@ public class RoutingContext {
 			}
 		}
 		
+		void findNearestSegments(int x31, int y31, RoutingContext ctx, RoutingSegmentIndex.NearestSegments result) {
+			RoutingTileRoutes routes = this.routes;
+			boolean shared = ctx.sharedCache != null;
+			if (shared) {
+				routes = ctx.sharedCache.loadSubregionTile(this);
+			}
+			if (routes != null) {
+				// shared tiles contain roads of all routers
+				routes.getSegmentIndex().findNearest(x31, y31, result, shared ? ctx : null);
+			} else if (searchResult != null && searchResult.objects != null) {
+				for (RouteDataObject ro : searchResult.objects) {
+					if (ro != null) {
+						result.offerRoad(ro, x31, y31);
+					}
+				}
+			}
+		}
+		
 		private RouteSegment loadRouteSegment(int x31, int y31, RoutingContext ctx, 
 				TLongObjectHashMap<RouteDataObject> excludeDuplications, RouteSegment original) {
+			if (ctx.sharedCache != null) {
+				return ctx.sharedCache.loadSubregionTile(this).loadRouteSegment(x31, y31, ctx, excludeDuplications, original,
+						true);
+			}
 			if(searchResult == null && routes == null) {
 				return original;
 			}
 			access++;
 			if (searchResult == null) {
-				long l = (((long) x31) << 31) + (long) y31;
-				RouteSegment segment = routes.get(l);
-				while (segment != null) {
-					RouteDataObject ro = segment.road;
-					RouteDataObject toCmp = excludeDuplications.get(calcRouteId(ro, segment.getSegmentStart()));
-					if (toCmp == null || toCmp.getPointsLength() < ro.getPointsLength()) {
-						excludeDuplications.put(calcRouteId(ro, segment.getSegmentStart()), ro);
-						RouteSegment s = new RouteSegment(ro, segment.getSegmentStart());
-						s.next = original;
-						original = s;
-					}
-					segment = segment.next;
-				}
-				return original;
+				return routes.loadRouteSegment(x31, y31, ctx, excludeDuplications, original, false);
 			}
 			// Native use case
 			long nanoTime = System.nanoTime();
@@ -731,27 +865,20 @@ public class RoutingContext {
 		
 		public void setLoadedNonNative(){
 			isLoaded = Math.abs(isLoaded) + 1;
-			routes = new TLongObjectHashMap<BinaryRoutePlanner.RouteSegment>();
+			routes = new RoutingTileRoutes();
 			tileStatistics = new TileStatistics();
 		}
 		
 		public void add(RouteDataObject ro) {
 			tileStatistics.addObject(ro);
-			for (int i = 0; i < ro.pointsX.length; i++) {
-				int x31 = ro.getPoint31XTile(i);
-				int y31 = ro.getPoint31YTile(i);
-				long l = (((long) x31) << 31) + (long) y31;
-				RouteSegment segment = new RouteSegment(ro, i);
-				if (!routes.containsKey(l)) {
-					routes.put(l, segment);
-				} else {
-					RouteSegment orig = routes.get(l);
-					while (orig.next != null) {
-						orig = orig.next;
-					}
-					orig.next = segment;
-				}
-			}
+			routes.add(ro);
+		}
+		
+		/**
+		 * Should be called when all objects are added (before routes are read)
+		 */
+		public void compact() {
+			routes.compact();
 		}
 		
 		public void setLoadedNative(NativeRouteSearchResult r, RoutingContext ctx) {
@@ -759,12 +886,13 @@ public class RoutingContext {
 			tileStatistics = new TileStatistics();
 			if (r.objects != null) {
 				searchResult = null;
-				routes = new TLongObjectHashMap<BinaryRoutePlanner.RouteSegment>();
+				routes = new RoutingTileRoutes();
 				for (RouteDataObject ro : r.objects) {
 					if (ro != null && ctx.config.router.acceptLine(ro)) {
 						add(ro);
 					}
 				}
+				compact();
 			} else {
 				searchResult = r;
 				tileStatistics.size += 100;
@@ -801,8 +929,9 @@ public class RoutingContext {
 				}
 			}
 		}
-		// Standard overhead?
-		return  (int) (sz * 3.5);
+		// Standard overhead? (points index and segment index of tile are stored in compact arrays)
+		return sz * 2 + o.getPointsLength() * RoutingTileRoutes.BYTES_PER_POINT
+				+ Math.max(0, o.getPointsLength() - 1) * RoutingSegmentIndex.BYTES_PER_SEGMENT;
 	}
 	
 	protected static class TileStatistics {
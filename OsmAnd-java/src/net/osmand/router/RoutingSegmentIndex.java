@@ -0,0 +1,303 @@
+package net.osmand.router;
+
+import java.util.Arrays;
+
+import net.osmand.binary.RouteDataObject;
+import net.osmand.util.MapUtils;
+
+/**
+ * Packed R-tree over segments of roads of one loaded routing tile. Segments are sorted by Hilbert value of
+ * their centers and grouped bottom-up into nodes of {@link #NODE_SIZE} boxes. Tile roads are not modified
+ * after loading, so index is built once (on first nearest search) and dropped together with tile routes.
+ */
+class RoutingSegmentIndex {
+
+	private static final int NODE_SIZE = 16;
+	// segment arrays and boxes of segment + boxes of nodes (~1/15 of segments)
+	static final int BYTES_PER_SEGMENT = 24;
+
+	private final RouteDataObject[] roads;
+	// segment i is (segPoints[i] - 1, segPoints[i]) of road segRoads[i]
+	private final int[] segRoads;
+	private final short[] segPoints;
+	// boxes of all levels: segments boxes first, then nodes level by level (root is the last one)
+	private final int[] minX;
+	private final int[] minY;
+	private final int[] maxX;
+	private final int[] maxY;
+	private final int[] levelStart;
+
+	RoutingSegmentIndex(RouteDataObject[] roads, int roadsSize) {
+		this.roads = roads;
+		int cnt = 0;
+		for (int i = 0; i < roadsSize; i++) {
+			cnt += Math.max(0, roads[i].getPointsLength() - 1);
+		}
+		int total = cnt;
+		int levels = 1;
+		for (int n = cnt; n > 1; n = (n + NODE_SIZE - 1) / NODE_SIZE) {
+			total += (n + NODE_SIZE - 1) / NODE_SIZE;
+			levels++;
+		}
+		segRoads = new int[cnt];
+		segPoints = new short[cnt];
+		minX = new int[total];
+		minY = new int[total];
+		maxX = new int[total];
+		maxY = new int[total];
+		levelStart = new int[levels + 1];
+
+		// sort segments by hilbert value of center (relative to bbox of tile)
+		int tl = Integer.MAX_VALUE, tt = Integer.MAX_VALUE, tr = 0, tb = 0;
+		for (int i = 0; i < roadsSize; i++) {
+			RouteDataObject ro = roads[i];
+			for (int j = 0; j < ro.getPointsLength(); j++) {
+				tl = Math.min(tl, ro.getPoint31XTile(j));
+				tr = Math.max(tr, ro.getPoint31XTile(j));
+				tt = Math.min(tt, ro.getPoint31YTile(j));
+				tb = Math.max(tb, ro.getPoint31YTile(j));
+			}
+		}
+		int shift = 0;
+		while (((long) (tr - tl) >> shift) >= (1 << 16) || ((long) (tb - tt) >> shift) >= (1 << 16)) {
+			shift++;
+		}
+		long[] order = new long[cnt];
+		int[] tmpRoads = new int[cnt];
+		short[] tmpPoints = new short[cnt];
+		int s = 0;
+		for (int i = 0; i < roadsSize; i++) {
+			RouteDataObject ro = roads[i];
+			for (int j = 1; j < ro.getPointsLength(); j++) {
+				long cx = (((long) ro.getPoint31XTile(j - 1) + ro.getPoint31XTile(j)) / 2 - tl) >> shift;
+				long cy = (((long) ro.getPoint31YTile(j - 1) + ro.getPoint31YTile(j)) / 2 - tt) >> shift;
+				// hilbert value takes 32 bits, so sign bit stays 0 and order is not broken
+				order[s] = (hilbert((int) cx, (int) cy) << 31) | s;
+				tmpRoads[s] = i;
+				tmpPoints[s] = (short) j;
+				s++;
+			}
+		}
+		Arrays.sort(order);
+		for (int i = 0; i < cnt; i++) {
+			int k = (int) (order[i] & Integer.MAX_VALUE);
+			segRoads[i] = tmpRoads[k];
+			segPoints[i] = tmpPoints[k];
+			RouteDataObject ro = roads[segRoads[i]];
+			int p = segPoints[i];
+			minX[i] = Math.min(ro.getPoint31XTile(p - 1), ro.getPoint31XTile(p));
+			maxX[i] = Math.max(ro.getPoint31XTile(p - 1), ro.getPoint31XTile(p));
+			minY[i] = Math.min(ro.getPoint31YTile(p - 1), ro.getPoint31YTile(p));
+			maxY[i] = Math.max(ro.getPoint31YTile(p - 1), ro.getPoint31YTile(p));
+		}
+		// build levels
+		levelStart[0] = 0;
+		levelStart[1] = cnt;
+		int pos = cnt;
+		for (int l = 1; l < levels; l++) {
+			int from = levelStart[l - 1];
+			int to = levelStart[l];
+			for (int c = from; c < to; c += NODE_SIZE) {
+				int e = Math.min(c + NODE_SIZE, to);
+				minX[pos] = Integer.MAX_VALUE;
+				minY[pos] = Integer.MAX_VALUE;
+				for (int k = c; k < e; k++) {
+					minX[pos] = Math.min(minX[pos], minX[k]);
+					minY[pos] = Math.min(minY[pos], minY[k]);
+					maxX[pos] = Math.max(maxX[pos], maxX[k]);
+					maxY[pos] = Math.max(maxY[pos], maxY[k]);
+				}
+				pos++;
+			}
+			levelStart[l + 1] = pos;
+		}
+	}
+
+	public int getSegmentsSize() {
+		return segRoads.length;
+	}
+
+	/**
+	 * Offers to result segments which could be closer than current result bound
+	 */
+	public void findNearest(int x31, int y31, NearestSegments result, RoutingContext checkAccept) {
+		if (segRoads.length == 0) {
+			return;
+		}
+		int top = levelStart.length - 2;
+		visit(top, levelStart[top + 1] - 1, x31, y31, result, checkAccept);
+	}
+
+	private void visit(int level, int box, int x31, int y31, NearestSegments result, RoutingContext checkAccept) {
+		if (level == 0) {
+			RouteDataObject ro = roads[segRoads[box]];
+			int p = segPoints[box];
+			double d = squareDistToSegment(x31, y31, ro.getPoint31XTile(p - 1), ro.getPoint31YTile(p - 1),
+					ro.getPoint31XTile(p), ro.getPoint31YTile(p));
+			if (d <= result.getBound() && (checkAccept == null || checkAccept.getRouter().acceptLine(ro))) {
+				result.offer(ro, p, d);
+			}
+			return;
+		}
+		int first = levelStart[level - 1] + (box - levelStart[level]) * NODE_SIZE;
+		int last = Math.min(first + NODE_SIZE, levelStart[level]);
+		int n = last - first;
+		double[] dist = new double[n];
+		int[] ind = new int[n];
+		for (int k = 0; k < n; k++) {
+			dist[k] = squareDistToBox(x31, y31, first + k);
+			ind[k] = first + k;
+			// insertion sort by distance
+			for (int j = k; j > 0 && dist[j - 1] > dist[j]; j--) {
+				double t = dist[j];
+				dist[j] = dist[j - 1];
+				dist[j - 1] = t;
+				int ti = ind[j];
+				ind[j] = ind[j - 1];
+				ind[j - 1] = ti;
+			}
+		}
+		for (int k = 0; k < n; k++) {
+			if (dist[k] > result.getBound()) {
+				break;
+			}
+			visit(level - 1, ind[k], x31, y31, result, checkAccept);
+		}
+	}
+
+	private double squareDistToBox(int x31, int y31, int box) {
+		long dx = x31 < minX[box] ? minX[box] - (long) x31 : (x31 > maxX[box] ? (long) x31 - maxX[box] : 0);
+		long dy = y31 < minY[box] ? minY[box] - (long) y31 : (y31 > maxY[box] ? (long) y31 - maxY[box] : 0);
+		double mx = MapUtils.convert31XToMeters(dx, 0);
+		double my = MapUtils.convert31YToMeters(dy, 0);
+		return mx * mx + my * my;
+	}
+
+	/**
+	 * Squared distance in meters (the same metric as {@link MapUtils#getProjectionPoint31})
+	 */
+	static double squareDistToSegment(int px, int py, int x1, int y1, int x2, int y2) {
+		double ax = MapUtils.convert31XToMeters(x2, x1);
+		double ay = MapUtils.convert31YToMeters(y2, y1);
+		double bx = MapUtils.convert31XToMeters(px, x1);
+		double by = MapUtils.convert31YToMeters(py, y1);
+		double len = ax * ax + ay * ay;
+		double t = len == 0 ? 0 : (ax * bx + ay * by) / len;
+		if (t < 0) {
+			t = 0;
+		} else if (t > 1) {
+			t = 1;
+		}
+		double dx = bx - ax * t;
+		double dy = by - ay * t;
+		return dx * dx + dy * dy;
+	}
+
+	// hilbert curve index of (x, y) in 2^16 x 2^16 grid
+	private static long hilbert(int x, int y) {
+		long d = 0;
+		for (int s = 1 << 15; s > 0; s >>= 1) {
+			int rx = (x & s) > 0 ? 1 : 0;
+			int ry = (y & s) > 0 ? 1 : 0;
+			d += (long) s * s * ((3 * rx) ^ ry);
+			if (ry == 0) {
+				if (rx == 1) {
+					x = s - 1 - x;
+					y = s - 1 - y;
+				}
+				int t = x;
+				x = y;
+				y = t;
+			}
+		}
+		return d;
+	}
+
+	/**
+	 * K nearest roads (one nearest segment per road id) within distance cutoff
+	 */
+	static class NearestSegments {
+		private final int k;
+		private final double maxSquareDist;
+		private final RouteDataObject[] roads;
+		private final int[] points;
+		private final double[] dists;
+		private int size;
+
+		/**
+		 * @param maxDist distance cutoff in meters
+		 */
+		NearestSegments(int k, double maxDist) {
+			this.k = k;
+			this.maxSquareDist = maxDist * maxDist;
+			roads = new RouteDataObject[k];
+			points = new int[k];
+			dists = new double[k];
+		}
+
+		/**
+		 * @return squared distance which segment should not exceed to be added
+		 */
+		public double getBound() {
+			return size == k ? dists[size - 1] : maxSquareDist;
+		}
+
+		public void offer(RouteDataObject ro, int segmentEnd, double squareDist) {
+			if (squareDist > getBound()) {
+				return;
+			}
+			int i = 0;
+			while (i < size && roads[i].id != ro.id) {
+				i++;
+			}
+			if (i < size) {
+				if (dists[i] <= squareDist) {
+					return;
+				}
+			} else if (size < k) {
+				i = size++;
+			} else {
+				i = size - 1;
+			}
+			// move entry to its place (list is sorted by distance)
+			while (i > 0 && dists[i - 1] > squareDist) {
+				roads[i] = roads[i - 1];
+				points[i] = points[i - 1];
+				dists[i] = dists[i - 1];
+				i--;
+			}
+			roads[i] = ro;
+			points[i] = segmentEnd;
+			dists[i] = squareDist;
+		}
+
+		/**
+		 * Checks all segments of road (used for data without index)
+		 */
+		public void offerRoad(RouteDataObject ro, int x31, int y31) {
+			for (int j = 1; j < ro.getPointsLength(); j++) {
+				offer(ro, j, squareDistToSegment(x31, y31, ro.getPoint31XTile(j - 1), ro.getPoint31YTile(j - 1),
+						ro.getPoint31XTile(j), ro.getPoint31YTile(j)));
+			}
+		}
+
+		public int size() {
+			return size;
+		}
+
+		public RouteDataObject getRoad(int i) {
+			return roads[i];
+		}
+
+		/**
+		 * @return index of segment end point
+		 */
+		public int getSegmentEnd(int i) {
+			return points[i];
+		}
+
+		public double getSquareDist(int i) {
+			return dists[i];
+		}
+	}
+}
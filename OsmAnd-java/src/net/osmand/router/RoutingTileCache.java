@@ -0,0 +1,256 @@
+package net.osmand.router;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.osmand.PlatformUtil;
+import net.osmand.binary.BinaryMapIndexReader;
+import net.osmand.binary.BinaryMapIndexReader.SearchRequest;
+import net.osmand.binary.BinaryMapRouteReaderAdapter.RouteRegion;
+import net.osmand.binary.BinaryMapRouteReaderAdapter.RouteSubregion;
+import net.osmand.binary.RouteDataObject;
+import net.osmand.router.RoutePlannerFrontEnd.RouteCalculationMode;
+import net.osmand.router.RoutingContext.RoutingSubregionTile;
+
+import org.apache.commons.logging.Log;
+
+/**
+ * Thread-safe cache of routing tiles shared by many {@link RoutingContext} (one per query/thread).
+ * Tiles are loaded once and contain all road objects (not filtered by router), after loading they are
+ * not modified so they could be read without locks. Readers are accessed under lock of reader itself.
+ *
+ * Note: router (config) should not be shared between threads routing in parallel.
+ */
+public class RoutingTileCache {
+
+	private final static Log log = PlatformUtil.getLog(RoutingTileCache.class);
+
+	private final int memoryLimitation;
+	private final Map<BinaryMapIndexReader, List<RouteSubregion>> map = new LinkedHashMap<BinaryMapIndexReader, List<RouteSubregion>>();
+	private final Map<BinaryMapIndexReader, List<RouteSubregion>> baseMap = new LinkedHashMap<BinaryMapIndexReader, List<RouteSubregion>>();
+	private final Map<RouteRegion, BinaryMapIndexReader> reverseMap = new LinkedHashMap<RouteRegion, BinaryMapIndexReader>();
+
+	// (tile id, zoom, base) -> tile headers
+	private final ConcurrentHashMap<Long, List<RoutingSubregionTile>> indexedSubregions =
+			new ConcurrentHashMap<Long, List<RoutingSubregionTile>>();
+	private final ConcurrentHashMap<SubregionKey, RoutingSubregionTile> subregionTiles =
+			new ConcurrentHashMap<SubregionKey, RoutingSubregionTile>();
+
+	private final AtomicInteger size = new AtomicInteger();
+	private final AtomicInteger loadedTiles = new AtomicInteger();
+	private int unloadedTiles;
+
+	public RoutingTileCache(BinaryMapIndexReader[] readers, int memoryLimitMB) {
+		this.memoryLimitation = memoryLimitMB * (1 << 20);
+		for (BinaryMapIndexReader mr : readers) {
+			List<RouteSubregion> subregions = new ArrayList<RouteSubregion>();
+			List<RouteSubregion> baseSubregions = new ArrayList<RouteSubregion>();
+			for (RouteRegion r : mr.getRoutingIndexes()) {
+				for (RouteSubregion rs : r.getSubregions()) {
+					subregions.add(new RouteSubregion(rs));
+				}
+				for (RouteSubregion rs : r.getBaseSubregions()) {
+					baseSubregions.add(new RouteSubregion(rs));
+				}
+				reverseMap.put(r, mr);
+			}
+			map.put(mr, subregions);
+			baseMap.put(mr, baseSubregions);
+		}
+	}
+
+	public BinaryMapIndexReader[] getMaps() {
+		return map.keySet().toArray(new BinaryMapIndexReader[map.size()]);
+	}
+
+	public Map<RouteRegion, BinaryMapIndexReader> getReverseMap() {
+		return reverseMap;
+	}
+
+	public int getCurrentEstimatedSize() {
+		return size.get();
+	}
+
+	public int getLoadedTiles() {
+		return loadedTiles.get();
+	}
+
+	public synchronized int getUnloadedTiles() {
+		return unloadedTiles;
+	}
+
+	public int getCurrentlyLoadedTiles() {
+		int cnt = 0;
+		for (RoutingSubregionTile t : subregionTiles.values()) {
+			if (t.isLoaded()) {
+				cnt++;
+			}
+		}
+		return cnt;
+	}
+
+	List<RoutingSubregionTile> loadTileHeaders(RoutingContext ctx, int zoomToLoadM31, int tileX, int tileY) {
+		boolean base = ctx.calculationMode == RouteCalculationMode.BASE;
+		long key = ((((long) tileX << (31 - zoomToLoadM31)) + tileY) << 6) + (zoomToLoadM31 << 1) + (base ? 1 : 0);
+		// single lookup (headers could be cleared concurrently by unloadAllData)
+		List<RoutingSubregionTile> l = indexedSubregions.get(key);
+		if (l != null) {
+			return l.isEmpty() ? null : l;
+		}
+		SearchRequest<RouteDataObject> request = BinaryMapIndexReader.buildSearchRouteRequest(tileX << zoomToLoadM31,
+				(tileX + 1) << zoomToLoadM31, tileY << zoomToLoadM31, (tileY + 1) << zoomToLoadM31, null);
+		List<RoutingSubregionTile> collection = new ArrayList<RoutingSubregionTile>(4);
+		for (Entry<BinaryMapIndexReader, List<RouteSubregion>> r : (base ? baseMap : map).entrySet()) {
+			if (r.getValue().size() == 0) {
+				continue;
+			}
+			BinaryMapIndexReader reader = r.getKey();
+			List<RouteSubregion> subregs;
+			try {
+				synchronized (reader) {
+					// subregion tree is loaded lazily
+					subregs = RoutingContext.searchRouteIndexTree(reader, request, r.getValue(), base);
+				}
+			} catch (IOException e) {
+				throw new RuntimeException("Loading data exception", e);
+			}
+			if (subregs.size() > 0) {
+				ctx.checkOldRoutingFiles(reader);
+			}
+			for (RouteSubregion sr : subregs) {
+				SubregionKey sk = new SubregionKey(sr);
+				RoutingSubregionTile tile = subregionTiles.get(sk);
+				if (tile == null) {
+					tile = new RoutingSubregionTile(new RouteSubregion(sr));
+					RoutingSubregionTile prev = subregionTiles.putIfAbsent(sk, tile);
+					if (prev != null) {
+						tile = prev;
+					}
+				}
+				collection.add(tile);
+			}
+		}
+		indexedSubregions.putIfAbsent(key, collection);
+		return collection.isEmpty() ? null : collection;
+	}
+
+	/**
+	 * Loads tile (if it is not loaded or was unloaded) and returns its routes (not modified after loading).
+	 * Lock order is cache -> tile -> reader.
+	 */
+	RoutingTileRoutes loadSubregionTile(RoutingSubregionTile ts) {
+		RoutingTileRoutes routes;
+		synchronized (ts) {
+			ts.access++;
+			if (ts.isLoaded()) {
+				return ts.getRoutes();
+			}
+			BinaryMapIndexReader reader = reverseMap.get(ts.subregion.routeReg);
+			List<RouteDataObject> res;
+			try {
+				if (reader.isMemoryMapped()) {
+					res = reader.getThreadCursor().loadRouteIndexData(ts.subregion);
+				} else {
+					synchronized (reader) {
+						res = reader.loadRouteIndexData(ts.subregion);
+					}
+				}
+			} catch (IOException e) {
+				throw new RuntimeException("Loading data exception", e);
+			}
+			ts.setLoadedNonNative();
+			for (RouteDataObject ro : res) {
+				if (ro != null) {
+					ts.add(ro);
+				}
+			}
+			ts.compact();
+			routes = ts.getRoutes();
+			loadedTiles.incrementAndGet();
+			size.addAndGet(ts.tileStatistics.size);
+		}
+		if (size.get() > 0.9 * memoryLimitation) {
+			unloadUnusedTiles();
+		}
+		return routes;
+	}
+
+	public synchronized void unloadUnusedTiles() {
+		float desirableSize = memoryLimitation * 0.7f;
+		List<RoutingSubregionTile> list = new ArrayList<RoutingSubregionTile>();
+		for (RoutingSubregionTile t : subregionTiles.values()) {
+			if (t.isLoaded()) {
+				list.add(t);
+			}
+		}
+		final int loaded = list.size();
+		// access is changed concurrently so sort by its snapshot
+		long[] order = new long[loaded];
+		for (int k = 0; k < loaded; k++) {
+			order[k] = (((long) Math.max(list.get(k).access, 0)) << 32) + k;
+		}
+		Arrays.sort(order);
+		int i = 0;
+		while (size.get() >= desirableSize && (loaded - i) > loaded / 5 && i < loaded) {
+			RoutingSubregionTile unload = list.get((int) order[i++]);
+			synchronized (unload) {
+				if (unload.isLoaded()) {
+					size.addAndGet(-unload.tileStatistics.size);
+					unload.unload();
+					unloadedTiles++;
+				}
+			}
+		}
+		for (RoutingSubregionTile t : subregionTiles.values()) {
+			// access is incremented under tile lock by loadSubregionTile
+			synchronized (t) {
+				t.access /= 3;
+			}
+		}
+		log.info("Unload shared routing tiles : " + i + " of " + loaded + ", size " + size.get() / (float) (1 << 20) + " MB");
+	}
+
+	public synchronized void unloadAllData() {
+		for (RoutingSubregionTile t : subregionTiles.values()) {
+			synchronized (t) {
+				if (t.isLoaded()) {
+					t.unload();
+				}
+			}
+		}
+		subregionTiles.clear();
+		indexedSubregions.clear();
+		size.set(0);
+	}
+
+	private static class SubregionKey {
+		private final RouteRegion region;
+		private final int filePointer;
+
+		SubregionKey(RouteSubregion sr) {
+			this.region = sr.routeReg;
+			this.filePointer = sr.filePointer;
+		}
+
+		@Override
+		public int hashCode() {
+			return region.hashCode() * 31 + filePointer;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof SubregionKey)) {
+				return false;
+			}
+			SubregionKey o = (SubregionKey) obj;
+			return o.region == region && o.filePointer == filePointer;
+		}
+	}
+}
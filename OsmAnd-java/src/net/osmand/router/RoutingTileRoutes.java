@@ -0,0 +1,169 @@
+package net.osmand.router;
+
+import gnu.trove.map.hash.TLongObjectHashMap;
+
+import java.util.Arrays;
+
+import net.osmand.binary.RouteDataObject;
+import net.osmand.router.BinaryRoutePlanner.RouteSegment;
+
+/**
+ * Columnar storage of road points of loaded routing tile. Instead of RouteSegment object and hash map entry
+ * per road point it keeps sorted point keys ((x31 << 31) + y31) with parallel arrays of road index and point index.
+ * Roads are stored once. After {@link #compact()} storage is not modified and could be read concurrently.
+ */
+class RoutingTileRoutes {
+
+	// key + road index + point index
+	static final int BYTES_PER_POINT = 8 + 4 + 2;
+
+	private RouteDataObject[] roads = new RouteDataObject[16];
+	private int roadsSize;
+	private long[] keys = new long[64];
+	private int[] roadIndexes = new int[64];
+	private short[] pointIndexes = new short[64];
+	private int size;
+	// built on first nearest segments search
+	private volatile RoutingSegmentIndex segmentIndex;
+
+	public void add(RouteDataObject ro) {
+		if (roadsSize == roads.length) {
+			roads = Arrays.copyOf(roads, roadsSize * 2);
+		}
+		int roadInd = roadsSize++;
+		roads[roadInd] = ro;
+		int len = ro.getPointsLength();
+		if (size + len > keys.length) {
+			int nl = Math.max(keys.length * 2, size + len);
+			keys = Arrays.copyOf(keys, nl);
+			roadIndexes = Arrays.copyOf(roadIndexes, nl);
+			pointIndexes = Arrays.copyOf(pointIndexes, nl);
+		}
+		for (int i = 0; i < len; i++) {
+			keys[size] = (((long) ro.getPoint31XTile(i)) << 31) + (long) ro.getPoint31YTile(i);
+			roadIndexes[size] = roadInd;
+			pointIndexes[size] = (short) i;
+			size++;
+		}
+	}
+
+	/**
+	 * Sorts points by key (points with the same key keep order of adding) and trims arrays
+	 */
+	public void compact() {
+		sort(0, size - 1);
+		roads = Arrays.copyOf(roads, roadsSize);
+		keys = Arrays.copyOf(keys, size);
+		roadIndexes = Arrays.copyOf(roadIndexes, size);
+		pointIndexes = Arrays.copyOf(pointIndexes, size);
+	}
+
+	public int getRoadsSize() {
+		return roadsSize;
+	}
+
+	public RouteDataObject getRoad(int i) {
+		return roads[i];
+	}
+
+	/**
+	 * @return spatial index of road segments (should be called after {@link #compact()})
+	 */
+	public RoutingSegmentIndex getSegmentIndex() {
+		RoutingSegmentIndex idx = segmentIndex;
+		if (idx == null) {
+			// concurrent builds are harmless (index is immutable)
+			idx = new RoutingSegmentIndex(roads, roadsSize);
+			segmentIndex = idx;
+		}
+		return idx;
+	}
+
+	/**
+	 * Creates new segments (in reverse order of adding) for all roads passing through point and adds them before original
+	 */
+	public RouteSegment loadRouteSegment(int x31, int y31, RoutingContext ctx,
+			TLongObjectHashMap<RouteDataObject> excludeDuplications, RouteSegment original, boolean checkAccept) {
+		long key = (((long) x31) << 31) + (long) y31;
+		for (int i = firstIndex(key); i < size && keys[i] == key; i++) {
+			RouteDataObject ro = roads[roadIndexes[i]];
+			int segmentStart = pointIndexes[i];
+			long routeId = RoutingContext.calcRouteId(ro, segmentStart);
+			RouteDataObject toCmp = excludeDuplications.get(routeId);
+			if ((toCmp == null || toCmp.getPointsLength() < ro.getPointsLength())
+					&& (!checkAccept || ctx.getRouter().acceptLine(ro))) {
+				excludeDuplications.put(routeId, ro);
+				RouteSegment s = new RouteSegment(ro, segmentStart);
+				s.next = original;
+				original = s;
+			}
+		}
+		return original;
+	}
+
+	private int firstIndex(long key) {
+		int lo = 0;
+		int hi = size;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (keys[mid] < key) {
+				lo = mid + 1;
+			} else {
+				hi = mid;
+			}
+		}
+		return lo;
+	}
+
+	// points of the same road are added sequentially, so (key, road index, point index) is unique order
+	private int compare(int i, int j) {
+		if (keys[i] != keys[j]) {
+			return keys[i] < keys[j] ? -1 : 1;
+		}
+		if (roadIndexes[i] != roadIndexes[j]) {
+			return roadIndexes[i] < roadIndexes[j] ? -1 : 1;
+		}
+		return pointIndexes[i] - pointIndexes[j];
+	}
+
+	private void swap(int i, int j) {
+		long k = keys[i];
+		keys[i] = keys[j];
+		keys[j] = k;
+		int r = roadIndexes[i];
+		roadIndexes[i] = roadIndexes[j];
+		roadIndexes[j] = r;
+		short p = pointIndexes[i];
+		pointIndexes[i] = pointIndexes[j];
+		pointIndexes[j] = p;
+	}
+
+	private void sort(int lo, int hi) {
+		while (lo < hi) {
+			if (hi - lo < 16) {
+				for (int i = lo + 1; i <= hi; i++) {
+					for (int j = i; j > lo && compare(j - 1, j) > 0; j--) {
+						swap(j - 1, j);
+					}
+				}
+				return;
+			}
+			swap((lo + hi) >>> 1, hi);
+			int store = lo;
+			for (int i = lo; i < hi; i++) {
+				if (compare(i, hi) < 0) {
+					swap(i, store++);
+				}
+			}
+			swap(store, hi);
+			// recurse into smaller part
+			if (store - lo < hi - store) {
+				sort(lo, store - 1);
+				lo = store + 1;
+			} else {
+				sort(store + 1, hi);
+				hi = store - 1;
+			}
+		}
+	}
+}
@@ -285,7 +285,7 @@ public class TestRouting {
 		calculateRoute(startLat, startLon, endLat, endLon, rs);
 	}
 	
-	private static BinaryMapIndexReader[] collectFiles(String folderWithObf) throws FileNotFoundException, IOException {
+	static BinaryMapIndexReader[] collectFiles(String folderWithObf) throws FileNotFoundException, IOException {
 		List<File> files = new ArrayList<File>();
 		for (File f : new File(folderWithObf).listFiles()) {
 			if (f.getName().endsWith(".obf")) {
@@ -241,6 +241,8 @@ public class AppInitializer implements IProgress {
 				}
 			}
 			app.regions.prepareFile(file.getAbsolutePath());
+			// countries are looked up for every map position (polygon grids)
+			app.regions.cacheAllCountries();
 		} catch (IOException e) {
 			LOG.error(e.getMessage(), e);
 		}
@@ -34,6 +34,7 @@ import net.osmand.binary.BinaryMapIndexReader.TagValuePair;
 import net.osmand.binary.BinaryMapRouteReaderAdapter.RouteRegion;
 import net.osmand.binary.BinaryMapRouteReaderAdapter.RouteSubregion;
 import net.osmand.binary.BinaryMapRouteReaderAdapter.RouteTypeRule;
+import net.osmand.binary.MapDataBlockCache;
 import net.osmand.binary.RouteDataObject;
 import net.osmand.data.QuadPointDouble;
 import net.osmand.data.QuadRect;
@@ -76,6 +77,8 @@ public class MapRenderRepositories {
 	private Handler handler;
 	private Map<String, BinaryMapIndexReader> files = new ConcurrentHashMap<String, BinaryMapIndexReader>();
 	private Set<String> nativeFiles = new HashSet<String>();
+	// decoded map blocks of all files (java rendering)
+	private final MapDataBlockCache blockCache = new MapDataBlockCache(8 << 20);
 	private OsmandRenderer renderer;
 	
 
@@ -130,6 +133,7 @@ public class MapRenderRepositories {
 			closeConnection(files.get(file.getAbsolutePath()), file.getAbsolutePath());
 		
 		}
+		reader.setMapDataBlockCache(blockCache);
 		files.put(file.getAbsolutePath(), reader);
 	}
 
@@ -808,6 +812,7 @@ public class MapRenderRepositories {
 	}
 
 	public synchronized void clearCache() {
+		blockCache.clear();
 		cObjects = new ArrayList<BinaryMapDataObject>();
 		cObjectsBox = new QuadRect();
 
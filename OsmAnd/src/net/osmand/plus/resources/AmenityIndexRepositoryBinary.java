@@ -10,6 +10,7 @@ import net.osmand.Location;
 import net.osmand.PlatformUtil;
 import net.osmand.ResultMatcher;
 import net.osmand.binary.BinaryMapIndexReader;
+import net.osmand.binary.BinaryMapReaderPool;
 import net.osmand.binary.BinaryMapIndexReader.MapIndex;
 import net.osmand.binary.BinaryMapIndexReader.SearchPoiTypeFilter;
 import net.osmand.binary.BinaryMapIndexReader.SearchRequest;
@@ -23,47 +24,56 @@ import org.apache.commons.logging.Log;
 public class AmenityIndexRepositoryBinary implements AmenityIndexRepository {
 
 	private final static Log log = PlatformUtil.getLog(AmenityIndexRepositoryBinary.class);
-	private final BinaryMapIndexReader index;
+	// readers are lent for every search, so searches of different threads are not serialized
+	private final BinaryMapReaderPool readers;
 
-	public AmenityIndexRepositoryBinary(BinaryMapIndexReader index) {
-		this.index = index;
+	public AmenityIndexRepositoryBinary(BinaryMapReaderPool readers) {
+		this.readers = readers;
 	}
 
 	@Override
 	public void close() {
-		try {
-			index.close();
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
+		// readers are closed with pool
 	}
 
 	@Override
 	public boolean checkContains(double latitude, double longitude) {
-		return index.containsPoiData(latitude, longitude);
+		return readers.getMetadata().containsPoiData(latitude, longitude);
 	}
 
 	@Override
 	public boolean checkContains(double topLatitude, double leftLongitude, double bottomLatitude, double rightLongitude) {
-		return index.containsPoiData(topLatitude, leftLongitude, bottomLatitude, rightLongitude);
+		return readers.getMetadata().containsPoiData(topLatitude, leftLongitude, bottomLatitude, rightLongitude);
 	}
 	
 	
-	public synchronized Map<PoiCategory, List<String>> searchAmenityCategoriesByName(String query, Map<PoiCategory, List<String>> map) {
+	public Map<PoiCategory, List<String>> searchAmenityCategoriesByName(String query, Map<PoiCategory, List<String>> map) {
+		BinaryMapIndexReader index = null;
 		try {
+			index = readers.acquire();
 			return index.searchPoiCategoriesByName(query, map);
 		} catch (IOException e) {
 			log.error("Error searching amenities", e); //$NON-NLS-1$
+		} finally {
+			release(index);
 		}
 		return map;
 	}
 	
+	private void release(BinaryMapIndexReader index) {
+		if (index != null) {
+			readers.release(index);
+		}
+	}
+	
 	
-	public synchronized List<Amenity> searchAmenitiesByName(int x, int y, int l, int t, int r, int b, String query, ResultMatcher<Amenity> resulMatcher) {
+	public List<Amenity> searchAmenitiesByName(int x, int y, int l, int t, int r, int b, String query, ResultMatcher<Amenity> resulMatcher) {
 		long now = System.currentTimeMillis();
 		List<Amenity> amenities = Collections.emptyList();
 		SearchRequest<Amenity> req = BinaryMapIndexReader.buildSearchPoiRequest(x, y, query, l, r, t, b,resulMatcher);
+		BinaryMapIndexReader index = null;
 		try {
+			index = readers.acquire();
 			amenities = index.searchPoiByName(req);
 			if (log.isDebugEnabled()) {
 				String nm = "";
@@ -76,13 +86,15 @@ public class AmenityIndexRepositoryBinary implements AmenityIndexRepository {
 			}
 		} catch (IOException e) {
 			log.error("Error searching amenities", e); //$NON-NLS-1$
+		} finally {
+			release(index);
 		}
 		
 		return amenities;
 	}
 	
 	@Override
-	public synchronized List<Amenity> searchAmenities(int stop, int sleft, int sbottom, int sright, int zoom, 
+	public List<Amenity> searchAmenities(int stop, int sleft, int sbottom, int sright, int zoom, 
 			final PoiLegacyFilter filter, final List<Amenity> amenities, ResultMatcher<Amenity> matcher) {
 		long now = System.currentTimeMillis();
 		SearchPoiTypeFilter poiTypeFilter = new SearchPoiTypeFilter(){
@@ -93,12 +105,16 @@ public class AmenityIndexRepositoryBinary implements AmenityIndexRepository {
 		};
 		SearchRequest<Amenity> req = BinaryMapIndexReader.buildSearchPoiRequest(sleft, sright, stop, sbottom, zoom,
 				poiTypeFilter, filter == null ? matcher : filter.getResultMatcher(matcher));
+		BinaryMapIndexReader index = null;
 		try {
+			index = readers.acquire();
 			List<Amenity> result = index.searchPoi(req);
 			amenities.addAll(result);
 		} catch (IOException e) {
 			log.error("Error searching amenities", e); //$NON-NLS-1$
 			return amenities;
+		} finally {
+			release(index);
 		}
 		if (log.isDebugEnabled()) {
 			log.debug(String.format("Search for %s done in %s ms found %s.",  //$NON-NLS-1$
@@ -108,7 +124,7 @@ public class AmenityIndexRepositoryBinary implements AmenityIndexRepository {
 	}
 
 	@Override
-	public synchronized List<Amenity> searchAmenitiesOnThePath(List<Location> locations, double radius, final PoiLegacyFilter filter, ResultMatcher<Amenity> matcher) {
+	public List<Amenity> searchAmenitiesOnThePath(List<Location> locations, double radius, final PoiLegacyFilter filter, ResultMatcher<Amenity> matcher) {
 		long now = System.currentTimeMillis();
 		SearchPoiTypeFilter poiTypeFilter = new SearchPoiTypeFilter(){
 			@Override
@@ -119,11 +135,15 @@ public class AmenityIndexRepositoryBinary implements AmenityIndexRepository {
 		List<Amenity> result = null;
 		SearchRequest<Amenity> req = BinaryMapIndexReader.buildSearchPoiRequest(locations, radius,
 				poiTypeFilter, filter == null ? matcher : filter.getResultMatcher(matcher));
+		BinaryMapIndexReader index = null;
 		try {
+			index = readers.acquire();
 			result = index.searchPoi(req);
 		} catch (IOException e) {
 			log.error("Error searching amenities", e); //$NON-NLS-1$
 			return result;
+		} finally {
+			release(index);
 		}
 		if (log.isDebugEnabled() && result != null) {
 			log.debug(String.format("Search done in %s ms found %s.",  (System.currentTimeMillis() - now), result.size())); //$NON-NLS-1$
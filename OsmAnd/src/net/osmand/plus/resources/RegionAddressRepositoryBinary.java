@@ -17,6 +17,7 @@ import net.osmand.PlatformUtil;
 import net.osmand.ResultMatcher;
 import net.osmand.binary.BinaryMapAddressReaderAdapter;
 import net.osmand.binary.BinaryMapIndexReader;
+import net.osmand.binary.BinaryMapReaderPool;
 import net.osmand.binary.BinaryMapIndexReader.SearchRequest;
 import net.osmand.data.Building;
 import net.osmand.data.City;
@@ -32,7 +33,8 @@ import org.apache.commons.logging.Log;
 
 public class RegionAddressRepositoryBinary implements RegionAddressRepository {
 	private static final Log log = PlatformUtil.getLog(RegionAddressRepositoryBinary.class);
-	private BinaryMapIndexReader file;
+	// own reader is lent for every search, caches below are guarded by repository lock
+	private final BinaryMapReaderPool readers;
 	private String region;
 	
 	
@@ -44,8 +46,8 @@ public class RegionAddressRepositoryBinary implements RegionAddressRepository {
 	private boolean useEnglishNames = false;
 	private final Collator collator;
 	
-	public RegionAddressRepositoryBinary(BinaryMapIndexReader file, String name) {
-		this.file = file;
+	public RegionAddressRepositoryBinary(BinaryMapReaderPool readers, String name) {
+		this.readers = readers;
 		this.region = name;
  	    this.collator = OsmAndCollator.primaryCollator();
 		this.postCodes = new TreeMap<String, City>(OsmAndCollator.primaryCollator());
@@ -53,14 +55,22 @@ public class RegionAddressRepositoryBinary implements RegionAddressRepository {
 	
 	@Override
 	public void close(){
-		this.file = null;
+		// readers are closed with pool
+	}
+	
+	private void release(BinaryMapIndexReader file) {
+		if (file != null) {
+			readers.release(file);
+		}
 	}
 
 	
 	@Override
 	public synchronized void preloadCities(ResultMatcher<City> resultMatcher) {
 		if (cities.isEmpty()) {
+			BinaryMapIndexReader file = null;
 			try {
+				file = readers.acquire();
 				List<City> cs = file.getCities(region, BinaryMapIndexReader.buildAddressRequest(resultMatcher), 
 						BinaryMapAddressReaderAdapter.CITY_TOWN_TYPE);
 				for (City c : cs) {
@@ -75,6 +85,8 @@ public class RegionAddressRepositoryBinary implements RegionAddressRepository {
 				}
 			} catch (IOException e) {
 				log.error("Disk operation failed", e); //$NON-NLS-1$
+			} finally {
+				release(file);
 			}
 		}
 	}
@@ -108,11 +120,15 @@ public class RegionAddressRepositoryBinary implements RegionAddressRepository {
 	@Override
 	public synchronized void preloadBuildings(Street street, ResultMatcher<Building> resultMatcher) {
 		if(street.getBuildings().isEmpty() && street.getIntersectedStreets().isEmpty()){
+			BinaryMapIndexReader file = null;
 			try {
+				file = readers.acquire();
 				file.preloadBuildings(street, BinaryMapIndexReader.buildAddressRequest(resultMatcher));
 				street.sortBuildings();
 			} catch (IOException e) {
 				log.error("Disk operation failed" , e); //$NON-NLS-1$
+			} finally {
+				release(file);
 			}
 		}		
 	}
@@ -136,10 +152,14 @@ public class RegionAddressRepositoryBinary implements RegionAddressRepository {
 		if(!streets.isEmpty()){
 			return;
 		}
+		BinaryMapIndexReader file = null;
 		try {
+			file = readers.acquire();
 			file.preloadStreets(o, BinaryMapIndexReader.buildAddressRequest(resultMatcher));
 		} catch (IOException e) {
 			log.error("Disk operation failed" , e); //$NON-NLS-1$
+		} finally {
+			release(file);
 		}
 	}
 
@@ -150,10 +170,14 @@ public class RegionAddressRepositoryBinary implements RegionAddressRepository {
 	@Override
 	public List<MapObject> searchMapObjectsByName(String name, ResultMatcher<MapObject> resultMatcher) {
 		SearchRequest<MapObject> req = BinaryMapIndexReader.buildAddressByNameRequest(resultMatcher, name);
+		BinaryMapIndexReader file = null;
 		try {
+			file = readers.acquire();
 			file.searchAddressDataByName(req);
 		} catch (IOException e) {
 			log.error("Disk operation failed", e); //$NON-NLS-1$
+		} finally {
+			release(file);
 		}
 		return req.getSearchResults();
 	}
@@ -173,7 +197,9 @@ public class RegionAddressRepositoryBinary implements RegionAddressRepository {
 			citiesToFill.addAll(cities.values());
 			return citiesToFill;
 		}
+		BinaryMapIndexReader file = null;
 		try {
+			file = readers.acquire();
 			// essentially index is created that cities towns are first in cities map
 			if (/*name.length() >= 2 && Algorithms.containsDigit(name) && */searchVillages) {
 				// also try to identify postcodes
@@ -234,6 +260,8 @@ public class RegionAddressRepositoryBinary implements RegionAddressRepository {
 			log.debug("Loaded citites " + (citiesToFill.size() - initialsize)); //$NON-NLS-1$
 		} catch (IOException e) {
 			log.error("Disk operation failed", e); //$NON-NLS-1$
+		} finally {
+			release(file);
 		}
 		return citiesToFill;
 	}
@@ -284,7 +312,9 @@ public class RegionAddressRepositoryBinary implements RegionAddressRepository {
 		final String cmpName = name;
 		preloadCities(null);
 		if (!cities.containsKey(id)) {
+			BinaryMapIndexReader file = null;
 			try {
+				file = readers.acquire();
 				file.getCities(region, BinaryMapIndexReader.buildAddressRequest(new ResultMatcher<City>() {
 					boolean canceled = false;
 
@@ -309,6 +339,8 @@ public class RegionAddressRepositoryBinary implements RegionAddressRepository {
 				}), id < -1 ? BinaryMapAddressReaderAdapter.POSTCODES_TYPE : BinaryMapAddressReaderAdapter.VILLAGES_TYPE);
 			} catch (IOException e) {
 				log.error("Disk operation failed", e); //$NON-NLS-1$
+			} finally {
+				release(file);
 			}
 		}
 		return cities.get(id);
@@ -346,7 +378,7 @@ public class RegionAddressRepositoryBinary implements RegionAddressRepository {
 
 	@Override
 	public LatLon getEstimatedRegionCenter() {
-		return file.getRegionCenter(region);
+		return readers.getMetadata().getRegionCenter(region);
 	}
 
 	
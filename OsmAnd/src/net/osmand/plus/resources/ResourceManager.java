@@ -5,7 +5,6 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.RandomAccessFile;
 import java.text.Collator;
 import java.text.MessageFormat;
 import java.util.ArrayList;
@@ -15,17 +14,30 @@ import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import net.osmand.AndroidUtils;
 import net.osmand.GeoidAltitudeCorrection;
 import net.osmand.IProgress;
 import net.osmand.IndexConstants;
 import net.osmand.Location;
+import net.osmand.MergedResultMatcher;
 import net.osmand.PlatformUtil;
 import net.osmand.ResultMatcher;
 import net.osmand.binary.BinaryMapIndexReader;
+import net.osmand.binary.BinaryMapReaderPool;
 import net.osmand.binary.CachedOsmandIndexes;
+import net.osmand.binary.RouteSubregionIndex;
 import net.osmand.data.Amenity;
 import net.osmand.data.LatLon;
 import net.osmand.data.RotatedTileBox;
@@ -84,6 +96,9 @@ public class ResourceManager {
 
 	public static final String VECTOR_MAP = "#vector_map"; //$NON-NLS-1$
 	private static final String INDEXES_CACHE = "ind.cache";
+	private static final String INDEXES_CACHE_TABLE = "ind_cache.tbl";
+	private static final String ROUTE_SUBREGION_INDEX_DIR = "route_index/";
+	private static final String ROUTE_SUBREGION_INDEX_EXT = ".rsi";
 	
 	
 	private static final Log log = PlatformUtil.getLog(ResourceManager.class);
@@ -127,6 +142,8 @@ public class ResourceManager {
 	
 	protected final Map<String, BinaryMapIndexReader> routingMapFiles = new ConcurrentHashMap<String, BinaryMapIndexReader>();
 	
+	protected final List<BinaryMapReaderPool> readerPools = new ArrayList<BinaryMapReaderPool>();
+	
 	protected final MapRenderRepositories renderer;
 
 	protected final MapTileDownloader tileDownloader;
@@ -134,9 +151,27 @@ public class ResourceManager {
 	public final AsyncLoadingThread asyncLoadingThread = new AsyncLoadingThread(this);
 	private HandlerThread renderingBufferImageThread;
 	
+	// bounded pool to search POI in many files in parallel, threads are stopped when idle
+	private final ThreadPoolExecutor poiSearchExecutor = createPoiSearchExecutor();
+	
 	protected boolean internetIsNotAccessible = false;
 	private java.text.DateFormat dateFormat;
 	
+	private static ThreadPoolExecutor createPoiSearchExecutor() {
+		int threads = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+					@Override
+					public Thread newThread(Runnable r) {
+						Thread t = new Thread(r, "Search POI");
+						t.setDaemon(true);
+						return t;
+					}
+				});
+		executor.allowCoreThreadTimeOut(true);
+		return executor;
+	}
+	
 	public ResourceManager(OsmandApplication context) {
 		
 		this.context = context;
@@ -599,7 +634,12 @@ public class ResourceManager {
 		renderer.clearAllResources();
 		CachedOsmandIndexes cachedOsmandIndexes = new CachedOsmandIndexes();
 		File indCache = context.getAppPath(INDEXES_CACHE);
-		if (indCache.exists()) {
+		try {
+			cachedOsmandIndexes.openTable(context.getAppPath(INDEXES_CACHE_TABLE));
+		} catch (Exception e) {
+			log.error(e.getMessage(), e);
+		}
+		if (indCache.exists() && cachedOsmandIndexes.isTableEmpty()) {
 			try {
 				cachedOsmandIndexes.readFromFile(indCache, CachedOsmandIndexes.VERSION);
 				
@@ -607,12 +647,15 @@ public class ResourceManager {
 				log.error(e.getMessage(), e);
 			}
 		}
-		for (File f : files) {
+		// read file headers in parallel (or take them from cache), resources are registered in files order
+		List<Future<BinaryMapIndexReader>> readers = openIndexReaders(cachedOsmandIndexes, files);
+		for (int i = 0; i < files.size(); i++) {
+			File f = files.get(i);
 			progress.startTask(context.getString(R.string.indexing_map) + " " + f.getName(), -1); //$NON-NLS-1$
 			try {
 				BinaryMapIndexReader index = null;
 				try {
-					index = cachedOsmandIndexes.getReader(f);
+					index = getIndexReader(readers.get(i));
 					if (index.getVersion() != IndexConstants.BINARY_MAP_VERSION) {
 						index = null;
 					}
@@ -633,34 +676,28 @@ public class ResourceManager {
 						dateCreated = f.lastModified();
 					}
 					indexFileNames.put(f.getName(), dateFormat.format(dateCreated)); //$NON-NLS-1$
-					for (String rName : index.getRegionNames()) {
-						// skip duplicate names (don't make collision between getName() and name in the map)
-						// it can be dangerous to use one file to different indexes if it is multithreaded
-						RegionAddressRepositoryBinary rarb = new RegionAddressRepositoryBinary(index, rName);
-						addressMap.put(rName, rarb);
-					}
-					if (index.hasTransportData()) {
-						try {
-							RandomAccessFile raf = new RandomAccessFile(f, "r"); //$NON-NLS-1$
-							transportRepositories.add(new TransportIndexRepositoryBinary(new BinaryMapIndexReader(raf, index)));
-						} catch (IOException e) {
-							log.error("Exception reading " + f.getAbsolutePath(), e); //$NON-NLS-1$
-							warnings.add(MessageFormat.format(context.getString(R.string.version_index_is_not_supported), f.getName())); //$NON-NLS-1$
-						}
-					}
-					if (index.containsRouteData()) {
-						try {
-							RandomAccessFile raf = new RandomAccessFile(f, "r"); //$NON-NLS-1$
-							routingMapFiles.put(f.getAbsolutePath(), new BinaryMapIndexReader(raf, index));
-						} catch (IOException e) {
-							log.error("Exception reading " + f.getAbsolutePath(), e); //$NON-NLS-1$
-							warnings.add(MessageFormat.format(context.getString(R.string.version_index_is_not_supported), f.getName())); //$NON-NLS-1$
-						}
-					}
-					if (index.containsPoiData()) {
+					boolean hasSearchData = !index.getRegionNames().isEmpty() || index.hasTransportData()
+							|| index.containsRouteData() || index.containsPoiData();
+					if (hasSearchData) {
 						try {
-							RandomAccessFile raf = new RandomAccessFile(f, "r"); //$NON-NLS-1$
-							amenityRepositories.add(new AmenityIndexRepositoryBinary(new BinaryMapIndexReader(raf, index)));
+							// readers of address, transport, poi and routing share parsed index of the file
+							BinaryMapReaderPool pool = new BinaryMapReaderPool(f, index, BinaryMapReaderPool.DEFAULT_MAX_READERS);
+							readerPools.add(pool);
+							for (String rName : index.getRegionNames()) {
+								// skip duplicate names (don't make collision between getName() and name in the map)
+								RegionAddressRepositoryBinary rarb = new RegionAddressRepositoryBinary(pool, rName);
+								addressMap.put(rName, rarb);
+							}
+							if (index.hasTransportData()) {
+								transportRepositories.add(new TransportIndexRepositoryBinary(pool));
+							}
+							if (index.containsRouteData()) {
+								// routing contexts keep own reader while tiles are loaded (closed by closeRouteFiles)
+								routingMapFiles.put(f.getAbsolutePath(), pool.openDedicated());
+							}
+							if (index.containsPoiData()) {
+								amenityRepositories.add(new AmenityIndexRepositoryBinary(pool));
+							}
 						} catch (IOException e) {
 							log.error("Exception reading " + f.getAbsolutePath(), e); //$NON-NLS-1$
 							warnings.add(MessageFormat.format(context.getString(R.string.version_index_is_not_supported), f.getName())); //$NON-NLS-1$
@@ -678,15 +715,86 @@ public class ResourceManager {
 		log.debug("All map files initialized " + (System.currentTimeMillis() - val) + " ms");
 		if (files.size() > 0 && (!indCache.exists() || indCache.canWrite())) {
 			try {
-				cachedOsmandIndexes.writeToFile(indCache);
+				// protobuf cache is read by native library (java reads table)
+				cachedOsmandIndexes.writeToFile(indCache, NativeOsmandLibrary.getLoadedLibrary() != null);
 			} catch (Exception e) {
 				log.error("Index file could not be written", e);
 			}
 		}
+		try {
+			cachedOsmandIndexes.closeTable();
+		} catch (Exception e) {
+			log.error("Index table could not be written", e);
+		}
 		initMapBoundariesCacheNative();
 		return warnings;
 	}
 
+	private void loadRouteSubregionIndex(File f, BinaryMapIndexReader index) {
+		File dir = context.getAppPath(ROUTE_SUBREGION_INDEX_DIR);
+		dir.mkdirs();
+		try {
+			index.setRouteSubregionIndex(RouteSubregionIndex.loadOrCreate(index,
+					new File(dir, f.getName() + ROUTE_SUBREGION_INDEX_EXT)));
+		} catch (IOException e) {
+			// tile headers are read from subregion trees of the file
+			log.error("Route subregion index of " + f.getName() + " could not be created", e);
+		}
+	}
+
+	private List<Future<BinaryMapIndexReader>> openIndexReaders(final CachedOsmandIndexes cachedOsmandIndexes,
+			List<File> files) {
+		int threads = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+		ExecutorService executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "Indexing maps");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		List<Future<BinaryMapIndexReader>> readers = new ArrayList<Future<BinaryMapIndexReader>>(files.size());
+		try {
+			for (final File f : files) {
+				readers.add(executor.submit(new Callable<BinaryMapIndexReader>() {
+					@Override
+					public BinaryMapIndexReader call() throws Exception {
+						BinaryMapIndexReader reader = cachedOsmandIndexes.getReader(f);
+						if (reader.getVersion() == IndexConstants.BINARY_MAP_VERSION && reader.containsRouteData()) {
+							// readers of the file (created later by pool) share index of routing tile headers
+							loadRouteSubregionIndex(f, reader);
+						}
+						return reader;
+					}
+				}));
+			}
+		} finally {
+			// already submitted tasks are finished
+			executor.shutdown();
+		}
+		return readers;
+	}
+
+	private static BinaryMapIndexReader getIndexReader(Future<BinaryMapIndexReader> reader) throws IOException {
+		try {
+			return reader.get();
+		} catch (InterruptedException e) {
+			// keep interrupted state for the caller
+			Thread.currentThread().interrupt();
+			throw new IOException(e.getMessage());
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			} else if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			} else if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw new IOException(String.valueOf(cause));
+		}
+	}
+
 	public void initMapBoundariesCacheNative() {
 		File indCache = context.getAppPath(INDEXES_CACHE);
 		if (indCache.exists()) {
@@ -712,7 +820,17 @@ public class ResourceManager {
 	
 	public List<Amenity> searchAmenities(PoiLegacyFilter filter,
 			double topLatitude, double leftLongitude, double bottomLatitude, double rightLongitude, int zoom, final ResultMatcher<Amenity> matcher) {
-		final List<Amenity> amenities = new ArrayList<Amenity>();
+		return searchAmenities(filter, topLatitude, leftLongitude, bottomLatitude, rightLongitude, zoom, -1, matcher);
+	}
+
+	/**
+	 * Searches all files intersecting the area in parallel, results are published to matcher as soon as they are found
+	 * @param limit search is stopped when limit of results is reached (-1 no limit)
+	 */
+	public List<Amenity> searchAmenities(final PoiLegacyFilter filter,
+			double topLatitude, double leftLongitude, double bottomLatitude, double rightLongitude, final int zoom,
+			int limit, final ResultMatcher<Amenity> matcher) {
+		List<Amenity> amenities = new ArrayList<Amenity>();
 		searchAmenitiesInProgress = true;
 		try {
 			if (filter instanceof NameFinderPoiFilter || filter instanceof SearchByNameFilter) {
@@ -724,35 +842,76 @@ public class ResourceManager {
 							&& l.getLongitude() >= leftLongitude && l.getLongitude() <= rightLongitude) {
 						if (matcher == null || matcher.publish(a)) {
 							amenities.add(a);
+							if (limit > 0 && amenities.size() >= limit) {
+								break;
+							}
 						}
 					}
 				}
 			} else {
 				final String filterByName = filter.getFilterByName();
-				for (AmenityIndexRepository index : amenityRepositories) {
+				List<AmenityIndexRepository> repos = new ArrayList<AmenityIndexRepository>();
+				for (AmenityIndexRepository index : new ArrayList<AmenityIndexRepository>(amenityRepositories)) {
 					if (index.checkContains(topLatitude, leftLongitude, bottomLatitude, rightLongitude)) {
-						index.searchAmenities(MapUtils.get31TileNumberY(topLatitude),
-								MapUtils.get31TileNumberX(leftLongitude), MapUtils.get31TileNumberY(bottomLatitude),
-								MapUtils.get31TileNumberX(rightLongitude), zoom, filter, amenities,
-								new ResultMatcher<Amenity>() {
+						repos.add(index);
+					}
+				}
+				final int top31 = MapUtils.get31TileNumberY(topLatitude);
+				final int left31 = MapUtils.get31TileNumberX(leftLongitude);
+				final int bottom31 = MapUtils.get31TileNumberY(bottomLatitude);
+				final int right31 = MapUtils.get31TileNumberX(rightLongitude);
+				final MergedResultMatcher<Amenity> merged = new MergedResultMatcher<Amenity>(matcher, limit);
+				final ResultMatcher<Amenity> nameMatcher = new ResultMatcher<Amenity>() {
 
-									@Override
-									public boolean publish(Amenity a) {
-										if (checkNameFilter(a, filterByName)) {
-											if (matcher == null || matcher.publish(a)) {
-												amenities.add(a);
-											}
-										}
-										return false;
-									}
+					@Override
+					public boolean publish(Amenity a) {
+						if (checkNameFilter(a, filterByName)) {
+							merged.publish(a);
+						}
+						return false;
+					}
 
-									@Override
-									public boolean isCancelled() {
-										return matcher != null && matcher.isCancelled();
-									}
-								});
+					@Override
+					public boolean isCancelled() {
+						return merged.isCancelled();
 					}
+				};
+				List<Future<?>> tasks = new ArrayList<Future<?>>();
+				for (int i = 0; i < repos.size(); i++) {
+					final AmenityIndexRepository index = repos.get(i);
+					Runnable task = new Runnable() {
+						@Override
+						public void run() {
+							try {
+								if (!merged.isCancelled()) {
+									// repository is synchronized so every file is read by one thread at a time
+									index.searchAmenities(top31, left31, bottom31, right31, zoom, filter,
+											new ArrayList<Amenity>(), nameMatcher);
+								}
+							} catch (RuntimeException e) {
+								log.error("Error searching amenities", e);
+							} finally {
+								merged.taskFinished();
+							}
+						}
+					};
+					merged.taskStarted();
+					if (i == repos.size() - 1) {
+						// search the last file in current thread
+						task.run();
+					} else {
+						tasks.add(poiSearchExecutor.submit(task));
+					}
+				}
+				try {
+					amenities = merged.waitResults();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					amenities = merged.getResults();
 				}
+				// search is finished only when no task reads files
+				merged.cancel();
+				awaitTasks(tasks);
 			}
 		} finally {
 			searchAmenitiesInProgress = false;
@@ -760,6 +919,31 @@ public class ResourceManager {
 		return amenities;
 	}
 	
+	/**
+	 * Cancels tasks which are not started and waits for running ones
+	 */
+	private static void awaitTasks(List<Future<?>> tasks) {
+		boolean interrupted = false;
+		for (Future<?> f : tasks) {
+			f.cancel(false);
+			while (true) {
+				try {
+					f.get();
+					break;
+				} catch (CancellationException e) {
+					break;
+				} catch (ExecutionException e) {
+					break;
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
 	public boolean containsAmenityRepositoryToSearch(boolean searchByName){
 		for (AmenityIndexRepository index : amenityRepositories) {
 			if(searchByName){
@@ -953,6 +1137,14 @@ public class ResourceManager {
 		closeRouteFiles();
 		closeAddresses();
 		closeTransport();
+		closeReaderPools();
+	}
+	
+	public void closeReaderPools() {
+		for (BinaryMapReaderPool pool : readerPools) {
+			pool.close();
+		}
+		readerPools.clear();
 	}
 	
 	
@@ -966,7 +1158,7 @@ public class ResourceManager {
 			try {
 				BinaryMapIndexReader ind = routingMapFiles.remove(m);
 				if(ind != null){
-					ind.getRaf().close();
+					ind.close();
 				}
 			} catch(IOException e){
 				log.error("Error closing resource " + m, e);
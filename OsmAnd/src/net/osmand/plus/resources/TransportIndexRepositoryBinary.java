@@ -12,6 +12,7 @@ import java.util.List;
 import net.osmand.PlatformUtil;
 import net.osmand.ResultMatcher;
 import net.osmand.binary.BinaryMapIndexReader;
+import net.osmand.binary.BinaryMapReaderPool;
 import net.osmand.binary.BinaryMapIndexReader.SearchRequest;
 import net.osmand.data.LatLon;
 import net.osmand.data.TransportRoute;
@@ -22,7 +23,7 @@ import org.apache.commons.logging.Log;
 
 public class TransportIndexRepositoryBinary implements TransportIndexRepository {
 	private static final Log log = PlatformUtil.getLog(TransportIndexRepositoryBinary.class);
-	private final BinaryMapIndexReader file;
+	private final BinaryMapReaderPool readers;
 	
 	protected List<TransportStop> cachedObjects = new ArrayList<TransportStop>(); 
 	protected double cTopLatitude;
@@ -31,17 +32,17 @@ public class TransportIndexRepositoryBinary implements TransportIndexRepository
 	protected double cRightLongitude;
 	private int cZoom;
 
-	public TransportIndexRepositoryBinary(BinaryMapIndexReader file) {
-		this.file = file;
+	public TransportIndexRepositoryBinary(BinaryMapReaderPool readers) {
+		this.readers = readers;
 	}
 
 	@Override
 	public boolean checkContains(double latitude, double longitude) {
-		return file.containTransportData(latitude, longitude);
+		return readers.getMetadata().containTransportData(latitude, longitude);
 	}
 	@Override
 	public boolean checkContains(double topLatitude, double leftLongitude, double bottomLatitude, double rightLongitude) {
-		return file.containTransportData(topLatitude, leftLongitude, bottomLatitude, rightLongitude);
+		return readers.getMetadata().containTransportData(topLatitude, leftLongitude, bottomLatitude, rightLongitude);
 	}
 	
 	@Override
@@ -69,7 +70,9 @@ public class TransportIndexRepositoryBinary implements TransportIndexRepository
 	public List<TransportStop> searchTransportStops(double topLatitude, double leftLongitude, double bottomLatitude, double rightLongitude,
 			int limit, List<TransportStop> stops, ResultMatcher<TransportStop> matcher) {
 		long now = System.currentTimeMillis();
+		BinaryMapIndexReader file = null;
 		try {
+			file = readers.acquire();
 			file.searchTransportIndex(BinaryMapIndexReader.buildSearchTransportRequest(MapUtils.get31TileNumberX(leftLongitude),
 					MapUtils.get31TileNumberX(rightLongitude), MapUtils.get31TileNumberY(topLatitude), 
 					MapUtils.get31TileNumberY(bottomLatitude), limit, stops));
@@ -79,6 +82,8 @@ public class TransportIndexRepositoryBinary implements TransportIndexRepository
 			}
 		} catch (IOException e) {
 			log.error("Disk error ", e); //$NON-NLS-1$
+		} finally {
+			release(file);
 		}
 		return stops;
 	}
@@ -97,7 +102,9 @@ public class TransportIndexRepositoryBinary implements TransportIndexRepository
 		
 		MessageFormat f = new MessageFormat(format);
 		List<String> res = new ArrayList<String>();
+		BinaryMapIndexReader file = null;
 		try {
+			file = readers.acquire();
 			List<TransportRoute> routes = file.getTransportRouteDescriptions(stop);
 			if(routes != null){
 				for(TransportRoute route : routes){
@@ -106,6 +113,8 @@ public class TransportIndexRepositoryBinary implements TransportIndexRepository
 			}
 		} catch (IOException e) {
 			log.error("Disk error ", e); //$NON-NLS-1$
+		} finally {
+			release(file);
 		}
 
 		if (log.isDebugEnabled()) {
@@ -148,7 +157,9 @@ public class TransportIndexRepositoryBinary implements TransportIndexRepository
 				MapUtils.get31TileNumberX(rightLongitude), MapUtils.get31TileNumberY(topLatitude), MapUtils
 						.get31TileNumberY(bottomLatitude), -1, null);
 		List<RouteInfoLocation> listRoutes = new ArrayList<RouteInfoLocation>();
+		BinaryMapIndexReader file = null;
 		try {
+			file = readers.acquire();
 			List<TransportStop> stops = file.searchTransportIndex(req);
 
 			TIntObjectHashMap<TransportStop> stopsToProcess = new TIntObjectHashMap<TransportStop>();
@@ -220,6 +231,8 @@ public class TransportIndexRepositoryBinary implements TransportIndexRepository
 			}
 		} catch (IOException e) {
 			log.error("Disk error", e); //$NON-NLS-1$
+		} finally {
+			release(file);
 		}
 		return listRoutes;
 
@@ -228,16 +241,18 @@ public class TransportIndexRepositoryBinary implements TransportIndexRepository
 
 	@Override
 	public boolean acceptTransportStop(TransportStop stop) {
-		return file.transportStopBelongsTo(stop);
+		return readers.getMetadata().transportStopBelongsTo(stop);
+	}
+	
+	private void release(BinaryMapIndexReader file) {
+		if (file != null) {
+			readers.release(file);
+		}
 	}
 
 	@Override
 	public void close() {
-		try {
-			file.close();
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
+		// readers are closed with pool
 	}
 
 }
@@ -51,6 +51,8 @@ import net.osmand.router.GeneralRouter.RoutingParameterType;
 import net.osmand.router.PrecalculatedRouteDirection;
 import net.osmand.router.RoutePlannerFrontEnd;
 import net.osmand.router.RoutePlannerFrontEnd.RouteCalculationMode;
+import net.osmand.router.RouteResultCache;
+import net.osmand.router.RouteSearchTree;
 import net.osmand.router.RouteSegmentResult;
 import net.osmand.router.RoutingConfiguration;
 import net.osmand.router.RoutingConfiguration.Builder;
@@ -76,6 +78,10 @@ import btools.routingapp.IBRouterService;
 public class RouteProvider {
 	private static final org.apache.commons.logging.Log log = PlatformUtil.getLog(RouteProvider.class);
 	private static final String OSMAND_ROUTER = "OsmAndRouter";
+	// reverse search tree of last offline calculation (used to recalculate route after deviation)
+	private RouteSearchTree searchTree;
+	// routes calculated by java routing (native routing is not cached)
+	private final RouteResultCache routeResultCache = new RouteResultCache();
 	
 	public enum RouteService {
 			OSMAND("OsmAnd (offline)"), YOURS("YOURS"), 
@@ -618,6 +624,7 @@ public class RouteProvider {
 	protected RouteCalculationResult findVectorMapsRoute(final RouteCalculationParams params, boolean calcGPXRoute) throws IOException {
 		BinaryMapIndexReader[] files = params.ctx.getResourceManager().getRoutingMapFiles();
 		RoutePlannerFrontEnd router = new RoutePlannerFrontEnd(false);
+		router.setRouteResultCache(routeResultCache);
 		OsmandSettings settings = params.ctx.getSettings();
 		
 		RoutingConfiguration.Builder config = params.ctx.getDefaultRoutingConfig();
@@ -667,7 +674,50 @@ public class RouteProvider {
 		if (params.intermediates != null) {
 			inters  = new ArrayList<LatLon>(params.intermediates);
 		}
-		return calcOfflineRouteImpl(params, router, ctx, complexCtx, st, en, inters, precalculated);
+		// search tree is kept only by java routing to single destination
+		boolean keepSearchTree = lib == null && precalculated == null && inters.isEmpty();
+		RouteSearchTree tree = searchTree;
+		if (keepSearchTree && tree != null && params.previousToRecalculate != null) {
+			RouteCalculationResult res = recalculateFromSearchTree(params, router, tree, cf, st, en);
+			if (res != null) {
+				return res;
+			}
+		}
+		searchTree = null;
+		ctx.keepSearchTree = keepSearchTree;
+		if (complexCtx != null) {
+			complexCtx.keepSearchTree = keepSearchTree;
+		}
+		RouteCalculationResult res = calcOfflineRouteImpl(params, router, ctx, complexCtx, st, en, inters, precalculated);
+		if (res.isCalculated()) {
+			searchTree = complexCtx != null && complexCtx.searchTree != null ? complexCtx.searchTree : ctx.searchTree;
+		}
+		return res;
+	}
+
+	/**
+	 * @return null if route can't be calculated by short search to kept search tree
+	 */
+	private RouteCalculationResult recalculateFromSearchTree(RouteCalculationParams params, RoutePlannerFrontEnd router,
+			RouteSearchTree tree, RoutingConfiguration cf, LatLon st, LatLon en) throws IOException {
+		try {
+			List<RouteSegmentResult> result = router.searchRouteFromTree(tree, cf, st, en, params.calculationProgress);
+			if (result == null || result.isEmpty()) {
+				log.info("Route is not recalculated by search tree, use full calculation");
+				return null;
+			}
+			return new RouteCalculationResult(result, params.start, params.end, params.intermediates, params.ctx,
+					params.leftSide, tree.getContext().routingTime, params.gpxRoute == null ? null : params.gpxRoute.wpt);
+		} catch (RuntimeException e) {
+			log.error("Failed to recalculate route by search tree", e);
+			return null;
+		} catch (InterruptedException e) {
+			return interrupted();
+		}
+	}
+
+	public void clearSearchTree() {
+		searchTree = null;
 	}
 
 
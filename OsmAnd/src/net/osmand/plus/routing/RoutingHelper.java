@@ -161,6 +161,7 @@ public class RoutingHelper {
 			((RouteRecalculationThread) currentRunningJob).stopCalculation();
 		}
 		if (newFinalLocation == null) {
+			provider.clearSearchTree();
 			settings.FOLLOW_THE_ROUTE.set(false);
 			settings.FOLLOW_THE_GPX_ROUTE.set(null);
 			// clear last fixed location